@@ -11,6 +11,7 @@ TRUNCATE TABLE OH_EXAM;
 TRUNCATE TABLE OH_EXAMTYPE;
 TRUNCATE TABLE OH_MEDICALDSRINVENTORYROW;
 TRUNCATE TABLE OH_MEDICALDSRINVENTORY;
+TRUNCATE TABLE OH_MEDICALDSRLOTBALANCE;
 TRUNCATE TABLE OH_MEDICALDSRLOT;
 TRUNCATE TABLE OH_MEDICALDSRSTOCKMOV;
 TRUNCATE TABLE OH_MEDICALDSRSTOCKMOVTYPE;
@@ -39,7 +40,11 @@ TRUNCATE TABLE OH_PRICES;
 TRUNCATE TABLE OH_PRICELISTS;
 TRUNCATE TABLE OH_WARD;
 TRUNCATE TABLE OH_PATIENT_PROFILE_PHOTO;
+TRUNCATE TABLE OH_PATIENTPHOTOSTORAGE;
+TRUNCATE TABLE OH_PATIENTSEARCHTOKEN;
+TRUNCATE TABLE OH_PATIENTMERGE;
 TRUNCATE TABLE OH_PATIENT;
+TRUNCATE TABLE OH_PROGRESSIVECOUNTER;
 TRUNCATE TABLE OH_AGETYPE;
 TRUNCATE TABLE OH_HOSPITAL;
 TRUNCATE TABLE OH_GROUPMENU;
@@ -99,4 +99,13 @@ source step_a102_add_delete_btn_in_medicalstockward.sql;
 source step_a103_fix_MedicalDsrStockMovementTypeBrowser.sql;
 source step_a104_add_inventory_in_pharmacy.sql;
 source step_a105_medicaldsr_soft_deletion.sql;
-source step_a106_medicaldsrstock_control.sql;
\ No newline at end of file
+source step_a106_medicaldsrstock_control.sql;
+source step_a107_lot_balance_ledger.sql;
+source step_a108_lot_code_counter.sql;
+source step_a109_patient_search_index.sql;
+source step_a110_admission_current_by_patient_index.sql;
+source step_a111_progressive_counter.sql;
+source step_a112_admission_date_indexes.sql;
+source step_a113_patient_merge.sql;
+source step_a114_patient_photo_storage.sql;
+source step_a115_patient_profile_photo_thumbnail.sql;
\ No newline at end of file
@@ -0,0 +1,23 @@
+CREATE TABLE OH_MEDICALDSRLOTBALANCE (
+	LTB_LT_ID_A varchar (50) NOT NULL,
+	LTB_MDSR_ID int NOT NULL,
+	LTB_MAIN_QTY int NOT NULL default 0,
+	LTB_CREATED_BY VARCHAR(50) NULL DEFAULT NULL,
+  	LTB_CREATED_DATE datetime NULL DEFAULT NULL,
+  	LTB_LAST_MODIFIED_BY VARCHAR(50) NULL DEFAULT NULL,
+  	LTB_LAST_MODIFIED_DATE datetime NULL DEFAULT NULL,
+  	LTB_ACTIVE TINYINT(1) NOT NULL DEFAULT 1,
+	PRIMARY KEY (LTB_LT_ID_A),
+	INDEX IDX_LTB_MDSR_ID (LTB_MDSR_ID),
+	FOREIGN KEY (LTB_LT_ID_A) REFERENCES OH_MEDICALDSRLOT (LT_ID_A),
+	FOREIGN KEY (LTB_MDSR_ID) REFERENCES OH_MEDICALDSR (MDSR_ID)
+) ENGINE = INNODB DEFAULT CHARACTER SET utf8;
+
+-- one balance for every lot, including the ones without movements; types containing '+' are charges
+INSERT INTO OH_MEDICALDSRLOTBALANCE (LTB_LT_ID_A, LTB_MDSR_ID, LTB_MAIN_QTY)
+SELECT LT_ID_A, LT_MDSR_ID, COALESCE(SUM(IF(MMVT_TYPE LIKE '%+%', MMV_QTY, -MMV_QTY)), 0)
+FROM OH_MEDICALDSRLOT
+LEFT JOIN OH_MEDICALDSRSTOCKMOV ON MMV_LT_ID_A = LT_ID_A
+LEFT JOIN OH_MEDICALDSRSTOCKMOVTYPE ON MMV_MMVT_ID_A = MMVT_ID_A
+WHERE LT_MDSR_ID IS NOT NULL
+GROUP BY LT_ID_A, LT_MDSR_ID;
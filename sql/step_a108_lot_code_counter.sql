@@ -0,0 +1,7 @@
+CREATE TABLE OH_MEDICALDSRLOTCOUNTER (
+	LTC_ID int NOT NULL,
+	LTC_NEXT bigint NOT NULL,
+	PRIMARY KEY (LTC_ID)
+) ENGINE = INNODB DEFAULT CHARACTER SET utf8;
+
+INSERT INTO OH_MEDICALDSRLOTCOUNTER (LTC_ID, LTC_NEXT) VALUES (1, 1);
@@ -0,0 +1,18 @@
+-- Filled after the upgrade, in background, by PatientSearchIndexBuilder; searches scan the patient table until then
+CREATE TABLE OH_PATIENTSEARCHTOKEN (
+	PST_PAT_ID int NOT NULL,
+	PST_SUFFIX varchar(30) CHARACTER SET utf8 COLLATE utf8_bin NOT NULL,
+	PST_START TINYINT(1) NOT NULL DEFAULT 0,
+	PRIMARY KEY (PST_PAT_ID, PST_SUFFIX),
+	INDEX IDX_PST_SUFFIX (PST_SUFFIX, PST_PAT_ID),
+	FOREIGN KEY (PST_PAT_ID) REFERENCES OH_PATIENT (PAT_ID) ON DELETE CASCADE
+) ENGINE = INNODB DEFAULT CHARACTER SET utf8;
+
+CREATE TABLE OH_PATIENTSEARCHINDEX (
+	PSI_ID int NOT NULL,
+	PSI_BUILT TINYINT(1) NOT NULL DEFAULT 0,
+	PSI_LAST_PAT_ID int NOT NULL DEFAULT 0,
+	PRIMARY KEY (PSI_ID)
+) ENGINE = INNODB DEFAULT CHARACTER SET utf8;
+
+INSERT INTO OH_PATIENTSEARCHINDEX (PSI_ID, PSI_BUILT, PSI_LAST_PAT_ID) VALUES (1, 0, 0);
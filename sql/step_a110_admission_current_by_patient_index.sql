@@ -0,0 +1,2 @@
+ALTER TABLE OH_ADMISSION
+	ADD INDEX IDX_ADM_PAT_IN_DELETED (ADM_PAT_ID ASC, ADM_IN ASC, ADM_DELETED ASC);
@@ -0,0 +1,22 @@
+CREATE TABLE OH_PROGRESSIVECOUNTER (
+	PGC_DOMAIN varchar(20) NOT NULL,
+	PGC_KEY varchar(50) NOT NULL,
+	PGC_VALUE int NOT NULL DEFAULT 0,
+	PRIMARY KEY (PGC_DOMAIN, PGC_KEY)
+) ENGINE = INNODB DEFAULT CHARACTER SET utf8;
+
+-- keys are the ones built by OpdIoOperations, PatVacIoOperations and AdmissionIoOperations
+INSERT INTO OH_PROGRESSIVECOUNTER (PGC_DOMAIN, PGC_KEY, PGC_VALUE)
+	SELECT 'OPD', CAST(YEAR(OPD_DATE) AS CHAR), MAX(OPD_PROG_YEAR) FROM OH_OPD GROUP BY YEAR(OPD_DATE);
+INSERT INTO OH_PROGRESSIVECOUNTER (PGC_DOMAIN, PGC_KEY, PGC_VALUE)
+	SELECT 'OPD', '0', COALESCE(MAX(OPD_PROG_YEAR), 0) FROM OH_OPD;
+
+INSERT INTO OH_PROGRESSIVECOUNTER (PGC_DOMAIN, PGC_KEY, PGC_VALUE)
+	SELECT 'PATIENTVACCINE', CAST(YEAR(PAV_DATE) AS CHAR), MAX(PAV_YPROG) FROM OH_PATIENTVACCINE GROUP BY YEAR(PAV_DATE);
+INSERT INTO OH_PROGRESSIVECOUNTER (PGC_DOMAIN, PGC_KEY, PGC_VALUE)
+	SELECT 'PATIENTVACCINE', '0', COALESCE(MAX(PAV_YPROG), 0) FROM OH_PATIENTVACCINE;
+
+-- the July-June maternity seasons (MATERNITYRESTARTINJUNE) are seeded by the application on their first save
+INSERT INTO OH_PROGRESSIVECOUNTER (PGC_DOMAIN, PGC_KEY, PGC_VALUE)
+	SELECT 'ADMISSION', CONCAT(ADM_WRD_ID_A, ':', YEAR(ADM_DATE_ADM), '-01-01'), MAX(ADM_YPROG) FROM OH_ADMISSION
+	WHERE ADM_DELETED = 'N' GROUP BY ADM_WRD_ID_A, YEAR(ADM_DATE_ADM);
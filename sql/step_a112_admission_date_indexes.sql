@@ -0,0 +1,4 @@
+ALTER TABLE OH_ADMISSION
+	ADD INDEX IDX_ADM_DATE_ADM_PAT (ADM_DATE_ADM ASC, ADM_PAT_ID ASC),
+	ADD INDEX IDX_ADM_DATE_DIS_PAT (ADM_DATE_DIS ASC, ADM_PAT_ID ASC),
+	ADD INDEX IDX_ADM_WRD_DATE_ADM (ADM_WRD_ID_A ASC, ADM_DATE_ADM ASC);
@@ -0,0 +1,12 @@
+CREATE TABLE OH_PATIENTMERGE (
+	PMG_ID int NOT NULL AUTO_INCREMENT,
+	PMG_MERGED_PAT_ID int NOT NULL,
+	PMG_OBSOLETE_PAT_ID int NOT NULL,
+	PMG_MERGED_BY varchar(50) NULL DEFAULT NULL,
+	PMG_DATE datetime NOT NULL,
+	PMG_MERGED_ROWS varchar(1000) NULL DEFAULT NULL,
+	PRIMARY KEY (PMG_ID),
+	INDEX IDX_PMG_MERGED_PAT_ID (PMG_MERGED_PAT_ID),
+	FOREIGN KEY (PMG_MERGED_PAT_ID) REFERENCES OH_PATIENT (PAT_ID),
+	FOREIGN KEY (PMG_OBSOLETE_PAT_ID) REFERENCES OH_PATIENT (PAT_ID)
+) ENGINE = INNODB DEFAULT CHARACTER SET utf8;
@@ -0,0 +1,8 @@
+CREATE TABLE OH_PATIENTPHOTOSTORAGE (
+	PPS_ID int NOT NULL,
+	PPS_STORAGE varchar(255) NOT NULL,
+	PPS_FALLBACK_STORAGE varchar(255) NULL DEFAULT NULL,
+	PPS_MIGRATION_STATUS varchar(20) NULL DEFAULT NULL,
+	PPS_MIGRATION_LAST_PAT_ID int NOT NULL DEFAULT 0,
+	PRIMARY KEY (PPS_ID)
+) ENGINE = INNODB DEFAULT CHARACTER SET utf8;
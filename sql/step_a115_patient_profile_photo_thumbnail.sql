@@ -0,0 +1 @@
+ALTER TABLE OH_PATIENT_PROFILE_PHOTO ADD COLUMN PAT_THUMBNAIL BLOB NULL DEFAULT NULL AFTER PAT_PHOTO;
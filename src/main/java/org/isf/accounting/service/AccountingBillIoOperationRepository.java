@@ -25,7 +25,9 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 import org.isf.accounting.model.Bill;
+import org.isf.patient.model.Patient;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -67,4 +69,11 @@ public interface AccountingBillIoOperationRepository extends JpaRepository<Bill,
 
 	@Query("select count(b) from Bill b where active=1")
 	long countAllActiveBills();
-}
\ No newline at end of file
+
+	@Modifying(clearAutomatically = true, flushAutomatically = true)
+	@Query(value = "update Bill bill set bill.billPatient = :mergedPatient, "
+			+ "bill.lastModifiedBy = :lastModifiedBy, bill.lastModifiedDate = :lastModifiedDate where bill.billPatient = :obsoletePatient")
+	int updatePatientForMerge(@Param("mergedPatient") Patient mergedPatient, @Param("lastModifiedBy") String lastModifiedBy,
+			@Param("lastModifiedDate") LocalDateTime lastModifiedDate, @Param("obsoletePatient") Patient obsoletePatient);
+
+}
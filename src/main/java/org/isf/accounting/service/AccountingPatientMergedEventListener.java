@@ -21,11 +21,7 @@
  */
 package org.isf.accounting.service;
 
-import java.util.List;
-
-import org.isf.accounting.model.Bill;
 import org.isf.patient.model.PatientMergedEvent;
-import org.isf.utils.exception.OHServiceException;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -33,18 +29,18 @@ import org.springframework.transaction.annotation.Transactional;
 @Component
 public class AccountingPatientMergedEventListener {
 
-	private AccountingIoOperations accountingIoOperations;
+	private final AccountingBillIoOperationRepository accountingBillIoOperationRepository;
 
-	public AccountingPatientMergedEventListener(AccountingIoOperations accountingIoOperations) {
-		this.accountingIoOperations = accountingIoOperations;
+	public AccountingPatientMergedEventListener(AccountingBillIoOperationRepository accountingBillIoOperationRepository) {
+		this.accountingBillIoOperationRepository = accountingBillIoOperationRepository;
 	}
 
 	@EventListener
 	@Transactional
-	public void handle(PatientMergedEvent patientMergedEvent) throws OHServiceException {
-		List<Bill> bills = accountingIoOperations.getAllPatientsBills(patientMergedEvent.getObsoletePatient().getCode());
-		for (Bill bill : bills) {
-			bill.setBillPatient(patientMergedEvent.getMergedPatient());
-		}
+	public void handle(PatientMergedEvent patientMergedEvent) {
+		int rows = accountingBillIoOperationRepository.updatePatientForMerge(patientMergedEvent.getMergedPatient(), patientMergedEvent.getMergedBy(),
+				patientMergedEvent.getMergedDate(), patientMergedEvent.getObsoletePatient());
+		patientMergedEvent.addMergedRows("OH_BILLS", rows);
 	}
-}
\ No newline at end of file
+
+}
@@ -28,6 +28,7 @@ import java.util.List;
 
 import org.isf.admission.model.Admission;
 import org.isf.admission.model.AdmittedPatient;
+import org.isf.admission.model.WardCensusEntry;
 import org.isf.admission.service.AdmissionIoOperations;
 import org.isf.admtype.model.AdmissionType;
 import org.isf.disctype.model.DischargeType;
@@ -91,6 +92,22 @@ public class AdmissionBrowserManager {
 		return ioOperations.getAdmittedPatients(searchTerms, admissionRange, dischargeRange);
 	}
 
+	/**
+	 * Returns a page of the patients based on the applied filters, ordered by patient code descending.
+	 *
+	 * @param admissionRange the patient admission range
+	 * @param dischargeRange the patient discharge range
+	 * @param searchTerms the search terms to use for filter the patient list, {@code null} if no filter have to be applied.
+	 * @param lastPatientCode the code of the last patient of the previous page, {@code null} for the first page.
+	 * @param pageSize the maximum number of patients to return.
+	 * @return the filtered patient list.
+	 * @throws OHServiceException
+	 */
+	public List<AdmittedPatient> getAdmittedPatients(LocalDateTime[] admissionRange, LocalDateTime[] dischargeRange, String searchTerms,
+					Integer lastPatientCode, int pageSize) throws OHServiceException {
+		return ioOperations.getAdmittedPatients(searchTerms, admissionRange, dischargeRange, lastPatientCode, pageSize);
+	}
+
 	public AdmittedPatient loadAdmittedPatients(int patientId) {
 		return ioOperations.loadAdmittedPatient(patientId);
 	}
@@ -258,6 +275,18 @@ public class AdmissionBrowserManager {
 		return ioOperations.getUsedWardBed(wardId);
 	}
 
+	/**
+	 * Returns the current admissions of the specified ward, ordered by admission date.
+	 * The list comes from the ward census, that may lag a few seconds behind changes made by other clients.
+	 *
+	 * @param wardId the ward id.
+	 * @return the current admissions of the ward (could be empty).
+	 * @throws OHServiceException
+	 */
+	public List<WardCensusEntry> getWardCensus(String wardId) throws OHServiceException {
+		return ioOperations.getWardCensus(wardId);
+	}
+
 	/**
 	 * Deletes the patient photo.
 	 *
@@ -39,6 +39,7 @@ import jakarta.persistence.Transient;
 import jakarta.persistence.Version;
 import jakarta.validation.constraints.NotNull;
 
+import org.isf.admission.service.WardCensusListener;
 import org.isf.admtype.model.AdmissionType;
 import org.isf.disctype.model.DischargeType;
 import org.isf.disease.model.Disease;
@@ -58,7 +59,7 @@ entities={
 		@EntityResult(entityClass=Patient.class),
 		@EntityResult(entityClass=Admission.class)}
 )
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners({ AuditingEntityListener.class, WardCensusListener.class })
 @AttributeOverride(name="createdBy", column=@Column(name="ADM_CREATED_BY", updatable = false))
 @AttributeOverride(name="createdDate", column=@Column(name="ADM_CREATED_DATE", updatable = false))
 @AttributeOverride(name="lastModifiedBy", column=@Column(name="ADM_LAST_MODIFIED_BY"))
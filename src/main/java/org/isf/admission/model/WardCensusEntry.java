@@ -0,0 +1,71 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.admission.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read-only view of a current {@link Admission}, as kept in the ward census.
+ * <p>
+ * Entries are built directly from the query results, so none of the associations of the {@link Admission} is loaded.
+ */
+public class WardCensusEntry {
+
+	private final int admissionId;
+
+	private final String wardCode;
+
+	private final Integer patientCode;
+
+	private final String patientName;
+
+	private final LocalDateTime admDate;
+
+	public WardCensusEntry(int admissionId, String wardCode, Integer patientCode, String patientName, LocalDateTime admDate) {
+		this.admissionId = admissionId;
+		this.wardCode = wardCode;
+		this.patientCode = patientCode;
+		this.patientName = patientName;
+		this.admDate = admDate;
+	}
+
+	public int getAdmissionId() {
+		return admissionId;
+	}
+
+	public String getWardCode() {
+		return wardCode;
+	}
+
+	public Integer getPatientCode() {
+		return patientCode;
+	}
+
+	public String getPatientName() {
+		return patientName;
+	}
+
+	public LocalDateTime getAdmDate() {
+		return admDate;
+	}
+
+}
@@ -25,9 +25,12 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 import org.isf.admission.model.Admission;
+import org.isf.admission.model.WardCensusEntry;
+import org.isf.patient.model.Patient;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -50,9 +53,24 @@ public interface AdmissionIoOperationRepository extends JpaRepository<Admission,
 	List<Admission> findAllWhereWardAndDates(
 					@Param("ward") String ward, @Param("dateFrom") LocalDateTime dateFrom, @Param("dateTo") LocalDateTime dateTo);
 
+	@Query(value = "select max(a.yProg) FROM Admission a WHERE a.ward.code =:ward AND a.admDate >= :dateFrom AND a.admDate <= :dateTo AND a.deleted ='N'")
+	Integer findMaxYProgWhereWardAndDates(
+					@Param("ward") String ward, @Param("dateFrom") LocalDateTime dateFrom, @Param("dateTo") LocalDateTime dateTo);
+
+	@Query(value = "select count(a) > 0 FROM Admission a WHERE a.yProg = :yProg AND a.ward.code =:ward AND a.admDate >= :dateFrom AND a.admDate <= :dateTo AND a.deleted ='N'")
+	boolean existsYProgWhereWardAndDates(@Param("yProg") int yProg,
+					@Param("ward") String ward, @Param("dateFrom") LocalDateTime dateFrom, @Param("dateTo") LocalDateTime dateTo);
+
 	@Query(value = "select a FROM Admission a WHERE a.admitted =1 and a.ward.code = :ward and a.deleted = 'N'")
 	List<Admission> findAllWhereWardIn(@Param("ward") String ward);
 
+	@Query(value = "select count(a) FROM Admission a WHERE a.admitted =1 and a.ward.code = :ward and a.deleted = 'N'")
+	int countAllWhereWardIn(@Param("ward") String ward);
+
+	@Query(value = "select new org.isf.admission.model.WardCensusEntry(a.id, a.ward.code, a.patient.code, a.patient.name, a.admDate) "
+					+ "FROM Admission a WHERE a.admitted = 1 and a.deleted = 'N' ORDER BY a.admDate, a.id")
+	List<WardCensusEntry> findAllWardCensusEntries();
+
 	@Query(value = "select a FROM Admission a WHERE a.admDate >= :dateFrom AND a.admDate <= :dateTo and a.deleted = 'N'")
 	List<Admission> findAllWhereAdmissionDate(@Param("dateFrom") LocalDateTime dateFrom, @Param("dateTo") LocalDateTime dateTo);
 
@@ -67,4 +85,11 @@ public interface AdmissionIoOperationRepository extends JpaRepository<Admission,
 
 	@Query("select count(a) from Admission a where active=1 and deleted not like 'Y'")
 	long countAllActiveNotDeletedAdmissions();
-}
\ No newline at end of file
+
+	@Modifying(clearAutomatically = true, flushAutomatically = true)
+	@Query(value = "update versioned Admission adm set adm.patient = :mergedPatient, "
+			+ "adm.lastModifiedBy = :lastModifiedBy, adm.lastModifiedDate = :lastModifiedDate where adm.patient = :obsoletePatient")
+	int updatePatientForMerge(@Param("mergedPatient") Patient mergedPatient, @Param("lastModifiedBy") String lastModifiedBy,
+			@Param("lastModifiedDate") LocalDateTime lastModifiedDate, @Param("obsoletePatient") Patient obsoletePatient);
+
+}
@@ -23,7 +23,9 @@ package org.isf.admission.service;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
@@ -32,43 +34,52 @@ import jakarta.persistence.Query;
 import org.isf.admission.model.Admission;
 import org.isf.admission.model.AdmittedPatient;
 import org.isf.patient.model.Patient;
+import org.isf.patient.service.PatientSearchIndex;
 import org.isf.utils.exception.OHServiceException;
-import org.isf.utils.time.TimeTools;
 import org.springframework.transaction.annotation.Transactional;
 
 @Transactional
 public class AdmissionIoOperationRepositoryImpl implements AdmissionIoOperationRepositoryCustom {
 
-	private static String nativeQueryTerms = "SELECT * from OH_PATIENT as p  "
-					+ " left join (select * from OH_ADMISSION where ADM_IN = 1 and ( (ADM_DELETED='N') or (ADM_DELETED is null ) ) ) as a on p.PAT_ID = a.ADM_PAT_ID "
-					+ " where ( ( p.PAT_DELETED='N' ) or ( p.PAT_DELETED is null ) )"
-					+ " and ( lower(concat_ws(' ', p.PAT_ID, p.PAT_SNAME, p.PAT_FNAME, p.PAT_NAME, p.PAT_NOTE, p.PAT_TAXCODE, p.PAT_CITY, p.PAT_ADDR, p.PAT_TELE)) like :param0 ) "
-					+ " order by p.PAT_ID desc";
-
-	private static String nativeQueryRanges = "SELECT * from OH_PATIENT as p  "
-					+ " left join (select * from OH_ADMISSION where ADM_IN = 1 and ( (ADM_DELETED='N') or (ADM_DELETED is null ) ) ) as a on p.PAT_ID = a.ADM_PAT_ID "
-					+ " where (p.PAT_ID IN (SELECT ADM_PAT_ID from OH_ADMISSION where param1))"
-					+ " and ( lower(concat_ws(' ', p.PAT_ID, p.PAT_SNAME, p.PAT_FNAME, p.PAT_NAME, p.PAT_NOTE, p.PAT_TAXCODE, p.PAT_CITY, p.PAT_ADDR, p.PAT_TELE)) like :param0 ) "
-					+ " order by p.PAT_ID desc";
-
 	private static String nativeQueryCode = "SELECT * from OH_PATIENT as p  "
 					+ " left join (select * from OH_ADMISSION where ADM_IN = 1 and ( (ADM_DELETED='N') or (ADM_DELETED is null ) ) order by ADM_ID desc) as a on p.PAT_ID = a.ADM_PAT_ID "
 					+ " where p.PAT_ID = :param0 "
 					+ " and ( ( p.PAT_DELETED='N' ) or ( p.PAT_DELETED is null ) )";
 
-	private static final String YYYY_MM_DD = "yyyy-MM-dd";
+	private static final String NATIVE_QUERY_SELECT = "SELECT p.*, a.* from OH_PATIENT as p "
+					+ " left join OH_ADMISSION as a on a.ADM_PAT_ID = p.PAT_ID and a.ADM_IN = 1 and ( (a.ADM_DELETED='N') or (a.ADM_DELETED is null ) ) "
+					+ " where ( ( p.PAT_DELETED='N' ) or ( p.PAT_DELETED is null ) )";
+
+	private static final String NATIVE_QUERY_ORDER = " order by p.PAT_ID desc";
+
+	private static final char LIKE_ESCAPE = '!';
 
 	@PersistenceContext
 	private EntityManager entityManager;
 
+	private final PatientSearchIndex patientSearchIndex;
+
+	public AdmissionIoOperationRepositoryImpl(PatientSearchIndex patientSearchIndex) {
+		this.patientSearchIndex = patientSearchIndex;
+	}
+
 	@Override
 	public List<AdmittedPatient> findPatientAdmissionsBySearchAndDateRanges(String searchTerms, LocalDateTime[] admissionRange,
 					LocalDateTime[] dischargeRange) throws OHServiceException {
+		return findPatientAdmissionsBySearchAndDateRanges(searchTerms, admissionRange, dischargeRange, null, 0);
+	}
+
+	@Override
+	public List<AdmittedPatient> findPatientAdmissionsBySearchAndDateRanges(String searchTerms, LocalDateTime[] admissionRange,
+					LocalDateTime[] dischargeRange, Integer lastPatientCode, int pageSize) throws OHServiceException {
 		String[] terms = getTermsToSearch(searchTerms);
 		List<AdmittedPatient> admittedPatients = new ArrayList<>();
 		if (terms.length == 1) {
 			try {
 				int code = Integer.parseInt(terms[0]);
+				if (lastPatientCode != null && code >= lastPatientCode) {
+					return admittedPatients;
+				}
 				Query nativeQuery = this.entityManager.createNativeQuery(nativeQueryCode, "AdmittedPatient");
 				nativeQuery.setParameter("param0", code);
 
@@ -79,45 +90,91 @@ public class AdmissionIoOperationRepositoryImpl implements AdmissionIoOperationR
 			}
 		}
 
-		if ((admissionRange != null && (admissionRange[0] != null || admissionRange[1] != null)) ||
-						(dischargeRange != null && (dischargeRange[0] != null || dischargeRange[1] != null))) {
-			StringBuilder rangePredicate = new StringBuilder("( (ADM_DELETED='N') or (ADM_DELETED is null ) )");
-			if (admissionRange != null) {
-
-				if (admissionRange[0] != null) {
-					rangePredicate.append(" and ").append("DATE(ADM_DATE_ADM) >= '").append(TimeTools.formatDateTime(admissionRange[0], YYYY_MM_DD))
-									.append('\'');
-				}
-				if (admissionRange[1] != null) {
-					rangePredicate.append(" and ").append("DATE(ADM_DATE_ADM) <= '").append(TimeTools.formatDateTime(admissionRange[1], YYYY_MM_DD))
-									.append('\'');
-				}
+		StringBuilder sql = new StringBuilder(NATIVE_QUERY_SELECT);
+		Map<String, Object> parameters = new HashMap<>();
+
+		// every word must be contained in one of the patient fields, see PatientSearchIndex
+		List<String> words = PatientSearchIndex.getSearchWords(searchTerms);
+		boolean isIndexBuilt = !words.isEmpty() && patientSearchIndex.isBuilt();
+		StringBuilder anyWord = new StringBuilder();
+		StringBuilder allWords = new StringBuilder();
+		for (int i = 0; i < words.size(); i++) {
+			String word = words.get(i);
+			if (isIndexBuilt && PatientSearchIndex.isSearchable(List.of(word))) {
+				String like = "t.PST_SUFFIX like :word" + i + " escape '" + LIKE_ESCAPE + '\'';
+				anyWord.append(anyWord.length() == 0 ? "" : " or ").append(like);
+				allWords.append(allWords.length() == 0 ? "" : " and ").append("max(case when ").append(like).append(" then 1 else 0 end) = 1");
+				parameters.put("word" + i, escapeLike(word) + '%');
+			} else {
+				// index not built yet or word longer than the index entries: scan the fields
+				sql.append(" and lower(concat_ws(' ', p.PAT_ID, p.PAT_SNAME, p.PAT_FNAME, p.PAT_NAME, p.PAT_NOTE, p.PAT_TAXCODE, p.PAT_CITY, ")
+					.append("p.PAT_ADDR, p.PAT_TELE)) like :word").append(i).append(" escape '").append(LIKE_ESCAPE).append('\'');
+				parameters.put("word" + i, '%' + escapeLike(word) + '%');
 			}
-			if (dischargeRange != null) {
+		}
+		if (anyWord.length() > 0) {
+			sql.append(" and p.PAT_ID in (select t.PST_PAT_ID from OH_PATIENTSEARCHTOKEN as t where ").append(anyWord)
+				.append(" group by t.PST_PAT_ID having ").append(allWords).append(')');
+		}
 
-				if (dischargeRange[0] != null) {
-					rangePredicate.append(" and ").append("DATE(ADM_DATE_DIS) >= '").append(TimeTools.formatDateTime(dischargeRange[0], YYYY_MM_DD))
-									.append('\'');
-				}
-				if (dischargeRange[1] != null) {
-					rangePredicate.append(" and ").append("DATE(ADM_DATE_DIS) <= '").append(TimeTools.formatDateTime(dischargeRange[1], YYYY_MM_DD))
-									.append('\'');
-				}
+		// the ranges are whole days: compare the raw timestamps with [from day, day after to day) so that the date indexes can be used
+		List<String> rangePredicates = new ArrayList<>();
+		if (admissionRange != null) {
+			addRangePredicate(rangePredicates, parameters, "ADM_DATE_ADM >= :admissionFrom", "admissionFrom", startOfDay(admissionRange[0]));
+			addRangePredicate(rangePredicates, parameters, "ADM_DATE_ADM < :admissionTo", "admissionTo", startOfNextDay(admissionRange[1]));
+		}
+		if (dischargeRange != null) {
+			addRangePredicate(rangePredicates, parameters, "ADM_DATE_DIS >= :dischargeFrom", "dischargeFrom", startOfDay(dischargeRange[0]));
+			addRangePredicate(rangePredicates, parameters, "ADM_DATE_DIS < :dischargeTo", "dischargeTo", startOfNextDay(dischargeRange[1]));
+		}
+		if (!rangePredicates.isEmpty()) {
+			sql.append(" and p.PAT_ID in (select ADM_PAT_ID from OH_ADMISSION where ( (ADM_DELETED='N') or (ADM_DELETED is null ) )");
+			for (String rangePredicate : rangePredicates) {
+				sql.append(" and ").append(rangePredicate);
 			}
-			Query nativeQuery = this.entityManager.createNativeQuery(nativeQueryRanges.replace("param1", rangePredicate.toString()), "AdmittedPatient");
-			String paramTerms = like(terms);
-			nativeQuery.setParameter("param0", paramTerms);
+			sql.append(')');
+		}
+
+		// keyset: results are ordered by code descending, so the next page starts below the last code seen
+		if (lastPatientCode != null) {
+			sql.append(" and p.PAT_ID < :lastPatientCode");
+			parameters.put("lastPatientCode", lastPatientCode);
+		}
+		sql.append(NATIVE_QUERY_ORDER);
+
+		Query nativeQuery = this.entityManager.createNativeQuery(sql.toString(), "AdmittedPatient");
+		parameters.forEach(nativeQuery::setParameter);
+		if (pageSize > 0) {
+			nativeQuery.setMaxResults(pageSize);
+		}
+		return parseResultSet(admittedPatients, nativeQuery);
+	}
 
-			return parseResultSet(admittedPatients, nativeQuery);
+	private static void addRangePredicate(List<String> rangePredicates, Map<String, Object> parameters, String predicate, String parameter,
+					LocalDateTime date) {
+		if (date != null) {
+			rangePredicates.add(predicate);
+			parameters.put(parameter, date);
+		}
+	}
 
-		} else {
+	private static LocalDateTime startOfDay(LocalDateTime date) {
+		return date == null ? null : date.toLocalDate().atStartOfDay();
+	}
 
-			Query nativeQuery = this.entityManager.createNativeQuery(nativeQueryTerms, "AdmittedPatient");
-			String paramTerms = like(terms);
-			nativeQuery.setParameter("param0", paramTerms);
+	private static LocalDateTime startOfNextDay(LocalDateTime date) {
+		return date == null ? null : date.toLocalDate().plusDays(1).atStartOfDay();
+	}
 
-			return parseResultSet(admittedPatients, nativeQuery);
+	private static String escapeLike(String word) {
+		StringBuilder escaped = new StringBuilder(word.length());
+		for (char c : word.toCharArray()) {
+			if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+				escaped.append(LIKE_ESCAPE);
+			}
+			escaped.append(c);
 		}
+		return escaped.toString();
 	}
 
 	private List<AdmittedPatient> parseResultSet(List<AdmittedPatient> admittedPatients, Query nativeQuery) throws OHServiceException {
@@ -130,16 +187,6 @@ public class AdmissionIoOperationRepositoryImpl implements AdmissionIoOperationR
 		return admittedPatients;
 	}
 
-	private String like(String[] terms) {
-		StringBuilder sb = new StringBuilder("%");
-
-		// result of type "%term0%term1%...%termN%"
-		for (String term : terms) {
-			sb.append(term).append('%');
-		}
-		return sb.toString();
-	}
-
 	private String[] getTermsToSearch(String searchTerms) {
 		String[] terms = {};
 
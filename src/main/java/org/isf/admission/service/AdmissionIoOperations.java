@@ -22,7 +22,6 @@
 package org.isf.admission.service;
 
 import static java.time.temporal.TemporalAdjusters.firstDayOfYear;
-import static java.time.temporal.TemporalAdjusters.lastDayOfYear;
 
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -33,6 +32,7 @@ import java.util.List;
 import org.hibernate.Hibernate;
 import org.isf.admission.model.Admission;
 import org.isf.admission.model.AdmittedPatient;
+import org.isf.admission.model.WardCensusEntry;
 import org.isf.admtype.model.AdmissionType;
 import org.isf.admtype.service.AdmissionTypeIoOperationRepository;
 import org.isf.disctype.model.DischargeType;
@@ -41,11 +41,14 @@ import org.isf.generaldata.GeneralData;
 import org.isf.patient.model.Patient;
 import org.isf.patient.service.PatientIoOperationRepository;
 import org.isf.patient.service.PatientIoOperations;
+import org.isf.progressivecounter.service.ProgressiveCounterService;
 import org.isf.utils.db.TranslateOHServiceException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.pagination.PageInfo;
 import org.isf.utils.pagination.PagedResponse;
 import org.isf.utils.time.TimeTools;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -56,6 +59,10 @@ import org.springframework.transaction.annotation.Transactional;
 @TranslateOHServiceException
 public class AdmissionIoOperations {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionIoOperations.class);
+
+	private static final String YPROG_COUNTER = "ADMISSION";
+
 	private AdmissionIoOperationRepository repository;
 
 	private AdmissionTypeIoOperationRepository typeRepository;
@@ -64,14 +71,26 @@ public class AdmissionIoOperations {
 
 	private PatientIoOperationRepository patientRepository;
 
+	private ProgressiveCounterService progressiveCounterService;
+
+	private WardCensus wardCensus;
+
+	private PatientIoOperations patientIoOperations;
+
 	public AdmissionIoOperations(AdmissionIoOperationRepository admissionIoOperationRepository,
 	                             AdmissionTypeIoOperationRepository admissionTypeIoOperationRepository,
 	                             DischargeTypeIoOperationRepository dischargeTypeIoOperationRepository,
-	                             PatientIoOperationRepository patientIoOperationRepository) {
+	                             PatientIoOperationRepository patientIoOperationRepository,
+	                             ProgressiveCounterService progressiveCounterService,
+	                             WardCensus wardCensus,
+	                             PatientIoOperations patientIoOperations) {
 		this.repository = admissionIoOperationRepository;
 		this.typeRepository = admissionTypeIoOperationRepository;
 		this.dischargeRepository = dischargeTypeIoOperationRepository;
 		this.patientRepository = patientIoOperationRepository;
+		this.progressiveCounterService = progressiveCounterService;
+		this.wardCensus = wardCensus;
+		this.patientIoOperations = patientIoOperations;
 	}
 
 	/**
@@ -94,7 +113,7 @@ public class AdmissionIoOperations {
 	public List<AdmittedPatient> getAdmittedPatients(String searchTerms) throws OHServiceException {
 		LocalDateTime[] admissionRange = new LocalDateTime[2];
 		LocalDateTime[] dischargeRange = new LocalDateTime[2];
-		return repository.findPatientAdmissionsBySearchAndDateRanges(searchTerms, admissionRange, dischargeRange);
+		return getAdmittedPatients(searchTerms, admissionRange, dischargeRange);
 	}
 
 	/**
@@ -111,17 +130,44 @@ public class AdmissionIoOperations {
 		return repository.findPatientAdmissionsBySearchAndDateRanges(searchTerms, admissionRange, dischargeRange);
 	}
 
+	/**
+	 * Returns a page of the patients based on the applied filters, ordered by patient code descending.
+	 * <p>
+	 * Pages are read by keyset: the first page is requested with {@code lastPatientCode} {@code null}, the following ones
+	 * passing the code of the last patient of the previous page.
+	 *
+	 * @param searchTerms the search terms to use for filter the patient list, {@code null} if no filter is to be applied.
+	 * @param admissionRange (two-dimensions array) the patient admission dates range, both {@code null} if no filter is to be applied.
+	 * @param dischargeRange (two-dimensions array) the patient discharge dates range, both {@code null} if no filter is to be applied.
+	 * @param lastPatientCode the code of the last patient of the previous page, {@code null} for the first page.
+	 * @param pageSize the maximum number of patients to return.
+	 * @return the filtered patient list.
+	 * @throws OHServiceException if an error occurs during database request.
+	 */
+	public List<AdmittedPatient> getAdmittedPatients(String searchTerms, LocalDateTime[] admissionRange, LocalDateTime[] dischargeRange,
+					Integer lastPatientCode, int pageSize) throws OHServiceException {
+		return repository.findPatientAdmissionsBySearchAndDateRanges(searchTerms, admissionRange, dischargeRange, lastPatientCode, pageSize);
+	}
+
 	/**
 	 * Load patient together with the profile photo, or {@code null} if there is no patient with the given id
 	 */
 	public AdmittedPatient loadAdmittedPatient(int patientId) {
-		boolean isLoadPatientProfilePhotoFromDb = PatientIoOperations.LOAD_FROM_DB.equals(GeneralData.PATIENTPHOTOSTORAGE);
+		boolean isLoadPatientProfilePhotoFromDb = PatientIoOperations.LOAD_FROM_DB.equals(patientIoOperations.getProfilePhotoStorage());
 		Patient patient = patientRepository.findById(patientId).orElse(null);
 		if (patient == null) {
 			return null;
 		}
 		if (isLoadPatientProfilePhotoFromDb) {
 			Hibernate.initialize(patient.getPatientProfilePhoto());
+			if (patient.getPatientProfilePhoto() == null || patient.getPatientProfilePhoto().getPhoto() == null) {
+				// the photo may not have been moved to the database yet
+				try {
+					patientIoOperations.retrievePatientProfilePhoto(patient);
+				} catch (OHServiceException e) {
+					LOGGER.warn("Unable to load the photo of patient {}.", patientId, e);
+				}
+			}
 		}
 		Admission admission = repository.findOneWherePatientIn(patientId);
 		return new AdmittedPatient(patient, admission);
@@ -160,14 +206,18 @@ public class AdmissionIoOperations {
 	}
 
 	/**
-	 * Inserts a new admission.
+	 * Inserts a new admission; if its prog in the year was already taken in the ward, the next free one is assigned.
 	 *
 	 * @param admission the admission to insert.
 	 * @return the new/saved Admission object.
 	 * @throws OHServiceException if an error occurs during the insertion.
 	 */
 	public Admission newAdmission(Admission admission) throws OHServiceException {
-		return repository.save(admission);
+		reserveYProg(admission);
+		Admission savedAdmission = repository.save(admission);
+		updateYProgCounter(savedAdmission);
+		wardCensus.invalidate();
+		return savedAdmission;
 	}
 
 	/**
@@ -190,7 +240,10 @@ public class AdmissionIoOperations {
 	 * @throws OHServiceException if an error occurs.
 	 */
 	public Admission updateAdmission(Admission admission) throws OHServiceException {
-		return repository.save(admission);
+		Admission savedAdmission = repository.save(admission);
+		updateYProgCounter(savedAdmission);
+		wardCensus.invalidate();
+		return savedAdmission;
 	}
 
 	/**
@@ -221,30 +274,58 @@ public class AdmissionIoOperations {
 	 * @throws OHServiceException if an error occurs retrieving the value.
 	 */
 	public int getNextYProg(String wardId) throws OHServiceException {
-		int next = 1;
-		LocalDateTime now = getNow();
-		LocalDateTime first;
-		LocalDateTime last;
+		return getLastYProg(wardId, getYProgPeriodStart(wardId, getNow())) + 1;
+	}
 
+	/**
+	 * Returns the first instant of the numbering period (the year, or the season from July to June for the maternity ward when
+	 * {@link GeneralData#MATERNITYRESTARTINJUNE} is set) containing {@code date}; the period lasts one year.
+	 */
+	private LocalDateTime getYProgPeriodStart(String wardId, LocalDateTime date) {
 		if ("M".equalsIgnoreCase(wardId) && GeneralData.MATERNITYRESTARTINJUNE) {
-			if (now.getMonthValue() < Month.JUNE.getValue()) {
-				first = now.minusYears(1).withMonth(Month.JULY.getValue()).withDayOfMonth(1).with(LocalTime.MIN).truncatedTo(ChronoUnit.SECONDS);
-				last = now.withMonth(Month.JUNE.getValue()).withDayOfMonth(30).with(LocalTime.MAX).truncatedTo(ChronoUnit.SECONDS);
-			} else {
-				first = now.withMonth(Month.JULY.getValue()).withDayOfMonth(1).with(LocalTime.MIN).truncatedTo(ChronoUnit.SECONDS);
-				last = now.plusYears(1).withMonth(Month.JUNE.getValue()).withDayOfMonth(30).with(LocalTime.MAX).truncatedTo(ChronoUnit.SECONDS);
+			if (date.getMonthValue() < Month.JUNE.getValue()) {
+				return date.minusYears(1).withMonth(Month.JULY.getValue()).withDayOfMonth(1).with(LocalTime.MIN).truncatedTo(ChronoUnit.SECONDS);
 			}
-		} else {
-			first = now.with(firstDayOfYear()).with(LocalTime.MIN).truncatedTo(ChronoUnit.SECONDS);
-			last = now.with(lastDayOfYear()).with(LocalTime.MAX).truncatedTo(ChronoUnit.SECONDS);
+			return date.withMonth(Month.JULY.getValue()).withDayOfMonth(1).with(LocalTime.MIN).truncatedTo(ChronoUnit.SECONDS);
 		}
+		return date.with(firstDayOfYear()).with(LocalTime.MIN).truncatedTo(ChronoUnit.SECONDS);
+	}
+
+	private int getLastYProg(String wardId, LocalDateTime first) {
+		LocalDateTime last = first.plusYears(1).minusSeconds(1);
+		return progressiveCounterService.getLast(YPROG_COUNTER, getYProgCounterKey(wardId, first),
+						() -> repository.findMaxYProgWhereWardAndDates(wardId, first, last));
+	}
 
-		List<Admission> admissions = repository.findAllWhereWardAndDates(wardId, first, last);
-		if (!admissions.isEmpty()) {
-			next = admissions.get(0).getYProg() + 1;
+	private void reserveYProg(Admission admission) {
+		if (!hasYProg(admission)) {
+			return;
 		}
+		String wardId = admission.getWard().getCode();
+		LocalDateTime first = getYProgPeriodStart(wardId, admission.getAdmDate());
+		LocalDateTime last = first.plusYears(1).minusSeconds(1);
+		admission.setYProg(progressiveCounterService.reserve(YPROG_COUNTER, getYProgCounterKey(wardId, first), admission.getYProg(),
+						() -> repository.findMaxYProgWhereWardAndDates(wardId, first, last),
+						yProg -> repository.existsYProgWhereWardAndDates(yProg, wardId, first, last)));
+	}
+
+	private void updateYProgCounter(Admission admission) {
+		if (!hasYProg(admission)) {
+			return;
+		}
+		String wardId = admission.getWard().getCode();
+		LocalDateTime first = getYProgPeriodStart(wardId, admission.getAdmDate());
+		LocalDateTime last = first.plusYears(1).minusSeconds(1);
+		progressiveCounterService.update(YPROG_COUNTER, getYProgCounterKey(wardId, first), admission.getYProg(),
+						() -> repository.findMaxYProgWhereWardAndDates(wardId, first, last));
+	}
 
-		return next;
+	private static boolean hasYProg(Admission admission) {
+		return admission.getYProg() > 0 && admission.getDeleted() != 'Y' && admission.getWard() != null && admission.getAdmDate() != null;
+	}
+
+	private static String getYProgCounterKey(String wardId, LocalDateTime first) {
+		return wardId + ':' + first.toLocalDate();
 	}
 
 	/**
@@ -285,19 +366,33 @@ public class AdmissionIoOperations {
 			return null;
 		}
 		foundAdmission.setDeleted('Y');
+		wardCensus.invalidate();
 		return repository.save(foundAdmission);
 	}
 
 	/**
 	 * Counts the number of used bed for the specified ward.
+	 * <p>
+	 * The beds are counted in the database, so the result is exact also when admissions were just changed by other clients;
+	 * use {@link #getWardCensus(String)} for displaying occupancy.
 	 *
 	 * @param wardId the ward id.
 	 * @return the number of used beds.
 	 * @throws OHServiceException if an error occurs retrieving the bed count.
 	 */
 	public int getUsedWardBed(String wardId) throws OHServiceException {
-		List<Admission> admissionList = repository.findAllWhereWardIn(wardId);
-		return admissionList.size();
+		return repository.countAllWhereWardIn(wardId);
+	}
+
+	/**
+	 * Returns the current admissions of the specified ward from the {@link WardCensus}, ordered by admission date.
+	 *
+	 * @param wardId the ward id.
+	 * @return the current admissions of the ward (could be empty).
+	 * @throws OHServiceException
+	 */
+	public List<WardCensusEntry> getWardCensus(String wardId) throws OHServiceException {
+		return wardCensus.getAdmitted(wardId);
 	}
 
 	/**
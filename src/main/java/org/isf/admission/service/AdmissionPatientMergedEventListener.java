@@ -21,29 +21,30 @@
  */
 package org.isf.admission.service;
 
-import java.util.List;
-
-import org.isf.admission.model.Admission;
 import org.isf.patient.model.PatientMergedEvent;
-import org.isf.utils.exception.OHServiceException;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 @Component
 public class AdmissionPatientMergedEventListener {
 
-	private AdmissionIoOperations admissionIoOperations;
+	private final AdmissionIoOperationRepository admissionIoOperationRepository;
+
+	private final WardCensus wardCensus;
 
-	public AdmissionPatientMergedEventListener(AdmissionIoOperations admissionIoOperations) {
-		this.admissionIoOperations = admissionIoOperations;
+	public AdmissionPatientMergedEventListener(AdmissionIoOperationRepository admissionIoOperationRepository, WardCensus wardCensus) {
+		this.admissionIoOperationRepository = admissionIoOperationRepository;
+		this.wardCensus = wardCensus;
 	}
 
 	@EventListener
-	public void handle(PatientMergedEvent patientMergedEvent) throws OHServiceException {
-		List<Admission> admissions = admissionIoOperations.getAdmissions(patientMergedEvent.getObsoletePatient());
-		for (Admission admission : admissions) {
-			admission.setPatient(patientMergedEvent.getMergedPatient());
-		}
+	@Transactional
+	public void handle(PatientMergedEvent patientMergedEvent) {
+		int rows = admissionIoOperationRepository.updatePatientForMerge(patientMergedEvent.getMergedPatient(), patientMergedEvent.getMergedBy(),
+				patientMergedEvent.getMergedDate(), patientMergedEvent.getObsoletePatient());
+		patientMergedEvent.addMergedRows("OH_ADMISSION", rows);
+		wardCensus.invalidate();
 	}
 
 }
@@ -0,0 +1,93 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.admission.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.isf.admission.model.WardCensusEntry;
+import org.isf.utils.db.TransactionalSnapshotCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the current {@link org.isf.admission.model.Admission}s of every ward, so that bed occupancy and admitted
+ * patients lists can be read without querying the database each time.
+ * <p>
+ * The census is loaded with a single query for all the wards. It is dropped whenever admissions change through this
+ * application, either by the admission operations or, for the {@link org.isf.admission.model.Admission}s saved or
+ * deleted in any other way, by the {@link WardCensusListener}, and it is reloaded after a short time anyway.
+ */
+@Component
+public class WardCensus {
+
+	private static final Duration TIME_TO_LIVE = Duration.ofSeconds(30);
+
+	/** The census is kept as a whole, under a single key. */
+	private static final String ALL_WARDS = "*";
+
+	private final TransactionalSnapshotCache<String, Map<String, List<WardCensusEntry>>> snapshots = new TransactionalSnapshotCache<>(TIME_TO_LIVE);
+
+	private final AdmissionIoOperationRepository repository;
+
+	public WardCensus(AdmissionIoOperationRepository admissionIoOperationRepository) {
+		this.repository = admissionIoOperationRepository;
+	}
+
+	/**
+	 * Returns the number of beds currently occupied in the specified ward.
+	 * @param wardCode the ward code.
+	 * @return the number of current admissions in the ward.
+	 */
+	public int getOccupiedBeds(String wardCode) {
+		return getAdmitted(wardCode).size();
+	}
+
+	/**
+	 * Returns the current admissions of the specified ward, ordered by admission date.
+	 * @param wardCode the ward code.
+	 * @return the unmodifiable list of current admissions (could be empty).
+	 */
+	public List<WardCensusEntry> getAdmitted(String wardCode) {
+		return snapshots.get(ALL_WARDS, () -> group(repository.findAllWardCensusEntries()))
+						.getOrDefault(wardCode, Collections.emptyList());
+	}
+
+	/**
+	 * Drops the census, it will be reloaded on the next read.
+	 */
+	public void invalidate() {
+		snapshots.invalidate(ALL_WARDS);
+	}
+
+	private static Map<String, List<WardCensusEntry>> group(List<WardCensusEntry> entries) {
+		Map<String, List<WardCensusEntry>> byWard = new HashMap<>();
+		for (WardCensusEntry entry : entries) {
+			byWard.computeIfAbsent(entry.getWardCode(), wardCode -> new ArrayList<>()).add(entry);
+		}
+		byWard.replaceAll((wardCode, wardEntries) -> Collections.unmodifiableList(wardEntries));
+		return Collections.unmodifiableMap(byWard);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.admission.service;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+import org.isf.admission.model.Admission;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops the {@link WardCensus} whenever an {@link Admission} is written by JPA.
+ */
+@Component
+public class WardCensusListener {
+
+	private final WardCensus wardCensus;
+
+	// the listener is created with the EntityManagerFactory, that the repository of the census depends on
+	public WardCensusListener(@Lazy WardCensus wardCensus) {
+		this.wardCensus = wardCensus;
+	}
+
+	@PostPersist
+	@PostUpdate
+	@PostRemove
+	public void admissionChanged(Admission admission) {
+		wardCensus.invalidate();
+	}
+}
@@ -64,6 +64,31 @@ public class DicomManagerFactory {
 		return sizeLong;
 	}
 
+	/**
+	 * @return the number of workers of each stage of the DICOM import pipeline ({@code dicom.import.threads},
+	 * defaults to the number of processors)
+	 */
+	public static int getImportThreads() {
+		return getPositiveInt("dicom.import.threads", Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return the number of files waiting in front of each stage of the DICOM import pipeline ({@code dicom.import.queue.size},
+	 * defaults to 16)
+	 */
+	public static int getImportQueueSize() {
+		return getPositiveInt("dicom.import.queue.size", 16);
+	}
+
+	private static int getPositiveInt(String key, int defaultValue) {
+		try {
+			int value = Integer.parseInt(props.getProperty(key, String.valueOf(defaultValue)).trim());
+			return value > 0 ? value : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 	/**
 	 * Return the manager for DICOM acquired files
 	 *
@@ -21,6 +21,10 @@
  */
 package org.isf.dicom.manager;
 
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+
+import org.isf.dicom.model.DicomSeries;
 import org.isf.dicom.model.FileDicom;
 import org.isf.utils.exception.OHServiceException;
 
@@ -101,6 +105,27 @@ public interface DicomManagerInterface {
 	 */
 	FileDicom[] loadPatientFiles(int patientID) throws OHServiceException;
 
+	/**
+	 * Load the summary of the DICOM series of the patient, without thumbnails: the thumbnail of each series is
+	 * loaded on demand with {@link #loadThumbnail(long, int, String)}
+	 *
+	 * @param patientID
+	 * @return
+	 * @throws OHServiceException
+	 */
+	DicomSeries[] loadPatientSeries(int patientID) throws OHServiceException;
+
+	/**
+	 * Load the thumbnail of a file
+	 *
+	 * @param idFile
+	 * @param patientID
+	 * @param seriesNumber
+	 * @return the thumbnail or null if the file has none
+	 * @throws OHServiceException
+	 */
+	BufferedImage loadThumbnail(long idFile, int patientID, String seriesNumber) throws OHServiceException;
+
 	/**
 	 * Save the DICOM file and metadata
 	 *
@@ -108,4 +133,16 @@ public interface DicomManagerInterface {
 	 * @throws OHServiceException
 	 */
 	void saveFile(FileDicom dicom) throws OHServiceException;
+
+	/**
+	 * Stream the DICOM data of a file to the given output, without loading the whole file in memory
+	 *
+	 * @param idFile
+	 * @param patientID
+	 * @param seriesNumber
+	 * @param out, the stream to write the data to (not closed)
+	 * @return false if the file has no data
+	 * @throws OHServiceException
+	 */
+	boolean copyDicomData(long idFile, int patientID, String seriesNumber, OutputStream out) throws OHServiceException;
 }
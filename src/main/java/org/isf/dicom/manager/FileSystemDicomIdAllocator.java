@@ -0,0 +1,134 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.dicom.manager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocator of the file ids of {@link FileSystemDicomManager}, emulating a SQL sequence on the file system.
+ * <p>
+ * Ids are reserved in blocks: the highest reserved id is saved in {@code dicom.storage} (fsync and atomic rename, under a
+ * file lock shared by every application using the same archive), then the ids of the block are handed out from memory
+ * without locking. A crash can leave unused ids behind, but never hands out the same id twice.
+ */
+class FileSystemDicomIdAllocator {
+
+	static final String STORAGE_FILE = "dicom.storage";
+
+	private static final int BLOCK_SIZE = 50;
+
+	private final Path storage;
+
+	private final Path lockFile;
+
+	private volatile Block block = new Block(1, 0);
+
+	FileSystemDicomIdAllocator(File dir) {
+		this.storage = dir.toPath().resolve(STORAGE_FILE);
+		this.lockFile = dir.toPath().resolve(STORAGE_FILE + ".lock");
+	}
+
+	long nextId() throws IOException {
+		while (true) {
+			Block current = block;
+			long id = current.next.getAndIncrement();
+			if (id <= current.last) {
+				return id;
+			}
+			synchronized (this) {
+				if (block == current) {
+					block = reserve();
+				}
+			}
+		}
+	}
+
+	private Block reserve() throws IOException {
+		// file locks are held by the whole JVM: the class lock keeps the allocators of this JVM from overlapping
+		synchronized (FileSystemDicomIdAllocator.class) {
+			Files.createDirectories(storage.getParent());
+			try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileLock lock = lockChannel.lock()) {
+				long reserved = readReserved();
+				long last = reserved + BLOCK_SIZE;
+				writeReserved(last);
+				return new Block(reserved + 1, last);
+			}
+		}
+	}
+
+	private long readReserved() throws IOException {
+		if (!Files.exists(storage)) {
+			return 0;
+		}
+		try (InputStream inputStream = Files.newInputStream(storage); ObjectInputStream ois = new ObjectInputStream(inputStream)) {
+			return ois.readLong();
+		} catch (IOException exception) {
+			throw new IOException("Unreadable DICOM id sequence " + storage, exception);
+		}
+	}
+
+	private void writeReserved(long reserved) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeLong(reserved);
+		}
+		Path tmpFile = storage.resolveSibling(STORAGE_FILE + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(tmpFile, storage, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		try (FileChannel dirChannel = FileChannel.open(storage.getParent(), StandardOpenOption.READ)) {
+			dirChannel.force(true);
+		} catch (IOException e) {
+			// directories cannot be synced on every platform, the rename is still atomic
+		}
+	}
+
+	private static final class Block {
+
+		private final AtomicLong next;
+
+		private final long last;
+
+		private Block(long first, long last) {
+			this.next = new AtomicLong(first);
+			this.last = last;
+		}
+	}
+}
@@ -0,0 +1,331 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.dicom.manager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Catalog of the series stored by {@link FileSystemDicomManager} for a patient, saved in the {@code dicom.index} file of the
+ * patient folder. It answers series listings, frame counts and existence checks without scanning the series folders.
+ * <p>
+ * Saved files are appended to the {@code dicom.index.journal} file instead of rewriting the whole index for every
+ * file: the journal is folded into a new {@code dicom.index} once it holds as many entries as the index. The journal
+ * starts with the generation of the index it belongs to, so a journal left behind by an interrupted rewrite is ignored.
+ *
+ * @see FileSystemDicomManager#rebuildIndex(int)
+ */
+class FileSystemDicomIndex implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	static final String INDEX_FILE = "dicom.index";
+	static final String JOURNAL_FILE = INDEX_FILE + ".journal";
+
+	/**
+	 * Number of journal entries always allowed before the journal is folded into the index
+	 */
+	private static final int MIN_JOURNAL_ENTRIES = 64;
+
+	private static final int JOURNAL_HEADER = Long.BYTES;
+
+	private final Map<String, Series> series = new LinkedHashMap<>();
+
+	/**
+	 * Incremented every time the index file is written, it tells which journal belongs to it
+	 */
+	private long generation;
+
+	/**
+	 * Time stamp of the index file this catalog was read from or written to, 0 if there is no file
+	 */
+	private transient long lastModified;
+
+	/**
+	 * Bytes of the journal applied to this catalog, 0 if there is no journal of this generation
+	 */
+	private transient long journalLength;
+
+	private transient int journalEntries;
+
+	/**
+	 * Size of the journal file when this catalog last read or wrote it
+	 */
+	private transient long journalSize;
+
+	static class Series implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Instance UID of the files of the series, by file id
+		 */
+		private final TreeMap<Long, String> files = new TreeMap<>();
+
+		/**
+		 * Metadata of the first file, describing the series in the listings
+		 */
+		private Properties metadata;
+
+		long getFirstId() {
+			return files.firstKey();
+		}
+
+		Properties getMetadata() {
+			return metadata;
+		}
+
+		int getFrameCount() {
+			return files.size();
+		}
+	}
+
+	synchronized Long[] getFiles(String seriesNumber) {
+		Series found = series.get(seriesNumber);
+		return found == null ? new Long[0] : found.files.keySet().toArray(new Long[0]);
+	}
+
+	synchronized int getFrameCount(String seriesNumber) {
+		Series found = series.get(seriesNumber);
+		return found == null ? 0 : found.getFrameCount();
+	}
+
+	synchronized boolean contains(String seriesNumber) {
+		return series.containsKey(seriesNumber);
+	}
+
+	synchronized boolean contains(String seriesNumber, String instanceUID) {
+		Series found = series.get(seriesNumber);
+		return found != null && found.files.containsValue(instanceUID);
+	}
+
+	/**
+	 * @return the series by series number, in the order they were stored
+	 */
+	synchronized Map<String, Series> getSeries() {
+		Map<String, Series> copy = new LinkedHashMap<>();
+		series.forEach((seriesNumber, found) -> {
+			Series seriesCopy = new Series();
+			seriesCopy.files.putAll(found.files);
+			seriesCopy.metadata = found.metadata;
+			copy.put(seriesNumber, seriesCopy);
+		});
+		return copy;
+	}
+
+	synchronized void add(String seriesNumber, long idFile, String instanceUID, Properties metadata) {
+		Series found = series.computeIfAbsent(seriesNumber, number -> new Series());
+		found.files.put(idFile, instanceUID);
+		if (metadata != null && (found.metadata == null || found.getFirstId() == idFile)) {
+			found.metadata = metadata;
+		}
+	}
+
+	synchronized void remove(String seriesNumber) {
+		series.remove(seriesNumber);
+	}
+
+	synchronized boolean isEmpty() {
+		return series.isEmpty();
+	}
+
+	/**
+	 * @return {@code true} if the index file was not replaced since this catalog read or wrote it
+	 */
+	synchronized boolean isIndexCurrent(File patientDir) {
+		return lastModified != 0 && lastModified == new File(patientDir, INDEX_FILE).lastModified();
+	}
+
+	/**
+	 * @return {@code true} if neither the index file nor its journal changed since this catalog read or wrote them
+	 */
+	synchronized boolean isCurrent(File patientDir) {
+		return isIndexCurrent(patientDir) && journalSize == new File(patientDir, JOURNAL_FILE).length();
+	}
+
+	private synchronized int getFileCount() {
+		int count = 0;
+		for (Series found : series.values()) {
+			count += found.getFrameCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Read the index of a patient folder together with its journal
+	 *
+	 * @return the index, or {@code null} if the folder has no index file
+	 */
+	static FileSystemDicomIndex read(File patientDir) throws IOException {
+		File indexFile = new File(patientDir, INDEX_FILE);
+		if (!indexFile.exists()) {
+			return null;
+		}
+		long lastModified = indexFile.lastModified();
+		FileSystemDicomIndex index;
+		try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(indexFile))) {
+			index = (FileSystemDicomIndex) ois.readObject();
+		} catch (ClassNotFoundException | ClassCastException exception) {
+			throw new IOException("Unreadable DICOM index " + indexFile, exception);
+		}
+		index.lastModified = lastModified;
+		index.readJournal(patientDir);
+		return index;
+	}
+
+	/**
+	 * Apply the entries appended to the journal since this catalog last read it. An entry still being written by
+	 * another client is left for the next read.
+	 */
+	synchronized void readJournal(File patientDir) throws IOException {
+		byte[] tail;
+		try (FileChannel channel = FileChannel.open(new File(patientDir, JOURNAL_FILE).toPath(), StandardOpenOption.READ)) {
+			journalSize = channel.size();
+			if (journalSize < JOURNAL_HEADER) {
+				return;
+			}
+			if (journalLength == 0) {
+				ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER);
+				channel.read(header, 0);
+				if (header.getLong(0) != generation) {
+					return;
+				}
+				journalLength = JOURNAL_HEADER;
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, journalSize - journalLength));
+			while (buffer.hasRemaining() && channel.read(buffer, journalLength + buffer.position()) > 0) {
+				// read up to the end of the journal
+			}
+			tail = buffer.array();
+		} catch (NoSuchFileException exception) {
+			journalSize = 0;
+			return;
+		}
+		long start = journalLength;
+		ByteArrayInputStream bytes = new ByteArrayInputStream(tail);
+		DataInputStream in = new DataInputStream(bytes);
+		try {
+			while (bytes.available() > 0) {
+				String seriesNumber = in.readUTF();
+				long idFile = in.readLong();
+				String instanceUID = in.readUTF();
+				Properties metadata = null;
+				int metadataLength = in.readInt();
+				if (metadataLength > 0) {
+					byte[] metadataBytes = new byte[metadataLength];
+					in.readFully(metadataBytes);
+					metadata = new Properties();
+					metadata.load(new ByteArrayInputStream(metadataBytes));
+				}
+				add(seriesNumber, idFile, instanceUID, metadata);
+				journalLength = start + tail.length - bytes.available();
+				journalEntries++;
+			}
+		} catch (EOFException exception) {
+			// incomplete entry
+		}
+	}
+
+	/**
+	 * Add a file to the catalog and append it to the journal, folding the journal into the index file when it is as long
+	 * as the index. The caller holds the lock of the patient folder and has brought the catalog up to date.
+	 */
+	synchronized void append(File patientDir, String seriesNumber, long idFile, String instanceUID, Properties metadata) throws IOException {
+		add(seriesNumber, idFile, instanceUID, metadata);
+		if (lastModified == 0 || journalEntries >= Math.max(MIN_JOURNAL_ENTRIES, getFileCount())) {
+			write(patientDir);
+			return;
+		}
+		ByteArrayOutputStream entry = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(entry);
+		out.writeUTF(seriesNumber);
+		out.writeLong(idFile);
+		out.writeUTF(instanceUID);
+		if (metadata == null) {
+			out.writeInt(0);
+		} else {
+			ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+			metadata.store(metadataBytes, null);
+			out.writeInt(metadataBytes.size());
+			metadataBytes.writeTo(out);
+		}
+		out.flush();
+		try (FileChannel channel = FileChannel.open(new File(patientDir, JOURNAL_FILE).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE)) {
+			if (journalLength == 0) {
+				// missing or left behind by an interrupted rewrite
+				channel.truncate(0);
+				channel.write(ByteBuffer.allocate(JOURNAL_HEADER).putLong(0, generation));
+				journalLength = JOURNAL_HEADER;
+			} else {
+				// drop an entry left incomplete by a client that stopped while writing it
+				channel.truncate(journalLength);
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(entry.toByteArray());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer, journalLength + buffer.position());
+			}
+		}
+		journalLength += entry.size();
+		journalSize = journalLength;
+		journalEntries++;
+	}
+
+	/**
+	 * Write the index in the patient folder, replacing the previous one and its journal in a single step
+	 */
+	synchronized void write(File patientDir) throws IOException {
+		File indexFile = new File(patientDir, INDEX_FILE);
+		File tmpFile = new File(patientDir, INDEX_FILE + ".tmp");
+		generation++;
+		try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tmpFile))) {
+			oos.writeObject(this);
+		}
+		Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		// the journal now belongs to the previous generation: it is ignored even if the deletion does not happen
+		Files.deleteIfExists(new File(patientDir, JOURNAL_FILE).toPath());
+		lastModified = indexFile.lastModified();
+		journalLength = 0;
+		journalEntries = 0;
+		journalSize = 0;
+	}
+}
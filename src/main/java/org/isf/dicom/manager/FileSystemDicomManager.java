@@ -21,32 +21,44 @@
  */
 package org.isf.dicom.manager;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.Blob;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.imageio.ImageIO;
 import javax.sql.rowset.serial.SerialBlob;
 import javax.sql.rowset.serial.SerialException;
 
 import org.isf.dicom.model.DicomData;
+import org.isf.dicom.model.DicomSeries;
+import org.isf.dicom.model.FileBlob;
 import org.isf.dicom.model.FileDicom;
 import org.isf.generaldata.MessageBundle;
 import org.isf.utils.exception.OHDicomException;
@@ -70,6 +82,18 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 	private static String DICOM_DATE_FORMAT_ZONED = "EEE MMM dd HH:mm:ss z yyyy";
 	private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern(DICOM_DATE_FORMAT_ZONED, new Locale("en"));
 
+	/**
+	 * Locks serializing the changes to the index of a patient within this JVM, striped by patient folder and shared by
+	 * all the managers, so that the saves of different patients do not wait for each other
+	 */
+	private static final ReentrantLock[] INDEX_LOCKS = new ReentrantLock[64];
+
+	static {
+		for (int i = 0; i < INDEX_LOCKS.length; i++) {
+			INDEX_LOCKS[i] = new ReentrantLock();
+		}
+	}
+
 	public FileSystemDicomManager() {
 	}
 
@@ -77,8 +101,14 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 	 * Root dir for data storage
 	 */
 	private File dir;
+	private FileSystemDicomIdAllocator idAllocator;
 	private FilterSerieDetail dsf = new FilterSerieDetail();
 
+	/**
+	 * Series index of the patients, reloaded when their index file or its journal changes
+	 */
+	private final Map<Integer, FileSystemDicomIndex> indexes = new ConcurrentHashMap<>();
+
 	/**
 	 * Constructor
 	 * @throws OHDicomException 
@@ -86,6 +116,7 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 	public FileSystemDicomManager(Properties externalPrp) throws OHDicomException {
 		try {
 			dir = new File(externalPrp.getProperty("dicom.storage.filesystem"));
+			idAllocator = new FileSystemDicomIdAllocator(dir);
 			recourse(dir);
 		} catch (Exception exception) {
 			LOGGER.error(exception.getMessage(), exception);
@@ -99,6 +130,7 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 	 */
 	public void setDir(Properties externalPrp) {
 		this.dir = new File(externalPrp.getProperty("dicom.storage.filesystem"));
+		this.idAllocator = new FileSystemDicomIdAllocator(dir);
 	}
 
 	/**
@@ -116,29 +148,7 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 			if (seriesNumber == null || seriesNumber.trim().isEmpty() || seriesNumber.equalsIgnoreCase("null")) {
 				return null;
 			}
-			File df = getSerieDir(patientID, seriesNumber, false);
-
-			File[] files = df.listFiles(dsf);
-
-			long[] _longs = new long[files.length];
-
-			for (int i = 0; i < _longs.length; i++) {
-
-				try {
-					_longs[i] = Long.parseLong(files[i].getName().substring(0, files[i].getName().indexOf('.')));
-				} catch (Exception e) {
-				}
-			}
-
-			Arrays.sort(_longs);
-
-			Long[] _Longs = new Long[_longs.length];
-
-			for (int i = 0; i < _Longs.length; i++) {
-				_Longs[i] = _longs[i];
-			}
-
-			return _Longs;
+			return getIndex(patientID).getFiles(seriesNumber);
 		} catch (Exception exception) {
 			throw new OHDicomException(exception,
 			                           new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg", exception.getMessage())));
@@ -170,6 +180,7 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 			if (!deleteFolder.delete()) {
 				throw new OHDicomException(new OHExceptionMessage("File deletion for " + deleteFolder.getName() + " failed."));
 			}
+			removeFromIndex(patientId, seriesNumber);
 
 		} catch (Exception exception) {
 			throw new OHDicomException(exception,
@@ -223,13 +234,12 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 	@Override
 	public FileDicom[] loadPatientFiles(int patientId) throws OHDicomException {
 		try {
-			File df = getPatientDir(patientId);
-			File[] series = df.listFiles();
-			FileDicom[] db = new FileDicom[series.length];
+			Map<String, FileSystemDicomIndex.Series> series = getIndex(patientId).getSeries();
+			FileDicom[] db = new FileDicom[series.size()];
 
-			for (int i = 0; i < series.length; i++) {
-				long idFile = getFirst(series[i]);
-				db[i] = loadMetadata(idFile, patientId, series[i].getName());
+			int i = 0;
+			for (Map.Entry<String, FileSystemDicomIndex.Series> entry : series.entrySet()) {
+				db[i++] = loadMetadata(entry.getValue(), patientId, entry.getKey());
 			}
 
 			db = compact(db);
@@ -240,6 +250,53 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 		}
 	}
 
+	/**
+	 * Load the summary of the series of the patient from the index, without reading any thumbnail
+	 * 
+	 * @param patientId
+	 * @return
+	 * @throws OHDicomException 
+	 */
+	@Override
+	public DicomSeries[] loadPatientSeries(int patientId) throws OHDicomException {
+		try {
+			Map<String, FileSystemDicomIndex.Series> series = getIndex(patientId).getSeries();
+			DicomSeries[] summaries = new DicomSeries[series.size()];
+
+			int i = 0;
+			for (Map.Entry<String, FileSystemDicomIndex.Series> entry : series.entrySet()) {
+				FileDicom metadata = new FileDicom();
+				parseDicomProperties(metadata, entry.getValue().getMetadata());
+				summaries[i++] = new DicomSeries(entry.getValue().getFirstId(), patientId, metadata.getDicomSeriesInstanceUID(), entry.getKey(),
+						metadata.getDicomSeriesDate(), metadata.getModality(), metadata.getDicomSeriesDescription(), entry.getValue().getFrameCount());
+			}
+			return summaries;
+		} catch (Exception exception) {
+			throw new OHDicomException(exception,
+			                           new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg", exception.getMessage())));
+		}
+	}
+
+	/**
+	 * Load the thumbnail of a file
+	 * 
+	 * @param idFile
+	 * @param patientId
+	 * @param seriesNumber
+	 * @return the thumbnail or null if the file has none
+	 * @throws OHDicomException 
+	 */
+	@Override
+	public BufferedImage loadThumbnail(long idFile, int patientId, String seriesNumber) throws OHDicomException {
+		try {
+			File thumbnail = new File(getSerieDir(patientId, seriesNumber, false), idFile + ".thumn");
+			return thumbnail.exists() ? ImageIO.read(thumbnail) : null;
+		} catch (Exception exception) {
+			throw new OHDicomException(exception,
+			                           new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg", exception.getMessage())));
+		}
+	}
+
 	/**
 	 * Save the DICOM file and metadata
 	 * 
@@ -302,15 +359,10 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 				ps.flush();
 			}
 			File data = new File(df, idFile + ".data");
-			Blob blob = dicom.getDicomData().getData();
-			int blobLength = (int) blob.length();
-			byte[] blobAsBytes = blob.getBytes(1, blobLength);
-			save(data, blobAsBytes);
+			save(data, dicom.getDicomData().getData());
 			File thumn = new File(df, idFile + ".thumn");
-			blob = dicom.getDicomThumbnail();
-			blobLength = (int) blob.length();
-			blobAsBytes = blob.getBytes(1, blobLength);
-			save(thumn, blobAsBytes);
+			save(thumn, dicom.getDicomThumbnail());
+			addToIndex(patId, seriesNumber, idFile, dicomInstanceUID, properties);
 		} catch (Exception exception) {
 			throw new OHDicomException(exception,
 			                           new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg", exception.getMessage())));
@@ -318,18 +370,14 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 	}
 
 	/*
-	 * Load DICOM data + Thumbnail
+	 * Load DICOM data + Thumbnail of the first file of a series
 	 */
-	private FileDicom loadMetadata(long idFile, int patientId, String series) throws IOException, SQLException {
-		// Series must exist, so we need to check it and return null in case
-		if (series == null || series.trim().isEmpty() || series.equalsIgnoreCase("null")) {
-			return null;
-		}
+	private FileDicom loadMetadata(FileSystemDicomIndex.Series series, int patientId, String seriesNumber) throws IOException, SQLException {
 		FileDicom rv = new FileDicom();
-		File sd = getSerieDir(patientId, series, false);
-		rv.setFrameCount(getFramesCount(patientId, series));
-		parseDicomProperties(idFile, rv, sd);
-		rv.setDicomThumbnail(loadThumbnail(sd, idFile));
+		File sd = getSerieDir(patientId, seriesNumber, false);
+		rv.setFrameCount(series.getFrameCount());
+		parseDicomProperties(rv, series.getMetadata());
+		rv.setDicomThumbnail(loadThumbnail(sd, series.getFirstId()));
 		return rv;
 	}
 
@@ -351,7 +399,10 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 	}
 
 	private void parseDicomProperties(long idFile, FileDicom rv, File sd) throws IOException {
-		Properties p = loadMetadata(sd, idFile);
+		parseDicomProperties(rv, loadMetadata(sd, idFile));
+	}
+
+	private void parseDicomProperties(FileDicom rv, Properties p) {
 		try {
 			rv.setIdFile(Long.parseLong(p.getProperty("idFile")));
 		} catch (Exception e) {
@@ -410,23 +461,46 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 	}
 
 	/**
-	 * Load DICOM image
-	 * @throws SQLException 
-	 * @throws SerialException 
+	 * Load DICOM image, the bytes are read from the file only when the Blob is read, copied or saved
 	 */
-	private Blob loadDicomData(File sd, long idFile) throws IOException, SQLException {
+	private Blob loadDicomData(File sd, long idFile) throws IOException {
 		File fdc = new File(sd, idFile + ".data");
-		byte[] byteArray;
-		try (FileInputStream fis = new FileInputStream(fdc)) {
-			byteArray = new byte[fis.available()];
-			fis.read(byteArray);
+		if (!fdc.exists()) {
+			throw new FileNotFoundException(fdc.getPath());
+		}
+		return new FileBlob(fdc.toPath());
+	}
+
+	/**
+	 * Stream the DICOM data of a file
+	 *
+	 * @param idFile
+	 * @param patientId
+	 * @param seriesNumber
+	 * @param out
+	 * @return false if the file has no data
+	 * @throws OHDicomException
+	 */
+	@Override
+	public boolean copyDicomData(long idFile, int patientId, String seriesNumber, OutputStream out) throws OHDicomException {
+		if (seriesNumber == null || seriesNumber.trim().isEmpty() || seriesNumber.equalsIgnoreCase("null")) {
+			return false;
+		}
+		try {
+			File fdc = new File(getSerieDir(patientId, seriesNumber, false), idFile + ".data");
+			if (!fdc.exists()) {
+				return false;
+			}
+			Files.copy(fdc.toPath(), out);
+			return true;
+		} catch (Exception exception) {
+			throw new OHDicomException(exception,
+			                           new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg", exception.getMessage())));
 		}
-		return new SerialBlob(byteArray);
 	}
 
 	@Override
 	public boolean exist(FileDicom dicom) throws OHDicomException {
-		boolean rv = false;
 		try {
 			int patId = dicom.getPatId();
 			String serieNumber = dicom.getDicomSeriesNumber();
@@ -437,23 +511,11 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 			if (diuid == null || diuid.trim().isEmpty() || diuid.equalsIgnoreCase("null")) {
 				return false;
 			}
-			File df = getSerieDir(patId, serieNumber, true);
-			File[] files = df.listFiles();
-			int i = 0;
-			while (!rv && i < files.length) {
-				String nf = files[i].getName();
-				if (nf.endsWith(".properties")) {
-					Properties p = loadMetadata(files[i]);
-					String vl = p.getProperty("dicomInstanceUID");
-					rv = diuid.equals(vl);
-				}
-				i++;
-			}
+			return getIndex(patId).contains(serieNumber, diuid);
 		} catch (Exception exception) {
 			throw new OHDicomException(exception,
 			                           new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg", exception.getMessage())));
 		}
-		return rv;
 	}
 
 	private Properties loadMetadata(File sd, long idFile) throws IOException {
@@ -472,48 +534,11 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 		return p;
 	}
 
-	/**
-	 * frames counter
-	 */
-	private int getFramesCount(int patID, String serieNumber) throws IOException {
-		File df = getSerieDir(patID, serieNumber, false);
-		File[] files = df.listFiles(dsf);
-		return files.length;
-	}
-
 	/**
 	 * emulate SQL sequence on filesystem
 	 */
-	private synchronized long nextId() throws IOException {
-		long rv = 0;
-
-		try {
-			File i = new File(dir, "dicom.storage");
-			if (i.exists()) {
-				try (FileInputStream fis = new FileInputStream(i)) {
-					try (ObjectInputStream ois = new ObjectInputStream(fis)) {
-						rv = ois.readLong();
-					}
-				}
-			}
-
-			i.delete();
-
-			i = new File(dir, "dicom.storage");
-
-			rv++;
-
-			try (FileOutputStream fos = new FileOutputStream(i)) {
-				try (ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-					oos.writeLong(rv);
-					oos.flush();
-					fos.flush();
-				}
-			}
-		} catch (Exception exc) {
-
-		}
-		return rv;
+	private long nextId() throws IOException {
+		return idAllocator.nextId();
 	}
 
 	/**
@@ -558,39 +583,19 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 	}
 
 	/**
-	 * Save content in specified file
+	 * Save content in specified file, copying file backed content on the file system and streaming the rest
 	 * 
 	 * @param outFile - the file to write into
-	 * @param content - byte vector to write
+	 * @param content - the Blob to write
 	 */
-	private void save(File outFile, byte[] content) throws IOException {
-		try (FileOutputStream fos = new FileOutputStream(outFile)) {
-			fos.write(content);
-			fos.flush();
-		}
-	}
-
-	/**
-	 * Return the first idFile in the serie
-	 */
-	private long getFirst(File df) {
-		File[] files = df.listFiles(dsf);
-
-		long[] _longs = new long[files.length];
-
-		for (int i = 0; i < _longs.length; i++) {
-			try {
-				_longs[i] = Long.parseLong(files[i].getName().substring(0, files[i].getName().indexOf('.')));
-			} catch (Exception e) {
+	private void save(File outFile, Blob content) throws IOException, SQLException {
+		if (content instanceof FileBlob fileBlob) {
+			Files.copy(fileBlob.getPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			try (InputStream inputStream = content.getBinaryStream()) {
+				Files.copy(inputStream, outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
 			}
 		}
-
-		Arrays.sort(_longs);
-
-		if (_longs.length > 0) {
-			return _longs[0];
-		}
-		return -1;
 	}
 
 	private FileDicom[] compact(FileDicom[] db) {
@@ -655,12 +660,176 @@ public class FileSystemDicomManager implements DicomManagerInterface {
 
 	@Override
 	public boolean exist(int patientId, String seriesNumber) throws OHServiceException {
-		File seriesFolder = null;
 		try {
-			seriesFolder = getSerieDir(patientId, seriesNumber, false);
-		} catch (IOException e) {
+			return getIndex(patientId).contains(seriesNumber);
+		} catch (IOException exception) {
+			throw new OHDicomException(exception,
+			                           new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg", exception.getMessage())));
+		}
+	}
+
+	/**
+	 * Rebuild the series index of a patient from the series folders, for archives written before the index
+	 * existed or changed outside the application
+	 *
+	 * @param patientId
+	 * @throws OHDicomException
+	 */
+	public void rebuildIndex(int patientId) throws OHDicomException {
+		try {
+			updateIndex(patientId, true, index -> {
+			});
+		} catch (IOException exception) {
+			throw new OHDicomException(exception,
+			                           new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg", exception.getMessage())));
 		}
-		return seriesFolder.exists();
+	}
+
+	/**
+	 * Rebuild the series index of all the patients of the archive
+	 *
+	 * @return the number of patients indexed
+	 * @throws OHDicomException
+	 */
+	public int rebuildIndexes() throws OHDicomException {
+		File[] patientDirs = dir.listFiles(File::isDirectory);
+		int count = 0;
+		if (patientDirs != null) {
+			for (File patientDir : patientDirs) {
+				try {
+					rebuildIndex(Integer.parseInt(patientDir.getName()));
+					count++;
+				} catch (NumberFormatException e) {
+					LOGGER.debug("Skipping '{}', not a patient folder", patientDir.getName());
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return the series index of the patient, building it from the series folders the first time
+	 */
+	private FileSystemDicomIndex getIndex(int patId) throws IOException {
+		File patientDir = getPatientDir(patId);
+		FileSystemDicomIndex index = indexes.get(patId);
+		if (index != null && index.isCurrent(patientDir)) {
+			return index;
+		}
+		ReentrantLock lock = getIndexLock(patientDir);
+		lock.lock();
+		try {
+			index = indexes.get(patId);
+			if (index != null && index.isIndexCurrent(patientDir)) {
+				index.readJournal(patientDir);
+				return index;
+			}
+			index = readIndex(patId, patientDir);
+			if (index == null) {
+				return updateIndex(patId, true, rebuilt -> {
+				});
+			}
+			indexes.put(patId, index);
+			return index;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the index saved in the patient folder, {@code null} if it is missing or unreadable
+	 */
+	private FileSystemDicomIndex readIndex(int patId, File patientDir) {
+		try {
+			return FileSystemDicomIndex.read(patientDir);
+		} catch (IOException exception) {
+			LOGGER.warn("Rebuilding DICOM index of patient {}: {}", patId, exception.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Change the index of a patient holding the lock of the patient folder, shared by every application using the
+	 * archive, so that every change starts from what the other clients wrote
+	 */
+	private FileSystemDicomIndex updateIndex(int patId, boolean rebuild, IndexUpdate update) throws IOException {
+		File patientDir = getPatientDir(patId);
+		File indexFile = new File(patientDir, FileSystemDicomIndex.INDEX_FILE);
+		// file locks are held by the whole JVM: the patient lock keeps the managers of this JVM from overlapping
+		ReentrantLock lock = getIndexLock(patientDir);
+		lock.lock();
+		try (FileChannel lockChannel = FileChannel.open(new File(patientDir, FileSystemDicomIndex.INDEX_FILE + ".lock").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileLock fileLock = lockChannel.lock()) {
+			FileSystemDicomIndex index = null;
+			if (!rebuild) {
+				index = indexes.get(patId);
+				if (index != null && index.isIndexCurrent(patientDir)) {
+					index.readJournal(patientDir);
+				} else {
+					index = readIndex(patId, patientDir);
+				}
+			}
+			if (index == null) {
+				index = buildIndex(patientDir);
+				if (!index.isEmpty() || indexFile.exists()) {
+					index.write(patientDir);
+				}
+			}
+			update.apply(index);
+			indexes.put(patId, index);
+			return index;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static ReentrantLock getIndexLock(File patientDir) {
+		return INDEX_LOCKS[Math.floorMod(patientDir.getAbsolutePath().hashCode(), INDEX_LOCKS.length)];
+	}
+
+	private FileSystemDicomIndex buildIndex(File patientDir) throws IOException {
+		FileSystemDicomIndex index = new FileSystemDicomIndex();
+		File[] seriesDirs = patientDir.listFiles(File::isDirectory);
+		if (seriesDirs == null) {
+			return index;
+		}
+		for (File seriesDir : seriesDirs) {
+			File[] files = seriesDir.listFiles(dsf);
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				long idFile;
+				try {
+					idFile = Long.parseLong(file.getName().substring(0, file.getName().indexOf('.')));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				Properties p = loadMetadata(seriesDir, idFile);
+				index.add(seriesDir.getName(), idFile, p.getProperty("dicomInstanceUID"), p);
+			}
+		}
+		return index;
+	}
+
+	private void addToIndex(int patId, String seriesNumber, long idFile, String instanceUID, File properties) throws IOException {
+		File patientDir = getPatientDir(patId);
+		updateIndex(patId, false, index ->
+				index.append(patientDir, seriesNumber, idFile, instanceUID, index.contains(seriesNumber) ? null : loadMetadata(properties)));
+	}
+
+	private void removeFromIndex(int patId, String seriesNumber) throws IOException {
+		File patientDir = getPatientDir(patId);
+		updateIndex(patId, false, index -> {
+			index.remove(seriesNumber);
+			index.write(patientDir);
+		});
+	}
+
+	@FunctionalInterface
+	private interface IndexUpdate {
+
+		void apply(FileSystemDicomIndex index) throws IOException;
 	}
 
 }
@@ -22,16 +22,22 @@
 package org.isf.dicom.manager;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
@@ -65,6 +71,11 @@ import com.drew.metadata.exif.ExifIFD0Directory;
 
 /**
  * Manager for DICOM Files
+ * <p>
+ * A directory is imported through a pipeline: this thread scans the directory and hands every file
+ * to the decode stage, then the thumbnail stage and finally the persist stage. Each stage has its own
+ * workers and a bounded queue; when a queue is full the producing thread runs the task itself, so a
+ * slow stage throttles the ones before it instead of piling decoded images up in memory.
  *
  * @author Pietro Castellucci
  * @version 1.0.0
@@ -73,13 +84,30 @@ public class SourceFiles extends Thread {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SourceFiles.class);
 
+	/**
+	 * Locks serializing the save of files of the same series (the managers check for duplicates before saving),
+	 * striped by patient and series number so that different series are saved in parallel. A directory holding a single
+	 * series, the common case, is therefore persisted one file at a time: only decoding and scaling run in parallel.
+	 */
+	private static final ReentrantLock[] SERIES_LOCKS = new ReentrantLock[64];
+
+	static {
+		for (int i = 0; i < SERIES_LOCKS.length; i++) {
+			SERIES_LOCKS[i] = new ReentrantLock();
+		}
+	}
+
 	private File file;
 	private FileDicom fileDicom;
 	private int patient;
 	private int filesCount;
-	private int filesLoaded;
+	private volatile int filesLoaded;
+	private volatile boolean aborted;
 	private AbstractDicomLoader dicomLoader;
 	private AbstractThumbnailViewGui thumbnail;
+	private ThreadPoolExecutor decodeStage;
+	private ThreadPoolExecutor thumbnailStage;
+	private ThreadPoolExecutor persistStage;
 
 	public SourceFiles(FileDicom fileDicom, File sourceFile, int patient, int filesCount, AbstractThumbnailViewGui thumbnail, AbstractDicomLoader frame) {
 		this.patient = patient;
@@ -97,6 +125,7 @@ public class SourceFiles extends Thread {
 			loadDicomDir(fileDicom, file, patient);
 		} catch (Exception e) {
 			LOGGER.error("loadDicomDir", e);
+			allFilesDone();
 		}
 		dicomLoader.setVisible(false);
 		thumbnail.initialize();
@@ -108,7 +137,6 @@ public class SourceFiles extends Thread {
 	 * @throws Exception
 	 */
 	private void loadDicomDir(FileDicom fileDicom, File sourceFile, int patient) throws Exception {
-		File[] files = sourceFile.listFiles();
 		String seriesNumber = fileDicom.getDicomSeriesNumber();
 		if (seriesNumber == null || seriesNumber.isEmpty()) {
 			try {
@@ -118,28 +146,131 @@ public class SourceFiles extends Thread {
 				seriesNumber = "";
 			}
 		}
-		for (File value : files) {
-
-			try {
-				Thread.sleep(10);
-			} catch (Exception e) {}
+		DicomManagerFactory.getManager(); // loads dicom.properties
+		int threads = DicomManagerFactory.getImportThreads();
+		int queueSize = DicomManagerFactory.getImportQueueSize();
+		decodeStage = newStage("dicom-decode", threads, queueSize);
+		thumbnailStage = newStage("dicom-thumbnail", threads, queueSize);
+		persistStage = newStage("dicom-persist", threads, queueSize);
+		try {
+			scanDicomDir(fileDicom, sourceFile, patient);
+		} finally {
+			awaitStages();
+		}
+	}
 
+	/**
+	 * Scan stage: walks the directory and feeds the decode stage, every file with its own copy of the details. Once the
+	 * import is aborted the remaining files are only counted, so that the progress still reaches the number of files.
+	 */
+	private void scanDicomDir(FileDicom fileDicom, File sourceFile, int patient) {
+		File[] files = sourceFile.listFiles();
+		for (File value : files) {
 			if (!value.isDirectory()) {
-				try {
-					loadDicom(fileDicom, value, patient);
-				} catch (OHDicomException ohDicomException) {
-					LOGGER.error("loadDicomDir: {}", ohDicomException.getMessages().get(0).getMessage());
-				} catch (Exception e) {
-					throw e;
+				if (aborted || ".DS_Store".equals(value.getName())) {
+					fileDone();
+					continue;
 				}
-				filesLoaded++;
-				dicomLoader.setLoaded(filesLoaded);
+				DicomImport dicomImport = new DicomImport(copyOf(fileDicom), value, patient);
+				decodeStage.execute(() -> decode(dicomImport));
 			} else if (!".".equals(value.getName()) && !"..".equals(value.getName())) {
-				loadDicomDir(fileDicom, value, patient);
+				scanDicomDir(fileDicom, value, patient);
+			}
+		}
+	}
+
+	private void decode(DicomImport dicomImport) {
+		if (process(dicomImport, SourceFiles::decodeImage)) {
+			thumbnailStage.execute(() -> scale(dicomImport));
+		}
+	}
+
+	private void scale(DicomImport dicomImport) {
+		if (process(dicomImport, SourceFiles::scaleImage)) {
+			persistStage.execute(() -> persist(dicomImport));
+		}
+	}
+
+	private void persist(DicomImport dicomImport) {
+		if (process(dicomImport, SourceFiles::persistImage)) {
+			fileDone();
+		}
+	}
+
+	/**
+	 * Run a stage on a file; a file that fails leaves the pipeline and is counted as done. Unexpected errors
+	 * stop the import of the remaining files, as the sequential loader did.
+	 *
+	 * @return {@code true} if the file can go on to the next stage
+	 */
+	private boolean process(DicomImport dicomImport, DicomImportStage stage) {
+		if (!aborted) {
+			try {
+				stage.process(dicomImport);
+				return true;
+			} catch (OHDicomException ohDicomException) {
+				LOGGER.error("loadDicomDir: {}", ohDicomException.getMessages().get(0).getMessage());
+			} catch (Exception e) {
+				LOGGER.error("loadDicomDir", e);
+				aborted = true;
+			}
+		}
+		fileDone();
+		return false;
+	}
+
+	private synchronized void fileDone() {
+		filesLoaded++;
+		dicomLoader.setLoaded(filesLoaded);
+	}
+
+	/**
+	 * The import stopped before reaching every file: the files left are counted as done
+	 */
+	private synchronized void allFilesDone() {
+		filesLoaded = Math.max(filesLoaded, filesCount);
+		dicomLoader.setLoaded(filesLoaded);
+	}
+
+	/**
+	 * Stop the stages in pipeline order, each one once the previous has drained into it
+	 */
+	private void awaitStages() throws InterruptedException {
+		try {
+			for (ThreadPoolExecutor stage : List.of(decodeStage, thumbnailStage, persistStage)) {
+				stage.shutdown();
+				stage.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 			}
+		} finally {
+			decodeStage.shutdownNow();
+			thumbnailStage.shutdownNow();
+			persistStage.shutdownNow();
 		}
 	}
 
+	private static ThreadPoolExecutor newStage(String name, int threads, int queueSize) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+			Thread thread = new Thread(runnable, name + '-' + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * The details entered by the user apply to every file of the directory, but each file is saved on its own
+	 */
+	private static FileDicom copyOf(FileDicom fileDicom) {
+		FileDicom copy = new FileDicom(fileDicom.getPatId(), null, 0, fileDicom.getFileName(), fileDicom.getDicomAccessionNumber(),
+				fileDicom.getDicomInstitutionName(), fileDicom.getDicomPatientID(), fileDicom.getDicomPatientName(), fileDicom.getDicomPatientAddress(),
+				fileDicom.getDicomPatientAge(), fileDicom.getDicomPatientSex(), fileDicom.getDicomPatientBirthDate(), fileDicom.getDicomStudyId(),
+				fileDicom.getDicomStudyDate(), fileDicom.getDicomStudyDescription(), fileDicom.getDicomSeriesUID(), fileDicom.getDicomSeriesInstanceUID(),
+				fileDicom.getDicomSeriesNumber(), fileDicom.getDicomSeriesDescriptionCodeSequence(), fileDicom.getDicomSeriesDate(),
+				fileDicom.getDicomSeriesDescription(), fileDicom.getDicomInstanceUID(), fileDicom.getModality(), null, fileDicom.getDicomType());
+		copy.setFrameCount(fileDicom.getFrameCount());
+		return copy;
+	}
+
 	public static boolean checkSize(File sourceFile) throws OHDicomException {
 
 		return DicomManagerFactory.getMaxDicomSizeLong() > sourceFile.length();
@@ -242,248 +373,273 @@ public class SourceFiles extends Thread {
 	}
 
 	/**
-	 * Load dicom file
+	 * Load dicom file, running the pipeline stages one after the other on the calling thread
 	 *
 	 * @param dicomFileDetail
 	 * @param sourceFile
 	 * @param patient
 	 * @throws Exception
 	 */
-	@SuppressWarnings("unused")
-	public static synchronized void loadDicom(FileDicom dicomFileDetail, File sourceFile, int patient) throws Exception {
-		// installLibs();
-
+	public static void loadDicom(FileDicom dicomFileDetail, File sourceFile, int patient) throws Exception {
 		if (".DS_Store".equals(sourceFile.getName())) {
 			return;
 		}
+		DicomImport dicomImport = new DicomImport(dicomFileDetail, sourceFile, patient);
+		decodeImage(dicomImport);
+		scaleImage(dicomImport);
+		persistImage(dicomImport);
+	}
 
-		try {
-			boolean isJpeg = StringUtils.endsWithIgnoreCase(sourceFile.getName(), ".jpg") || StringUtils.endsWithIgnoreCase(sourceFile.getName(), ".jpeg");
-			boolean isDicom = StringUtils.endsWithIgnoreCase(sourceFile.getName(), ".dcm");
+	/**
+	 * Decode stage: read the image and, for DICOM files, the dataset
+	 */
+	private static void decodeImage(DicomImport dicomImport) throws Exception {
+		File sourceFile = dicomImport.sourceFile;
+		ImageReader reader;
+		ImageReadParam param;
+		BufferedImage originalImage;
+		Iterator<?> iter;
+		if (dicomImport.isJpeg) {
+			iter = ImageIO.getImageReadersByFormatName("jpeg");
+			if (!iter.hasNext()) {
+				LOGGER.error("Could not instantiate JPEGImageReader");
+				throw new IIOException("Could not instantiate JPEGImageReader");
+			}
+			reader = (ImageReader) iter.next();
+			ImageInputStream imageInputStream = ImageIO.createImageInputStream(sourceFile);
 
-			ImageReader reader;
-			ImageReadParam param;
-			BufferedImage originalImage;
-			Iterator<?> iter;
-			if (isJpeg) {
-				iter = ImageIO.getImageReadersByFormatName("jpeg");
-				if (!iter.hasNext()) {
-					LOGGER.error("Could not instantiate JPEGImageReader");
-					throw new IIOException("Could not instantiate JPEGImageReader");
-				}
-				reader = (ImageReader) iter.next();
-				ImageInputStream imageInputStream = ImageIO.createImageInputStream(sourceFile);
+			reader.setInput(imageInputStream, false);
 
-				reader.setInput(imageInputStream, false);
+			originalImage = null;
 
-				originalImage = null;
+			try {
+				originalImage = reader.read(0);
 
-				try {
-					originalImage = reader.read(0);
-
-					int orientation = checkOrientation(sourceFile);
-
-					if (orientation != 1) {
-						originalImage = autoRotate(originalImage, orientation);
-						String fileType = StringUtils.endsWithIgnoreCase(sourceFile.getName(), ".jpg") ? "jpg" : "jpeg";
-						File f = File.createTempFile(sourceFile.getName(), '.' + fileType);
-						ImageIO.write(originalImage, fileType, f);
-						sourceFile = f;
-					}
-				} catch (IIOException | RuntimeException exception) {
-					throw new OHDicomException(
-							new OHExceptionMessage(MessageBundle.formatMessage("angal.dicom.thefileisinanunknownformat.fmt.msg", sourceFile.getName())));
-				}
-				imageInputStream.close();
-			} else if (isDicom) {
-				iter = ImageIO.getImageReadersByFormatName("DICOM");
-				reader = (ImageReader) iter.next();
-				param = reader.getDefaultReadParam();
-				DicomInputStream dicomStream = null;
-				ByteArrayInputStream byteArrayInputStream = null;
-				try {
-					byte[] data = Files.readAllBytes(Paths.get(sourceFile.getAbsolutePath()));
-					byteArrayInputStream = new ByteArrayInputStream(data);
-					dicomStream = new DicomInputStream(byteArrayInputStream);
-					reader.setInput(dicomStream);
-					originalImage = reader.read(0, param);
-				} catch (IOException | RuntimeException exception) {
-					throw new OHDicomException(
-							new OHExceptionMessage(MessageBundle.formatMessage("angal.dicom.thefileisnotindicomformat.fmt.msg", sourceFile.getName())));
-				}
-				finally {
-					SafeClose.close(dicomStream);
-					SafeClose.close(byteArrayInputStream);
+				int orientation = checkOrientation(sourceFile);
+
+				if (orientation != 1) {
+					originalImage = autoRotate(originalImage, orientation);
+					String fileType = StringUtils.endsWithIgnoreCase(sourceFile.getName(), ".jpg") ? "jpg" : "jpeg";
+					File f = File.createTempFile(sourceFile.getName(), '.' + fileType);
+					ImageIO.write(originalImage, fileType, f);
+					dicomImport.sourceFile = f;
 				}
-			} else {
+			} catch (IIOException | RuntimeException exception) {
 				throw new OHDicomException(
 						new OHExceptionMessage(MessageBundle.formatMessage("angal.dicom.thefileisinanunknownformat.fmt.msg", sourceFile.getName())));
+			} finally {
+				reader.dispose();
+				imageInputStream.close();
 			}
-
-			BufferedImage scaled = Scalr.resize(originalImage, 100);
-
-			String accessionNumber = dicomFileDetail.getDicomAccessionNumber();
-			String instanceUID = dicomFileDetail.getDicomInstanceUID();
-			String institutionName = dicomFileDetail.getDicomInstitutionName();
-			String patientAddress = dicomFileDetail.getDicomPatientAddress();
-			String patientAge = dicomFileDetail.getDicomPatientAge();
-			String patientBirthDate = dicomFileDetail.getDicomPatientBirthDate();
-			String patientID = String.valueOf(patient);
-			String patientName = dicomFileDetail.getDicomPatientName();
-			String patientSex = dicomFileDetail.getDicomPatientSex();
-			LocalDateTime seriesDate = dicomFileDetail.getDicomSeriesDate();
-			String seriesDescription = dicomFileDetail.getDicomSeriesDescription();
-			String seriesDescriptionCodeSequence = dicomFileDetail.getDicomSeriesDescriptionCodeSequence();
-			String seriesNumber = dicomFileDetail.getDicomSeriesNumber();
-			String seriesInstanceUID = dicomFileDetail.getDicomSeriesInstanceUID();
-			String seriesUID = dicomFileDetail.getDicomSeriesUID();
-			LocalDateTime studyDate = dicomFileDetail.getDicomStudyDate();
-			String studyDescription = dicomFileDetail.getDicomStudyDescription();
-			String studyUID = dicomFileDetail.getDicomStudyId();
-			String modality = dicomFileDetail.getModality();
-			if (isJpeg) {
-				//overridden by the user
-				seriesDate = seriesDate != null ? seriesDate : FileTools.getTimestamp(sourceFile); //get last modified date (creation date)
-				studyDate = studyDate != null ? studyDate : FileTools.getTimestamp(sourceFile); //get last modified date (creation date)
-
-				//set by the system
-				seriesNumber = !seriesNumber.isEmpty() ? seriesNumber : generateSeriesNumber(patient);
-				seriesInstanceUID = !seriesInstanceUID.isEmpty() ? seriesInstanceUID : "<org_root>." + seriesNumber;
-				
-				//in loadDicomDir loop this is generated because is missing in JPG/JPEG files, reset to avoid duplicates
-				studyUID = ""; 
-			} else if (isDicom) {
-
-				DicomInputStream dicomInputStream;
-				try {
-					dicomInputStream = new DicomInputStream(sourceFile);
-				} catch (DicomStreamException dicomStreamException) {
-					throw new OHDicomException(
-							new OHExceptionMessage(MessageBundle.formatMessage("angal.dicom.thefileisnotindicomformat.fmt.msg", sourceFile.getName())));
-				}
-				Attributes attributes = dicomInputStream.readDataset();
-
-				//overridden by the user
-				seriesDescription = seriesDescription != null ? seriesDescription : attributes.getString(Tag.SeriesDescription);
-				studyDate = studyDate != null ? studyDate : getStudyDateTime(attributes);
-				seriesDate = seriesDate != null ? seriesDate : getSeriesDateTime(attributes);
-
-				//set by DICOM properties
-				patientID = attributes.getString(Tag.PatientID) == null ? patientID : attributes.getString(Tag.PatientID);
-				patientName = attributes.getString(Tag.PatientName) == null ? patientName : attributes.getString(Tag.PatientName);
-				patientAddress = attributes.getString(Tag.PatientAddress) == null ? patientAddress : attributes.getString(Tag.PatientAddress);
-				patientAge = attributes.getString(Tag.PatientAge) == null ? patientAge : attributes.getString(Tag.PatientAge);
-				//String acquisitionsInSeries = attributes.getString(Tag.AcquisitionsInSeries);
-				//String acquisitionsInStudy = attributes.getString(Tag.AcquisitionsInStudy);
-				//String applicatorDescription = attributes.getString(Tag.ApplicatorDescription);
-				//String dicomMediaRetrievalSequence = attributes.getString(Tag.DICOMMediaRetrievalSequence);
-				//String patientComments = dicomObject.attributes(Tag.PatientComments);
-				try {
-					patientBirthDate = attributes.getDate(Tag.PatientBirthDate) == null ?
-							patientBirthDate :
-							DateFormat.getDateInstance().format(attributes.getDate(Tag.PatientBirthDate));
-				} catch (Exception ecc) {
-				}
-				patientSex = attributes.getString(Tag.PatientSex) == null ? patientSex : attributes.getString(Tag.PatientSex);
-				modality = attributes.getString(Tag.Modality) == null ? modality : attributes.getString(Tag.Modality);
-				studyUID = attributes.getString(Tag.StudyInstanceUID) == null ? studyUID : attributes.getString(Tag.StudyInstanceUID);
-				accessionNumber = attributes.getString(Tag.AccessionNumber) == null ? accessionNumber : attributes.getString(Tag.AccessionNumber);
-				studyDescription = attributes.getString(Tag.StudyDescription) == null ? studyDescription : attributes.getString(Tag.StudyDescription);
-				seriesUID = attributes.getString(Tag.SeriesInstanceUID) == null ? seriesUID : attributes.getString(Tag.SeriesInstanceUID);
-				seriesInstanceUID = attributes.getString(Tag.SeriesInstanceUID) == null ? seriesInstanceUID : attributes.getString(Tag.SeriesInstanceUID);
-				seriesNumber = attributes.getString(Tag.SeriesNumber) == null ? generateSeriesNumber(patient) : attributes.getString(Tag.SeriesNumber);
-				seriesDescriptionCodeSequence = attributes.getString(Tag.SeriesDescriptionCodeSequence) == null ?
-						seriesDescriptionCodeSequence :
-						attributes.getString(Tag.SeriesDescriptionCodeSequence);
-				institutionName = attributes.getString(Tag.InstitutionName) == null ? institutionName : attributes.getString(Tag.InstitutionName);
-				instanceUID = attributes.getString(Tag.SOPInstanceUID) == null ? instanceUID : attributes.getString(Tag.SOPInstanceUID);
-			}
-
-			// Loaded... Update dicomFileDetail
-			if (sourceFile != null) {
-				dicomFileDetail.setDicomData(sourceFile);
-			}
-			if (sourceFile.getName() != null) {
-				dicomFileDetail.setFileName(sourceFile.getName());
-			}
-			if (accessionNumber != null) {
-				dicomFileDetail.setDicomAccessionNumber(accessionNumber);
-			}
-			if (instanceUID != null) {
-				dicomFileDetail.setDicomInstanceUID(instanceUID);
-			}
-			if (institutionName != null) {
-				dicomFileDetail.setDicomInstitutionName(institutionName);
-			}
-			if (patientAddress != null) {
-				dicomFileDetail.setDicomPatientAddress(patientAddress);
-			}
-			if (patientAge != null) {
-				dicomFileDetail.setDicomPatientAge(patientAge);
-			}
-			if (patientBirthDate != null) {
-				dicomFileDetail.setDicomPatientBirthDate(patientBirthDate);
-			}
-			if (patientID != null) {
-				dicomFileDetail.setDicomPatientID(patientID);
-			}
-			if (patientName != null) {
-				dicomFileDetail.setDicomPatientName(patientName);
-			}
-			if (patientSex != null) {
-				dicomFileDetail.setDicomPatientSex(patientSex);
-			}
-			if (seriesDate != null) {
-				dicomFileDetail.setDicomSeriesDate(seriesDate);
-			}
-			if (seriesDescription != null) {
-				dicomFileDetail.setDicomSeriesDescription(seriesDescription);
-			}
-			if (seriesDescriptionCodeSequence != null) {
-				dicomFileDetail.setDicomSeriesDescriptionCodeSequence(seriesDescriptionCodeSequence);
-			}
-			if (seriesInstanceUID != null) {
-				dicomFileDetail.setDicomSeriesInstanceUID(seriesInstanceUID);
-			}
-			if (seriesNumber != null) {
-				dicomFileDetail.setDicomSeriesNumber(seriesNumber);
-			}
-			if (seriesUID != null) {
-				dicomFileDetail.setDicomSeriesUID(seriesUID);
-			}
-			if (studyDate != null) {
-				dicomFileDetail.setDicomStudyDate(studyDate);
-			}
-			if (studyDescription != null) {
-				dicomFileDetail.setDicomStudyDescription(studyDescription);
-			}
-			if (studyUID != null) {
-				dicomFileDetail.setDicomStudyId(studyUID);
-			}
-			if (patient != 0) {
-				dicomFileDetail.setPatId(patient);
+		} else if (dicomImport.isDicom) {
+			iter = ImageIO.getImageReadersByFormatName("DICOM");
+			reader = (ImageReader) iter.next();
+			param = reader.getDefaultReadParam();
+			DicomInputStream dicomStream = null;
+			// the file is streamed instead of copied on the heap, and closed as soon as it is read so that the user can
+			// move or delete it right after the import
+			try {
+				dicomStream = new DicomInputStream(new BufferedInputStream(Files.newInputStream(sourceFile.toPath())));
+				reader.setInput(dicomStream);
+				originalImage = reader.read(0, param);
+			} catch (IOException | RuntimeException exception) {
+				throw new OHDicomException(
+						new OHExceptionMessage(MessageBundle.formatMessage("angal.dicom.thefileisnotindicomformat.fmt.msg", sourceFile.getName())));
 			}
-			if (scaled != null) {
-				dicomFileDetail.setDicomThumbnail(scaled);
+			finally {
+				reader.dispose();
+				SafeClose.close(dicomStream);
 			}
-			if (modality != null) {
-				dicomFileDetail.setModality(modality);
+			// the pixel data is not needed to read the properties
+			try (DicomInputStream dicomInputStream = new DicomInputStream(new BufferedInputStream(Files.newInputStream(sourceFile.toPath())))) {
+				dicomImport.attributes = dicomInputStream.readDatasetUntilPixelData();
+			} catch (DicomStreamException dicomStreamException) {
+				throw new OHDicomException(
+						new OHExceptionMessage(MessageBundle.formatMessage("angal.dicom.thefileisnotindicomformat.fmt.msg", sourceFile.getName())));
 			}
-			dicomFileDetail.setIdFile(0); //it will trigger the DB save with SqlDicomManager
+		} else {
+			throw new OHDicomException(
+					new OHExceptionMessage(MessageBundle.formatMessage("angal.dicom.thefileisinanunknownformat.fmt.msg", sourceFile.getName())));
+		}
+		dicomImport.image = originalImage;
+	}
+
+	/**
+	 * Thumbnail stage: scale the image and release the full resolution one
+	 */
+	private static void scaleImage(DicomImport dicomImport) {
+		dicomImport.scaled = Scalr.resize(dicomImport.image, 100);
+		dicomImport.image = null;
+	}
+
+	/**
+	 * Persist stage: merge the details with the DICOM properties and save the file, holding the lock of its series
+	 */
+	private static void persistImage(DicomImport dicomImport) throws Exception {
+		FileDicom dicomFileDetail = dicomImport.dicomFileDetail;
+		File sourceFile = dicomImport.sourceFile;
+		int patient = dicomImport.patient;
+		BufferedImage scaled = dicomImport.scaled;
+
+		String accessionNumber = dicomFileDetail.getDicomAccessionNumber();
+		String instanceUID = dicomFileDetail.getDicomInstanceUID();
+		String institutionName = dicomFileDetail.getDicomInstitutionName();
+		String patientAddress = dicomFileDetail.getDicomPatientAddress();
+		String patientAge = dicomFileDetail.getDicomPatientAge();
+		String patientBirthDate = dicomFileDetail.getDicomPatientBirthDate();
+		String patientID = String.valueOf(patient);
+		String patientName = dicomFileDetail.getDicomPatientName();
+		String patientSex = dicomFileDetail.getDicomPatientSex();
+		LocalDateTime seriesDate = dicomFileDetail.getDicomSeriesDate();
+		String seriesDescription = dicomFileDetail.getDicomSeriesDescription();
+		String seriesDescriptionCodeSequence = dicomFileDetail.getDicomSeriesDescriptionCodeSequence();
+		String seriesNumber = dicomFileDetail.getDicomSeriesNumber();
+		String seriesInstanceUID = dicomFileDetail.getDicomSeriesInstanceUID();
+		String seriesUID = dicomFileDetail.getDicomSeriesUID();
+		LocalDateTime studyDate = dicomFileDetail.getDicomStudyDate();
+		String studyDescription = dicomFileDetail.getDicomStudyDescription();
+		String studyUID = dicomFileDetail.getDicomStudyId();
+		String modality = dicomFileDetail.getModality();
+		if (dicomImport.isJpeg) {
+			//overridden by the user
+			seriesDate = seriesDate != null ? seriesDate : FileTools.getTimestamp(sourceFile); //get last modified date (creation date)
+			studyDate = studyDate != null ? studyDate : FileTools.getTimestamp(sourceFile); //get last modified date (creation date)
+
+			//set by the system
+			seriesNumber = !seriesNumber.isEmpty() ? seriesNumber : generateSeriesNumber(patient);
+			seriesInstanceUID = !seriesInstanceUID.isEmpty() ? seriesInstanceUID : "<org_root>." + seriesNumber;
+
+			//in loadDicomDir loop this is generated because is missing in JPG/JPEG files, reset to avoid duplicates
+			studyUID = "";
+		} else if (dicomImport.isDicom) {
+
+			Attributes attributes = dicomImport.attributes;
+
+			//overridden by the user
+			seriesDescription = seriesDescription != null ? seriesDescription : attributes.getString(Tag.SeriesDescription);
+			studyDate = studyDate != null ? studyDate : getStudyDateTime(attributes);
+			seriesDate = seriesDate != null ? seriesDate : getSeriesDateTime(attributes);
+
+			//set by DICOM properties
+			patientID = attributes.getString(Tag.PatientID) == null ? patientID : attributes.getString(Tag.PatientID);
+			patientName = attributes.getString(Tag.PatientName) == null ? patientName : attributes.getString(Tag.PatientName);
+			patientAddress = attributes.getString(Tag.PatientAddress) == null ? patientAddress : attributes.getString(Tag.PatientAddress);
+			patientAge = attributes.getString(Tag.PatientAge) == null ? patientAge : attributes.getString(Tag.PatientAge);
+			//String acquisitionsInSeries = attributes.getString(Tag.AcquisitionsInSeries);
+			//String acquisitionsInStudy = attributes.getString(Tag.AcquisitionsInStudy);
+			//String applicatorDescription = attributes.getString(Tag.ApplicatorDescription);
+			//String dicomMediaRetrievalSequence = attributes.getString(Tag.DICOMMediaRetrievalSequence);
+			//String patientComments = dicomObject.attributes(Tag.PatientComments);
 			try {
-				DicomManagerFactory.getManager().saveFile(dicomFileDetail);
-				//dicomFileDetail.setDicomSeriesNumber(dicom.getDicomSeriesNumber()); //series number could be generated if missing.
-			} catch (OHServiceException ex) {
-				if (ex.getMessages() != null) {
-					throw new OHDicomException(ex.getCause(), ex.getMessages());
-				}
+				patientBirthDate = attributes.getDate(Tag.PatientBirthDate) == null ?
+						patientBirthDate :
+						DateFormat.getDateInstance().format(attributes.getDate(Tag.PatientBirthDate));
+			} catch (Exception ecc) {
 			}
+			patientSex = attributes.getString(Tag.PatientSex) == null ? patientSex : attributes.getString(Tag.PatientSex);
+			modality = attributes.getString(Tag.Modality) == null ? modality : attributes.getString(Tag.Modality);
+			studyUID = attributes.getString(Tag.StudyInstanceUID) == null ? studyUID : attributes.getString(Tag.StudyInstanceUID);
+			accessionNumber = attributes.getString(Tag.AccessionNumber) == null ? accessionNumber : attributes.getString(Tag.AccessionNumber);
+			studyDescription = attributes.getString(Tag.StudyDescription) == null ? studyDescription : attributes.getString(Tag.StudyDescription);
+			seriesUID = attributes.getString(Tag.SeriesInstanceUID) == null ? seriesUID : attributes.getString(Tag.SeriesInstanceUID);
+			seriesInstanceUID = attributes.getString(Tag.SeriesInstanceUID) == null ? seriesInstanceUID : attributes.getString(Tag.SeriesInstanceUID);
+			seriesNumber = attributes.getString(Tag.SeriesNumber) == null ? generateSeriesNumber(patient) : attributes.getString(Tag.SeriesNumber);
+			seriesDescriptionCodeSequence = attributes.getString(Tag.SeriesDescriptionCodeSequence) == null ?
+					seriesDescriptionCodeSequence :
+					attributes.getString(Tag.SeriesDescriptionCodeSequence);
+			institutionName = attributes.getString(Tag.InstitutionName) == null ? institutionName : attributes.getString(Tag.InstitutionName);
+			instanceUID = attributes.getString(Tag.SOPInstanceUID) == null ? instanceUID : attributes.getString(Tag.SOPInstanceUID);
+		}
 
-		} catch (OHDicomException ecc) {
-			throw ecc;
+		// Loaded... Update dicomFileDetail
+		if (sourceFile != null) {
+			dicomFileDetail.setDicomData(sourceFile);
+		}
+		if (sourceFile.getName() != null) {
+			dicomFileDetail.setFileName(sourceFile.getName());
+		}
+		if (accessionNumber != null) {
+			dicomFileDetail.setDicomAccessionNumber(accessionNumber);
+		}
+		if (instanceUID != null) {
+			dicomFileDetail.setDicomInstanceUID(instanceUID);
+		}
+		if (institutionName != null) {
+			dicomFileDetail.setDicomInstitutionName(institutionName);
+		}
+		if (patientAddress != null) {
+			dicomFileDetail.setDicomPatientAddress(patientAddress);
+		}
+		if (patientAge != null) {
+			dicomFileDetail.setDicomPatientAge(patientAge);
+		}
+		if (patientBirthDate != null) {
+			dicomFileDetail.setDicomPatientBirthDate(patientBirthDate);
+		}
+		if (patientID != null) {
+			dicomFileDetail.setDicomPatientID(patientID);
+		}
+		if (patientName != null) {
+			dicomFileDetail.setDicomPatientName(patientName);
+		}
+		if (patientSex != null) {
+			dicomFileDetail.setDicomPatientSex(patientSex);
+		}
+		if (seriesDate != null) {
+			dicomFileDetail.setDicomSeriesDate(seriesDate);
+		}
+		if (seriesDescription != null) {
+			dicomFileDetail.setDicomSeriesDescription(seriesDescription);
+		}
+		if (seriesDescriptionCodeSequence != null) {
+			dicomFileDetail.setDicomSeriesDescriptionCodeSequence(seriesDescriptionCodeSequence);
+		}
+		if (seriesInstanceUID != null) {
+			dicomFileDetail.setDicomSeriesInstanceUID(seriesInstanceUID);
+		}
+		if (seriesNumber != null) {
+			dicomFileDetail.setDicomSeriesNumber(seriesNumber);
+		}
+		if (seriesUID != null) {
+			dicomFileDetail.setDicomSeriesUID(seriesUID);
+		}
+		if (studyDate != null) {
+			dicomFileDetail.setDicomStudyDate(studyDate);
+		}
+		if (studyDescription != null) {
+			dicomFileDetail.setDicomStudyDescription(studyDescription);
+		}
+		if (studyUID != null) {
+			dicomFileDetail.setDicomStudyId(studyUID);
+		}
+		if (patient != 0) {
+			dicomFileDetail.setPatId(patient);
+		}
+		if (scaled != null) {
+			dicomFileDetail.setDicomThumbnail(scaled);
+		}
+		if (modality != null) {
+			dicomFileDetail.setModality(modality);
+		}
+		dicomFileDetail.setIdFile(0); //it will trigger the DB save with SqlDicomManager
+		ReentrantLock seriesLock = getSeriesLock(dicomFileDetail.getPatId(), dicomFileDetail.getDicomSeriesNumber());
+		seriesLock.lock();
+		try {
+			DicomManagerFactory.getManager().saveFile(dicomFileDetail);
+			//dicomFileDetail.setDicomSeriesNumber(dicom.getDicomSeriesNumber()); //series number could be generated if missing.
+		} catch (OHServiceException ex) {
+			if (ex.getMessages() != null) {
+				throw new OHDicomException(ex.getCause(), ex.getMessages());
+			}
+		} finally {
+			seriesLock.unlock();
 		}
 	}
 
+	private static ReentrantLock getSeriesLock(int patient, String seriesNumber) {
+		return SERIES_LOCKS[Math.floorMod(Objects.hash(patient, seriesNumber), SERIES_LOCKS.length)];
+	}
+
 	public static int checkOrientation(File sourceFile) throws ImageProcessingException, IOException {
 		Metadata metadata = ImageMetadataReader.readMetadata(sourceFile);
 		ExifIFD0Directory exifIFD0Directory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
@@ -549,4 +705,33 @@ public class SourceFiles extends Thread {
 
 		return String.valueOf(candidateCode);
 	}
+
+	@FunctionalInterface
+	private interface DicomImportStage {
+
+		void process(DicomImport dicomImport) throws Exception;
+	}
+
+	/**
+	 * A file travelling through the import pipeline
+	 */
+	private static class DicomImport {
+
+		private final FileDicom dicomFileDetail;
+		private final int patient;
+		private final boolean isJpeg;
+		private final boolean isDicom;
+		private File sourceFile;
+		private Attributes attributes;
+		private BufferedImage image;
+		private BufferedImage scaled;
+
+		DicomImport(FileDicom dicomFileDetail, File sourceFile, int patient) {
+			this.dicomFileDetail = dicomFileDetail;
+			this.sourceFile = sourceFile;
+			this.patient = patient;
+			this.isJpeg = StringUtils.endsWithIgnoreCase(sourceFile.getName(), ".jpg") || StringUtils.endsWithIgnoreCase(sourceFile.getName(), ".jpeg");
+			this.isDicom = StringUtils.endsWithIgnoreCase(sourceFile.getName(), ".dcm");
+		}
+	}
 }
@@ -21,6 +21,12 @@
  */
 package org.isf.dicom.manager;
 
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.isf.dicom.model.DicomSeries;
 import org.isf.dicom.model.FileDicom;
 import org.isf.dicom.service.DicomIoOperations;
 import org.isf.utils.exception.OHServiceException;
@@ -35,8 +41,15 @@ import org.springframework.stereotype.Component;
 @Component
 public class SqlDicomManager implements DicomManagerInterface {
 
+	/**
+	 * Number of thumbnails kept in memory, the least recently painted are dropped first
+	 */
+	private static final int THUMBNAIL_CACHE_SIZE = 256;
+
 	private DicomIoOperations ioOperations;
 
+	private final Map<Long, BufferedImage> thumbnails = new ThumbnailCache();
+
 	public SqlDicomManager(DicomIoOperations dicomIoOperations) {
 		this.ioOperations = dicomIoOperations;
 	}
@@ -63,7 +76,13 @@ public class SqlDicomManager implements DicomManagerInterface {
 	 */
 	@Override
 	public void deleteSeries(int patientID, String seriesNumber) throws OHServiceException {
+		Long[] idFiles = ioOperations.getSeriesDetail(patientID, seriesNumber);
 		ioOperations.deleteSeries(patientID, seriesNumber);
+		synchronized (thumbnails) {
+			for (Long idFile : idFiles) {
+				thumbnails.remove(idFile);
+			}
+		}
 	}
 
 	/**
@@ -131,6 +150,45 @@ public class SqlDicomManager implements DicomManagerInterface {
 		return ioOperations.loadPatientFiles(patientID);
 	}
 
+	/**
+	 * Load the summary of the series of the patient, without thumbnails
+	 *
+	 * @param patientID
+	 * @return
+	 * @throws OHServiceException
+	 */
+	@Override
+	public DicomSeries[] loadPatientSeries(int patientID) throws OHServiceException {
+		return ioOperations.loadPatientSeries(patientID);
+	}
+
+	/**
+	 * Load the thumbnail of a file, streamed from the database the first time and then kept in memory
+	 *
+	 * @param idFile
+	 * @param patientID
+	 * @param seriesNumber
+	 * @return the thumbnail or null if the file has none
+	 * @throws OHServiceException
+	 */
+	@Override
+	public BufferedImage loadThumbnail(long idFile, int patientID, String seriesNumber) throws OHServiceException {
+		synchronized (thumbnails) {
+			BufferedImage thumbnail = thumbnails.get(idFile);
+			if (thumbnail != null) {
+				return thumbnail;
+			}
+		}
+		// loaded outside the lock, so that a slow query does not hold the thumbnails already in memory
+		BufferedImage thumbnail = ioOperations.loadThumbnail(idFile);
+		if (thumbnail != null) {
+			synchronized (thumbnails) {
+				thumbnails.put(idFile, thumbnail);
+			}
+		}
+		return thumbnail;
+	}
+
 	/**
 	 * Save the DICOM file and metadata
 	 *
@@ -142,4 +200,32 @@ public class SqlDicomManager implements DicomManagerInterface {
 		ioOperations.saveFile(dicom);
 	}
 
+	/**
+	 * Stream the DICOM data of a file from the database
+	 *
+	 * @param idFile
+	 * @param patientID
+	 * @param seriesNumber
+	 * @param out
+	 * @return false if the file has no data
+	 * @throws OHServiceException
+	 */
+	@Override
+	public boolean copyDicomData(long idFile, int patientID, String seriesNumber, OutputStream out) throws OHServiceException {
+		return ioOperations.copyDicomData(idFile, out);
+	}
+
+	private static class ThumbnailCache extends LinkedHashMap<Long, BufferedImage> {
+
+		private static final long serialVersionUID = 1L;
+
+		ThumbnailCache() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+			return size() > THUMBNAIL_CACHE_SIZE;
+		}
+	}
 }
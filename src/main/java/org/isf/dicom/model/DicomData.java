@@ -22,11 +22,8 @@
 package org.isf.dicom.model;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.sql.Blob;
 
-import javax.sql.rowset.serial.SerialBlob;
-
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
@@ -38,9 +35,6 @@ import jakarta.persistence.Lob;
 import jakarta.persistence.OneToOne;
 import jakarta.persistence.Table;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 /**
  * BLOB related to a {@link FileDicom}
  */
@@ -48,8 +42,6 @@ import org.slf4j.LoggerFactory;
 @Table(name = "OH_DICOM_DATA")
 public class DicomData {
 
-	private static final Logger LOGGER = LoggerFactory.getLogger(DicomData.class);
-
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	@Column(name = "DMD_DATA_ID")
@@ -87,17 +79,11 @@ public class DicomData {
 	}
 
 	/**
-	 * Loads bytes of DICOM file and stores it in a Blob type
+	 * Stores the DICOM file in a Blob type; the bytes are streamed from the file when the data is saved
 	 *
 	 * @param dicomFile the dicomFile to set
 	 */
 	public void setData(File dicomFile) {
-		try (FileInputStream fis = new FileInputStream(dicomFile)) {
-			byte[] byteArray = new byte[fis.available()];
-			fis.read(byteArray);
-			this.data = new SerialBlob(byteArray);
-		} catch (Exception exception) {
-			LOGGER.error(exception.getMessage(), exception);
-		}
+		this.data = new FileBlob(dicomFile.toPath());
 	}
 }
@@ -0,0 +1,108 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.dicom.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Summary of a DICOM series, without any image: enough to list the series of a patient, the thumbnail of the
+ * series is then loaded on demand by the id of its first file.
+ */
+public class DicomSeries {
+
+	private final long idFile;
+	private final int patId;
+	private final String dicomSeriesInstanceUID;
+	private final String dicomSeriesNumber;
+	private final LocalDateTime dicomSeriesDate;
+	private final String modality;
+	private final String dicomSeriesDescription;
+	private final int frameCount;
+
+	public DicomSeries(long idFile, int patId, String dicomSeriesInstanceUID, String dicomSeriesNumber, LocalDateTime dicomSeriesDate,
+			String modality, String dicomSeriesDescription, long frameCount) {
+		this.idFile = idFile;
+		this.patId = patId;
+		this.dicomSeriesInstanceUID = dicomSeriesInstanceUID;
+		this.dicomSeriesNumber = dicomSeriesNumber;
+		this.dicomSeriesDate = dicomSeriesDate;
+		this.modality = modality;
+		this.dicomSeriesDescription = dicomSeriesDescription;
+		this.frameCount = (int) frameCount;
+	}
+
+	/**
+	 * @return the id of the first file of the series, the one holding the thumbnail
+	 */
+	public long getIdFile() {
+		return idFile;
+	}
+
+	/**
+	 * @return the patId
+	 */
+	public int getPatId() {
+		return patId;
+	}
+
+	/**
+	 * @return the dicomSeriesInstanceUID
+	 */
+	public String getDicomSeriesInstanceUID() {
+		return dicomSeriesInstanceUID;
+	}
+
+	/**
+	 * @return the dicomSeriesNumber
+	 */
+	public String getDicomSeriesNumber() {
+		return dicomSeriesNumber;
+	}
+
+	/**
+	 * @return the dicomSeriesDate
+	 */
+	public LocalDateTime getDicomSeriesDate() {
+		return dicomSeriesDate;
+	}
+
+	/**
+	 * @return the modality
+	 */
+	public String getModality() {
+		return modality;
+	}
+
+	/**
+	 * @return the dicomSeriesDescription
+	 */
+	public String getDicomSeriesDescription() {
+		return dicomSeriesDescription;
+	}
+
+	/**
+	 * @return the number of files of the series
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+}
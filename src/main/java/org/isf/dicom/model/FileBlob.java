@@ -0,0 +1,223 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.dicom.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+import org.hibernate.engine.jdbc.BinaryStream;
+import org.hibernate.engine.jdbc.BlobImplementer;
+
+/**
+ * Read-only {@link Blob} backed by a file: the content stays on disk and is streamed when it is read, copied
+ * or bound to a statement (Hibernate binds it with {@code setBinaryStream}), instead of being copied on the heap.
+ */
+public class FileBlob implements Blob, BlobImplementer {
+
+	private final Path path;
+
+	public FileBlob(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * @return the file holding the content
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	@Override
+	public long length() throws SQLException {
+		try {
+			return Files.size(path);
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	@Override
+	public byte[] getBytes(long pos, int length) throws SQLException {
+		if (pos < 1 || length < 0) {
+			throw new SQLException("Invalid position " + pos + " or length " + length);
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - pos + 1)));
+			long position = pos - 1;
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					break;
+				}
+				position += read;
+			}
+			return buffer.array();
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	@Override
+	public InputStream getBinaryStream() throws SQLException {
+		try {
+			return new ClosingInputStream(Files.newInputStream(path));
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	@Override
+	public InputStream getBinaryStream(long pos, long length) throws SQLException {
+		return new ByteArrayInputStream(getBytes(pos, (int) length));
+	}
+
+	@Override
+	public long position(byte[] pattern, long start) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public long position(Blob pattern, long start) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int setBytes(long pos, byte[] bytes) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int setBytes(long pos, byte[] bytes, int offset, int len) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public OutputStream setBinaryStream(long pos) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void truncate(long len) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void free() {
+	}
+
+	@Override
+	public BinaryStream getUnderlyingStream() throws SQLException {
+		long length = length();
+		InputStream inputStream = getBinaryStream();
+		return new BinaryStream() {
+
+			@Override
+			public InputStream getInputStream() {
+				return inputStream;
+			}
+
+			@Override
+			public byte[] getBytes() {
+				try {
+					return Files.readAllBytes(path);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public long getLength() {
+				return length;
+			}
+
+			@Override
+			public void release() {
+				try {
+					inputStream.close();
+				} catch (IOException e) {
+					// nothing to release
+				}
+			}
+		};
+	}
+
+	/**
+	 * Closes the file as soon as it has been read to the end: JDBC drivers consume a bound stream but never close it
+	 */
+	private static class ClosingInputStream extends FilterInputStream {
+
+		private boolean closed;
+
+		ClosingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (closed) {
+				return -1;
+			}
+			int read = super.read();
+			if (read < 0) {
+				close();
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (closed) {
+				return -1;
+			}
+			int read = super.read(b, off, len);
+			if (read < 0) {
+				close();
+			}
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return closed ? 0 : super.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				super.close();
+			}
+		}
+	}
+}
@@ -23,6 +23,7 @@ package org.isf.dicom.service;
 
 import java.util.List;
 
+import org.isf.dicom.model.DicomSeries;
 import org.isf.dicom.model.FileDicom;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
@@ -31,7 +32,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface DicomIoOperationRepository extends JpaRepository<FileDicom, Long> {
+public interface DicomIoOperationRepository extends JpaRepository<FileDicom, Long>, DicomIoOperationRepositoryCustom {
 
 	List<FileDicom> findAllByOrderByFileNameAsc();
 
@@ -41,6 +42,9 @@ public interface DicomIoOperationRepository extends JpaRepository<FileDicom, Lon
 	@Query(value = "select new org.isf.dicom.model.FileDicom(f.patId, f.idFile, f.fileName, f.dicomAccessionNumber, f.dicomInstitutionName, f.dicomPatientID, f.dicomPatientName, f.dicomPatientAddress, f.dicomPatientAge, f.dicomPatientSex, f.dicomPatientBirthDate, f.dicomStudyId, f.dicomStudyDate, f.dicomStudyDescription, f.dicomSeriesUID, f.dicomSeriesInstanceUID, f.dicomSeriesNumber, f.dicomSeriesDescriptionCodeSequence, f.dicomSeriesDate, f.dicomSeriesDescription, f.dicomInstanceUID, f.modality, f.dicomThumbnail, d.dicomTypeID, d.dicomTypeDescription) FROM FileDicom f LEFT JOIN f.dicomType d WHERE f.patId = :id group by f.dicomSeriesInstanceUID order by f.dicomSeriesDate desc")
 	List<FileDicom> findAllWhereIdGroupBySeriesInstanceUIDOrderSerDateDesc(@Param("id") int id);
 
+	@Query(value = "select new org.isf.dicom.model.DicomSeries(min(f.idFile), f.patId, f.dicomSeriesInstanceUID, max(f.dicomSeriesNumber), max(f.dicomSeriesDate), max(f.modality), max(f.dicomSeriesDescription), count(f)) FROM FileDicom f WHERE f.patId = :id group by f.patId, f.dicomSeriesInstanceUID order by max(f.dicomSeriesDate) desc")
+	List<DicomSeries> findSeriesWhereIdOrderSerDateDesc(@Param("id") int id);
+
 	@Query(value = "select f from FileDicom f WHERE f.patId = :id AND f.dicomSeriesNumber = :file AND f.dicomInstanceUID = :uid")
 	List<FileDicom> findAllWhereIdAndFileAndUid(@Param("id") int id, @Param("file") String file, @Param("uid") String uid);
 
@@ -0,0 +1,82 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.dicom.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional(readOnly = true)
+public class DicomIoOperationRepositoryImpl implements DicomIoOperationRepositoryCustom {
+
+	private static final String NATIVE_QUERY_DATA = "SELECT DMD_DATA FROM OH_DICOM_DATA WHERE DMD_FILE_ID = ?";
+	private static final String NATIVE_QUERY_THUMBNAIL = "SELECT DM_THUMBNAIL FROM OH_DICOM WHERE DM_FILE_ID = ?";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Override
+	public boolean copyData(long idFile, OutputStream out) {
+		return copy(NATIVE_QUERY_DATA, idFile, out);
+	}
+
+	@Override
+	public boolean copyThumbnail(long idFile, OutputStream out) {
+		return copy(NATIVE_QUERY_THUMBNAIL, idFile, out);
+	}
+
+	private boolean copy(String query, long idFile, OutputStream out) {
+		Session session = entityManager.unwrap(Session.class);
+		// data saved in the current transaction must be visible to the plain JDBC query
+		if (session.isDirty()) {
+			session.flush();
+		}
+		return session.doReturningWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(query)) {
+				statement.setLong(1, idFile);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					if (!resultSet.next()) {
+						return false;
+					}
+					try (InputStream data = resultSet.getBinaryStream(1)) {
+						if (data == null) {
+							return false;
+						}
+						data.transferTo(out);
+						return true;
+					} catch (IOException e) {
+						throw new SQLException(e);
+					}
+				}
+			}
+		});
+	}
+}
@@ -21,11 +21,21 @@
  */
 package org.isf.dicom.service;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
+import javax.imageio.ImageIO;
+
+import org.isf.dicom.model.DicomSeries;
 import org.isf.dicom.model.FileDicom;
+import org.isf.generaldata.MessageBundle;
 import org.isf.utils.db.TranslateOHServiceException;
 import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -102,6 +112,36 @@ public class DicomIoOperations {
 		return dicoms;
 	}
 
+	/**
+	 * Load the summary of the series of the patient, without thumbnails, the most recent first.
+	 *
+	 * @param patientID
+	 * @return DicomSeries array
+	 * @throws OHServiceException
+	 */
+	public DicomSeries[] loadPatientSeries(int patientID) throws OHServiceException {
+		return repository.findSeriesWhereIdOrderSerDateDesc(patientID).toArray(new DicomSeries[0]);
+	}
+
+	/**
+	 * Load the thumbnail of a {@link FileDicom}, streamed from the database without loading the rest of the file.
+	 *
+	 * @param idFile - the file id
+	 * @return the thumbnail or {@code null} if the file has none
+	 * @throws OHServiceException
+	 */
+	public BufferedImage loadThumbnail(long idFile) throws OHServiceException {
+		ByteArrayOutputStream thumbnail = new ByteArrayOutputStream();
+		if (!repository.copyThumbnail(idFile, thumbnail)) {
+			return null;
+		}
+		try {
+			return ImageIO.read(new ByteArrayInputStream(thumbnail.toByteArray()));
+		} catch (IOException e) {
+			throw new OHServiceException(e, new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg", e.getMessage())));
+		}
+	}
+
 	/**
 	 * Check if {@link FileDicom} is loaded.
 	 *
@@ -125,6 +165,18 @@ public class DicomIoOperations {
 		return repository.save(dicom);
 	}
 
+	/**
+	 * Stream the DICOM data of a {@link FileDicom} from the database.
+	 *
+	 * @param idFile - the file id
+	 * @param out - the stream to write the data to
+	 * @return {@code false} if the file has no data
+	 * @throws OHServiceException
+	 */
+	public boolean copyDicomData(long idFile, OutputStream out) throws OHServiceException {
+		return repository.copyData(idFile, out);
+	}
+
 	/**
 	 * Checks if the code is already in use.
 	 *
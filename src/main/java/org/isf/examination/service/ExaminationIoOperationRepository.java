@@ -21,12 +21,15 @@
  */
 package org.isf.examination.service;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 import org.isf.examination.model.PatientExamination;
+import org.isf.patient.model.Patient;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -42,4 +45,11 @@ public interface ExaminationIoOperationRepository extends JpaRepository<PatientE
 	
 	@Query(value = "select p from PatientExamination p where p.patient.code = :patientCode order by p.pex_date desc")
 	Page<PatientExamination> findByPatient_CodeOrderByPexDateDesc_Paginated(@Param("patientCode") int patientCode, Pageable pageable);
-}
\ No newline at end of file
+
+	@Modifying(clearAutomatically = true, flushAutomatically = true)
+	@Query(value = "update PatientExamination pex set pex.patient = :mergedPatient, "
+			+ "pex.lastModifiedBy = :lastModifiedBy, pex.lastModifiedDate = :lastModifiedDate where pex.patient = :obsoletePatient")
+	int updatePatientForMerge(@Param("mergedPatient") Patient mergedPatient, @Param("lastModifiedBy") String lastModifiedBy,
+			@Param("lastModifiedDate") LocalDateTime lastModifiedDate, @Param("obsoletePatient") Patient obsoletePatient);
+
+}
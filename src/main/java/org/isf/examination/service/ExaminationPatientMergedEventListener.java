@@ -21,11 +21,7 @@
  */
 package org.isf.examination.service;
 
-import java.util.List;
-
-import org.isf.examination.model.PatientExamination;
 import org.isf.patient.model.PatientMergedEvent;
-import org.isf.utils.exception.OHServiceException;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -33,19 +29,18 @@ import org.springframework.transaction.annotation.Transactional;
 @Component
 public class ExaminationPatientMergedEventListener {
 
-	private ExaminationOperations examinationOperations;
+	private final ExaminationIoOperationRepository examinationIoOperationRepository;
 
-	public ExaminationPatientMergedEventListener(ExaminationOperations examinationOperations) {
-		this.examinationOperations = examinationOperations;
+	public ExaminationPatientMergedEventListener(ExaminationIoOperationRepository examinationIoOperationRepository) {
+		this.examinationIoOperationRepository = examinationIoOperationRepository;
 	}
 
 	@EventListener
 	@Transactional
-	public void handle(PatientMergedEvent patientMergedEvent) throws OHServiceException {
-		List<PatientExamination> patientExaminations = examinationOperations.getByPatID(patientMergedEvent.getObsoletePatient().getCode());
-		for (PatientExamination examination : patientExaminations) {
-			examination.setPatient(patientMergedEvent.getMergedPatient());
-		}
+	public void handle(PatientMergedEvent patientMergedEvent) {
+		int rows = examinationIoOperationRepository.updatePatientForMerge(patientMergedEvent.getMergedPatient(), patientMergedEvent.getMergedBy(),
+				patientMergedEvent.getMergedDate(), patientMergedEvent.getObsoletePatient());
+		patientMergedEvent.addMergedRows("OH_PATIENTEXAMINATION", rows);
 	}
 
 }
@@ -29,6 +29,7 @@ import org.isf.patient.model.Patient;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -68,4 +69,11 @@ public interface LabIoOperationRepository extends JpaRepository<Laboratory, Inte
 	@Query("select count(l) from Laboratory l where active=1")
 	long countAllActiveLabs();
 
+	@Modifying(clearAutomatically = true, flushAutomatically = true)
+	@Query(value = "update versioned Laboratory lab set lab.patient = :mergedPatient, lab.patName = :patName, lab.age = :age, lab.sex = :sex, "
+			+ "lab.lastModifiedBy = :lastModifiedBy, lab.lastModifiedDate = :lastModifiedDate where lab.patient = :obsoletePatient")
+	int updatePatientForMerge(@Param("mergedPatient") Patient mergedPatient, @Param("patName") String patName, @Param("age") Integer age,
+			@Param("sex") String sex, @Param("lastModifiedBy") String lastModifiedBy,
+			@Param("lastModifiedDate") LocalDateTime lastModifiedDate, @Param("obsoletePatient") Patient obsoletePatient);
+
 }
@@ -21,12 +21,8 @@
  */
 package org.isf.lab.service;
 
-import java.util.List;
-
-import org.isf.lab.model.Laboratory;
 import org.isf.patient.model.Patient;
 import org.isf.patient.model.PatientMergedEvent;
-import org.isf.utils.exception.OHServiceException;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -34,22 +30,20 @@ import org.springframework.transaction.annotation.Transactional;
 @Component
 public class LabPatientMergedEventListener {
 
-	private LabIoOperations labIoOperations;
+	private final LabIoOperationRepository labIoOperationRepository;
 
-	public LabPatientMergedEventListener(LabIoOperations labIoOperations) {
-		this.labIoOperations = labIoOperations;
+	public LabPatientMergedEventListener(LabIoOperationRepository labIoOperationRepository) {
+		this.labIoOperationRepository = labIoOperationRepository;
 	}
 
 	@EventListener
 	@Transactional
-	public void handle(PatientMergedEvent patientMergedEvent) throws OHServiceException {
-		List<Laboratory> laboratories = labIoOperations.getLaboratory(patientMergedEvent.getObsoletePatient());
-		for (Laboratory laboratory : laboratories) {
-			Patient mergedPatient = patientMergedEvent.getMergedPatient();
-			laboratory.setPatient(mergedPatient);
-			laboratory.setPatName(mergedPatient.getName());
-			laboratory.setAge(mergedPatient.getAge());
-			laboratory.setSex(String.valueOf(mergedPatient.getSex()));
-		}
+	public void handle(PatientMergedEvent patientMergedEvent) {
+		Patient mergedPatient = patientMergedEvent.getMergedPatient();
+		int rows = labIoOperationRepository.updatePatientForMerge(mergedPatient, mergedPatient.getName(), mergedPatient.getAge(),
+				String.valueOf(mergedPatient.getSex()), patientMergedEvent.getMergedBy(),
+				patientMergedEvent.getMergedDate(), patientMergedEvent.getObsoletePatient());
+		patientMergedEvent.addMergedRows("OH_LABORATORY", rows);
 	}
+
 }
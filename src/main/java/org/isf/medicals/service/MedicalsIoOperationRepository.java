@@ -27,12 +27,13 @@ import org.isf.medicals.model.Medical;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface MedicalsIoOperationRepository extends JpaRepository<Medical, Integer> {
+public interface MedicalsIoOperationRepository extends JpaRepository<Medical, Integer>, MedicalsIoOperationRepositoryCustom {
 
 	@Query(value = "SELECT m FROM Medical m where m.description like :description order BY m.description")
 	List<Medical> findAllWhereDescriptionOrderByDescription(@Param("description") String description);
@@ -93,5 +94,13 @@ public interface MedicalsIoOperationRepository extends JpaRepository<Medical, In
 
 	@Query(value = "SELECT m FROM Medical m")
 	Page<Medical> findAllPageable(Pageable pageable);
+
+	@Modifying(flushAutomatically = true)
+	@Query(value = "UPDATE OH_MEDICALDSR SET MDSR_IN_QTI = MDSR_IN_QTI + :quantity, MDSR_LOCK = MDSR_LOCK + 1 WHERE MDSR_ID = :code", nativeQuery = true)
+	int updateInQuantity(@Param("quantity") double quantity, @Param("code") int code);
+
+	@Modifying(flushAutomatically = true)
+	@Query(value = "UPDATE OH_MEDICALDSR SET MDSR_OUT_QTI = MDSR_OUT_QTI + :quantity, MDSR_LOCK = MDSR_LOCK + 1 WHERE MDSR_ID = :code", nativeQuery = true)
+	int updateOutQuantity(@Param("quantity") double quantity, @Param("code") int code);
 	
 }
@@ -23,13 +23,11 @@ package org.isf.medicalstock.manager;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.isf.generaldata.MessageBundle;
-import org.isf.medicals.model.Medical;
-import org.isf.medicals.service.MedicalsIoOperations;
 import org.isf.medicalstock.model.Lot;
 import org.isf.medicalstock.model.Movement;
-import org.isf.medicalstock.service.LotIoOperationRepository;
 import org.isf.medicalstock.service.MedicalStockIoOperations;
 import org.isf.medicalstockward.manager.MovWardBrowserManager;
 import org.isf.medicalstockward.model.MedicalWard;
@@ -48,19 +46,13 @@ public class MovBrowserManager {
 
 	private MedicalStockIoOperations ioOperations;
 
-	private LotIoOperationRepository lotRepository;
-
-	private MedicalsIoOperations medicalsIoOperation;
-
 	private MedicalDsrStockMovementTypeBrowserManager medicalDsrStockMovTypeManager;
 
 	private MovWardBrowserManager movWardBrowserManager;
 
-	public MovBrowserManager(MedicalStockIoOperations ioOperations, LotIoOperationRepository lotRepository, MedicalsIoOperations medicalsIoOperation,
+	public MovBrowserManager(MedicalStockIoOperations ioOperations,
 					MedicalDsrStockMovementTypeBrowserManager medicalDsrStockMovTypeManager, MovWardBrowserManager movWardBrowserManager) {
 		this.ioOperations = ioOperations;
-		this.lotRepository = lotRepository;
-		this.medicalsIoOperation = medicalsIoOperation;
 		this.medicalDsrStockMovTypeManager = medicalDsrStockMovTypeManager;
 		this.movWardBrowserManager = movWardBrowserManager;
 	}
@@ -139,6 +131,67 @@ public class MovBrowserManager {
 		return ioOperations.getMovements(medicalCode, medicalType, wardId, movType, movFrom, movTo, lotPrepFrom, lotPrepTo, lotDueFrom, lotDueTo);
 	}
 
+	/**
+	 * Retrieves a page of the {@link Movement}s with the specified criteria, ordered by code descending.
+	 *
+	 * @param medicalCode the medical code.
+	 * @param medicalType the medical type.
+	 * @param wardId the ward type.
+	 * @param movType the movement type.
+	 * @param movFrom the lower bound for the movement date range.
+	 * @param movTo the upper bound for the movement date range.
+	 * @param lotPrepFrom the lower bound for the lot preparation date range.
+	 * @param lotPrepTo the upper bound for the lot preparation date range.
+	 * @param lotDueFrom the lower bound for the lot due date range.
+	 * @param lotDueTo the lower bound for the lot due date range.
+	 * @param lastCode the code of the last movement of the previous page, {@code null} for the first page.
+	 * @param pageSize the maximum number of movements to return.
+	 * @return the retrieved movements.
+	 * @throws OHServiceException
+	 */
+	public List<Movement> getMovements(Integer medicalCode, String medicalType,
+					String wardId, String movType, LocalDateTime movFrom, LocalDateTime movTo,
+					LocalDateTime lotPrepFrom, LocalDateTime lotPrepTo,
+					LocalDateTime lotDueFrom, LocalDateTime lotDueTo, Integer lastCode, int pageSize) throws OHServiceException {
+
+		check(movFrom, movTo, "angal.medicalstock.chooseavalidmovementdate.msg");
+		check(lotPrepFrom, lotPrepTo, "angal.medicalstock.chooseavalidmovementdate.msg");
+		check(lotDueFrom, lotDueTo, "angal.medicalstock.chooseavalidduedate.msg");
+
+		return ioOperations.getMovements(medicalCode, medicalType, wardId, movType, movFrom, movTo, lotPrepFrom, lotPrepTo, lotDueFrom, lotDueTo,
+						lastCode, pageSize);
+	}
+
+	/**
+	 * Streams all the {@link Movement}s with the specified criteria, ordered by date and code ascending.
+	 *
+	 * @param medicalCode the medical code.
+	 * @param medicalType the medical type.
+	 * @param wardId the ward type.
+	 * @param movType the movement type.
+	 * @param movFrom the lower bound for the movement date range.
+	 * @param movTo the upper bound for the movement date range.
+	 * @param lotPrepFrom the lower bound for the lot preparation date range.
+	 * @param lotPrepTo the upper bound for the lot preparation date range.
+	 * @param lotDueFrom the lower bound for the lot due date range.
+	 * @param lotDueTo the lower bound for the lot due date range.
+	 * @param fetchSize the number of movements read from the database at a time.
+	 * @return the stream of the retrieved movements.
+	 * @throws OHServiceException
+	 */
+	public Stream<Movement> getMovementStream(Integer medicalCode, String medicalType,
+					String wardId, String movType, LocalDateTime movFrom, LocalDateTime movTo,
+					LocalDateTime lotPrepFrom, LocalDateTime lotPrepTo,
+					LocalDateTime lotDueFrom, LocalDateTime lotDueTo, int fetchSize) throws OHServiceException {
+
+		check(movFrom, movTo, "angal.medicalstock.chooseavalidmovementdate.msg");
+		check(lotPrepFrom, lotPrepTo, "angal.medicalstock.chooseavalidmovementdate.msg");
+		check(lotDueFrom, lotDueTo, "angal.medicalstock.chooseavalidduedate.msg");
+
+		return ioOperations.getMovementStream(medicalCode, medicalType, wardId, movType, movFrom, movTo, lotPrepFrom, lotPrepTo, lotDueFrom, lotDueTo,
+						fetchSize);
+	}
+
 	private void check(LocalDateTime from, LocalDateTime to, String errMsgKey) throws OHDataValidationException {
 		if (from == null || to == null) {
 			if (!(from == null && to == null)) {
@@ -148,6 +201,16 @@ public class MovBrowserManager {
 		}
 	}
 
+	/**
+	 * Rebuilds the main store balances of all the lots from the movement log.
+	 *
+	 * @return the number of balances created or fixed.
+	 * @throws OHServiceException
+	 */
+	public int rebuildLotBalances() throws OHServiceException {
+		return ioOperations.rebuildLotBalances();
+	}
+
 	/**
 	 * Get the last Movement.
 	 *
@@ -169,18 +232,16 @@ public class MovBrowserManager {
 
 		MovementType movType = medicalDsrStockMovTypeManager.getMovementType(lastMovement.getType().getCode());
 		Lot lot = lastMovement.getLot();
-		Medical medical = lastMovement.getMedical();
-		int medicalCode = medical.getCode();
+		int medicalCode = lastMovement.getMedical().getCode();
 		int quantity = lastMovement.getQuantity();
 		LocalDateTime date = lastMovement.getDate();
 
 		if (movType.getType().contains("+")) {
-			medical.setInqty(medical.getInqty() - quantity);
-			medicalsIoOperation.updateMedical(medical);
+			ioOperations.updateMedicalIncomingQuantity(medicalCode, -quantity);
 			List<Movement> movementWithSameLot = ioOperations.getMovementByLot(lot);
 			ioOperations.deleteMovement(lastMovement);
 			if (movementWithSameLot.size() == 1) {
-				lotRepository.deleteById(lot.getCode());
+				ioOperations.deleteLot(lot);
 			}
 		} else {
 			Ward ward = lastMovement.getWard();
@@ -200,8 +261,7 @@ public class MovBrowserManager {
 			} else {
 				movWardBrowserManager.updateMedicalWard(medWard);
 			}
-			medical.setOutqty(medical.getOutqty() - quantity);
-			medicalsIoOperation.updateMedical(medical);
+			ioOperations.updateMedicalOutcomingQuantity(medicalCode, -quantity);
 
 			ioOperations.deleteMovement(lastMovement);
 		}
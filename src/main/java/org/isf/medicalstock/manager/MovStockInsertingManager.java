@@ -24,7 +24,9 @@ package org.isf.medicalstock.manager;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.isf.generaldata.GeneralData;
 import org.isf.generaldata.MessageBundle;
@@ -376,10 +378,28 @@ public class MovStockInsertingManager {
 				throw new OHDataValidationException(errors);
 			}
 		}
+		if (isAutomaticLotOut()) {
+			// lots are selected for all the movements at once
+			Set<String> referenceNumbers = new HashSet<>();
+			for (Movement mov : movements) {
+				try {
+					validateMovement(mov, checkReference);
+					if (checkReference && !referenceNumbers.add(mov.getRefNo())) {
+						throw new OHDataValidationException(new OHExceptionMessage(
+										MessageBundle.getMessage("angal.medicalstock.multiplecharging.theinsertedreferencenumberalreadyexists.msg")));
+					}
+				} catch (OHServiceException e) {
+					List<OHExceptionMessage> errors = e.getMessages();
+					errors.add(new OHExceptionMessage(mov.getMedical().getDescription()));
+					throw new OHDataValidationException(errors);
+				}
+			}
+			return ioOperations.newAutomaticDischargingMovements(movements);
+		}
 		List<Movement> dischargingMovements = new ArrayList<>();
 		for (Movement mov : movements) {
 			try {
-				dischargingMovements.addAll(prepareDishargingMovement(mov, checkReference));
+				dischargingMovements.add(prepareDishargingMovement(mov, checkReference));
 			} catch (OHServiceException e) {
 				List<OHExceptionMessage> errors = e.getMessages();
 				errors.add(new OHExceptionMessage(mov.getMedical().getDescription()));
@@ -408,14 +428,8 @@ public class MovStockInsertingManager {
 	 * @param checkReference - if {@code true} every movement must have unique reference number
 	 * @throws OHServiceException
 	 */
-	private List<Movement> prepareDishargingMovement(Movement movement, boolean checkReference) throws OHServiceException {
+	private Movement prepareDishargingMovement(Movement movement, boolean checkReference) throws OHServiceException {
 		validateMovement(movement, checkReference);
-		if (isAutomaticLotOut()) {
-			return ioOperations.newAutomaticDischargingMovement(movement);
-		} else {
-			List<Movement> dischargeMovement = new ArrayList<>();
-			dischargeMovement.add(ioOperations.prepareDischargingMovement(movement));
-			return dischargeMovement;
-		}
+		return ioOperations.prepareDischargingMovement(movement);
 	}
 }
@@ -0,0 +1,94 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.model;
+
+import jakarta.persistence.AttributeOverride;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+
+import org.isf.utils.db.Auditable;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+/**
+ * Current main store quantity of a {@link Lot}, kept up to date on every {@link Movement} so that lot selection does not need to sum the whole
+ * movement history.
+ */
+@Entity
+@Table(name = "OH_MEDICALDSRLOTBALANCE")
+@EntityListeners(AuditingEntityListener.class)
+@AttributeOverride(name = "createdBy", column = @Column(name = "LTB_CREATED_BY", updatable = false))
+@AttributeOverride(name = "createdDate", column = @Column(name = "LTB_CREATED_DATE", updatable = false))
+@AttributeOverride(name = "lastModifiedBy", column = @Column(name = "LTB_LAST_MODIFIED_BY"))
+@AttributeOverride(name = "lastModifiedDate", column = @Column(name = "LTB_LAST_MODIFIED_DATE"))
+@AttributeOverride(name = "active", column = @Column(name = "LTB_ACTIVE"))
+public class LotBalance extends Auditable<String> {
+
+	@Id
+	@Column(name = "LTB_LT_ID_A")
+	private String lotCode;
+
+	@NotNull
+	@Column(name = "LTB_MDSR_ID")
+	private int medicalCode;
+
+	@NotNull
+	@Column(name = "LTB_MAIN_QTY")
+	private int mainStoreQuantity;
+
+	public LotBalance() {
+	}
+
+	public LotBalance(String lotCode, int medicalCode, int mainStoreQuantity) {
+		this.lotCode = lotCode;
+		this.medicalCode = medicalCode;
+		this.mainStoreQuantity = mainStoreQuantity;
+	}
+
+	public String getLotCode() {
+		return lotCode;
+	}
+
+	public void setLotCode(String lotCode) {
+		this.lotCode = lotCode;
+	}
+
+	public int getMedicalCode() {
+		return medicalCode;
+	}
+
+	public void setMedicalCode(int medicalCode) {
+		this.medicalCode = medicalCode;
+	}
+
+	public int getMainStoreQuantity() {
+		return mainStoreQuantity;
+	}
+
+	public void setMainStoreQuantity(int mainStoreQuantity) {
+		this.mainStoreQuantity = mainStoreQuantity;
+	}
+
+}
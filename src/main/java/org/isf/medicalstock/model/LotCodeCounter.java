@@ -0,0 +1,69 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Next free value for the automatically generated {@link Lot} codes. Values are reserved in blocks, see
+ * {@link org.isf.medicalstock.service.TableLotCodeGenerator}.
+ */
+@Entity
+@Table(name = "OH_MEDICALDSRLOTCOUNTER")
+public class LotCodeCounter {
+
+	@Id
+	@Column(name = "LTC_ID")
+	private int id;
+
+	@NotNull
+	@Column(name = "LTC_NEXT")
+	private long next;
+
+	public LotCodeCounter() {
+	}
+
+	public LotCodeCounter(int id, long next) {
+		this.id = id;
+		this.next = next;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public long getNext() {
+		return next;
+	}
+
+	public void setNext(long next) {
+		this.next = next;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import java.util.List;
+
+import org.isf.medicalstock.model.LotBalance;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface LotBalanceIoOperationRepository extends JpaRepository<LotBalance, String> {
+
+	@Query("select b.lotCode, b.mainStoreQuantity from LotBalance b where b.medicalCode = :medical")
+	List<Object[]> findMainStoreQuantitiesByMedical(@Param("medical") int medicalCode);
+
+	@Query("select b.lotCode, b.mainStoreQuantity from LotBalance b where b.medicalCode in :medicals")
+	List<Object[]> findMainStoreQuantitiesByMedicals(@Param("medicals") List<Integer> medicalCodes);
+
+	@Modifying(flushAutomatically = true)
+	@Query(value = "UPDATE OH_MEDICALDSRLOTBALANCE SET LTB_MAIN_QTY = LTB_MAIN_QTY + :quantity WHERE LTB_LT_ID_A = :lot", nativeQuery = true)
+	int addMainStoreQuantity(@Param("lot") String lotCode, @Param("quantity") int quantity);
+
+	@Modifying(flushAutomatically = true)
+	@Query(value = "INSERT IGNORE INTO OH_MEDICALDSRLOTBALANCE (LTB_LT_ID_A, LTB_MDSR_ID, LTB_MAIN_QTY) " +
+			"SELECT LT_ID_A, LT_MDSR_ID, COALESCE(SUM(CASE WHEN MMVT_TYPE LIKE '%+%' THEN MMV_QTY ELSE -MMV_QTY END), 0) FROM OH_MEDICALDSRLOT " +
+			"LEFT JOIN OH_MEDICALDSRSTOCKMOV ON MMV_LT_ID_A = LT_ID_A LEFT JOIN OH_MEDICALDSRSTOCKMOVTYPE ON MMV_MMVT_ID_A = MMVT_ID_A " +
+			"WHERE LT_ID_A = :lot GROUP BY LT_ID_A, LT_MDSR_ID", nativeQuery = true)
+	int insertFromMovements(@Param("lot") String lotCode);
+
+}
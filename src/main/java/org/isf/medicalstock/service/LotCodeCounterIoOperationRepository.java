@@ -0,0 +1,45 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import jakarta.persistence.LockModeType;
+
+import org.isf.medicalstock.model.LotCodeCounter;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface LotCodeCounterIoOperationRepository extends JpaRepository<LotCodeCounter, Integer> {
+
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select c from LotCodeCounter c where c.id = :id")
+	LotCodeCounter findOneForUpdate(@Param("id") int id);
+
+	@Modifying
+	@Query(value = "INSERT IGNORE INTO OH_MEDICALDSRLOTCOUNTER (LTC_ID, LTC_NEXT) VALUES (:id, 1)", nativeQuery = true)
+	int insertIfMissing(@Param("id") int id);
+
+}
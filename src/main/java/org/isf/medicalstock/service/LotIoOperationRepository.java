@@ -31,12 +31,18 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface LotIoOperationRepository extends JpaRepository<Lot, String> {
+public interface LotIoOperationRepository extends JpaRepository<Lot, String>, LotIoOperationRepositoryCustom {
 
 	@Query("select l from Lot l where l.medical.code = :medical order by l.dueDate")
 	List<Lot> findByMedicalOrderByDueDate(@Param("medical") int medicalCode);
 
-	@Query("select coalesce(sum(case when m.type.type like '+%' then m.quantity else -m.quantity end), 0) from Movement m where m.lot = :lot")
+	@Query("select l from Lot l join fetch l.medical m where m.code in :medicals order by l.dueDate")
+	List<Lot> findByMedicalsOrderByDueDate(@Param("medicals") List<Integer> medicalCodes);
+
+	@Query("select l.code from Lot l where l.code in :codes")
+	List<String> findCodesIn(@Param("codes") List<String> codes);
+
+	@Query("select coalesce(sum(case when m.type.type like '%+%' then m.quantity else -m.quantity end), 0) from Movement m where m.lot = :lot")
 	Integer getMainStoreQuantity(@Param("lot") Lot lot);
 
 	@Query("select coalesce(sum(w.in_quantity - w.out_quantity),0) FROM MedicalWard w WHERE w.id.lot = :lot")
@@ -52,11 +58,15 @@ public interface LotIoOperationRepository extends JpaRepository<Lot, String> {
 			+ "where LT_ID_A=:code group by LT_ID_A order by LT_DUE_DATE", nativeQuery = true)
 	List<Object[]> findAllWhereLot(@Param("code") String code);
 
-	@Query("SELECT m.lot.code, COALESCE(SUM(CASE WHEN m.type.type LIKE '+%' THEN m.quantity ELSE -m.quantity END), 0) " +
+	@Query("SELECT m.lot.code, COALESCE(SUM(CASE WHEN m.type.type LIKE '%+%' THEN m.quantity ELSE -m.quantity END), 0) " +
 					"FROM Movement m WHERE m.lot.code IN :lotCodes GROUP BY m.lot.code")
 	List<Object[]> getMainStoreQuantities(@Param("lotCodes") List<String> lotCodes);
 
 	@Query("SELECT w.id.lot.code, COALESCE(SUM(w.in_quantity - w.out_quantity), 0.0) " +
 					"FROM MedicalWard w WHERE w.id.lot.code IN :lotCodes GROUP BY w.id.lot.code")
 	List<Object[]> getWardsTotalQuantities(@Param("lotCodes") List<String> lotCodes);
+
+	@Query("SELECT m.lot.code, m.lot.medical.code, COALESCE(SUM(CASE WHEN m.type.type LIKE '%+%' THEN m.quantity ELSE -m.quantity END), 0) " +
+					"FROM Movement m GROUP BY m.lot.code, m.lot.medical.code")
+	List<Object[]> getAllMainStoreQuantities();
 }
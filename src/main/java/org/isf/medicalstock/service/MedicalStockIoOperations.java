@@ -25,19 +25,24 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
-import java.util.Random;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.isf.generaldata.GeneralData;
 import org.isf.medicals.model.Medical;
 import org.isf.medicals.service.MedicalsIoOperationRepository;
 import org.isf.medicalstock.model.Lot;
+import org.isf.medicalstock.model.LotBalance;
 import org.isf.medicalstock.model.MedicalStock;
 import org.isf.medicalstock.model.Movement;
-import org.isf.medicalstockward.model.MedicalWard;
 import org.isf.medicalstockward.service.MedicalStockWardIoOperationRepository;
+import org.isf.medicalstockward.service.MedicalWardStockCache;
 import org.isf.medstockmovtype.model.MovementType;
 import org.isf.medtype.model.MedicalType;
 import org.isf.utils.db.DbQueryLogger;
@@ -71,15 +76,27 @@ public class MedicalStockIoOperations {
 
 	private MedicalStockWardIoOperationRepository medicalStockWardRepository;
 
+	private LotBalanceIoOperationRepository lotBalanceRepository;
+
+	private LotCodeGenerator lotCodeGenerator;
+
+	private MedicalWardStockCache medicalWardStockCache;
+
 	public MedicalStockIoOperations(MovementIoOperationRepository movementIoOperationRepository, LotIoOperationRepository lotIoOperationRepository,
 					MedicalsIoOperationRepository medicalsIoOperationRepository,
 					MedicalStockIoOperationRepository medicalStockIoOperationRepository,
-					MedicalStockWardIoOperationRepository medicalStockWardIoOperationRepository) {
+					MedicalStockWardIoOperationRepository medicalStockWardIoOperationRepository,
+					LotBalanceIoOperationRepository lotBalanceIoOperationRepository,
+					LotCodeGenerator lotCodeGenerator,
+					MedicalWardStockCache medicalWardStockCache) {
 		this.movRepository = movementIoOperationRepository;
 		this.lotRepository = lotIoOperationRepository;
 		this.medicalRepository = medicalsIoOperationRepository;
 		this.medicalStockRepository = medicalStockIoOperationRepository;
 		this.medicalStockWardRepository = medicalStockWardIoOperationRepository;
+		this.lotBalanceRepository = lotBalanceIoOperationRepository;
+		this.lotCodeGenerator = lotCodeGenerator;
+		this.medicalWardStockCache = medicalWardStockCache;
 	}
 
 	public enum MovementOrder {
@@ -167,6 +184,119 @@ public class MedicalStockIoOperations {
 		return dischargingMovements;
 	}
 
+	/**
+	 * Stores the specified discharging {@link Movement}s by using automatically the most old lots and splitting in more movements if required.
+	 * 
+	 * The lots of all the medicals are retrieved at once and allocated in memory, so that more movements of the same medical consume the lots one
+	 * after the other; the medical quantities, the stock balances and the ward quantities are then updated once per medical, lot and ward.
+	 * 
+	 * @param movements - the {@link Movement}s to store
+	 * @return the stored {@link Movement}s.
+	 * @throws OHServiceException if an error occurs during the store operation.
+	 */
+	public List<Movement> newAutomaticDischargingMovements(List<Movement> movements) throws OHServiceException {
+		List<Integer> medicalCodes = movements.stream().map(movement -> movement.getMedical().getCode()).distinct().collect(Collectors.toList());
+		Map<Integer, List<Lot>> lotsByMedical = getLotsByMedicals(medicalCodes);
+		List<Movement> dischargingMovements = new ArrayList<>();
+
+		for (Movement movement : movements) {
+			Medical medical = movement.getMedical();
+			List<Lot> lots = lotsByMedical.getOrDefault(medical.getCode(), Collections.emptyList());
+			if (lots.isEmpty()) {
+				LOGGER.warn("No lots with available quantity found for medical {}", medical.getDescription());
+				continue;
+			}
+			int qty = movement.getQuantity(); // movement initial quantity
+			Iterator<Lot> lotIterator = lots.iterator();
+			while (qty > 0 && lotIterator.hasNext()) {
+				Lot lot = lotIterator.next();
+				int splitQuantity = Math.min(qty, lot.getMainStoreQuantity());
+				dischargingMovements.add(new Movement(medical, movement.getType(), movement.getWard(),
+								lot,
+								movement.getDate(),
+								splitQuantity,
+								null,
+								movement.getRefNo()));
+				lot.setMainStoreQuantity(lot.getMainStoreQuantity() - splitQuantity);
+				if (lot.getMainStoreQuantity() <= 0) {
+					lotIterator.remove();
+				}
+				qty = qty - splitQuantity;
+			}
+		}
+		return storeMovements(dischargingMovements);
+	}
+
+	/**
+	 * Stores the specified {@link Movement}s, whose {@link Lot}s must be already set, and updates the quantities of the involved medicals, lots and
+	 * wards with one update for each of them.
+	 * 
+	 * @param movements the movements to store.
+	 * @return the stored {@link Movement}s.
+	 * @throws OHServiceException if an error occurs storing the movements.
+	 */
+	private List<Movement> storeMovements(List<Movement> movements) throws OHServiceException {
+		Map<Integer, Medical> medicals = new HashMap<>();
+		Map<String, Lot> lots = new HashMap<>();
+		Map<String, Integer> lotQuantities = new LinkedHashMap<>();
+		Map<Integer, Integer> medicalInQuantities = new LinkedHashMap<>();
+		Map<Integer, Integer> medicalOutQuantities = new LinkedHashMap<>();
+		Map<Integer, Map<LocalDate, Integer>> medicalStockQuantities = new LinkedHashMap<>();
+		Map<String, Ward> wards = new HashMap<>();
+		Map<String, Medical> lotMedicals = new HashMap<>();
+		Map<String, Map<String, Integer>> wardQuantities = new LinkedHashMap<>();
+		for (Movement movement : movements) {
+			int medicalCode = movement.getMedical().getCode();
+			int signedQuantity = getSignedQuantity(movement);
+			medicals.putIfAbsent(medicalCode, movement.getMedical());
+			lots.putIfAbsent(movement.getLot().getCode(), movement.getLot());
+			lotQuantities.merge(movement.getLot().getCode(), signedQuantity, Integer::sum);
+			medicalStockQuantities.computeIfAbsent(medicalCode, code -> new LinkedHashMap<>())
+							.merge(movement.getDate().toLocalDate(), signedQuantity, Integer::sum);
+			if (signedQuantity > 0) {
+				medicalInQuantities.merge(medicalCode, movement.getQuantity(), Integer::sum);
+			} else {
+				medicalOutQuantities.merge(medicalCode, movement.getQuantity(), Integer::sum);
+				Ward ward = movement.getWard();
+				if (ward != null) {
+					wards.putIfAbsent(ward.getCode(), ward);
+					lotMedicals.putIfAbsent(movement.getLot().getCode(), movement.getMedical());
+					wardQuantities.computeIfAbsent(ward.getCode(), code -> new LinkedHashMap<>())
+									.merge(movement.getLot().getCode(), movement.getQuantity(), Integer::sum);
+				}
+			}
+		}
+
+		// lot balances, before the movements are written
+		for (Map.Entry<String, Integer> lotQuantity : lotQuantities.entrySet()) {
+			updateLotBalance(lotQuantity.getKey(), lotQuantity.getValue());
+		}
+		List<Movement> movementsStored = movRepository.saveAll(movements);
+
+		// medical quantities and stock balances
+		for (Map.Entry<Integer, Map<LocalDate, Integer>> medicalStockQuantity : medicalStockQuantities.entrySet()) {
+			int medicalCode = medicalStockQuantity.getKey();
+			if (medicalInQuantities.containsKey(medicalCode)) {
+				updateMedicalIncomingQuantity(medicalCode, medicalInQuantities.get(medicalCode));
+			}
+			if (medicalOutQuantities.containsKey(medicalCode)) {
+				updateMedicalOutcomingQuantity(medicalCode, medicalOutQuantities.get(medicalCode));
+			}
+			for (Map.Entry<LocalDate, Integer> dateQuantity : medicalStockQuantity.getValue().entrySet()) {
+				updateMedicalStockTable(medicals.get(medicalCode), dateQuantity.getKey(), dateQuantity.getValue());
+			}
+		}
+
+		// ward quantities
+		for (Map.Entry<String, Map<String, Integer>> wardLotQuantities : wardQuantities.entrySet()) {
+			for (Map.Entry<String, Integer> lotQuantity : wardLotQuantities.getValue().entrySet()) {
+				updateMedicalWardQuantity(wards.get(wardLotQuantities.getKey()), lotMedicals.get(lotQuantity.getKey()), lotQuantity.getValue(),
+								lots.get(lotQuantity.getKey()));
+			}
+		}
+		return movementsStored;
+	}
+
 	/**
 	 * Stores the specified {@link Movement}.
 	 * 
@@ -182,14 +312,12 @@ public class MedicalStockIoOperations {
 
 		// we have to manage the Lot
 		if (movement.getType().getType().contains("+")) {
-			// if is in automatic lot mode then we have to generate a new lot code
+			// if is in automatic lot mode then we have to generate a new lot code, which is never used by other lots
 			if (isAutomaticLotMode() || "".equals(lotCode)) {
-				lotCode = generateLotCode();
-			}
-
-			boolean lotExists = lotExists(lotCode);
-			if (!lotExists) {
-				storeLot(lotCode, movement.getLot(), movement.getMedical());
+				lotCode = lotCodeGenerator.nextLotCode();
+				insertLot(lotCode, movement.getLot(), movement.getMedical());
+			} else if (!lotExists(lotCode)) {
+				insertLot(lotCode, movement.getLot(), movement.getMedical());
 			}
 		}
 
@@ -245,26 +373,64 @@ public class MedicalStockIoOperations {
 			throw new OHServiceException(new OHExceptionMessage("Lot '" + lotCode + "' not found."));
 		}
 		movement.setLot(lot);
+		updateLotBalance(lotCode, getSignedQuantity(movement));
 		return movRepository.save(movement);
 	}
 
 	/**
-	 * Creates a new unique lot code.
+	 * Applies the specified quantity to the main store balance of the {@link Lot} with an atomic update, so that concurrent movements do not
+	 * overwrite each other.
 	 * 
-	 * @return the new unique code.
-	 * @throws OHServiceException if an error occurs during the code generation.
+	 * The balance of a new lot (or of a lot stored without going through this class) is first inserted from the movement log, unless a concurrent
+	 * transaction inserts it first: the movement being applied must not be written yet.
+	 * 
+	 * @param lotCode the lot code.
+	 * @param quantity the quantity to add (remove if negative).
 	 */
-	protected String generateLotCode() throws OHServiceException {
-		Random random = new Random();
-		long candidateCode;
-		Lot lot;
+	private void updateLotBalance(String lotCode, int quantity) {
+		if (lotBalanceRepository.addMainStoreQuantity(lotCode, quantity) == 0) {
+			lotBalanceRepository.insertFromMovements(lotCode);
+			lotBalanceRepository.addMainStoreQuantity(lotCode, quantity);
+		}
+	}
 
-		do {
-			candidateCode = Math.abs(random.nextLong());
-			lot = lotRepository.findById(String.valueOf(candidateCode)).orElse(null);
-		} while (lot != null);
+	private int getSignedQuantity(Movement movement) {
+		return movement.getType().getType().contains("+") ? movement.getQuantity() : -movement.getQuantity();
+	}
 
-		return String.valueOf(candidateCode);
+	/**
+	 * Rebuilds the main store balances of all the {@link Lot}s from the movement log, fixing the balances that differ.
+	 * 
+	 * @return the number of balances created or fixed.
+	 * @throws OHServiceException if an error occurs during the reconciliation.
+	 */
+	public int rebuildLotBalances() throws OHServiceException {
+		Map<String, LotBalance> lotBalances = lotBalanceRepository.findAll().stream()
+						.collect(Collectors.toMap(LotBalance::getLotCode, Function.identity()));
+		List<LotBalance> toSave = new ArrayList<>();
+		for (Object[] result : lotRepository.getAllMainStoreQuantities()) {
+			String lotCode = (String) result[0];
+			int mainStoreQuantity = ((Long) result[2]).intValue();
+			LotBalance lotBalance = lotBalances.remove(lotCode);
+			if (lotBalance == null) {
+				toSave.add(new LotBalance(lotCode, (Integer) result[1], mainStoreQuantity));
+			} else if (lotBalance.getMainStoreQuantity() != mainStoreQuantity) {
+				lotBalance.setMainStoreQuantity(mainStoreQuantity);
+				toSave.add(lotBalance);
+			}
+		}
+		// lots without movements
+		for (LotBalance lotBalance : lotBalances.values()) {
+			if (lotBalance.getMainStoreQuantity() != 0) {
+				lotBalance.setMainStoreQuantity(0);
+				toSave.add(lotBalance);
+			}
+		}
+		lotBalanceRepository.saveAll(toSave);
+		if (!toSave.isEmpty()) {
+			LOGGER.info("{} lot balances rebuilt from the movement log", toSave.size());
+		}
+		return toSave.size();
 	}
 
 	/**
@@ -300,6 +466,17 @@ public class MedicalStockIoOperations {
 		return lotRepository.save(lot);
 	}
 
+	/**
+	 * Deletes the {@link Lot} and its balance.
+	 * 
+	 * @param lot - the lot.
+	 * @throws OHServiceException if an error occurs during the delete.
+	 */
+	public void deleteLot(Lot lot) throws OHServiceException {
+		lotBalanceRepository.deleteById(lot.getCode());
+		lotRepository.deleteById(lot.getCode());
+	}
+
 	/**
 	 * Stores the specified {@link Lot}.
 	 * 
@@ -316,33 +493,42 @@ public class MedicalStockIoOperations {
 		return lotRepository.save(lot);
 	}
 
+	/**
+	 * Inserts the specified new {@link Lot}, whose code is known not to be used.
+	 * 
+	 * @param lotCode the {@link Lot} code.
+	 * @param lot the lot to insert.
+	 * @param medical the lot medical.
+	 */
+	private void insertLot(String lotCode, Lot lot, Medical medical) {
+		lot.setCode(lotCode);
+		lot.setMedical(medical);
+		lotRepository.insert(lot);
+	}
+
 	/**
 	 * Updated {@link Medical} stock quantity for the specified {@link Movement}.
 	 * 
 	 * @param movement the movement.
-	 * @return {@code true} if the quantity has been updated, {@code false} otherwise.
 	 * @throws OHServiceException if an error occurs during the update.
 	 */
-	protected Medical updateStockQuantity(Movement movement) throws OHServiceException {
+	protected void updateStockQuantity(Movement movement) throws OHServiceException {
+		Medical medical = movement.getMedical();
 		if (movement.getType().getType().contains("+")) {
 			// incoming medical stock
-			Medical medical = movement.getMedical();
-			Medical updatedMedical = updateMedicalIncomingQuantity(medical.getCode(), movement.getQuantity());
-			updateMedicalStockTable(updatedMedical, movement.getDate().toLocalDate(), movement.getQuantity());
-			return updatedMedical;
+			updateMedicalIncomingQuantity(medical.getCode(), movement.getQuantity());
+			updateMedicalStockTable(medical, movement.getDate().toLocalDate(), movement.getQuantity());
 
 		} else {
 			// outgoing medical stock
-			Medical medical = movement.getMedical();
 			try {
-				Medical updatedMedical = updateMedicalOutcomingQuantity(medical.getCode(), movement.getQuantity());
-				updateMedicalStockTable(updatedMedical, movement.getDate().toLocalDate(), -movement.getQuantity());
+				updateMedicalOutcomingQuantity(medical.getCode(), movement.getQuantity());
+				updateMedicalStockTable(medical, movement.getDate().toLocalDate(), -movement.getQuantity());
 				Ward ward = movement.getWard();
 				if (ward != null) {
 					// updates stock quantity for wards
 					updateMedicalWardQuantity(ward, medical, movement.getQuantity(), movement.getLot());
 				}
-				return updatedMedical;
 			} catch (OHServiceException serviceException) {
 				throw new OHServiceException(new OHExceptionMessage(serviceException.getMessage()));
 			}
@@ -352,35 +538,33 @@ public class MedicalStockIoOperations {
 	/**
 	 * Updates the incoming quantity for the specified medical.
 	 * 
+	 * The quantity is added by the database, so that concurrent movements of the same medical do not overwrite each other.
+	 * 
 	 * @param medicalCode the medical code.
-	 * @param incrementQuantity the quantity to add.
-	 * @return the updated {@link Medical} object.
-	 * @throws OHServiceException if an error occurs during the update.
+	 * @param incrementQuantity the quantity to add (remove if negative).
+	 * @throws OHServiceException if the medical does not exist or an error occurs during the update.
 	 */
-	protected Medical updateMedicalIncomingQuantity(int medicalCode, double incrementQuantity) throws OHServiceException {
-		Medical medical = medicalRepository.findById(medicalCode).orElse(null);
-		if (medical == null) {
+	public void updateMedicalIncomingQuantity(int medicalCode, double incrementQuantity) throws OHServiceException {
+		if (medicalRepository.updateInQuantity(incrementQuantity, medicalCode) == 0) {
 			throw new OHServiceException(new OHExceptionMessage("Medical '" + medicalCode + "' not found."));
 		}
-		medical.setInqty(medical.getInqty() + incrementQuantity);
-		return medicalRepository.save(medical);
+		medicalRepository.refreshQuantities(medicalCode);
 	}
 
 	/**
 	 * Updates the outcoming quantity for the specified medicinal.
 	 * 
+	 * The quantity is added by the database, so that concurrent movements of the same medical do not overwrite each other.
+	 * 
 	 * @param medicalCode the medical code.
-	 * @param incrementQuantity the quantity to add to the current outcoming quantity.
-	 * @return the updated {@link Medical} object.
-	 * @throws OHServiceException if an error occurs during the update.
+	 * @param incrementQuantity the quantity to add to the current outcoming quantity (remove if negative).
+	 * @throws OHServiceException if the medical does not exist or an error occurs during the update.
 	 */
-	protected Medical updateMedicalOutcomingQuantity(int medicalCode, double incrementQuantity) throws OHServiceException {
-		Medical medical = medicalRepository.findById(medicalCode).orElse(null);
-		if (medical == null) {
+	public void updateMedicalOutcomingQuantity(int medicalCode, double incrementQuantity) throws OHServiceException {
+		if (medicalRepository.updateOutQuantity(incrementQuantity, medicalCode) == 0) {
 			throw new OHServiceException(new OHExceptionMessage("Medical '" + medicalCode + "' not found."));
 		}
-		medical.setOutqty(medical.getOutqty() + incrementQuantity);
-		return medicalRepository.save(medical);
+		medicalRepository.refreshQuantities(medicalCode);
 	}
 
 	/**
@@ -396,14 +580,14 @@ public class MedicalStockIoOperations {
 	 */
 	private MedicalStock updateMedicalStockTable(Medical medical, LocalDate date, int incrementQuantity) throws OHServiceException {
 
-		List<MedicalStock> medicalStockList = medicalStockRepository.findByMedicalCodeOrderByBalanceDateDesc(medical.getCode());
-		MedicalStock medicalStock;
+		// only the latest balance is needed, not the whole history
+		MedicalStock medicalStock = medicalStockRepository.findFirstByMedicalCodeOrderByBalanceDateDesc(medical.getCode()).orElse(null);
 
-		if (medicalStockList.isEmpty() && incrementQuantity < 0) {
+		if (medicalStock == null && incrementQuantity < 0) {
 			throw new OHServiceException(
 							new OHExceptionMessage("Medical '" + medical.getDescription() + "' (" + medical.getCode() + ") not found (not possible)."));
 		}
-		if (medicalStockList.isEmpty()) {
+		if (medicalStock == null) {
 			// first insert
 			medicalStock = new MedicalStock();
 			medicalStock.setMedical(medical);
@@ -412,7 +596,6 @@ public class MedicalStockIoOperations {
 			return medicalStockRepository.save(medicalStock);
 		}
 
-		medicalStock = medicalStockList.get(0);
 		if (TimeTools.isSameDay(date, medicalStock.getBalanceDate())) {
 			// update if the same date
 			int balance = medicalStock.getBalance();
@@ -441,21 +624,16 @@ public class MedicalStockIoOperations {
 	 * @param ward the ward.
 	 * @param medical the medical.
 	 * @param quantity the quantity to add to the current medical quantity.
-	 * @return the updated {@link MedicalWard} object.
+	 * @param lot the lot.
 	 * @throws OHServiceException if an error occurs during the update.
 	 */
-	@SuppressWarnings("unchecked")
-	protected MedicalWard updateMedicalWardQuantity(Ward ward, Medical medical, int quantity, Lot lot) throws OHServiceException {
-		MedicalWard medicalWard = medicalStockWardRepository.findOneWhereCodeAndMedicalAndLot(ward.getCode(), medical.getCode(), lot.getCode());
-
-		if (medicalWard != null) {
-			medicalWard.setIn_quantity(medicalWard.getIn_quantity() + quantity);
-			medicalStockWardRepository.save(medicalWard);
-		} else {
-			medicalWard = new MedicalWard(ward, medical, quantity, 0, lot);
+	protected void updateMedicalWardQuantity(Ward ward, Medical medical, int quantity, Lot lot) throws OHServiceException {
+		medicalWardStockCache.invalidate(ward.getCode());
+		if (medicalStockWardRepository.updateInQuantity((double) quantity, ward.getCode(), medical.getCode(), lot.getCode()) == 0) {
 			medicalStockWardRepository.insertMedicalWard(ward.getCode(), medical.getCode(), (double) quantity, lot.getCode());
+		} else {
+			medicalStockWardRepository.refreshQuantities(ward.getCode(), medical.getCode(), lot.getCode());
 		}
-		return medicalStockWardRepository.save(medicalWard);
 	}
 
 	/**
@@ -478,20 +656,7 @@ public class MedicalStockIoOperations {
 	 * @throws OHServiceException if an error occurs retrieving the movements.
 	 */
 	public List<Movement> getMovements(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo) throws OHServiceException {
-		List<Movement> pMovement = new ArrayList<>();
-		// TODO: investigate whether findMovementWhereDatesAndId() could return a List<Movement> directly
-		// to remove the need to fetch the movements later in the loop below
-		List<Integer> pMovementCode = movRepository.findMovementWhereDatesAndId(wardId, TimeTools.truncateToSeconds(dateFrom),
-						TimeTools.truncateToSeconds(dateTo));
-		for (int i = 0; i < pMovementCode.size(); i++) {
-			Integer code = pMovementCode.get(i);
-			Movement movement = movRepository.findById(code).orElse(null);
-			if (movement == null) {
-				throw new OHServiceException(new OHExceptionMessage("Movement '" + code + "' not found."));
-			}
-			pMovement.add(i, movement);
-		}
-		return pMovement;
+		return movRepository.fetchMovementWhereDatesAndId(wardId, TimeTools.truncateToSeconds(dateFrom), TimeTools.truncateToSeconds(dateTo));
 	}
 
 	/**
@@ -521,24 +686,51 @@ public class MedicalStockIoOperations {
 					LocalDateTime lotPrepTo,
 					LocalDateTime lotDueFrom,
 					LocalDateTime lotDueTo) throws OHServiceException {
-		List<Movement> pMovement = new ArrayList<>();
+		return getMovements(medicalCode, medicalType, wardId, movType, movFrom, movTo, lotPrepFrom, lotPrepTo, lotDueFrom, lotDueTo, null, 0);
+	}
 
-		List<Integer> pMovementCode = movRepository.findMovementWhereData(medicalCode, medicalType, wardId, movType,
+	/**
+	 * Retrieves a page of the stored {@link Movement} with the specified criteria, ordered by code descending.
+	 * 
+	 * The next page is obtained passing the code of the last movement of the current page as {@code lastCode}.
+	 * 
+	 * @param medicalCode the {@link Medical} code (optional).
+	 * @param medicalTypeCode the {@link MedicalType} code (optional).
+	 * @param wardId the {@link Ward} id (optional).
+	 * @param movTypeCode the {@link MovementType} code or {@code "+"}/{@code "-"} for all charge/discharge types (optional).
+	 * @param movFrom the lower bound for the movement date range (optional).
+	 * @param movTo the upper bound for the movement date range (optional).
+	 * @param lotPrepFrom the lower bound for the lot preparation date range (optional).
+	 * @param lotPrepTo the upper bound for the lot preparation date range (optional).
+	 * @param lotDueFrom the lower bound for the lot due date range (optional).
+	 * @param lotDueTo the lower bound for the lot due date range (optional).
+	 * @param lastCode the code of the last movement of the previous page, {@code null} for the first page.
+	 * @param pageSize the maximum number of movements to return, {@code 0} for no limit.
+	 * @return the retrieved movements.
+	 * @throws OHServiceException
+	 */
+	public List<Movement> getMovements(
+					Integer medicalCode,
+					String medicalType,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					LocalDateTime lotPrepFrom,
+					LocalDateTime lotPrepTo,
+					LocalDateTime lotDueFrom,
+					LocalDateTime lotDueTo,
+					Integer lastCode,
+					int pageSize) throws OHServiceException {
+		return movRepository.fetchMovementWhereData(medicalCode, medicalType, wardId, movType,
 						TimeTools.truncateToSeconds(movFrom),
 						TimeTools.truncateToSeconds(movTo),
 						TimeTools.truncateToSeconds(lotPrepFrom),
 						TimeTools.truncateToSeconds(lotPrepTo),
 						TimeTools.truncateToSeconds(lotDueFrom),
-						TimeTools.truncateToSeconds(lotDueTo));
-		for (int i = 0; i < pMovementCode.size(); i++) {
-			Integer code = pMovementCode.get(i);
-			Movement movement = movRepository.findById(code).orElse(null);
-			if (movement == null) {
-				throw new OHServiceException(new OHExceptionMessage("Movement '" + code + "' not found."));
-			}
-			pMovement.add(i, movement);
-		}
-		return pMovement;
+						TimeTools.truncateToSeconds(lotDueTo),
+						lastCode,
+						pageSize);
 	}
 
 	/**
@@ -564,18 +756,77 @@ public class MedicalStockIoOperations {
 					LocalDateTime movTo,
 					String lotCode,
 					MovementOrder order) throws OHServiceException {
-		List<Movement> pMovement = new ArrayList<>();
-
-		List<Integer> pMovementCode = movRepository.findMovementForPrint(medicalDescription, medicalTypeCode, wardId, movType, movFrom, movTo, lotCode, order);
-		for (int i = 0; i < pMovementCode.size(); i++) {
-			Integer code = pMovementCode.get(i);
-			Movement movement = movRepository.findById(code).orElse(null);
-			if (movement == null) {
-				throw new OHServiceException(new OHExceptionMessage("Movement '" + code + "' not found."));
-			}
-			pMovement.add(i, movement);
-		}
-		return pMovement;
+		return movRepository.fetchMovementForPrint(medicalDescription, medicalTypeCode, wardId, movType, movFrom, movTo, lotCode, order);
+	}
+
+	/**
+	 * Streams all the stored {@link Movement} with the specified criteria, ordered by date and code ascending.
+	 * 
+	 * Movements are read by keyset in chunks of {@code fetchSize} rows while the stream is consumed, so that exports over wide date ranges do
+	 * not need to hold all the movements in memory.
+	 * 
+	 * @param medicalCode the {@link Medical} code (optional).
+	 * @param medicalTypeCode the {@link MedicalType} code (optional).
+	 * @param wardId the {@link Ward} id (optional).
+	 * @param movTypeCode the {@link MovementType} code or {@code "+"}/{@code "-"} for all charge/discharge types (optional).
+	 * @param movFrom the lower bound for the movement date range (optional).
+	 * @param movTo the upper bound for the movement date range (optional).
+	 * @param lotPrepFrom the lower bound for the lot preparation date range (optional).
+	 * @param lotPrepTo the upper bound for the lot preparation date range (optional).
+	 * @param lotDueFrom the lower bound for the lot due date range (optional).
+	 * @param lotDueTo the lower bound for the lot due date range (optional).
+	 * @param fetchSize the number of movements read by each query.
+	 * @return the stream of the retrieved movements.
+	 * @throws OHServiceException
+	 */
+	public Stream<Movement> getMovementStream(
+					Integer medicalCode,
+					String medicalType,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					LocalDateTime lotPrepFrom,
+					LocalDateTime lotPrepTo,
+					LocalDateTime lotDueFrom,
+					LocalDateTime lotDueTo,
+					int fetchSize) throws OHServiceException {
+		return movRepository.streamMovementWhereData(medicalCode, medicalType, wardId, movType,
+						TimeTools.truncateToSeconds(movFrom),
+						TimeTools.truncateToSeconds(movTo),
+						TimeTools.truncateToSeconds(lotPrepFrom),
+						TimeTools.truncateToSeconds(lotPrepTo),
+						TimeTools.truncateToSeconds(lotDueFrom),
+						TimeTools.truncateToSeconds(lotDueTo),
+						fetchSize);
+	}
+
+	/**
+	 * Streams {@link Movement}s for printing using specified filtering criteria, in the specified order.
+	 * 
+	 * @param medicalDescription the medical description.
+	 * @param medicalTypeCode the medical type code.
+	 * @param wardId the ward id.
+	 * @param movType the movement type.
+	 * @param movFrom the lower bound for the movement date range.
+	 * @param movTo the upper bound for the movement date range.
+	 * @param lotCode the lot code.
+	 * @param order the result order.
+	 * @param fetchSize the number of movements read by each query.
+	 * @return the stream of the retrieved movements.
+	 * @throws OHServiceException if an error occurs retrieving the movements.
+	 */
+	public Stream<Movement> getMovementForPrintStream(
+					String medicalDescription,
+					String medicalTypeCode,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					String lotCode,
+					MovementOrder order,
+					int fetchSize) throws OHServiceException {
+		return movRepository.streamMovementForPrint(medicalDescription, medicalTypeCode, wardId, movType, movFrom, movTo, lotCode, order, fetchSize);
 	}
 
 	/**
@@ -592,35 +843,17 @@ public class MedicalStockIoOperations {
 			return Collections.emptyList();
 		}
 
-		// Get all lot IDs
 		List<String> lotCodes = lots.stream().map(Lot::getCode).collect(Collectors.toList());
+		Map<String, Integer> mainStoreQuantities = getMainStoreQuantities(lots, lotBalanceRepository.findMainStoreQuantitiesByMedical(medical.getCode()));
 
-		// Retrieve quantities in batch
-		List<Object[]> mainStoreQuantities = lotRepository.getMainStoreQuantities(lotCodes);
-		List<Object[]> wardsTotalQuantities = lotRepository.getWardsTotalQuantities(lotCodes);
-
-		// Process mainStoreQuantities and update lots
-		for (Object[] result : mainStoreQuantities) {
-			String lotCode = (String) result[0];
-			Integer mainStoreQuantity = ((Long) result[1]).intValue();
-
-			// Find the corresponding lot in the lots list
-			Optional<Lot> matchingLot = lots.stream().filter(lot -> lot.getCode().equals(lotCode)).findFirst();
-
-			// Update the lot if found
-			matchingLot.ifPresent(lot -> lot.setMainStoreQuantity(mainStoreQuantity));
+		Map<String, Double> wardsTotalQuantities = new HashMap<>();
+		for (Object[] result : lotRepository.getWardsTotalQuantities(lotCodes)) {
+			wardsTotalQuantities.put((String) result[0], (Double) result[1]);
 		}
 
-		// Process wardsTotalQuantities and update lots
-		for (Object[] result : wardsTotalQuantities) {
-			String lotCode = (String) result[0];
-			Double wardsTotalQuantity = (Double) result[1];
-
-			// Find the corresponding lot in the lots list
-			Optional<Lot> matchingLot = lots.stream().filter(lot -> lot.getCode().equals(lotCode)).findFirst();
-
-			// Update the lot if found
-			matchingLot.ifPresent(lot -> lot.setWardsTotalQuantity(wardsTotalQuantity));
+		for (Lot lot : lots) {
+			lot.setMainStoreQuantity(mainStoreQuantities.get(lot.getCode()));
+			lot.setWardsTotalQuantity(wardsTotalQuantities.getOrDefault(lot.getCode(), 0.0));
 		}
 
 		// Remove empty lots
@@ -629,6 +862,57 @@ public class MedicalStockIoOperations {
 		return lots;
 	}
 
+	/**
+	 * Retrieves the lots referred to the specified {@link Medical}s, expiring first on top, with their main store quantity. Lots with zero quantities
+	 * will be stripped out.
+	 * 
+	 * @param medicalCodes the codes of the medicals.
+	 * @return the lots of each medical.
+	 */
+	private Map<Integer, List<Lot>> getLotsByMedicals(List<Integer> medicalCodes) {
+		List<Lot> lots = lotRepository.findByMedicalsOrderByDueDate(medicalCodes);
+		Map<Integer, List<Lot>> lotsByMedical = new HashMap<>();
+
+		if (lots.isEmpty()) {
+			return lotsByMedical;
+		}
+
+		Map<String, Integer> mainStoreQuantities = getMainStoreQuantities(lots, lotBalanceRepository.findMainStoreQuantitiesByMedicals(medicalCodes));
+		for (Lot lot : lots) {
+			lot.setMainStoreQuantity(mainStoreQuantities.get(lot.getCode()));
+			if (lot.getMainStoreQuantity() > 0) {
+				lotsByMedical.computeIfAbsent(lot.getMedical().getCode(), code -> new ArrayList<>()).add(lot);
+			}
+		}
+		return lotsByMedical;
+	}
+
+	/**
+	 * Gets the main store quantities of the specified {@link Lot}s from their balances; the lots stored without a balance are summed from the
+	 * movement log, leaving the balance to be inserted by their next movement.
+	 * 
+	 * @param lots the lots.
+	 * @param lotBalances the lot code and main store quantity of the stored balances.
+	 * @return the main store quantity of each lot.
+	 */
+	private Map<String, Integer> getMainStoreQuantities(List<Lot> lots, List<Object[]> lotBalances) {
+		Map<String, Integer> mainStoreQuantities = new HashMap<>();
+		for (Object[] lotBalance : lotBalances) {
+			mainStoreQuantities.put((String) lotBalance[0], (Integer) lotBalance[1]);
+		}
+		List<String> missingLotCodes = lots.stream().map(Lot::getCode).filter(lotCode -> !mainStoreQuantities.containsKey(lotCode))
+						.collect(Collectors.toList());
+		if (!missingLotCodes.isEmpty()) {
+			for (String lotCode : missingLotCodes) {
+				mainStoreQuantities.put(lotCode, 0);
+			}
+			for (Object[] result : lotRepository.getMainStoreQuantities(missingLotCodes)) {
+				mainStoreQuantities.put((String) result[0], ((Long) result[1]).intValue());
+			}
+		}
+		return mainStoreQuantities;
+	}
+
 	/**
 	 * Returns the date of the last movement
 	 * 
@@ -679,7 +963,8 @@ public class MedicalStockIoOperations {
 	public void deleteMovement(Movement movement) throws OHServiceException {
 		Medical medical = movement.getMedical();
 		int code = medical.getCode();
-		List<MedicalStock> medicalStockList = medicalStockRepository.findByMedicalCodeOrderByBalanceDateDesc(code);
+		// the latest balance and the previous one, that becomes the latest if the balance is removed
+		List<MedicalStock> medicalStockList = medicalStockRepository.findTop2ByMedicalCodeOrderByBalanceDateDesc(code);
 		if (medicalStockList.isEmpty()) {
 			throw new OHServiceException(new OHExceptionMessage("Medical '" + medical.getDescription() + "' (" + code + ") not found (not possible)."));
 		}
@@ -727,6 +1012,7 @@ public class MedicalStockIoOperations {
 				medicalStockRepository.save(lastMedicalStock);
 			}
 		}
+		updateLotBalance(movement.getLot().getCode(), -getSignedQuantity(movement));
 		movRepository.delete(movement);
 	}
 
@@ -23,7 +23,9 @@ package org.isf.medicalstock.service;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
+import org.isf.medicalstock.model.Movement;
 import org.isf.medicalstock.service.MedicalStockIoOperations.MovementOrder;
 import org.springframework.stereotype.Repository;
 
@@ -39,4 +41,24 @@ public interface MovementIoOperationRepositoryCustom {
 	List<Integer> findMovementForPrint(String medicalDescription, String medicalTypeCode, String wardId,
 			String movType, LocalDateTime movFrom, LocalDateTime movTo, String lotCode, MovementOrder order);
 
+	List<Movement> fetchMovementWhereDatesAndId(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo);
+
+	List<Movement> fetchMovementWhereData(Integer medicalCode, String medicalType, String wardId, String movType,
+			LocalDateTime movFrom, LocalDateTime movTo, LocalDateTime lotPrepFrom,
+			LocalDateTime lotPrepTo, LocalDateTime lotDueFrom, LocalDateTime lotDueTo);
+
+	List<Movement> fetchMovementWhereData(Integer medicalCode, String medicalType, String wardId, String movType,
+			LocalDateTime movFrom, LocalDateTime movTo, LocalDateTime lotPrepFrom,
+			LocalDateTime lotPrepTo, LocalDateTime lotDueFrom, LocalDateTime lotDueTo, Integer lastCode, int maxResults);
+
+	List<Movement> fetchMovementForPrint(String medicalDescription, String medicalTypeCode, String wardId,
+			String movType, LocalDateTime movFrom, LocalDateTime movTo, String lotCode, MovementOrder order);
+
+	Stream<Movement> streamMovementWhereData(Integer medicalCode, String medicalType, String wardId, String movType,
+			LocalDateTime movFrom, LocalDateTime movTo, LocalDateTime lotPrepFrom,
+			LocalDateTime lotPrepTo, LocalDateTime lotDueFrom, LocalDateTime lotDueTo, int fetchSize);
+
+	Stream<Movement> streamMovementForPrint(String medicalDescription, String medicalTypeCode, String wardId,
+			String movType, LocalDateTime movFrom, LocalDateTime movTo, String lotCode, MovementOrder order, int fetchSize);
+
 }
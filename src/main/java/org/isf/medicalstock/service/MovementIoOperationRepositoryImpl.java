@@ -24,12 +24,19 @@ package org.isf.medicalstock.service;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
 import jakarta.persistence.criteria.Order;
+import jakarta.persistence.criteria.Path;
 import jakarta.persistence.criteria.Predicate;
 import jakarta.persistence.criteria.Root;
 
@@ -39,6 +46,7 @@ import org.isf.medicalstock.model.Movement;
 import org.isf.medicalstock.service.MedicalStockIoOperations.MovementOrder;
 import org.isf.medstockmovtype.model.MovementType;
 import org.isf.medtype.model.MedicalType;
+import org.isf.utils.db.EntityStreams;
 import org.isf.utils.time.TimeTools;
 import org.isf.ward.model.Ward;
 import org.springframework.transaction.annotation.Transactional;
@@ -54,6 +62,7 @@ public class MovementIoOperationRepositoryImpl implements MovementIoOperationRep
 	private static final String LOT = "lot";
 	private static final String TYPE = "type";
 	private static final String DESCRIPTION = "description";
+	private static final String SUPPLIER = "supplier";
 
 	@PersistenceContext
 	private EntityManager entityManager;
@@ -96,25 +105,246 @@ public class MovementIoOperationRepositoryImpl implements MovementIoOperationRep
 						lotCode, order);
 	}
 
+	@Override
+	public List<Movement> fetchMovementWhereDatesAndId(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Movement> query = builder.createQuery(Movement.class);
+		Root<Movement> root = query.from(Movement.class);
+		MovementJoins joins = fetchAll(root);
+		query.select(root);
+		query.where(getMovementWhereDatesAndIdPredicates(builder, root, joins.ward, wardId, dateFrom, dateTo))
+			.orderBy(getMovementWhereDatesAndIdOrder(builder, root));
+		return entityManager.createQuery(query).getResultList();
+	}
+
+	@Override
+	public List<Movement> fetchMovementWhereData(
+					Integer medicalCode,
+					String medicalType,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					LocalDateTime lotPrepFrom,
+					LocalDateTime lotPrepTo,
+					LocalDateTime lotDueFrom,
+					LocalDateTime lotDueTo) {
+		return fetchMovementWhereData(medicalCode, medicalType, wardId, movType, movFrom, movTo,
+						lotPrepFrom, lotPrepTo, lotDueFrom, lotDueTo, null, 0);
+	}
+
+	@Override
+	public List<Movement> fetchMovementWhereData(
+					Integer medicalCode,
+					String medicalType,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					LocalDateTime lotPrepFrom,
+					LocalDateTime lotPrepTo,
+					LocalDateTime lotDueFrom,
+					LocalDateTime lotDueTo,
+					Integer lastCode,
+					int maxResults) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Movement> query = builder.createQuery(Movement.class);
+		Root<Movement> root = query.from(Movement.class);
+		MovementJoins joins = fetchAll(root);
+		query.select(root);
+		List<Predicate> predicates = getMovementWhereDataPredicates(builder, root, joins.medical, joins.lot, joins.type, joins.ward,
+						medicalCode, medicalType, wardId, movType, movFrom, movTo, lotPrepFrom, lotPrepTo, lotDueFrom, lotDueTo);
+		if (lastCode != null) {
+			// keyset: results are ordered by code descending, so the next page starts below the last code seen
+			predicates.add(builder.lessThan(root.<Integer> get(CODE), lastCode));
+		}
+		query.where(predicates.toArray(new Predicate[] {})).orderBy(getMovementWhereDataOrder(builder, root));
+		TypedQuery<Movement> typedQuery = entityManager.createQuery(query);
+		if (maxResults > 0) {
+			typedQuery.setMaxResults(maxResults);
+		}
+		return typedQuery.getResultList();
+	}
+
+	@Override
+	public List<Movement> fetchMovementForPrint(
+					String medicalDescription,
+					String medicalTypeCode,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					String lotCode,
+					MovementOrder order) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Movement> query = builder.createQuery(Movement.class);
+		Root<Movement> root = query.from(Movement.class);
+		MovementJoins joins = fetchAll(root);
+		query.select(root);
+		query.where(getMovementForPrintPredicates(builder, root, joins.medical, joins.lot, joins.type, joins.ward,
+						medicalDescription, medicalTypeCode, wardId, movType, movFrom, movTo, lotCode))
+			.orderBy(getMovementForPrintOrder(builder, root, joins.medical, joins.type, joins.ward, order));
+		return entityManager.createQuery(query).getResultList();
+	}
+
+	@Override
+	public Stream<Movement> streamMovementWhereData(
+					Integer medicalCode,
+					String medicalType,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					LocalDateTime lotPrepFrom,
+					LocalDateTime lotPrepTo,
+					LocalDateTime lotDueFrom,
+					LocalDateTime lotDueTo,
+					int fetchSize) {
+		return EntityStreams.stream(entityManager, fetchSize, (last, maxResults) -> fetchMovementWhereDataAfter(medicalCode, medicalType, wardId,
+						movType, movFrom, movTo, lotPrepFrom, lotPrepTo, lotDueFrom, lotDueTo, last, maxResults));
+	}
+
+	@Override
+	public Stream<Movement> streamMovementForPrint(
+					String medicalDescription,
+					String medicalTypeCode,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					String lotCode,
+					MovementOrder order,
+					int fetchSize) {
+		return EntityStreams.stream(entityManager, fetchSize, (last, maxResults) -> fetchMovementForPrintAfter(medicalDescription,
+						medicalTypeCode, wardId, movType, movFrom, movTo, lotCode, order, last, maxResults));
+	}
+
+	/**
+	 * Reads the movements matching the filter that follow the specified one in ({@code date}, {@code code}) order (keyset pagination).
+	 */
+	private List<Movement> fetchMovementWhereDataAfter(
+					Integer medicalCode,
+					String medicalType,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					LocalDateTime lotPrepFrom,
+					LocalDateTime lotPrepTo,
+					LocalDateTime lotDueFrom,
+					LocalDateTime lotDueTo,
+					Movement last,
+					int maxResults) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Movement> query = builder.createQuery(Movement.class);
+		Root<Movement> root = query.from(Movement.class);
+		MovementJoins joins = fetchAll(root);
+		query.select(root);
+		List<Predicate> predicates = getMovementWhereDataPredicates(builder, root, joins.medical, joins.lot, joins.type, joins.ward,
+						medicalCode, medicalType, wardId, movType, movFrom, movTo, lotPrepFrom, lotPrepTo, lotDueFrom, lotDueTo);
+		if (last != null) {
+			Path<LocalDateTime> date = root.get(DATE);
+			predicates.add(builder.or(
+							builder.greaterThan(date, last.getDate()),
+							builder.and(builder.equal(date, last.getDate()), builder.greaterThan(root.<Integer> get(CODE), last.getCode()))));
+		}
+		query.where(predicates.toArray(new Predicate[] {})).orderBy(builder.asc(root.get(DATE)), builder.asc(root.get(CODE)));
+		return entityManager.createQuery(query).setMaxResults(maxResults).getResultList();
+	}
+
+	/**
+	 * Reads the movements matching the filter that follow the specified one in the requested order, ended by the code
+	 * (keyset pagination).
+	 */
+	private List<Movement> fetchMovementForPrintAfter(
+					String medicalDescription,
+					String medicalTypeCode,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					String lotCode,
+					MovementOrder order,
+					Movement last,
+					int maxResults) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Movement> query = builder.createQuery(Movement.class);
+		Root<Movement> root = query.from(Movement.class);
+		MovementJoins joins = fetchAll(root);
+		query.select(root);
+		List<Predicate> predicates = new ArrayList<>(List.of(getMovementForPrintPredicates(builder, root, joins.medical, joins.lot, joins.type,
+						joins.ward, medicalDescription, medicalTypeCode, wardId, movType, movFrom, movTo, lotCode)));
+		List<MovementSortKey> sortKeys = getMovementForPrintSortKeys(builder, root, joins.medical, joins.type, joins.ward, order);
+		if (last != null) {
+			predicates.add(getAfterPredicate(builder, sortKeys, last));
+		}
+		query.where(predicates.toArray(new Predicate[] {})).orderBy(getOrder(builder, sortKeys));
+		return entityManager.createQuery(query).setMaxResults(maxResults).getResultList();
+	}
+
+	/**
+	 * Matches the rows that follow {@code last} when ordered by {@code sortKeys}: equal on the first keys and after it on the next one.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Predicate getAfterPredicate(CriteriaBuilder builder, List<MovementSortKey> sortKeys, Movement last) {
+		List<Predicate> alternatives = new ArrayList<>();
+		List<Predicate> equalKeys = new ArrayList<>();
+		for (MovementSortKey sortKey : sortKeys) {
+			Comparable value = sortKey.value.apply(last);
+			Expression expression = sortKey.expression;
+			List<Predicate> alternative = new ArrayList<>(equalKeys);
+			alternative.add(sortKey.ascending ? builder.greaterThan(expression, value) : builder.lessThan(expression, value));
+			alternatives.add(builder.and(alternative.toArray(new Predicate[] {})));
+			equalKeys.add(builder.equal(expression, value));
+		}
+		return builder.or(alternatives.toArray(new Predicate[] {}));
+	}
+
+	/**
+	 * Fetch-joins every association needed to render a {@link Movement} so that the whole graph is loaded by a single statement.
+	 * 
+	 * @param root the {@link Movement} root.
+	 * @return the joins to be reused in predicates and ordering.
+	 */
+	@SuppressWarnings("unchecked")
+	private MovementJoins fetchAll(Root<Movement> root) {
+		Join<Movement, Medical> medical = (Join<Movement, Medical>) root.<Movement, Medical> fetch(MEDICAL, JoinType.INNER);
+		medical.fetch(TYPE, JoinType.LEFT);
+		Join<Movement, MovementType> type = (Join<Movement, MovementType>) root.<Movement, MovementType> fetch(TYPE, JoinType.INNER);
+		Join<Movement, Lot> lot = (Join<Movement, Lot>) root.<Movement, Lot> fetch(LOT, JoinType.LEFT);
+		Join<Movement, Ward> ward = (Join<Movement, Ward>) root.<Movement, Ward> fetch(WARD, JoinType.LEFT);
+		root.fetch(SUPPLIER, JoinType.LEFT);
+		return new MovementJoins(medical, type, lot, ward);
+	}
+
 	private List<Integer> getMovementWhereDatesAndId(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo) {
 		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
 		CriteriaQuery<Integer> query = builder.createQuery(Integer.class);
 		Root<Movement> root = query.from(Movement.class);
 		query.select(root.<Integer> get(CODE));
+		query.where(getMovementWhereDatesAndIdPredicates(builder, root, root.get(WARD), wardId, dateFrom, dateTo))
+			.orderBy(getMovementWhereDatesAndIdOrder(builder, root));
+		return entityManager.createQuery(query).getResultList();
+	}
+
+	private Predicate[] getMovementWhereDatesAndIdPredicates(CriteriaBuilder builder, Root<Movement> root, Path<Ward> ward,
+					String wardId, LocalDateTime dateFrom, LocalDateTime dateTo) {
 		List<Predicate> predicates = new ArrayList<>();
 
 		if ((dateFrom != null) && (dateTo != null)) {
 			predicates.add(builder.between(root.<LocalDateTime> get(DATE), TimeTools.getBeginningOfDay(dateFrom), TimeTools.getBeginningOfNextDay(dateTo)));
 		}
 		if (wardId != null && !wardId.equals("")) {
-			predicates.add(builder.equal(root.<Ward> get(WARD).<String> get(CODE), wardId));
+			predicates.add(builder.equal(ward.<String> get(CODE), wardId));
 		}
+		return predicates.toArray(new Predicate[] {});
+	}
 
+	private List<Order> getMovementWhereDatesAndIdOrder(CriteriaBuilder builder, Root<Movement> root) {
 		List<Order> orderList = new ArrayList<>();
 		orderList.add(builder.desc(root.get(DATE)));
 		orderList.add(builder.desc(root.get(REF_NO)));
-		query.where(predicates.toArray(new Predicate[] {})).orderBy(orderList);
-		return entityManager.createQuery(query).getResultList();
+		return orderList;
 	}
 
 	private List<Integer> getMovementWhereData(
@@ -132,43 +362,68 @@ public class MovementIoOperationRepositoryImpl implements MovementIoOperationRep
 		CriteriaQuery<Integer> query = builder.createQuery(Integer.class);
 		Root<Movement> root = query.from(Movement.class);
 		query.select(root.<Integer> get(CODE));
+		List<Predicate> predicates = getMovementWhereDataPredicates(builder, root, root.get(MEDICAL), root.get(LOT), root.get(TYPE), root.get(WARD),
+						medicalCode, medicalType, wardId, movType, movFrom, movTo, lotPrepFrom, lotPrepTo, lotDueFrom, lotDueTo);
+		query.where(predicates.toArray(new Predicate[] {})).orderBy(getMovementWhereDataOrder(builder, root));
+		return entityManager.createQuery(query).getResultList();
+	}
+
+	private List<Predicate> getMovementWhereDataPredicates(
+					CriteriaBuilder builder,
+					Root<Movement> root,
+					Path<Medical> medical,
+					Path<Lot> lot,
+					Path<MovementType> type,
+					Path<Ward> ward,
+					Integer medicalCode,
+					String medicalType,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					LocalDateTime lotPrepFrom,
+					LocalDateTime lotPrepTo,
+					LocalDateTime lotDueFrom,
+					LocalDateTime lotDueTo) {
 		List<Predicate> predicates = new ArrayList<>();
 
 		if (medicalCode != null) {
-			predicates.add(builder.equal(root.<Medical> get(MEDICAL).<String> get(CODE), medicalCode));
+			predicates.add(builder.equal(medical.<String> get(CODE), medicalCode));
 		}
 		if (medicalType != null) {
-			predicates.add(builder.equal(root.<Medical> get(MEDICAL).<MedicalType> get(TYPE).<String> get(CODE), medicalType));
+			predicates.add(builder.equal(medical.<MedicalType> get(TYPE).<String> get(CODE), medicalType));
 		}
 		if ((movFrom != null) && (movTo != null)) {
 			predicates.add(builder.between(root.<LocalDateTime> get(DATE), TimeTools.getBeginningOfDay(movFrom), TimeTools.getBeginningOfNextDay(movTo)));
 		}
 		if ((lotPrepFrom != null) && (lotPrepTo != null)) {
-			predicates.add(builder.between(root.<Lot> get(LOT).<LocalDateTime> get("preparationDate"), TimeTools.getBeginningOfDay(lotPrepFrom),
+			predicates.add(builder.between(lot.<LocalDateTime> get("preparationDate"), TimeTools.getBeginningOfDay(lotPrepFrom),
 							TimeTools.getBeginningOfNextDay(lotPrepTo)));
 		}
 		if ((lotDueFrom != null) && (lotDueTo != null)) {
-			predicates.add(builder.between(root.<Lot> get(LOT).<LocalDateTime> get("dueDate"), TimeTools.getBeginningOfDay(lotDueFrom),
+			predicates.add(builder.between(lot.<LocalDateTime> get("dueDate"), TimeTools.getBeginningOfDay(lotDueFrom),
 							TimeTools.getBeginningOfNextDay(lotDueTo)));
 		}
 		if ("+".equals(movType)) {
-			predicates.add(builder.equal(root.<MovementType> get(TYPE).<String> get(TYPE), movType));
+			predicates.add(builder.equal(type.<String> get(TYPE), movType));
 
 		} else if ("-".equals(movType)) {
-			predicates.add(builder.equal(root.<MovementType> get(TYPE).<String> get(TYPE), movType));
+			predicates.add(builder.equal(type.<String> get(TYPE), movType));
 
 		} else if (movType != null) {
-			predicates.add(builder.equal(root.<MovementType> get(TYPE).<String> get(CODE), movType));
+			predicates.add(builder.equal(type.<String> get(CODE), movType));
 		}
 		if (wardId != null) {
-			predicates.add(builder.equal(root.<Ward> get(WARD).<String> get(CODE), wardId));
+			predicates.add(builder.equal(ward.<String> get(CODE), wardId));
 		}
+		return predicates;
+	}
 
+	private List<Order> getMovementWhereDataOrder(CriteriaBuilder builder, Root<Movement> root) {
 		List<Order> orderList = new ArrayList<>();
 		orderList.add(builder.desc(root.get(CODE)));
 		orderList.add(builder.desc(root.get(REF_NO)));
-		query.where(predicates.toArray(new Predicate[] {})).orderBy(orderList);
-		return entityManager.createQuery(query).getResultList();
+		return orderList;
 	}
 
 	private List<Integer> getMovementForPrint(
@@ -184,48 +439,123 @@ public class MovementIoOperationRepositoryImpl implements MovementIoOperationRep
 		CriteriaQuery<Integer> query = builder.createQuery(Integer.class);
 		Root<Movement> root = query.from(Movement.class);
 		query.select(root.<Integer> get(CODE));
+		query.where(getMovementForPrintPredicates(builder, root, root.get(MEDICAL), root.get(LOT), root.get(TYPE), root.get(WARD),
+						medicalDescription, medicalTypeCode, wardId, movType, movFrom, movTo, lotCode))
+			.orderBy(getMovementForPrintOrder(builder, root, root.get(MEDICAL), root.get(TYPE), root.get(WARD), order));
+		return entityManager.createQuery(query).getResultList();
+	}
+
+	private Predicate[] getMovementForPrintPredicates(
+					CriteriaBuilder builder,
+					Root<Movement> root,
+					Path<Medical> medical,
+					Path<Lot> lot,
+					Path<MovementType> type,
+					Path<Ward> ward,
+					String medicalDescription,
+					String medicalTypeCode,
+					String wardId,
+					String movType,
+					LocalDateTime movFrom,
+					LocalDateTime movTo,
+					String lotCode) {
 		List<Predicate> predicates = new ArrayList<>();
 
 		if (medicalDescription != null) {
-			predicates.add(builder.equal(root.<Medical> get(MEDICAL).<String> get(DESCRIPTION), medicalDescription));
+			predicates.add(builder.equal(medical.<String> get(DESCRIPTION), medicalDescription));
 		}
 		if (medicalTypeCode != null) {
-			predicates.add(builder.equal(root.<Medical> get(MEDICAL).<MedicalType> get(TYPE).<String> get(CODE), medicalTypeCode));
+			predicates.add(builder.equal(medical.<MedicalType> get(TYPE).<String> get(CODE), medicalTypeCode));
 		}
 		if (lotCode != null) {
-			predicates.add(builder.equal(root.<Ward> get(LOT).<String> get(CODE), lotCode));
+			predicates.add(builder.equal(lot.<String> get(CODE), lotCode));
 		}
 		if ((movFrom != null) && (movTo != null)) {
 			predicates.add(builder.between(root.<LocalDateTime> get(DATE), TimeTools.getBeginningOfDay(movFrom), TimeTools.getBeginningOfNextDay(movTo)));
 		}
 		if (movType != null) {
-			predicates.add(builder.equal(root.<MedicalType> get(TYPE).<String> get(CODE), movType));
+			predicates.add(builder.equal(type.<String> get(CODE), movType));
 		}
 		if (wardId != null) {
-			predicates.add(builder.equal(root.<Ward> get(WARD).<String> get(CODE), wardId));
+			predicates.add(builder.equal(ward.<String> get(CODE), wardId));
 		}
-		List<Order> orderList = new ArrayList<>();
+		return predicates.toArray(new Predicate[] {});
+	}
+
+	private List<Order> getMovementForPrintOrder(CriteriaBuilder builder, Root<Movement> root, Path<Medical> medical, Path<MovementType> type,
+					Path<Ward> ward, MovementOrder order) {
+		return getOrder(builder, getMovementForPrintSortKeys(builder, root, medical, type, ward, order));
+	}
+
+	/**
+	 * The keys of the requested order, ended by the code so that every movement has its own place (needed by keyset pagination).
+	 * The nullable columns are compared as empty strings.
+	 */
+	private List<MovementSortKey> getMovementForPrintSortKeys(CriteriaBuilder builder, Root<Movement> root, Path<Medical> medical,
+					Path<MovementType> type, Path<Ward> ward, MovementOrder order) {
+		List<MovementSortKey> sortKeys = new ArrayList<>();
 		switch (order) {
 		case DATE:
-			orderList.add(builder.desc(root.get(DATE)));
-			orderList.add(builder.desc(root.get(REF_NO)));
+			sortKeys.add(new MovementSortKey(root.get(DATE), false, Movement::getDate));
+			sortKeys.add(new MovementSortKey(root.get(REF_NO), false, Movement::getRefNo));
 			break;
 		case WARD:
-			orderList.add(builder.desc(root.get(REF_NO)));
-			orderList.add(builder.desc(root.<Ward> get(WARD).get(DESCRIPTION)));
+			sortKeys.add(new MovementSortKey(root.get(REF_NO), false, Movement::getRefNo));
+			sortKeys.add(new MovementSortKey(builder.coalesce(ward.<String> get(DESCRIPTION), ""), false,
+							movement -> movement.getWard() != null && movement.getWard().getDescription() != null ? movement.getWard().getDescription() : ""));
 			break;
 		case PHARMACEUTICAL_TYPE:
-			orderList.add(builder.desc(root.get(REF_NO)));
-			orderList.add(builder.asc(root.<Medical> get(MEDICAL).<MedicalType> get(TYPE)));
-			orderList.add(builder.asc(root.<Medical> get(MEDICAL).<MedicalType> get(TYPE).get(DESCRIPTION)));
+			sortKeys.add(new MovementSortKey(root.get(REF_NO), false, Movement::getRefNo));
+			sortKeys.add(new MovementSortKey(medical.<MedicalType> get(TYPE).get(CODE), true, movement -> movement.getMedical().getType().getCode()));
+			sortKeys.add(new MovementSortKey(builder.coalesce(medical.<MedicalType> get(TYPE).<String> get(DESCRIPTION), ""), true,
+							movement -> movement.getMedical().getType().getDescription() != null ? movement.getMedical().getType().getDescription() : ""));
 			break;
 		case TYPE:
-			orderList.add(builder.desc(root.get(REF_NO)));
-			orderList.add(builder.asc(root.<MovementType> get(TYPE).<MedicalType> get(DESCRIPTION)));
+			sortKeys.add(new MovementSortKey(root.get(REF_NO), false, Movement::getRefNo));
+			sortKeys.add(new MovementSortKey(type.get(DESCRIPTION), true, movement -> movement.getType().getDescription()));
 			break;
 		}
-		query.where(predicates.toArray(new Predicate[] {})).orderBy(orderList);
-		return entityManager.createQuery(query).getResultList();
+		sortKeys.add(new MovementSortKey(root.get(CODE), false, Movement::getCode));
+		return sortKeys;
+	}
+
+	private static List<Order> getOrder(CriteriaBuilder builder, List<MovementSortKey> sortKeys) {
+		List<Order> orderList = new ArrayList<>();
+		for (MovementSortKey sortKey : sortKeys) {
+			orderList.add(sortKey.ascending ? builder.asc(sortKey.expression) : builder.desc(sortKey.expression));
+		}
+		return orderList;
+	}
+
+	/**
+	 * A key of the order of the movements, with the way to read its value from a loaded {@link Movement}.
+	 */
+	private static final class MovementSortKey {
+
+		private final Expression<?> expression;
+		private final boolean ascending;
+		private final Function<Movement, Comparable<?>> value;
+
+		private MovementSortKey(Expression<?> expression, boolean ascending, Function<Movement, Comparable<?>> value) {
+			this.expression = expression;
+			this.ascending = ascending;
+			this.value = value;
+		}
+	}
+
+	private static final class MovementJoins {
+
+		private final Join<Movement, Medical> medical;
+		private final Join<Movement, MovementType> type;
+		private final Join<Movement, Lot> lot;
+		private final Join<Movement, Ward> ward;
+
+		private MovementJoins(Join<Movement, Medical> medical, Join<Movement, MovementType> type, Join<Movement, Lot> lot, Join<Movement, Ward> ward) {
+			this.medical = medical;
+			this.type = type;
+			this.lot = lot;
+			this.ward = ward;
+		}
 	}
 
 }
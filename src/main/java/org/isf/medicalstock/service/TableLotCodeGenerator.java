@@ -0,0 +1,118 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.isf.medicalstock.model.LotCodeCounter;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * {@link LotCodeGenerator} that reserves blocks of consecutive numbers from the {@link LotCodeCounter} table (hi-lo) and prefixes them with
+ * {@link #CODE_PREFIX}, so that they do not clash with the numeric codes generated before nor, usually, with the manually coded lots.
+ * 
+ * Each block is reserved in its own transaction, so that the counter row is locked only for the time of the increment and the reserved codes are
+ * never handed out twice, even if the transaction using them is rolled back. The codes of a block are checked against the existing lots with a
+ * single query, so that the returned codes can be inserted without further checks.
+ */
+@Component
+public class TableLotCodeGenerator implements LotCodeGenerator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TableLotCodeGenerator.class);
+
+	/**
+	 * Prefix of the generated codes.
+	 */
+	public static final String CODE_PREFIX = "AUTO-";
+
+	private static final int COUNTER_ID = 1;
+
+	private static final int BLOCK_SIZE = 50;
+
+	private LotCodeCounterIoOperationRepository counterRepository;
+
+	private LotIoOperationRepository lotRepository;
+
+	private TransactionTemplate transactionTemplate;
+
+	private final Deque<String> codes = new ArrayDeque<>();
+
+	public TableLotCodeGenerator(LotCodeCounterIoOperationRepository lotCodeCounterIoOperationRepository, LotIoOperationRepository lotIoOperationRepository,
+					PlatformTransactionManager transactionManager) {
+		this.counterRepository = lotCodeCounterIoOperationRepository;
+		this.lotRepository = lotIoOperationRepository;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+	}
+
+	@Override
+	public synchronized String nextLotCode() throws OHServiceException {
+		while (codes.isEmpty()) {
+			reserveBlock();
+		}
+		return codes.poll();
+	}
+
+	private void reserveBlock() throws OHServiceException {
+		Long first = transactionTemplate.execute(status -> {
+			LotCodeCounter counter = counterRepository.findOneForUpdate(COUNTER_ID);
+			if (counter == null) {
+				// seeded by step_a108: only schemas created otherwise get here, possibly concurrently
+				counterRepository.insertIfMissing(COUNTER_ID);
+				counter = counterRepository.findOneForUpdate(COUNTER_ID);
+			}
+			long next = counter.getNext();
+			counter.setNext(next + BLOCK_SIZE);
+			counterRepository.save(counter);
+			return next;
+		});
+		if (first == null) {
+			throw new OHServiceException(new OHExceptionMessage("Unable to reserve new lot codes."));
+		}
+
+		List<String> candidates = new ArrayList<>(BLOCK_SIZE);
+		for (long code = first; code < first + BLOCK_SIZE; code++) {
+			candidates.add(CODE_PREFIX + code);
+		}
+		Set<String> usedCodes = new HashSet<>(lotRepository.findCodesIn(candidates));
+		if (!usedCodes.isEmpty()) {
+			LOGGER.debug("{} lot codes of the block starting at {} are already used", usedCodes.size(), first);
+		}
+		for (String code : candidates) {
+			if (!usedCodes.contains(code)) {
+				codes.add(code);
+			}
+		}
+	}
+}
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.isf.generaldata.MessageBundle;
 import org.isf.medicals.model.Medical;
@@ -128,6 +129,21 @@ public class MovWardBrowserManager {
 		return ioOperations.getWardMovements(wardId, dateFrom, dateTo);
 	}
 
+	/**
+	 * Streams all the movement ward with the specified criteria, ordered by date and code ascending.
+	 *
+	 * @param wardId the ward id.
+	 * @param dateFrom the lower bound for the movement date range.
+	 * @param dateTo the upper bound for the movement date range.
+	 * @param fetchSize the number of movements read from the database at a time.
+	 * @return the stream of the retrieved movements.
+	 * @throws OHServiceException
+	 */
+	public Stream<MovementWard> getMovementWardStream(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo, int fetchSize)
+					throws OHServiceException {
+		return ioOperations.getWardMovementStream(wardId, dateFrom, dateTo, fetchSize);
+	}
+
 	/**
 	 * Gets all the movement ward with the specified criteria.
 	 *
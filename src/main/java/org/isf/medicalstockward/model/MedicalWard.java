@@ -31,13 +31,14 @@ import jakarta.persistence.Transient;
 
 import org.isf.medicals.model.Medical;
 import org.isf.medicalstock.model.Lot;
+import org.isf.medicalstockward.service.MedicalWardStockListener;
 import org.isf.utils.db.Auditable;
 import org.isf.ward.model.Ward;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 @Entity
 @Table(name="OH_MEDICALDSRWARD")
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners({ AuditingEntityListener.class, MedicalWardStockListener.class })
 @AttributeOverride(name = "createdBy", column = @Column(name = "MDSRWRD_CREATED_BY", updatable = false))
 @AttributeOverride(name = "createdDate", column = @Column(name = "MDSRWRD_CREATED_DATE", updatable = false))
 @AttributeOverride(name = "lastModifiedBy", column = @Column(name = "MDSRWRD_LAST_MODIFIED_BY"))
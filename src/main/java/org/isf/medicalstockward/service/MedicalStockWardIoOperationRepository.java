@@ -49,17 +49,21 @@ public interface MedicalStockWardIoOperationRepository extends JpaRepository<Med
 			"where medWard.id.medical.code=:medical and medWard.id.ward.code=:ward")
 	Double findQuantityInWardWhereMedicalAndWard(@Param("medical") int medical, @Param("ward") String ward);
 
-	@Modifying
+	@Modifying(flushAutomatically = true)
 	@Query(value = "UPDATE OH_MEDICALDSRWARD SET MDSRWRD_IN_QTI = MDSRWRD_IN_QTI + :quantity WHERE MDSRWRD_WRD_ID_A = :ward AND MDSRWRD_MDSR_ID = :medical AND MDSRWRD_LT_ID_A = :lot", nativeQuery = true)
-	void updateInQuantity(@Param("quantity") Double quantity, @Param("ward") String ward, @Param("medical") int medical, @Param("lot") String lot);
+	int updateInQuantity(@Param("quantity") Double quantity, @Param("ward") String ward, @Param("medical") int medical, @Param("lot") String lot);
 
 	@Modifying
 	@Query(value = "update MedicalWard set in_quantity=in_quantity+:quantity where id.ward.code=:ward and id.medical.code=:medical")
 	void updateInQuantity(@Param("quantity") Double quantity, @Param("ward") String ward, @Param("medical") int medical);
 
-	@Modifying
+	@Modifying(flushAutomatically = true)
 	@Query(value = "UPDATE OH_MEDICALDSRWARD SET MDSRWRD_OUT_QTI = MDSRWRD_OUT_QTI + :quantity WHERE MDSRWRD_WRD_ID_A = :ward AND MDSRWRD_MDSR_ID = :medical AND MDSRWRD_LT_ID_A = :lot ", nativeQuery = true)
-	void updateOutQuantity(@Param("quantity") Double quantity, @Param("ward") String ward, @Param("medical") int medical, @Param("lot") String lot);
+	int updateOutQuantity(@Param("quantity") Double quantity, @Param("ward") String ward, @Param("medical") int medical, @Param("lot") String lot);
+
+	@Modifying(flushAutomatically = true)
+	@Query(value = "UPDATE OH_MEDICALDSRWARD SET MDSRWRD_IN_QTI = MDSRWRD_IN_QTI + :inQuantity, MDSRWRD_OUT_QTI = MDSRWRD_OUT_QTI + :outQuantity WHERE MDSRWRD_WRD_ID_A = :ward AND MDSRWRD_MDSR_ID = :medical AND MDSRWRD_LT_ID_A = :lot", nativeQuery = true)
+	int updateQuantities(@Param("inQuantity") Double inQuantity, @Param("outQuantity") Double outQuantity, @Param("ward") String ward, @Param("medical") int medical, @Param("lot") String lot);
 
 	@Modifying
 	@Query(value = "INSERT INTO OH_MEDICALDSRWARD (MDSRWRD_WRD_ID_A, MDSRWRD_MDSR_ID, MDSRWRD_IN_QTI, MDSRWRD_OUT_QTI, MDSRWRD_LT_ID_A) VALUES (?, ?, ?, '0', ?)", nativeQuery = true)
@@ -75,6 +79,11 @@ public interface MedicalStockWardIoOperationRepository extends JpaRepository<Med
 	@Query(value = "select medWard from MedicalWard medWard where medWard.id.ward.code=:ward")
 	List<MedicalWard> findAllWhereWard(@Param("ward") String wordCode);
 
+	@Query(value = "select medWard.id.medical.code, sum(medWard.in_quantity-medWard.out_quantity) from MedicalWard medWard " +
+			"where medWard.id.ward.code=:ward group by medWard.id.medical.code " +
+			"having sum(case when medWard.in_quantity<>medWard.out_quantity then 1 else 0 end) > 0")
+	List<Object[]> findTotalQuantitiesWhereWard(@Param("ward") String wardId);
+
 	@Query(value = "select medWard from MedicalWard medWard where medWard.id.ward.code=:ward and medWard.id.medical.code = :medical")
 	List<MedicalWard> findAllWhereWardAndMedical(@Param("ward") String wardId, @Param("medical") int medId);
 
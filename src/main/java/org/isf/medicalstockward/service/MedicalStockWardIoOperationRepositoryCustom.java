@@ -23,7 +23,9 @@ package org.isf.medicalstockward.service;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
+import org.isf.medicalstockward.model.MovementWard;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -31,4 +33,14 @@ public interface MedicalStockWardIoOperationRepositoryCustom {
 
 	List<Integer> findAllWardMovement(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo);
 
+	List<MovementWard> fetchAllWardMovement(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo);
+
+	Stream<MovementWard> streamAllWardMovement(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo, int fetchSize);
+
+	/**
+	 * Reload the {@link org.isf.medicalstockward.model.MedicalWard} of a lot already loaded in the current persistence context, after
+	 * its quantities were changed by an update query
+	 */
+	void refreshQuantities(String wardId, int medicalCode, String lotCode);
+
 }
@@ -24,17 +24,24 @@ package org.isf.medicalstockward.service;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
-import jakarta.persistence.criteria.Order;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Path;
 import jakarta.persistence.criteria.Predicate;
 import jakarta.persistence.criteria.Root;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.isf.medicalstockward.model.MedicalWard;
 import org.isf.medicalstockward.model.MovementWard;
+import org.isf.utils.db.EntityStreams;
 import org.isf.utils.time.TimeTools;
 import org.isf.ward.model.Ward;
 import org.springframework.transaction.annotation.Transactional;
@@ -45,18 +52,82 @@ public class MedicalStockWardIoOperationRepositoryImpl implements MedicalStockWa
 	private static final String WARD = "ward";
 	private static final String DATE = "date";
 	private static final String CODE = "code";
+	private static final String WARD_TO = "wardTo";
+	private static final String WARD_FROM = "wardFrom";
+	private static final String MEDICAL = "medical";
+	private static final String TYPE = "type";
+	private static final String LOT = "lot";
+	private static final String PATIENT = "patient";
+	private static final String PATIENT_CONSENSUS = "patientConsensus";
 
 	@PersistenceContext
 	private EntityManager entityManager;
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public List<Integer> findAllWardMovement(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo) {
-
 		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
 		CriteriaQuery<Integer> query = builder.createQuery(Integer.class);
 		Root<MovementWard> root = query.from(MovementWard.class);
 		query.select(root.<Integer>get(CODE));
+		query.where(getWardMovementPredicates(builder, root, wardId, dateFrom, dateTo).toArray(new Predicate[] {}))
+			.orderBy(builder.asc(root.get(DATE)));
+		return entityManager.createQuery(query).getResultList();
+	}
+
+	@Override
+	public List<MovementWard> fetchAllWardMovement(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<MovementWard> query = builder.createQuery(MovementWard.class);
+		Root<MovementWard> root = query.from(MovementWard.class);
+		fetchAll(root);
+		query.select(root);
+		query.where(getWardMovementPredicates(builder, root, wardId, dateFrom, dateTo).toArray(new Predicate[] {}))
+			.orderBy(builder.asc(root.get(DATE)));
+		return entityManager.createQuery(query).getResultList();
+	}
+
+	@Override
+	public Stream<MovementWard> streamAllWardMovement(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo, int fetchSize) {
+		return EntityStreams.stream(entityManager, fetchSize, (last, maxResults) -> fetchWardMovementAfter(wardId, dateFrom, dateTo, last, maxResults));
+	}
+
+	/**
+	 * Reads the ward movements matching the criteria that follow the specified one in ({@code date}, {@code code}) order (keyset pagination).
+	 */
+	private List<MovementWard> fetchWardMovementAfter(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo, MovementWard last,
+					int maxResults) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<MovementWard> query = builder.createQuery(MovementWard.class);
+		Root<MovementWard> root = query.from(MovementWard.class);
+		fetchAll(root);
+		query.select(root);
+		List<Predicate> predicates = getWardMovementPredicates(builder, root, wardId, dateFrom, dateTo);
+		if (last != null) {
+			Path<LocalDateTime> date = root.get(DATE);
+			predicates.add(builder.or(
+							builder.greaterThan(date, last.getDate()),
+							builder.and(builder.equal(date, last.getDate()), builder.greaterThan(root.<Integer>get(CODE), last.getCode()))));
+		}
+		query.where(predicates.toArray(new Predicate[] {})).orderBy(builder.asc(root.get(DATE)), builder.asc(root.get(CODE)));
+		return entityManager.createQuery(query).setMaxResults(maxResults).getResultList();
+	}
+
+	/**
+	 * Fetch-joins every association needed to render a {@link MovementWard} so that the whole graph is loaded by a single statement.
+	 * 
+	 * @param root the {@link MovementWard} root.
+	 */
+	private void fetchAll(Root<MovementWard> root) {
+		root.fetch(WARD, JoinType.INNER);
+		root.fetch(WARD_TO, JoinType.LEFT);
+		root.fetch(WARD_FROM, JoinType.LEFT);
+		root.fetch(MEDICAL, JoinType.INNER).fetch(TYPE, JoinType.LEFT);
+		root.fetch(LOT, JoinType.LEFT);
+		root.fetch(PATIENT, JoinType.LEFT).fetch(PATIENT_CONSENSUS, JoinType.LEFT);
+	}
+
+	private List<Predicate> getWardMovementPredicates(CriteriaBuilder builder, Root<MovementWard> root, String wardId, LocalDateTime dateFrom,
+					LocalDateTime dateTo) {
 		List<Predicate> predicates = new ArrayList<>();
 
 		if (StringUtils.isNotEmpty(wardId)) {
@@ -65,12 +136,20 @@ public class MedicalStockWardIoOperationRepositoryImpl implements MedicalStockWa
 		if ((dateFrom != null) && (dateTo != null)) {
 			predicates.add(builder.between(root.<LocalDateTime>get(DATE), TimeTools.getBeginningOfDay(dateFrom), TimeTools.getBeginningOfNextDay(dateTo)));
 		}
+		return predicates;
+	}
 
-		List<Order> orderList = new ArrayList<>();
-		orderList.add(builder.asc(root.get(DATE)));
 
-		query.where(predicates.toArray(new Predicate[] {})).orderBy(orderList);
-		return entityManager.createQuery(query).getResultList();
+	@Override
+	public void refreshQuantities(String wardId, int medicalCode, String lotCode) {
+		// the id is matched on the codes: the embedded id compares the ward, the medical and the lot by identity
+		SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+		for (Map.Entry<Object, EntityEntry> entry : session.getPersistenceContextInternal().reentrantSafeEntityEntries()) {
+			if (entry.getKey() instanceof MedicalWard medicalWard && medicalWard.getMedical().getCode() == medicalCode
+							&& medicalWard.getWard().getCode().equals(wardId)
+							&& medicalWard.getLot() != null && medicalWard.getLot().getCode().equals(lotCode)) {
+				entityManager.refresh(medicalWard);
+			}
+		}
 	}
-
 }
@@ -23,9 +23,16 @@ package org.isf.medicalstockward.service;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.isf.medicals.model.Medical;
+import org.isf.medicals.service.MedicalsIoOperationRepository;
 import org.isf.medicalstock.model.Lot;
 import org.isf.medicalstock.model.Movement;
 import org.isf.medicalstock.service.LotIoOperationRepository;
@@ -36,6 +43,7 @@ import org.isf.utils.db.TranslateOHServiceException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.time.TimeTools;
 import org.isf.ward.model.Ward;
+import org.isf.ward.service.WardIoOperationRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -53,12 +61,24 @@ public class MedicalStockWardIoOperations {
 
 	private LotIoOperationRepository lotRepository;
 
+	private MedicalsIoOperationRepository medicalsRepository;
+
+	private WardIoOperationRepository wardRepository;
+
+	private MedicalWardStockCache stockCache;
+
 	public MedicalStockWardIoOperations(MedicalStockWardIoOperationRepository medicalStockWardIoOperationRepository,
 	                                    MovementWardIoOperationRepository movementWardIoOperationRepository,
-	                                    LotIoOperationRepository lotIoOperationRepository) {
+	                                    LotIoOperationRepository lotIoOperationRepository,
+	                                    MedicalsIoOperationRepository medicalsIoOperationRepository,
+	                                    WardIoOperationRepository wardIoOperationRepository,
+	                                    MedicalWardStockCache medicalWardStockCache) {
 		this.repository = medicalStockWardIoOperationRepository;
 		this.movementRepository = movementWardIoOperationRepository;
 		this.lotRepository = lotIoOperationRepository;
+		this.medicalsRepository = medicalsIoOperationRepository;
+		this.wardRepository = wardIoOperationRepository;
+		this.stockCache = medicalWardStockCache;
 	}
 
 	/**
@@ -70,15 +90,25 @@ public class MedicalStockWardIoOperations {
 	 * @throws OHServiceException if an error occurs retrieving the movements.
 	 */
 	public List<MovementWard> getWardMovements(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo) throws OHServiceException {
-		List<MovementWard> pMovementWard = new ArrayList<>();
+		return repository.fetchAllWardMovement(wardId, TimeTools.truncateToSeconds(dateFrom), TimeTools.truncateToSeconds(dateTo));
+	}
 
-		List<Integer> pMovementWardCode = new ArrayList<>(repository.findAllWardMovement(wardId, TimeTools.truncateToSeconds(dateFrom),
-						TimeTools.truncateToSeconds(dateTo)));
-		for (Integer code : pMovementWardCode) {
-			MovementWard movementWard = movementRepository.findById(code).orElse(null);
-			pMovementWard.add(movementWard);
-		}
-		return pMovementWard;
+	/**
+	 * Streams all {@link MovementWard}s with the specified criteria, ordered by date and code ascending.
+	 * 
+	 * Movements are read by keyset in chunks of {@code fetchSize} rows while the stream is consumed, so that reports over wide date ranges do
+	 * not need to hold all the movements in memory.
+	 * 
+	 * @param wardId the ward id.
+	 * @param dateFrom the lower bound for the movement date range.
+	 * @param dateTo the upper bound for the movement date range.
+	 * @param fetchSize the number of movements read by each query.
+	 * @return the stream of the retrieved movements.
+	 * @throws OHServiceException if an error occurs retrieving the movements.
+	 */
+	public Stream<MovementWard> getWardMovementStream(String wardId, LocalDateTime dateFrom, LocalDateTime dateTo, int fetchSize)
+					throws OHServiceException {
+		return repository.streamAllWardMovement(wardId, TimeTools.truncateToSeconds(dateFrom), TimeTools.truncateToSeconds(dateTo), fetchSize);
 	}
 
 	/**
@@ -152,12 +182,93 @@ public class MedicalStockWardIoOperations {
 
 	/**
 	 * Stores the specified {@link Movement} list.
+	 * <p>
+	 * The movements are saved together and the stock changes are summed up by ward, medical and lot, so that each
+	 * {@link MedicalWard} is updated (or created) only once, whatever the number of movements affecting it. As for a
+	 * single movement, a transfer out of a ward that has no {@link MedicalWard} for the lot does not create one.
 	 * @param movements the movement to store.
 	 * @throws OHServiceException if an error occurs.
 	 */
 	public void newMovementWard(List<MovementWard> movements) throws OHServiceException {
+		List<MovementWard> movementsToSave = new ArrayList<>(movements.size());
+		Map<String, Map<String, WardQuantity>> wardQuantities = new LinkedHashMap<>();
 		for (MovementWard movement : movements) {
-			newMovementWard(movement);
+			movementsToSave.add(movement);
+			double qty = movement.getQuantity();
+			if (movement.getWardTo() != null) {
+				// We have to register also the income movement for the destination Ward
+				MovementWard destinationWardIncomeMovement = new MovementWard();
+				destinationWardIncomeMovement.setDate(movement.getDate());
+				destinationWardIncomeMovement.setDescription(movement.getWard().getDescription());
+				destinationWardIncomeMovement.setMedical(movement.getMedical());
+				destinationWardIncomeMovement.setQuantity(-movement.getQuantity());
+				destinationWardIncomeMovement.setUnits(movement.getUnits());
+				destinationWardIncomeMovement.setWard(movement.getWardTo());
+				destinationWardIncomeMovement.setWardFrom(movement.getWard());
+				destinationWardIncomeMovement.setlot(movement.getLot());
+				movementsToSave.add(destinationWardIncomeMovement);
+
+				getWardQuantity(wardQuantities, movement.getWardTo(), movement).addIn(Math.abs(qty));
+				getWardQuantity(wardQuantities, movement.getWard(), movement).transferOut(Math.abs(qty));
+			} else if (qty < 0) {
+				getWardQuantity(wardQuantities, movement.getWard(), movement).addIn(-qty);
+			} else {
+				getWardQuantity(wardQuantities, movement.getWard(), movement).addOut(qty);
+			}
+		}
+		movementRepository.saveAll(movementsToSave);
+
+		for (Map<String, WardQuantity> lotQuantities : wardQuantities.values()) {
+			for (WardQuantity wardQuantity : lotQuantities.values()) {
+				String ward = wardQuantity.ward.getCode();
+				int medical = wardQuantity.medical.getCode();
+				String lot = wardQuantity.lot.getCode();
+				stockCache.invalidate(ward);
+				if (repository.updateQuantities(wardQuantity.inQuantity, wardQuantity.outQuantity, ward, medical, lot) != 0) {
+					repository.refreshQuantities(ward, medical, lot);
+				} else if (wardQuantity.creates) {
+					repository.insertMedicalWard(ward, medical, wardQuantity.inQuantity - wardQuantity.outQuantity, lot);
+				}
+			}
+		}
+	}
+
+	private static WardQuantity getWardQuantity(Map<String, Map<String, WardQuantity>> wardQuantities, Ward ward, MovementWard movement) {
+		return wardQuantities.computeIfAbsent(ward.getCode(), code -> new LinkedHashMap<>())
+						.computeIfAbsent(movement.getLot().getCode(), code -> new WardQuantity(ward, movement.getMedical(), movement.getLot()));
+	}
+
+	/**
+	 * The quantities summed up for a ward, medical and lot by {@link #newMovementWard(List)}.
+	 */
+	private static final class WardQuantity {
+
+		private final Ward ward;
+		private final Medical medical;
+		private final Lot lot;
+		private double inQuantity;
+		private double outQuantity;
+		/** {@code true} if a movement other than a transfer out of the ward affects the lot. */
+		private boolean creates;
+
+		private WardQuantity(Ward ward, Medical medical, Lot lot) {
+			this.ward = ward;
+			this.medical = medical;
+			this.lot = lot;
+		}
+
+		private void addIn(double quantity) {
+			inQuantity += quantity;
+			creates = true;
+		}
+
+		private void addOut(double quantity) {
+			outQuantity += quantity;
+			creates = true;
+		}
+
+		private void transferOut(double quantity) {
+			outQuantity += quantity;
 		}
 	}
 
@@ -195,12 +306,12 @@ public class MedicalStockWardIoOperations {
 			wardTo = movement.getWardTo().getCode();
 		}
 		Integer medical = movement.getMedical().getCode();
+		stockCache.invalidate(ward);
 
+		// quantities are added by the database, the row is created only if it does not exist yet
 		if (wardTo != null) {
-			MedicalWard medicalWardTo = repository.findOneWhereCodeAndMedicalAndLot(wardTo, medical, lot);
-			if (medicalWardTo != null) {
-				repository.updateInQuantity(Math.abs(qty), wardTo, medical, lot);
-			} else {
+			stockCache.invalidate(wardTo);
+			if (repository.updateInQuantity(Math.abs(qty), wardTo, medical, lot) == 0) {
 				MedicalWard medicalWard = new MedicalWard();
 				medicalWard.setWard(movement.getWardTo());
 				medicalWard.setMedical(movement.getMedical());
@@ -208,14 +319,22 @@ public class MedicalStockWardIoOperations {
 				medicalWard.setOut_quantity(0.0f);
 				medicalWard.setLot(movement.getLot());
 				repository.save(medicalWard);
+			} else {
+				repository.refreshQuantities(wardTo, medical, lot);
 			}
 			repository.updateOutQuantity(Math.abs(qty), ward, medical, lot);
+			repository.refreshQuantities(ward, medical, lot);
 			return;
 		}
 
-		MedicalWard medicalWard = repository.findOneWhereCodeAndMedicalAndLot(ward, medical, lot);
-		if (medicalWard == null) {
-			medicalWard = new MedicalWard();
+		int updated;
+		if (qty < 0) {
+			updated = repository.updateInQuantity(-qty, ward, medical, lot);
+		} else {
+			updated = repository.updateOutQuantity(qty, ward, medical, lot);
+		}
+		if (updated == 0) {
+			MedicalWard medicalWard = new MedicalWard();
 			medicalWard.setWard(movement.getWard());
 			medicalWard.setMedical(movement.getMedical());
 			medicalWard.setIn_quantity((float) -qty);
@@ -223,11 +342,7 @@ public class MedicalStockWardIoOperations {
 			medicalWard.setLot(movement.getLot());
 			repository.save(medicalWard);
 		} else {
-			if (qty < 0) {
-				repository.updateInQuantity(-qty, ward, medical, lot); // TODO: change to jpa
-			} else {
-				repository.updateOutQuantity(qty, ward, medical, lot); // TODO: change to jpa
-			}
+			repository.refreshQuantities(ward, medical, lot);
 		}
 	}
 
@@ -259,14 +374,12 @@ public class MedicalStockWardIoOperations {
 		} else {
 			medicalWards = repository.findAllWhereWardAndMedical(wardId, medId);
 		}
-		for (int i = 0; i < medicalWards.size(); i++) {
-			double qty = medicalWards.get(i).getIn_quantity() - medicalWards.get(i).getOut_quantity();
-			medicalWards.get(i).setQty(qty);
-
-			if (stripeEmpty && qty == 0) {
-				medicalWards.remove(i);
-				i = i - 1;
-			}
+		for (MedicalWard medicalWard : medicalWards) {
+			double qty = medicalWard.getIn_quantity() - medicalWard.getOut_quantity();
+			medicalWard.setQty(qty);
+		}
+		if (stripeEmpty) {
+			medicalWards.removeIf(medicalWard -> medicalWard.getQty() == 0);
 		}
 		return medicalWards;
 
@@ -282,22 +395,34 @@ public class MedicalStockWardIoOperations {
 
 	/**
 	 * Gets all the {@link MedicalWard}s associated to the specified ward summarized by lot
-	 * (total quantity, regardless the lot)
+	 * (total quantity, regardless the lot); medicals having only empty lots are left out.
+	 * The totals are computed by the database in one query and kept in a short-lived per-ward snapshot, while the
+	 * returned {@link MedicalWard}s, {@link Medical}s and {@link Ward} are loaded each time.
 	 * @param wardId
 	 * @return the retrieved medicals.
 	 * @throws OHServiceException
 	 */
 	public List<MedicalWard> getMedicalsWardTotalQuantity(char wardId) throws OHServiceException {
 		String wardID = String.valueOf(wardId);
-		List<MedicalWard> medicalWards = getMedicalsWard(wardId, true);
-
-		List<MedicalWard> medicalWardsQty = new ArrayList<>();
-
-		for (MedicalWard medicalWard : medicalWards) {
-
-			if (!medicalWardsQty.contains(medicalWard)) {
-				Double qty = repository.findQuantityInWardWhereMedicalAndWard(medicalWard.getId().getMedical().getCode(), wardID);
-				medicalWard.setQty(qty);
+		Map<Integer, Double> totalQuantities = stockCache.get(wardID, () -> {
+			Map<Integer, Double> quantities = new LinkedHashMap<>();
+			for (Object[] totalQuantity : repository.findTotalQuantitiesWhereWard(wardID)) {
+				quantities.put((Integer) totalQuantity[0], ((Number) totalQuantity[1]).doubleValue());
+			}
+			return Collections.unmodifiableMap(quantities);
+		});
+		List<MedicalWard> medicalWardsQty = new ArrayList<>(totalQuantities.size());
+		if (totalQuantities.isEmpty()) {
+			return medicalWardsQty;
+		}
+		Ward ward = wardRepository.findById(wardID).orElse(null);
+		Map<Integer, Medical> medicals = medicalsRepository.findAllById(totalQuantities.keySet()).stream()
+						.collect(Collectors.toMap(Medical::getCode, Function.identity()));
+		for (Map.Entry<Integer, Double> totalQuantity : totalQuantities.entrySet()) {
+			Medical medical = medicals.get(totalQuantity.getKey());
+			if (medical != null) {
+				MedicalWard medicalWard = new MedicalWard(medical, totalQuantity.getValue());
+				medicalWard.setWard(ward);
 				medicalWardsQty.add(medicalWard);
 			}
 		}
@@ -334,6 +459,7 @@ public class MedicalStockWardIoOperations {
 	 * @throws OHServiceException if an error occurs during the update.
 	 */
 	public MedicalWard updateMedicalWard(MedicalWard medWard) throws OHServiceException {
+		stockCache.invalidate(medWard.getWard().getCode());
 		return repository.save(medWard);
 	}
 
@@ -343,6 +469,7 @@ public class MedicalStockWardIoOperations {
 	 * @throws OHServiceException if an error occurs during the delete.
 	 */
 	public void deleteMedicalWard(MedicalWard medWard) throws OHServiceException {
+		stockCache.invalidate(medWard.getWard().getCode());
 		repository.delete(medWard);
 	}
 
@@ -0,0 +1,63 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstockward.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.isf.utils.db.TransactionalSnapshotCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps, for each ward, a snapshot of the total quantity in stock of every {@link org.isf.medicals.model.Medical}, by
+ * medical code.
+ * <p>
+ * Snapshots are dropped whenever the stock of the ward changes through this application, either by the stock
+ * operations or, for the {@link org.isf.medicalstockward.model.MedicalWard}s saved or deleted in any other way, by the
+ * {@link MedicalWardStockListener}, and expire after a short time anyway.
+ */
+@Component
+public class MedicalWardStockCache {
+
+	private static final Duration TIME_TO_LIVE = Duration.ofSeconds(30);
+
+	private final TransactionalSnapshotCache<String, Map<Integer, Double>> snapshots = new TransactionalSnapshotCache<>(TIME_TO_LIVE);
+
+	/**
+	 * Returns the stock of the specified ward, loading it with the specified loader if there is no valid snapshot.
+	 * @param wardCode the ward code.
+	 * @param loader the loader of the ward stock, that must return an unmodifiable map.
+	 * @return the total quantities by medical code.
+	 */
+	public Map<Integer, Double> get(String wardCode, Supplier<Map<Integer, Double>> loader) {
+		return snapshots.get(wardCode, loader);
+	}
+
+	/**
+	 * Drops the snapshot of the specified ward.
+	 * @param wardCode the ward code.
+	 */
+	public void invalidate(String wardCode) {
+		snapshots.invalidate(wardCode);
+	}
+}
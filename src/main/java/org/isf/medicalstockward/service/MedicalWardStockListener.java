@@ -0,0 +1,49 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstockward.service;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+import org.isf.medicalstockward.model.MedicalWard;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops the {@link MedicalWardStockCache} snapshot of the ward of every {@link MedicalWard} written by JPA.
+ */
+@Component
+public class MedicalWardStockListener {
+
+	private final MedicalWardStockCache stockCache;
+
+	public MedicalWardStockListener(MedicalWardStockCache medicalWardStockCache) {
+		this.stockCache = medicalWardStockCache;
+	}
+
+	@PostPersist
+	@PostUpdate
+	@PostRemove
+	public void medicalWardChanged(MedicalWard medicalWard) {
+		stockCache.invalidate(medicalWard.getWard().getCode());
+	}
+}
@@ -25,7 +25,9 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 import org.isf.medicalstockward.model.MovementWard;
+import org.isf.patient.model.Patient;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -57,4 +59,11 @@ public interface MovementWardIoOperationRepository extends JpaRepository<Movemen
 					@Param("medicalCode") int medicalCode,
 					@Param("lotCode") String lotCode,
 					@Param("date") LocalDateTime date);
+
+	@Modifying(clearAutomatically = true, flushAutomatically = true)
+	@Query(value = "update MovementWard movWard set movWard.patient = :mergedPatient, "
+			+ "movWard.lastModifiedBy = :lastModifiedBy, movWard.lastModifiedDate = :lastModifiedDate where movWard.patient = :obsoletePatient")
+	int updatePatientForMerge(@Param("mergedPatient") Patient mergedPatient, @Param("lastModifiedBy") String lastModifiedBy,
+			@Param("lastModifiedDate") LocalDateTime lastModifiedDate, @Param("obsoletePatient") Patient obsoletePatient);
+
 }
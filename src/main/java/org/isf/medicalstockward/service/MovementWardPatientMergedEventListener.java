@@ -21,9 +21,6 @@
  */
 package org.isf.medicalstockward.service;
 
-import java.util.List;
-
-import org.isf.medicalstockward.model.MovementWard;
 import org.isf.patient.model.PatientMergedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
@@ -32,19 +29,18 @@ import org.springframework.transaction.annotation.Transactional;
 @Component
 public class MovementWardPatientMergedEventListener {
 
-	private MedicalStockWardIoOperations medicalStockWardIoOperations;
+	private final MovementWardIoOperationRepository movementWardIoOperationRepository;
 
-	public MovementWardPatientMergedEventListener(MedicalStockWardIoOperations medicalStockWardIoOperations) {
-		this.medicalStockWardIoOperations = medicalStockWardIoOperations;
+	public MovementWardPatientMergedEventListener(MovementWardIoOperationRepository movementWardIoOperationRepository) {
+		this.movementWardIoOperationRepository = movementWardIoOperationRepository;
 	}
 
 	@EventListener
 	@Transactional
 	public void handle(PatientMergedEvent patientMergedEvent) {
-		List<MovementWard> movementWards = medicalStockWardIoOperations.findAllForPatient(patientMergedEvent.getObsoletePatient());
-		for (MovementWard movementWard : movementWards) {
-			movementWard.setPatient(patientMergedEvent.getMergedPatient());
-		}
+		int rows = movementWardIoOperationRepository.updatePatientForMerge(patientMergedEvent.getMergedPatient(), patientMergedEvent.getMergedBy(),
+				patientMergedEvent.getMergedDate(), patientMergedEvent.getObsoletePatient());
+		patientMergedEvent.addMergedRows("OH_MEDICALDSRSTOCKMOVWARD", rows);
 	}
 
 }
@@ -31,6 +31,7 @@ import org.isf.ward.model.Ward;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -50,6 +51,9 @@ public interface OpdIoOperationRepository extends JpaRepository<Opd, Integer>, O
 	@Query(value = "select max(o.prog_year) from Opd o where o.date >= :dateFrom and o.date < :dateTo")
 	Integer findMaxProgYearWhereDateBetween(@Param("dateFrom") LocalDateTime dateFrom, @Param("dateTo") LocalDateTime dateTo);
 
+	@Query(value = "select count(o) > 0 from Opd o where o.prog_year = :progYear and o.date >= :dateFrom and o.date < :dateTo")
+	boolean existsProgYearWhereDateBetween(@Param("progYear") int progYear, @Param("dateFrom") LocalDateTime dateFrom, @Param("dateTo") LocalDateTime dateTo);
+
 	List<Opd> findTop1ByPatient_CodeOrderByDateDesc(Integer code);
 
 	@Query("select o from Opd o where o.prog_year = :prog_year")
@@ -83,4 +87,11 @@ public interface OpdIoOperationRepository extends JpaRepository<Opd, Integer>, O
 
 	@Query("select count(o) from Opd o where active=1")
 	long countAllActiveOpds();
+
+	@Modifying(clearAutomatically = true, flushAutomatically = true)
+	@Query(value = "update versioned Opd opd set opd.patient = :mergedPatient, "
+			+ "opd.lastModifiedBy = :lastModifiedBy, opd.lastModifiedDate = :lastModifiedDate where opd.patient = :obsoletePatient")
+	int updatePatientForMerge(@Param("mergedPatient") Patient mergedPatient, @Param("lastModifiedBy") String lastModifiedBy,
+			@Param("lastModifiedDate") LocalDateTime lastModifiedDate, @Param("obsoletePatient") Patient obsoletePatient);
+
 }
@@ -26,10 +26,19 @@ import java.util.List;
 
 import org.isf.opd.model.Opd;
 import org.isf.ward.model.Ward;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 
 public interface OpdIoOperationRepositoryCustom {
 
 	List<Opd> findAllOpdWhereParams(Ward ward, String diseaseTypeCode, String diseaseCode, LocalDate dateFrom, LocalDate dateTo, int ageFrom, int ageTo, char sex,
 			char newPatient, String user);
 
+	/**
+	 * Retrieves one page of the {@link Opd}s matching the given parameters, ordered by date and code descending.
+	 * The offset, the limit and the total count are all computed by the database.
+	 */
+	Page<Opd> findAllOpdWhereParams(Ward ward, String diseaseTypeCode, String diseaseCode, LocalDate dateFrom, LocalDate dateTo, int ageFrom, int ageTo,
+			char sex, char newPatient, String user, Pageable pageable);
+
 }
@@ -31,11 +31,15 @@ import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.TypedQuery;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.JoinType;
 import jakarta.persistence.criteria.Predicate;
 import jakarta.persistence.criteria.Root;
 
 import org.isf.opd.model.Opd;
 import org.isf.ward.model.Ward;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.transaction.annotation.Transactional;
 
 @Transactional
@@ -60,6 +64,58 @@ public class OpdIoOperationRepositoryImpl implements OpdIoOperationRepositoryCus
 		return getOpdQuery(ward, diseaseTypeCode, diseaseCode, dateFrom, dateTo, ageFrom, ageTo, sex, newPatient, user).getResultList();
 	}	
 
+	@Override
+	public Page<Opd> findAllOpdWhereParams(
+			Ward ward,
+			String diseaseTypeCode,
+			String diseaseCode,
+			LocalDate dateFrom,
+			LocalDate dateTo,
+			int ageFrom,
+			int ageTo,
+			char sex,
+			char newPatient,
+			String user,
+			Pageable pageable) {
+		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Opd> query = cb.createQuery(Opd.class);
+		Root<Opd> opd = query.from(Opd.class);
+		opd.fetch("ward", JoinType.INNER);
+		opd.fetch("patient", JoinType.LEFT).fetch("patientConsensus", JoinType.LEFT);
+		opd.fetch("disease", JoinType.LEFT).fetch("diseaseType", JoinType.LEFT);
+		opd.fetch("disease2", JoinType.LEFT).fetch("diseaseType", JoinType.LEFT);
+		opd.fetch("disease3", JoinType.LEFT).fetch("diseaseType", JoinType.LEFT);
+		opd.fetch("nextVisit", JoinType.LEFT);
+		query.select(opd)
+				.where(getOpdPredicates(cb, opd, ward, diseaseTypeCode, diseaseCode, dateFrom, dateTo, ageFrom, ageTo, sex, newPatient, user))
+				.orderBy(cb.desc(opd.get("date")), cb.desc(opd.get("code")));
+		List<Opd> content = entityManager.createQuery(query)
+				.setFirstResult((int) pageable.getOffset())
+				.setMaxResults(pageable.getPageSize())
+				.getResultList();
+		return PageableExecutionUtils.getPage(content, pageable,
+				() -> countAllOpdWhereParams(ward, diseaseTypeCode, diseaseCode, dateFrom, dateTo, ageFrom, ageTo, sex, newPatient, user));
+	}
+
+	private long countAllOpdWhereParams(
+			Ward ward,
+			String diseaseTypeCode,
+			String diseaseCode,
+			LocalDate dateFrom,
+			LocalDate dateTo,
+			int ageFrom,
+			int ageTo,
+			char sex,
+			char newPatient,
+			String user) {
+		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Long> query = cb.createQuery(Long.class);
+		Root<Opd> opd = query.from(Opd.class);
+		query.select(cb.count(opd))
+				.where(getOpdPredicates(cb, opd, ward, diseaseTypeCode, diseaseCode, dateFrom, dateTo, ageFrom, ageTo, sex, newPatient, user));
+		return entityManager.createQuery(query).getSingleResult();
+	}
+
 	private TypedQuery<Opd> getOpdQuery(
 			Ward ward, 
 			String diseaseTypeCode,
@@ -74,22 +130,41 @@ public class OpdIoOperationRepositoryImpl implements OpdIoOperationRepositoryCus
 		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
 		CriteriaQuery<Opd> query = cb.createQuery(Opd.class);
 		Root<Opd> opd = query.from(Opd.class);
-		List<Predicate> predicates = new ArrayList<>();
 
 		query.select(opd);
+		query.where(getOpdPredicates(cb, opd, ward, diseaseTypeCode, diseaseCode, dateFrom, dateTo, ageFrom, ageTo, sex, newPatient, user));
+
+		return entityManager.createQuery(query);
+	}
+
+	private Predicate getOpdPredicates(
+			CriteriaBuilder cb,
+			Root<Opd> opd,
+			Ward ward, 
+			String diseaseTypeCode,
+			String diseaseCode,
+			LocalDate dateFrom,
+			LocalDate dateTo,
+			int ageFrom, 
+			int ageTo,
+			char sex,
+			char newPatient,
+			String user) {
+		List<Predicate> predicates = new ArrayList<>();
+
 		if (ward != null) {
 			predicates.add(
-					cb.equal(opd.join("ward").get("code"), ward.getCode())
+					cb.equal(opd.get("ward").get("code"), ward.getCode())
 			);
 		}
 		if (diseaseTypeCode != null && !diseaseTypeCode.equals("")) {
 			predicates.add(
-					cb.equal(opd.join("disease").join("diseaseType").get("code"), diseaseTypeCode)
+					cb.equal(opd.get("disease").get("diseaseType").get("code"), diseaseTypeCode)
 			);
 		}
 		if (diseaseCode != null && !diseaseCode.equals("")) {
 			predicates.add(
-					cb.equal(opd.join("disease").get("code"), diseaseCode)
+					cb.equal(opd.get("disease").get("code"), diseaseCode)
 			);
 		}
 		if (ageFrom != 0 || ageTo != 0) {
@@ -115,9 +190,7 @@ public class OpdIoOperationRepositoryImpl implements OpdIoOperationRepositoryCus
 		predicates.add(
 				cb.between(opd.<LocalDateTime>get("date"), dateFrom.atStartOfDay(), dateTo.plusDays(1).atStartOfDay())
 		);
-		query.where(cb.and(predicates.toArray(new Predicate[0])));
-
-		return entityManager.createQuery(query);
+		return cb.and(predicates.toArray(new Predicate[0]));
 	}
 
 }
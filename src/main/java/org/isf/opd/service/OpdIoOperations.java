@@ -28,13 +28,13 @@ import java.util.Optional;
 
 import org.isf.generaldata.MessageBundle;
 import org.isf.opd.model.Opd;
+import org.isf.progressivecounter.service.ProgressiveCounterService;
 import org.isf.utils.db.TranslateOHServiceException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.pagination.PageInfo;
 import org.isf.utils.pagination.PagedResponse;
 import org.isf.ward.model.Ward;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -45,10 +45,15 @@ import org.springframework.transaction.annotation.Transactional;
 @TranslateOHServiceException
 public class OpdIoOperations {
 
+	private static final String PROG_YEAR_COUNTER = "OPD";
+
 	private OpdIoOperationRepository repository;
 
-	public OpdIoOperations(OpdIoOperationRepository opdIoOperationRepository) {
+	private ProgressiveCounterService progressiveCounterService;
+
+	public OpdIoOperations(OpdIoOperationRepository opdIoOperationRepository, ProgressiveCounterService progressiveCounterService) {
 		this.repository = opdIoOperationRepository;
+		this.progressiveCounterService = progressiveCounterService;
 	}
 
 	/**
@@ -129,14 +134,23 @@ public class OpdIoOperations {
 	}
 
 	/**
-	 * Insert a new {@link Opd} into the db.
+	 * Insert a new {@link Opd} into the db; if its progressive number was already taken in the year, the next free one is
+	 * assigned.
 	 * 
 	 * @param opd - an {@link Opd}
 	 * @return the newly inserted {@link Opd} object.
 	 * @throws OHServiceException 
 	 */
 	public Opd newOpd(Opd opd) throws OHServiceException {
-		return repository.save(opd);
+		if (opd.getProgYear() > 0 && opd.getDate() != null) {
+			int year = opd.getDate().getYear();
+			LocalDateTime yearStart = LocalDateTime.of(year, 1, 1, 0, 0);
+			opd.setProgYear(progressiveCounterService.reserve(PROG_YEAR_COUNTER, String.valueOf(year), opd.getProgYear(), () -> findMaxProgYear(year),
+							progYear -> repository.existsProgYearWhereDateBetween(progYear, yearStart, yearStart.plusYears(1))));
+		}
+		Opd savedOpd = repository.save(opd);
+		updateProgYearCounters(savedOpd);
+		return savedOpd;
 	}
 
 	/**
@@ -147,7 +161,9 @@ public class OpdIoOperations {
 	 * @throws OHServiceException 
 	 */
 	public Opd updateOpd(Opd opd) throws OHServiceException {
-		return repository.save(opd);
+		Opd savedOpd = repository.save(opd);
+		updateProgYearCounters(savedOpd);
+		return savedOpd;
 	}
 
 	/**
@@ -168,9 +184,21 @@ public class OpdIoOperations {
 	 * @throws OHServiceException 
 	 */
 	public int getProgYear(int year) throws OHServiceException {
-		Integer progYear = year == 0 ? repository.findMaxProgYear()
+		return progressiveCounterService.getLast(PROG_YEAR_COUNTER, String.valueOf(year), () -> findMaxProgYear(year));
+	}
+
+	private Integer findMaxProgYear(int year) {
+		return year == 0 ? repository.findMaxProgYear()
 						: repository.findMaxProgYearWhereDateBetween(LocalDateTime.of(year, 1, 1, 0, 0), LocalDateTime.of(year + 1, 1, 1, 0, 0));
-		return progYear == null ? 0 : progYear;
+	}
+
+	private void updateProgYearCounters(Opd opd) {
+		if (opd.getProgYear() <= 0 || opd.getDate() == null) {
+			return;
+		}
+		int year = opd.getDate().getYear();
+		progressiveCounterService.update(PROG_YEAR_COUNTER, String.valueOf(year), opd.getProgYear(), () -> findMaxProgYear(year));
+		progressiveCounterService.update(PROG_YEAR_COUNTER, String.valueOf(0), opd.getProgYear(), () -> findMaxProgYear(0));
 	}
 
 	/**
@@ -260,11 +288,8 @@ public class OpdIoOperations {
 					int page,
 					int size) throws OHServiceException {
 		Pageable pageRequest = PageRequest.of(page, size);
-		List<Opd> ops = this.getOpdList(ward, diseaseTypeCode, diseaseCode, dateFrom, dateTo, ageFrom, ageTo, sex, newPatient, null);
-		int start = (int) pageRequest.getOffset();
-		int end = Math.min(start + pageRequest.getPageSize(), ops.size());
-		List<Opd> pageContent = ops.subList(start, end);
-		return setPaginationData(new PageImpl<>(pageContent, pageRequest, ops.size()));
+		return setPaginationData(repository.findAllOpdWhereParams(ward, diseaseTypeCode, diseaseCode, dateFrom, dateTo, ageFrom, ageTo, sex, newPatient, null,
+						pageRequest));
 	}
 
 	PagedResponse<Opd> setPaginationData(Page<Opd> pages) {
@@ -21,11 +21,7 @@
  */
 package org.isf.opd.service;
 
-import java.util.List;
-
-import org.isf.opd.model.Opd;
 import org.isf.patient.model.PatientMergedEvent;
-import org.isf.utils.exception.OHServiceException;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -33,19 +29,18 @@ import org.springframework.transaction.annotation.Transactional;
 @Component
 public class OpdPatientMergedEventListener {
 
-	OpdIoOperations opdIoOperations;
+	private final OpdIoOperationRepository opdIoOperationRepository;
 
-	public OpdPatientMergedEventListener(OpdIoOperations opdIoOperations) {
-		this.opdIoOperations = opdIoOperations;
+	public OpdPatientMergedEventListener(OpdIoOperationRepository opdIoOperationRepository) {
+		this.opdIoOperationRepository = opdIoOperationRepository;
 	}
 
 	@EventListener
 	@Transactional
-	public void handle(PatientMergedEvent patientMergedEvent) throws OHServiceException {
-		List<Opd> opds = opdIoOperations.getOpdList(patientMergedEvent.getObsoletePatient().getCode());
-		for(Opd opd : opds) {
-			opd.setPatient(patientMergedEvent.getMergedPatient());
-		}
+	public void handle(PatientMergedEvent patientMergedEvent) {
+		int rows = opdIoOperationRepository.updatePatientForMerge(patientMergedEvent.getMergedPatient(), patientMergedEvent.getMergedBy(),
+				patientMergedEvent.getMergedDate(), patientMergedEvent.getObsoletePatient());
+		patientMergedEvent.addMergedRows("OH_OPD", rows);
 	}
 
 }
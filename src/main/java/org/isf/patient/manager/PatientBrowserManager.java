@@ -33,13 +33,18 @@ import org.isf.accounting.model.Bill;
 import org.isf.admission.manager.AdmissionBrowserManager;
 import org.isf.generaldata.MessageBundle;
 import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientMerge;
+import org.isf.patient.model.PatientMergeJob;
 import org.isf.patient.model.PatientProfilePhoto;
+import org.isf.patient.model.PatientSummary;
 import org.isf.patient.service.PatientIoOperations;
+import org.isf.patient.service.PatientMergeExecutor;
 import org.isf.utils.exception.OHDataValidationException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
 import org.isf.utils.pagination.PagedResponse;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -47,6 +52,8 @@ public class PatientBrowserManager {
 
 	private final PatientIoOperations ioOperations;
 
+	private final PatientMergeExecutor mergeExecutor;
+
 	private final AdmissionBrowserManager admissionManager;
 
 	private final BillBrowserManager billManager;
@@ -55,8 +62,10 @@ public class PatientBrowserManager {
 
 	protected LinkedHashMap<String, String> professionHashMap;
 
-	public PatientBrowserManager(PatientIoOperations ioOperations, AdmissionBrowserManager admissionManager, BillBrowserManager billManager) {
+	public PatientBrowserManager(PatientIoOperations ioOperations, PatientMergeExecutor patientMergeExecutor, AdmissionBrowserManager admissionManager,
+					BillBrowserManager billManager) {
 		this.ioOperations = ioOperations;
+		this.mergeExecutor = patientMergeExecutor;
 		this.admissionManager = admissionManager;
 		this.billManager = billManager;
 	}
@@ -109,6 +118,19 @@ public class PatientBrowserManager {
 		return ioOperations.getPatients(params);
 	}
 
+	/**
+	 * Method that gets a page of {@link PatientSummary}s, the fields of the {@link Patient}s shown in lists, ordered by code descending.
+	 *
+	 * @param params - the same parameters of {@link #getPatients(Map)}
+	 * @param lastCode - the code of the last patient of the previous page, {@code null} for the first page
+	 * @param pageSize - the maximum number of summaries returned
+	 * @return the list of {@link PatientSummary}s (could be empty)
+	 * @throws OHServiceException
+	 */
+	public List<PatientSummary> getPatientSummaries(Map<String, Object> params, Integer lastCode, int pageSize) throws OHServiceException {
+		return ioOperations.getPatientSummaries(params, lastCode, pageSize);
+	}
+
 	/**
 	 * Method that gets a {@link Patient} by his/her ID.
 	 *
@@ -294,10 +316,46 @@ public class PatientBrowserManager {
 		return ioOperations.getPatientsByOneOfFieldsLike(keyword);
 	}
 
+	/**
+	 * Method that returns a page of the {@link Patient}s not logically deleted having all the words of the passed String
+	 * in one of their fields, ranked as {@link #getPatientsByOneOfFieldsLike(String)} does.
+	 *
+	 * @param keyword
+	 *            - String to search, {@code null} for full list
+	 * @param pageable
+	 *            - the page to return
+	 * @return the list of {@link Patient}s (could be empty)
+	 * @throws OHServiceException
+	 */
+	public List<Patient> getPatientsByOneOfFieldsLike(String keyword, Pageable pageable) throws OHServiceException {
+		return ioOperations.getPatientsByOneOfFieldsLike(keyword, pageable);
+	}
+
+	/**
+	 * Rebuilds the index used by {@link #getPatientsByOneOfFieldsLike(String)} from the patient table, to be run whenever
+	 * patients are stored without going through this manager; after the upgrade it is built at startup.
+	 *
+	 * @throws OHServiceException
+	 */
+	public void rebuildPatientSearchIndex() throws OHServiceException {
+		ioOperations.rebuildPatientSearchIndex();
+	}
+
 	public PatientProfilePhoto retrievePatientProfilePhoto(Patient patient) throws OHServiceException {
 		return ioOperations.retrievePatientProfilePhoto(patient);
 	}
 
+	/**
+	 * Method that returns the thumbnail of the profile photo of a {@link Patient}, to be shown in lists and badges.
+	 *
+	 * @param patient
+	 * @return the PNG thumbnail or {@code null} if the patient has no photo
+	 * @throws OHServiceException
+	 */
+	public byte[] retrievePatientProfilePhotoThumbnail(Patient patient) throws OHServiceException {
+		return ioOperations.retrievePatientProfilePhotoThumbnail(patient);
+	}
+
 	/**
 	 * Method that merges {@link Patient}s and all clinic details under the same PAT_ID.
 	 *
@@ -306,6 +364,58 @@ public class PatientBrowserManager {
 	 * @throws OHServiceException
 	 */
 	public void mergePatient(Patient mergedPatient, Patient patient2) throws OHServiceException {
+		mergePatientDetails(mergedPatient, patient2);
+		validateMergePatients(mergedPatient, patient2);
+		ioOperations.mergePatientHistory(mergedPatient, patient2);
+	}
+
+	/**
+	 * Method that merges {@link Patient}s like {@link #mergePatient(Patient, Patient)}, but moves the clinic details
+	 * under the same PAT_ID in background. The patients are merged and validated before returning, so validation
+	 * errors are still thrown to the caller; the returned {@link PatientMergeJob} reports the progress of the move.
+	 *
+	 * @param mergedPatient
+	 * @param patient2
+	 * @return the {@link PatientMergeJob} tracking the merge
+	 * @throws OHServiceException
+	 */
+	public PatientMergeJob mergePatientInBackground(Patient mergedPatient, Patient patient2) throws OHServiceException {
+		mergePatientDetails(mergedPatient, patient2);
+		validateMergePatients(mergedPatient, patient2);
+		return mergeExecutor.submit(mergedPatient, patient2);
+	}
+
+	/**
+	 * Method that returns a merge started by {@link #mergePatientInBackground(Patient, Patient)}.
+	 *
+	 * @param id - the id of the {@link PatientMergeJob}
+	 * @return the {@link PatientMergeJob}, {@code null} if unknown or no longer tracked
+	 */
+	public PatientMergeJob getMergeJob(String id) {
+		return mergeExecutor.getJob(id);
+	}
+
+	/**
+	 * Method that returns the merges started by {@link #mergePatientInBackground(Patient, Patient)} still tracked.
+	 *
+	 * @return the list of {@link PatientMergeJob}s (could be empty)
+	 */
+	public List<PatientMergeJob> getMergeJobs() {
+		return mergeExecutor.getJobs();
+	}
+
+	/**
+	 * Method that returns the merges of other {@link Patient}s into the specified one, the most recent first.
+	 *
+	 * @param mergedPatient
+	 * @return the list of {@link PatientMerge}s (could be empty)
+	 * @throws OHServiceException
+	 */
+	public List<PatientMerge> getPatientMerges(Patient mergedPatient) throws OHServiceException {
+		return ioOperations.getPatientMerges(mergedPatient);
+	}
+
+	private void mergePatientDetails(Patient mergedPatient, Patient patient2) {
 		if (mergedPatient.getBirthDate() != null && StringUtils.isEmpty(mergedPatient.getAgetype())) {
 			// mergedPatient only Age
 			LocalDate bdate2 = patient2.getBirthDate();
@@ -373,9 +483,6 @@ public class PatientBrowserManager {
 			String note = mergedPatient.getNote();
 			mergedPatient.setNote(patient2.getNote() + "\n\n" + note);
 		}
-
-		validateMergePatients(mergedPatient, patient2);
-		ioOperations.mergePatientHistory(mergedPatient, patient2);
 	}
 
 	/**
@@ -0,0 +1,127 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Audit record of the merge of an obsolete {@link Patient} into the merged one, with the rows moved per table.
+ */
+@Entity
+@Table(name = "OH_PATIENTMERGE")
+public class PatientMerge {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "PMG_ID")
+	private Integer code;
+
+	@NotNull
+	@Column(name = "PMG_MERGED_PAT_ID")
+	private Integer mergedPatientCode;
+
+	@NotNull
+	@Column(name = "PMG_OBSOLETE_PAT_ID")
+	private Integer obsoletePatientCode;
+
+	@Column(name = "PMG_MERGED_BY")
+	private String mergedBy;
+
+	@NotNull
+	@Column(name = "PMG_DATE")
+	private LocalDateTime mergedDate;
+
+	@Column(name = "PMG_MERGED_ROWS")
+	private String mergedRows;
+
+	public PatientMerge() {
+		super();
+	}
+
+	public PatientMerge(Integer mergedPatientCode, Integer obsoletePatientCode, String mergedBy, LocalDateTime mergedDate, String mergedRows) {
+		this.mergedPatientCode = mergedPatientCode;
+		this.obsoletePatientCode = obsoletePatientCode;
+		this.mergedBy = mergedBy;
+		this.mergedDate = mergedDate;
+		this.mergedRows = mergedRows;
+	}
+
+	public Integer getCode() {
+		return code;
+	}
+
+	public void setCode(Integer code) {
+		this.code = code;
+	}
+
+	public Integer getMergedPatientCode() {
+		return mergedPatientCode;
+	}
+
+	public void setMergedPatientCode(Integer mergedPatientCode) {
+		this.mergedPatientCode = mergedPatientCode;
+	}
+
+	public Integer getObsoletePatientCode() {
+		return obsoletePatientCode;
+	}
+
+	public void setObsoletePatientCode(Integer obsoletePatientCode) {
+		this.obsoletePatientCode = obsoletePatientCode;
+	}
+
+	public String getMergedBy() {
+		return mergedBy;
+	}
+
+	public void setMergedBy(String mergedBy) {
+		this.mergedBy = mergedBy;
+	}
+
+	public LocalDateTime getMergedDate() {
+		return mergedDate;
+	}
+
+	public void setMergedDate(LocalDateTime mergedDate) {
+		this.mergedDate = mergedDate;
+	}
+
+	/**
+	 * @return the rows moved per table, e.g. {@code OH_VISITS=2, OH_BILLS=1}
+	 */
+	public String getMergedRows() {
+		return mergedRows;
+	}
+
+	public void setMergedRows(String mergedRows) {
+		this.mergedRows = mergedRows;
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.model;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks a merge of the clinical history of an obsolete {@link Patient} into the merged one,
+ * so that callers can follow a merge running in background.
+ */
+public class PatientMergeJob {
+
+	public enum Status {
+		QUEUED, RUNNING, COMPLETED, FAILED
+	}
+
+	private final String id = UUID.randomUUID().toString();
+	private final int mergedPatientCode;
+	private final int obsoletePatientCode;
+	private final String requestedBy;
+	private final LocalDateTime queuedDate;
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private volatile Status status = Status.QUEUED;
+	private volatile PatientMergedEvent event;
+	private volatile LocalDateTime startDate;
+	private volatile LocalDateTime endDate;
+	private volatile Throwable error;
+
+	public PatientMergeJob(int mergedPatientCode, int obsoletePatientCode) {
+		this(mergedPatientCode, obsoletePatientCode, null);
+	}
+
+	/**
+	 * @param mergedPatientCode - the code of the merged patient
+	 * @param obsoletePatientCode - the code of the obsolete patient
+	 * @param requestedBy - the user asking for the merge, recorded as author of the merge even if it runs in background
+	 */
+	public PatientMergeJob(int mergedPatientCode, int obsoletePatientCode, String requestedBy) {
+		this.mergedPatientCode = mergedPatientCode;
+		this.obsoletePatientCode = obsoletePatientCode;
+		this.requestedBy = requestedBy;
+		this.queuedDate = LocalDateTime.now();
+	}
+
+	/**
+	 * Marks the job as running and binds it to the event collecting the per table progress.
+	 *
+	 * @param event - the {@link PatientMergedEvent} published for this merge
+	 */
+	public void start(PatientMergedEvent event) {
+		this.event = event;
+		this.startDate = LocalDateTime.now();
+		this.status = Status.RUNNING;
+	}
+
+	public void complete() {
+		this.endDate = LocalDateTime.now();
+		this.status = Status.COMPLETED;
+		done.countDown();
+	}
+
+	public void fail(Throwable error) {
+		this.error = error;
+		this.endDate = LocalDateTime.now();
+		this.status = Status.FAILED;
+		done.countDown();
+	}
+
+	/**
+	 * Waits for the job to complete or fail.
+	 *
+	 * @param timeout - the maximum time to wait
+	 * @param unit - the unit of {@code timeout}
+	 * @return {@code true} if the job is done, {@code false} if the time elapsed before
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return done.await(timeout, unit);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public int getMergedPatientCode() {
+		return mergedPatientCode;
+	}
+
+	public int getObsoletePatientCode() {
+		return obsoletePatientCode;
+	}
+
+	public String getRequestedBy() {
+		return requestedBy;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isDone() {
+		return status == Status.COMPLETED || status == Status.FAILED;
+	}
+
+	/**
+	 * @return the rows moved so far, per table; rows of a failed job have been rolled back
+	 */
+	public Map<String, Integer> getMergedRows() {
+		PatientMergedEvent current = event;
+		return current == null ? Collections.emptyMap() : current.getMergedRows();
+	}
+
+	public LocalDateTime getQueuedDate() {
+		return queuedDate;
+	}
+
+	public LocalDateTime getStartDate() {
+		return startDate;
+	}
+
+	public LocalDateTime getEndDate() {
+		return endDate;
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+
+}
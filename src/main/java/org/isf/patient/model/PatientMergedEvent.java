@@ -21,14 +21,30 @@
  */
 package org.isf.patient.model;
 
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.isf.utils.time.TimeTools;
+
 public class PatientMergedEvent {
 
 	private final Patient obsoletePatient;
 	private final Patient mergedPatient;
+	private final String mergedBy;
+	private final LocalDateTime mergedDate;
+	private final Map<String, Integer> mergedRows = Collections.synchronizedMap(new LinkedHashMap<>());
 
 	public PatientMergedEvent(Patient obsoletePatient, Patient mergedPatient) {
+		this(obsoletePatient, mergedPatient, null);
+	}
+
+	public PatientMergedEvent(Patient obsoletePatient, Patient mergedPatient, String mergedBy) {
 		this.obsoletePatient = obsoletePatient;
 		this.mergedPatient = mergedPatient;
+		this.mergedBy = mergedBy;
+		this.mergedDate = TimeTools.getNow();
 	}
 
 	public Patient getObsoletePatient() {
@@ -39,4 +55,37 @@ public class PatientMergedEvent {
 		return mergedPatient;
 	}
 
+	/**
+	 * @return the user merging the patients, to be set as last modifier of the rows moved
+	 */
+	public String getMergedBy() {
+		return mergedBy;
+	}
+
+	/**
+	 * @return the time of the merge, to be set as last modification date of the rows moved
+	 */
+	public LocalDateTime getMergedDate() {
+		return mergedDate;
+	}
+
+	/**
+	 * Records how many rows of {@code table} a listener moved from the obsolete to the merged patient.
+	 *
+	 * @param table - the table updated by the listener
+	 * @param rows - the number of rows updated
+	 */
+	public void addMergedRows(String table, int rows) {
+		mergedRows.merge(table, rows, Integer::sum);
+	}
+
+	/**
+	 * @return the rows moved so far, per table, in the order the listeners ran
+	 */
+	public Map<String, Integer> getMergedRows() {
+		synchronized (mergedRows) {
+			return new LinkedHashMap<>(mergedRows);
+		}
+	}
+
 }
@@ -0,0 +1,193 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.model;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of a move of the {@link PatientProfilePhoto}s between the database and a folder of the file system.
+ * <p>
+ * The counters are updated by the migration thread only and can be read at any time.
+ */
+public class PatientPhotoMigration {
+
+	public enum Direction {
+		TO_FILE_SYSTEM, TO_DATABASE
+	}
+
+	public enum Status {
+		RUNNING, COMPLETED, CANCELLED, FAILED
+	}
+
+	private final Direction direction;
+	private final String directory;
+	private final long totalPhotos;
+	private final LocalDateTime startDate;
+	private final long startNanos;
+	private final CountDownLatch ended = new CountDownLatch(1);
+
+	private volatile Status status = Status.RUNNING;
+	private volatile boolean cancelRequested;
+	private volatile long movedPhotos;
+	private volatile long skippedPhotos;
+	private volatile long failedPhotos;
+	private volatile long bytesMoved;
+	private volatile Integer lastPatientCode;
+	private volatile LocalDateTime endDate;
+	private volatile Throwable error;
+
+	public PatientPhotoMigration(Direction direction, String directory, long totalPhotos) {
+		this.direction = direction;
+		this.directory = directory;
+		this.totalPhotos = totalPhotos;
+		this.startDate = LocalDateTime.now();
+		this.startNanos = System.nanoTime();
+	}
+
+	public void moved(Integer patientCode, long bytes) {
+		movedPhotos++;
+		bytesMoved += bytes;
+		lastPatientCode = patientCode;
+	}
+
+	public void skipped(Integer patientCode) {
+		skippedPhotos++;
+		lastPatientCode = patientCode;
+	}
+
+	public void failed(Integer patientCode) {
+		failedPhotos++;
+		lastPatientCode = patientCode;
+	}
+
+	public void cancel() {
+		cancelRequested = true;
+	}
+
+	public boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	public void end(Status endStatus, Throwable endError) {
+		this.error = endError;
+		this.endDate = LocalDateTime.now();
+		this.status = endStatus;
+		ended.countDown();
+	}
+
+	/**
+	 * Waits for the migration to end.
+	 *
+	 * @param timeout - the maximum time to wait
+	 * @param unit - the unit of {@code timeout}
+	 * @return {@code true} if the migration ended, {@code false} if the time elapsed before
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return ended.await(timeout, unit);
+	}
+
+	public Direction getDirection() {
+		return direction;
+	}
+
+	public String getDirectory() {
+		return directory;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isRunning() {
+		return status == Status.RUNNING;
+	}
+
+	/**
+	 * @return the number of photos to move found when the migration started
+	 */
+	public long getTotalPhotos() {
+		return totalPhotos;
+	}
+
+	public long getMovedPhotos() {
+		return movedPhotos;
+	}
+
+	public long getSkippedPhotos() {
+		return skippedPhotos;
+	}
+
+	public long getFailedPhotos() {
+		return failedPhotos;
+	}
+
+	public long getBytesMoved() {
+		return bytesMoved;
+	}
+
+	/**
+	 * @return the average number of bytes moved per second since the start
+	 */
+	public long getBytesPerSecond() {
+		long elapsedNanos = Math.max(1, getElapsed().toNanos());
+		return (long) (bytesMoved * 1e9 / elapsedNanos);
+	}
+
+	/**
+	 * @return the percentage of the photos processed, between 0 and 100
+	 */
+	public int getProgress() {
+		if (totalPhotos == 0) {
+			return status == Status.RUNNING ? 0 : 100;
+		}
+		long processed = movedPhotos + skippedPhotos + failedPhotos;
+		return (int) Math.min(100, processed * 100 / totalPhotos);
+	}
+
+	/**
+	 * @return the code of the last patient processed, {@code null} if none
+	 */
+	public Integer getLastPatientCode() {
+		return lastPatientCode;
+	}
+
+	public Duration getElapsed() {
+		return Duration.ofNanos(System.nanoTime() - startNanos);
+	}
+
+	public LocalDateTime getStartDate() {
+		return startDate;
+	}
+
+	public LocalDateTime getEndDate() {
+		return endDate;
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+
+import org.isf.patient.model.PatientPhotoMigration.Status;
+
+/**
+ * Storage of the {@link PatientProfilePhoto}s, shared by all the clients: once the photos have been moved between the
+ * database and a folder, it takes the place of the {@code PATIENTPHOTOSTORAGE} setting.
+ * <p>
+ * While a migration is pending, the photos not moved yet are in the fallback storage; the migration resumes after the
+ * code of the last patient processed.
+ */
+@Entity
+@Table(name = "OH_PATIENTPHOTOSTORAGE")
+public class PatientPhotoStorage {
+
+	/**
+	 * The id of the only row of the table.
+	 */
+	public static final int ID = 1;
+
+	@Id
+	@Column(name = "PPS_ID")
+	private int id = ID;
+
+	@NotNull
+	@Column(name = "PPS_STORAGE")
+	private String storage;
+
+	@Column(name = "PPS_FALLBACK_STORAGE")
+	private String fallbackStorage;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "PPS_MIGRATION_STATUS")
+	private Status migrationStatus;
+
+	@Column(name = "PPS_MIGRATION_LAST_PAT_ID")
+	private int migrationLastPatientCode;
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return {@code DB} or the photos folder
+	 */
+	public String getStorage() {
+		return storage;
+	}
+
+	public void setStorage(String storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * @return the storage still holding photos not moved yet, {@code null} if none
+	 */
+	public String getFallbackStorage() {
+		return fallbackStorage;
+	}
+
+	public void setFallbackStorage(String fallbackStorage) {
+		this.fallbackStorage = fallbackStorage;
+	}
+
+	public Status getMigrationStatus() {
+		return migrationStatus;
+	}
+
+	public void setMigrationStatus(Status migrationStatus) {
+		this.migrationStatus = migrationStatus;
+	}
+
+	/**
+	 * @return the code of the last patient processed by the migration, {@code 0} if none
+	 */
+	public int getMigrationLastPatientCode() {
+		return migrationLastPatientCode;
+	}
+
+	public void setMigrationLastPatientCode(int migrationLastPatientCode) {
+		this.migrationLastPatientCode = migrationLastPatientCode;
+	}
+
+}
@@ -25,6 +25,7 @@ import java.awt.Image;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
@@ -56,6 +57,9 @@ public class PatientProfilePhoto implements Serializable {
 	@Lob
 	private byte[] photo;
 
+	@Column(name="PAT_THUMBNAIL")
+	@Lob
+	private byte[] thumbnail;
 
 
 	public Image getPhotoAsImage() {
@@ -88,8 +92,20 @@ public class PatientProfilePhoto implements Serializable {
 
 
 	public void setPhoto(byte[] photo) {
+		if (!Arrays.equals(this.photo, photo)) {
+			// the thumbnail of the previous photo
+			this.thumbnail = null;
+		}
 		this.photo = photo;
 	}
 
+	public byte[] getThumbnail() {
+		return thumbnail;
+	}
+
+	public void setThumbnail(byte[] thumbnail) {
+		this.thumbnail = thumbnail;
+	}
+
 
 }
@@ -0,0 +1,82 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * State of the patient search index ({@link PatientSearchToken}s): until it is built, the patients are searched by
+ * scanning their fields.
+ * <p>
+ * The index is built in pages of patients ordered by code, so a build interrupted by a restart resumes after the code of
+ * the last patient indexed.
+ */
+@Entity
+@Table(name = "OH_PATIENTSEARCHINDEX")
+public class PatientSearchIndexStatus {
+
+	/**
+	 * The id of the only row of the table.
+	 */
+	public static final int ID = 1;
+
+	@Id
+	@Column(name = "PSI_ID")
+	private int id = ID;
+
+	@Column(name = "PSI_BUILT")
+	private boolean built;
+
+	@Column(name = "PSI_LAST_PAT_ID")
+	private int lastPatientCode;
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public boolean isBuilt() {
+		return built;
+	}
+
+	public void setBuilt(boolean built) {
+		this.built = built;
+	}
+
+	/**
+	 * @return the code of the last patient indexed by the build in progress, {@code 0} if none
+	 */
+	public int getLastPatientCode() {
+		return lastPatientCode;
+	}
+
+	public void setLastPatientCode(int lastPatientCode) {
+		this.lastPatientCode = lastPatientCode;
+	}
+
+}
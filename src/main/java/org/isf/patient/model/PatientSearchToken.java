@@ -0,0 +1,71 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Table;
+
+/**
+ * Entry of the patient search index: a suffix of one of the words found in the searchable fields of a {@link Patient}.
+ * <p>
+ * Since every suffix of every word is stored, a search word is contained in a patient field if and only if some suffix of
+ * that patient starts with it, which is a condition the database can answer with an index range scan.
+ */
+@Entity
+@Table(name = "OH_PATIENTSEARCHTOKEN")
+public class PatientSearchToken {
+
+	@EmbeddedId
+	private PatientSearchTokenId id;
+
+	/**
+	 * {@code true} if the suffix is a whole word, i.e. it starts at the beginning of the word; used to rank the results.
+	 */
+	@Column(name = "PST_START")
+	private boolean start;
+
+	public PatientSearchToken() {
+	}
+
+	public PatientSearchToken(int patientCode, String suffix, boolean start) {
+		this.id = new PatientSearchTokenId(patientCode, suffix);
+		this.start = start;
+	}
+
+	public PatientSearchTokenId getId() {
+		return id;
+	}
+
+	public void setId(PatientSearchTokenId id) {
+		this.id = id;
+	}
+
+	public boolean isStart() {
+		return start;
+	}
+
+	public void setStart(boolean start) {
+		this.start = start;
+	}
+}
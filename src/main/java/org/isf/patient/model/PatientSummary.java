@@ -0,0 +1,119 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.model;
+
+import java.time.LocalDate;
+import java.time.Period;
+
+/**
+ * Read-only view of the {@link Patient} fields shown in patient lists.
+ * <p>
+ * Summaries are built directly from the query results: no {@link Patient} entity is loaded, so neither the profile
+ * photo nor the other associations are ever touched and nothing is kept in the persistence context.
+ */
+public class PatientSummary {
+
+	private final Integer code;
+
+	private final String firstName;
+
+	private final String secondName;
+
+	private final String name;
+
+	private final LocalDate birthDate;
+
+	private final int age;
+
+	private final String agetype;
+
+	private final char sex;
+
+	private final String city;
+
+	private final String telephone;
+
+	public PatientSummary(Integer code, String firstName, String secondName, String name, LocalDate birthDate, int age, String agetype, char sex,
+					String city, String telephone) {
+		this.code = code;
+		this.firstName = firstName;
+		this.secondName = secondName;
+		this.name = name;
+		this.birthDate = birthDate;
+		this.age = age;
+		this.agetype = agetype;
+		this.sex = sex;
+		this.city = city;
+		this.telephone = telephone;
+	}
+
+	public Integer getCode() {
+		return code;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	public String getSecondName() {
+		return secondName;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public LocalDate getBirthDate() {
+		return birthDate;
+	}
+
+	/**
+	 * Returns the age in years, computed from the birth date as {@link Patient#getAge()} does.
+	 */
+	public int getAge() {
+		if (birthDate != null) {
+			return Period.between(birthDate, LocalDate.now()).getYears();
+		}
+		return age;
+	}
+
+	public String getAgetype() {
+		return agetype;
+	}
+
+	public char getSex() {
+		return sex;
+	}
+
+	public String getCity() {
+		return city;
+	}
+
+	public String getTelephone() {
+		return telephone;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -21,14 +21,27 @@
  */
 package org.isf.patient.service;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.sql.Blob;
-import java.sql.SQLException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-import javax.sql.rowset.serial.SerialBlob;
+import javax.imageio.ImageIO;
 
 import org.isf.generaldata.MessageBundle;
 import org.isf.patient.model.Patient;
@@ -39,6 +52,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+/**
+ * Stores the patient photos as {@code <patientId>.png} files, together with a small {@code <patientId>_thumbnail.png}
+ * written at save time for lists, badges and reports.
+ * <p>
+ * The files read are kept in a size-bounded LRU cache. A cached file is served only while its size and last modified time
+ * are unchanged, so the photos saved by other clients are never hidden by the cache.
+ */
 @Component
 public class FileSystemPatientPhotoRepository {
 
@@ -48,83 +68,336 @@ public class FileSystemPatientPhotoRepository {
 
 	private static final String IMAGE_FORMAT = ".png";
 
+	private static final String THUMBNAIL_SUFFIX = "_thumbnail";
+
+	/**
+	 * Maximum width and height of the thumbnails, in pixels.
+	 */
+	public static final int THUMBNAIL_SIZE = 160;
+
+	private static final long CACHE_MAX_BYTES = 16L * 1024 * 1024;
+
+	private final Map<Path, CachedFile> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long cacheBytes;
+
 	public boolean exist(String path, Integer patientId) {
-		File patientIdFolder = new File(path);
-		File f = new File(patientIdFolder, patientId + IMAGE_FORMAT);
-		return f.exists() && !f.isDirectory();
+		return Files.isRegularFile(getPhotoPath(path, patientId));
 	}
 
 	public void loadInPatient(Patient patient, String path) throws OHServiceException {
+		PatientProfilePhoto patientProfilePhoto = new PatientProfilePhoto();
+		patient.setPatientProfilePhoto(patientProfilePhoto);
+		patientProfilePhoto.setPatient(patient);
+		if (exist(path, patient.getCode())) {
+			patientProfilePhoto.setPhoto(load(path, patient.getCode()));
+		}
+	}
+
+	/**
+	 * Reads the photo of a patient.
+	 *
+	 * @param path - the photos folder
+	 * @param patientId - the patient code
+	 * @return the content of the photo file
+	 * @throws OHServiceException if the file cannot be read
+	 */
+	public byte[] load(String path, Integer patientId) throws OHServiceException {
 		try {
-			PatientProfilePhoto patientProfilePhoto = new PatientProfilePhoto();
-			patient.setPatientProfilePhoto(patientProfilePhoto);
-			patientProfilePhoto.setPatient(patient);
-			if (exist(path, patient.getCode())) {
-				Blob blob = this.load(patient.getCode(), path);
-				byte[] blobAsBytes =  blob.getBytes(1, (int) blob.length());
-				patientProfilePhoto.setPhoto(blobAsBytes);
-			}
-		} catch (SQLException e) {
+			return read(getPhotoPath(path, patientId));
+		} catch (IOException e) {
 			LOGGER.error(e.getMessage(), e);
 			throw new OHServiceException(new OHExceptionMessage(MessageBundle.formatMessage(KEY_FILE_NOT_FOUND)));
 		}
+	}
 
+	/**
+	 * Reads the thumbnail of the photo of a patient, creating it if the photo was saved before thumbnails were introduced.
+	 *
+	 * @param path - the photos folder
+	 * @param patientId - the patient code
+	 * @return the content of the thumbnail file or {@code null} if the patient has no photo or the photo is not an image
+	 * @throws OHServiceException if the files cannot be read or written
+	 */
+	public byte[] loadThumbnail(String path, Integer patientId) throws OHServiceException {
+		File thumbnail = getThumbnailFile(path, patientId);
+		if (thumbnail == null) {
+			return null;
+		}
+		try {
+			return read(thumbnail.toPath());
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new OHServiceException(new OHExceptionMessage(MessageBundle.formatMessage(KEY_FILE_NOT_FOUND)));
+		}
+	}
+
+	/**
+	 * Returns the thumbnail file of the photo of a patient, creating it if it is missing or older than the photo.
+	 *
+	 * @param path - the photos folder
+	 * @param patientId - the patient code
+	 * @return the thumbnail file or {@code null} if the patient has no photo or the photo is not an image
+	 * @throws OHServiceException if the files cannot be read or written
+	 */
+	public File getThumbnailFile(String path, Integer patientId) throws OHServiceException {
+		Path photoPath = getPhotoPath(path, patientId);
+		Path thumbnailPath = getThumbnailPath(path, patientId);
+		try {
+			if (!Files.isRegularFile(photoPath)) {
+				return null;
+			}
+			if (!Files.isRegularFile(thumbnailPath)
+							|| Files.getLastModifiedTime(thumbnailPath).compareTo(Files.getLastModifiedTime(photoPath)) < 0) {
+				byte[] thumbnail = createThumbnail(read(photoPath));
+				if (thumbnail == null) {
+					return null;
+				}
+				write(thumbnailPath, thumbnail);
+			}
+			return thumbnailPath.toFile();
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new OHServiceException(new OHExceptionMessage(MessageBundle.formatMessage(KEY_FILE_NOT_FOUND)));
+		}
 	}
 
 	public void save(String path, Integer patId, byte[] blob) throws OHServiceException {
 		try {
-			File patientIdFolder = new File(path);
-			this.recurse(patientIdFolder);
-			File data = new File(patientIdFolder, patId + IMAGE_FORMAT);
-			save(data, blob);
+			Files.createDirectories(Paths.get(path));
+			write(getPhotoPath(path, patId), blob);
+			byte[] thumbnail = createThumbnail(blob);
+			if (thumbnail != null) {
+				write(getThumbnailPath(path, patId), thumbnail);
+			} else {
+				Files.deleteIfExists(getThumbnailPath(path, patId));
+			}
 		} catch (Exception exception) {
 			LOGGER.error(exception.getMessage(), exception);
 			throw new OHServiceException(new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg")));
+		} finally {
+			evict(getPhotoPath(path, patId));
+			evict(getThumbnailPath(path, patId));
 		}
 	}
 
-	public void delete(String path, int patientId) {
-		File patientIdFolder = new File(path);
-		File fdc = new File(patientIdFolder, patientId + IMAGE_FORMAT);
-		fdc.delete();
+	/**
+	 * Writes the photo of a patient produced by {@code writer}, without holding it in memory; the thumbnail is created
+	 * when first read.
+	 *
+	 * @param path - the photos folder
+	 * @param patId - the patient code
+	 * @param writer - writes the photo, returns {@code false} if there is no photo
+	 * @return the size of the photo written, {@code 0} if there is no photo
+	 * @throws OHServiceException if the file cannot be written
+	 */
+	public long save(String path, Integer patId, PhotoWriter writer) throws OHServiceException {
+		Path file = getPhotoPath(path, patId);
+		Path temporary = null;
+		try {
+			Files.createDirectories(Paths.get(path));
+			temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try (OutputStream out = Files.newOutputStream(temporary)) {
+				if (!writer.write(out)) {
+					return 0;
+				}
+			}
+			long size = Files.size(temporary);
+			move(temporary, file);
+			Files.deleteIfExists(getThumbnailPath(path, patId));
+			return size;
+		} catch (IOException exception) {
+			LOGGER.error(exception.getMessage(), exception);
+			throw new OHServiceException(new OHExceptionMessage(MessageBundle.formatMessage("angal.dicommanager.genericerror.fmt.msg")));
+		} finally {
+			deleteQuietly(temporary);
+			evict(file);
+			evict(getThumbnailPath(path, patId));
+		}
 	}
 
-	private Blob load(Integer patientId, String path) throws OHServiceException {
+	/**
+	 * Opens the photo of a patient to read it as a stream, bypassing the cache.
+	 *
+	 * @param path - the photos folder
+	 * @param patientId - the patient code
+	 * @return the stream, to be closed by the caller
+	 * @throws OHServiceException if the file cannot be opened
+	 */
+	public InputStream open(String path, Integer patientId) throws OHServiceException {
 		try {
-			File patientIdFolder = new File(path);
-			File fdc = new File(patientIdFolder, patientId + IMAGE_FORMAT);
-			byte[] byteArray;
-			try (FileInputStream fis = new FileInputStream(fdc)) {
-				byteArray = new byte[fis.available()];
-				fis.read(byteArray);
-			}
-			return new SerialBlob(byteArray);
-		} catch (IOException | SQLException e) {
+			return Files.newInputStream(getPhotoPath(path, patientId));
+		} catch (IOException e) {
 			LOGGER.error(e.getMessage(), e);
 			throw new OHServiceException(new OHExceptionMessage(MessageBundle.formatMessage(KEY_FILE_NOT_FOUND)));
 		}
 	}
 
-	private void recurse(File f) throws IOException {
-		if (f.exists()) {
-			return;
+	/**
+	 * @param path - the photos folder
+	 * @param patientId - the patient code
+	 * @return the size of the photo file
+	 * @throws OHServiceException if the file cannot be read
+	 */
+	public long size(String path, Integer patientId) throws OHServiceException {
+		try {
+			return Files.size(getPhotoPath(path, patientId));
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new OHServiceException(new OHExceptionMessage(MessageBundle.formatMessage(KEY_FILE_NOT_FOUND)));
+		}
+	}
+
+	public void delete(String path, int patientId) {
+		for (Path file : new Path[] { getPhotoPath(path, patientId), getThumbnailPath(path, patientId) }) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				LOGGER.error(e.getMessage(), e);
+			}
+			evict(file);
+		}
+	}
+
+	/**
+	 * Scales an image down to fit in {@link #THUMBNAIL_SIZE} pixels, keeping its proportions.
+	 *
+	 * @param image - the content of an image file
+	 * @return the PNG thumbnail or {@code null} if {@code image} cannot be decoded
+	 */
+	public static byte[] createThumbnail(byte[] image) {
+		try {
+			BufferedImage source = image != null ? ImageIO.read(new ByteArrayInputStream(image)) : null;
+			if (source == null) {
+				return null;
+			}
+			double scale = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(source.getWidth(), source.getHeight()));
+			int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+			int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+			BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D graphics = thumbnail.createGraphics();
+			try {
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.drawImage(source, 0, 0, width, height, null);
+			} finally {
+				graphics.dispose();
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(thumbnail, "png", out);
+			return out.toByteArray();
+		} catch (IOException e) {
+			LOGGER.warn("Unable to create the thumbnail of a patient photo: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private static Path getPhotoPath(String path, Integer patientId) {
+		return Paths.get(path, patientId + IMAGE_FORMAT);
+	}
+
+	private static Path getThumbnailPath(String path, Integer patientId) {
+		return Paths.get(path, patientId + THUMBNAIL_SUFFIX + IMAGE_FORMAT);
+	}
+
+	private byte[] read(Path file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		synchronized (cache) {
+			CachedFile cached = cache.get(file);
+			if (cached != null && cached.isCurrent(attributes)) {
+				return cached.content.clone();
+			}
+		}
+		byte[] content = Files.readAllBytes(file);
+		if (content.length == attributes.size()) {
+			put(file, new CachedFile(content.clone(), attributes.lastModifiedTime()));
+		}
+		return content;
+	}
+
+	private void write(Path file, byte[] content) throws IOException {
+		// write aside and move, so that readers never see a partially written file
+		Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			Files.write(temporary, content);
+			move(temporary, file);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private static void move(Path temporary, Path file) throws IOException {
+		try {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
 		}
-		File fp = f.getParentFile();
+	}
 
-		if (fp != null) {
-			recurse(fp);
+	private static void deleteQuietly(Path file) {
+		if (file == null) {
+			return;
 		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			LOGGER.warn("Unable to delete {}: {}", file, e.getMessage());
+		}
+	}
 
-		if (!f.exists()) {
-			f.mkdir();
+	private void put(Path file, CachedFile cached) {
+		if (cached.content.length > CACHE_MAX_BYTES / 4) {
+			return;
+		}
+		synchronized (cache) {
+			CachedFile previous = cache.put(file, cached);
+			if (previous != null) {
+				cacheBytes -= previous.content.length;
+			}
+			cacheBytes += cached.content.length;
+			Iterator<CachedFile> eldest = cache.values().iterator();
+			while (cacheBytes > CACHE_MAX_BYTES && eldest.hasNext()) {
+				cacheBytes -= eldest.next().content.length;
+				eldest.remove();
+			}
 		}
 	}
 
-	private void save(File outFile, byte[] content) throws IOException {
-		try (FileOutputStream fos = new FileOutputStream(outFile)) {
-			fos.write(content);
-			fos.flush();
+	private void evict(Path file) {
+		synchronized (cache) {
+			CachedFile removed = cache.remove(file);
+			if (removed != null) {
+				cacheBytes -= removed.content.length;
+			}
 		}
 	}
 
+	/**
+	 * Writes a photo to a stream.
+	 */
+	@FunctionalInterface
+	public interface PhotoWriter {
+
+		/**
+		 * @param out - the stream to write the photo to
+		 * @return {@code false} if there is no photo
+		 * @throws IOException if the photo cannot be written
+		 */
+		boolean write(OutputStream out) throws IOException;
+	}
+
+	private static final class CachedFile {
+
+		private final byte[] content;
+
+		private final FileTime lastModified;
+
+		private CachedFile(byte[] content, FileTime lastModified) {
+			this.content = content;
+			this.lastModified = lastModified;
+		}
+
+		private boolean isCurrent(BasicFileAttributes attributes) {
+			return content.length == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+		}
+	}
 }
@@ -54,6 +54,18 @@ public interface PatientIoOperationRepository extends JpaRepository<Patient, Int
 
 	@Query(value = "select max(p.code) from Patient p")
 	Integer findMaxCode();
+
+	@Query(value = "select count(p) from Patient p where p.patientProfilePhoto is not null")
+	long countWithProfilePhoto();
+
+	@Query(value = "select p.code from Patient p where p.patientProfilePhoto is not null and p.code > :lastCode order by p.code")
+	List<Integer> findCodesWithProfilePhoto(@Param("lastCode") int lastCode, Pageable pageable);
+
+	@Query(value = "select p.patientProfilePhoto.photo from Patient p where p.code = :code")
+	byte[] findProfilePhoto(@Param("code") Integer code);
+
+	@Query(value = "select p.patientProfilePhoto.thumbnail from Patient p where p.code = :code")
+	byte[] findProfilePhotoThumbnail(@Param("code") Integer code);
 	
 	@Query(value = "select distinct p.city from Patient p")
 	List<String> findCities();
@@ -21,12 +21,79 @@
  */
 package org.isf.patient.service;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientSummary;
 
 public interface PatientIoOperationRepositoryCustom {
 
 	List<Patient> findByFieldsContainingWordsFromLiteral(String regex);
 
+	List<Patient> findByFieldsContainingWordsFromLiteral(String regex, int offset, int limit);
+
+	/**
+	 * Returns the summaries of the not deleted patients matching {@code params}, ordered by code descending. As in
+	 * {@link PatientIoOperationRepository#getPatientsByParams(Map)}, a {@code String} value matches the attributes containing it,
+	 * ignoring case, and the birth date is a {@code LocalDateTime}; any other value must equal the attribute.
+	 *
+	 * @param params the filters, by {@link Patient} attribute name; {@code null} values are ignored
+	 * @param lastCode the code of the last patient of the previous page, {@code null} for the first page
+	 * @param pageSize the maximum number of summaries returned
+	 * @return the page of summaries
+	 * @throws IllegalArgumentException if a value does not fit the type of its attribute
+	 */
+	List<PatientSummary> findPatientSummariesByParams(Map<String, Object> params, Integer lastCode, int pageSize);
+
+	/**
+	 * Streams the summaries of the not deleted patients matching {@code params}, ordered by code descending, loading at most
+	 * {@code fetchSize} rows per query.
+	 *
+	 * @param params the filters, by {@link Patient} attribute name
+	 * @param fetchSize the number of summaries loaded by each query
+	 * @return the stream of summaries
+	 */
+	Stream<PatientSummary> streamPatientSummariesByParams(Map<String, Object> params, int fetchSize);
+
+	/**
+	 * Locks the row of a patient until the end of the transaction, without changing its version: the changes of its profile
+	 * photo made without loading the patient are serialized this way.
+	 *
+	 * @param code the patient code
+	 * @return {@code false} if the patient does not exist
+	 */
+	boolean lockPatient(Integer code);
+
+	/**
+	 * Copies the profile photo of a patient to {@code out} without loading it in memory.
+	 *
+	 * @param code the patient code
+	 * @param out the stream the photo is copied to
+	 * @return {@code false} if the patient has no profile photo
+	 */
+	boolean copyProfilePhoto(Integer code, OutputStream out);
+
+	/**
+	 * Stores {@code photo} as the profile photo of a patient, replacing the current one, without loading the patient: its
+	 * version is not changed.
+	 *
+	 * @param code the patient code
+	 * @param photo the photo
+	 * @param length the size of the photo
+	 * @param thumbnail the thumbnail of the photo, {@code null} if it cannot be created
+	 * @return {@code false} if the patient does not exist
+	 */
+	boolean writeProfilePhoto(Integer code, InputStream photo, long length, byte[] thumbnail);
+
+	/**
+	 * Removes the profile photo of a patient without loading the patient: its version is not changed.
+	 *
+	 * @param code the patient code
+	 */
+	void deleteProfilePhoto(Integer code);
+
 }
@@ -21,28 +21,68 @@
  */
 package org.isf.patient.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.metamodel.Attribute;
+import jakarta.persistence.metamodel.EntityType;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
 import jakarta.persistence.criteria.Path;
 import jakarta.persistence.criteria.Predicate;
 import jakarta.persistence.criteria.Root;
 
+import org.hibernate.Session;
 import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientSummary;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ClassUtils;
 
 @Transactional
 public class PatientIoOperationRepositoryImpl implements PatientIoOperationRepositoryCustom {
 
+	private static final String BIRTH_DATE = "birthDate";
+
+	private static final String SUMMARY_SELECT = "select new org.isf.patient.model.PatientSummary(p.code, p.firstName, p.secondName, p.name, "
+					+ "p.birthDate, p.age, p.agetype, p.sex, p.city, p.telephone) from Patient p where (p.deleted = 'N' or p.deleted is null)";
+
+	private static final String NATIVE_LOCK_PATIENT = "SELECT PAT_ID FROM OH_PATIENT WHERE PAT_ID = ? FOR UPDATE";
+	private static final String NATIVE_QUERY_PHOTO_ID = "SELECT PAT_PROFILE_PHOTO_ID FROM OH_PATIENT WHERE PAT_ID = ?";
+	private static final String NATIVE_QUERY_PHOTO = "SELECT PAT_PHOTO FROM OH_PATIENT_PROFILE_PHOTO WHERE PAT_PROFILE_PHOTO_ID = ?";
+	private static final String NATIVE_UPDATE_PHOTO = "UPDATE OH_PATIENT_PROFILE_PHOTO SET PAT_PHOTO = ?, PAT_THUMBNAIL = ? WHERE PAT_PROFILE_PHOTO_ID = ?";
+	private static final String NATIVE_INSERT_PHOTO = "INSERT INTO OH_PATIENT_PROFILE_PHOTO (PAT_PHOTO, PAT_THUMBNAIL) VALUES (?, ?)";
+	private static final String NATIVE_UPDATE_PATIENT_PHOTO_ID = "UPDATE OH_PATIENT SET PAT_PROFILE_PHOTO_ID = ? WHERE PAT_ID = ?";
+	private static final String NATIVE_DELETE_PHOTO = "DELETE FROM OH_PATIENT_PROFILE_PHOTO WHERE PAT_PROFILE_PHOTO_ID = ?";
+
 	@PersistenceContext
 	private EntityManager entityManager;
 
+	/**
+	 * The summary queries already built, by filtered attributes: the same statement text is reused for the same filters,
+	 * so the persistence provider parses it only once.
+	 */
+	private final Map<String, String> summaryQueries = new ConcurrentHashMap<>();
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public List<Patient> findByFieldsContainingWordsFromLiteral(String literal) {
@@ -51,6 +91,15 @@ public class PatientIoOperationRepositoryImpl implements PatientIoOperationRepos
 				getResultList();
 	}
 
+	@Override
+	public List<Patient> findByFieldsContainingWordsFromLiteral(String literal, int offset, int limit) {
+		return this.entityManager.
+				createQuery(buildSearchQuery(literal)).
+				setFirstResult(offset).
+				setMaxResults(limit).
+				getResultList();
+	}
+
 	private CriteriaQuery<Patient> buildSearchQuery(String regex) {
 		String[] words = getWordsToSearchForInPatientsRepository(regex);
 		return createQuerySearchingForPatientContainingGivenWordsInHisProperties(words);
@@ -137,4 +186,189 @@ public class PatientIoOperationRepositoryImpl implements PatientIoOperationRepos
 		return entityManager.createQuery(query).getResultList();
 	}
 
+	@Override
+	public List<PatientSummary> findPatientSummariesByParams(Map<String, Object> params, Integer lastCode, int pageSize) {
+		EntityType<Patient> patient = entityManager.getMetamodel().entity(Patient.class);
+		// sorted, so that the same filters always give the same statement
+		Map<String, String> conditions = new TreeMap<>();
+		Map<String, Object> values = new HashMap<>();
+		for (Map.Entry<String, Object> entry : params.entrySet()) {
+			String name = entry.getKey();
+			Object value = entry.getValue();
+			Attribute<? super Patient, ?> attribute = patient.getAttribute(name);
+			if (attribute.getPersistentAttributeType() != Attribute.PersistentAttributeType.BASIC) {
+				throw new IllegalArgumentException("Cannot filter patients by " + name);
+			}
+			if (value == null) {
+				// not filtered, as in getPatientsByParams
+				continue;
+			}
+			if (name.equals(BIRTH_DATE) && value instanceof LocalDateTime) {
+				conditions.put(name, "p.birthDate = :birthDate");
+				values.put(name, ((LocalDateTime) value).toLocalDate());
+			} else if (value instanceof String) {
+				String path = attribute.getJavaType() == String.class ? "p." + name : "cast(p." + name + " as String)";
+				conditions.put(name, "lower(" + path + ") like :" + name);
+				values.put(name, like(((String) value).toLowerCase()));
+			} else if (ClassUtils.resolvePrimitiveIfNecessary(attribute.getJavaType()).isInstance(value)) {
+				conditions.put(name, "p." + name + " = :" + name);
+				values.put(name, value);
+			} else {
+				throw new IllegalArgumentException("Cannot filter patients by " + name + " with a " + value.getClass().getSimpleName());
+			}
+		}
+		String signature = String.join(" and ", conditions.values()) + (lastCode != null ? ";after" : "");
+		String jpql = summaryQueries.computeIfAbsent(signature, key -> buildSummaryQuery(conditions.values(), lastCode != null));
+
+		TypedQuery<PatientSummary> query = entityManager.createQuery(jpql, PatientSummary.class);
+		values.forEach(query::setParameter);
+		if (lastCode != null) {
+			query.setParameter("lastCode", lastCode);
+		}
+		return query.setMaxResults(pageSize).getResultList();
+	}
+
+	@Override
+	public Stream<PatientSummary> streamPatientSummariesByParams(Map<String, Object> params, int fetchSize) {
+		if (fetchSize <= 0) {
+			throw new IllegalArgumentException("fetchSize must be positive");
+		}
+		return Stream.iterate(findPatientSummariesByParams(params, null, fetchSize),
+						page -> !page.isEmpty(),
+						page -> page.size() < fetchSize ? Collections.emptyList()
+										: findPatientSummariesByParams(params, page.get(page.size() - 1).getCode(), fetchSize))
+			.flatMap(List::stream);
+	}
+
+	private static String buildSummaryQuery(Collection<String> conditions, boolean after) {
+		StringBuilder jpql = new StringBuilder(SUMMARY_SELECT);
+		for (String condition : conditions) {
+			jpql.append(" and ").append(condition);
+		}
+		if (after) {
+			jpql.append(" and p.code < :lastCode");
+		}
+		return jpql.append(" order by p.code desc").toString();
+	}
+
+	@Override
+	public boolean lockPatient(Integer code) {
+		return jdbcSession().doReturningWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(NATIVE_LOCK_PATIENT)) {
+				statement.setInt(1, code);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					return resultSet.next();
+				}
+			}
+		});
+	}
+
+	@Override
+	public boolean copyProfilePhoto(Integer code, OutputStream out) {
+		return jdbcSession().doReturningWork(connection -> {
+			Integer photoId = findProfilePhotoId(connection, code);
+			if (photoId == null) {
+				return false;
+			}
+			try (PreparedStatement statement = connection.prepareStatement(NATIVE_QUERY_PHOTO)) {
+				statement.setInt(1, photoId);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					if (!resultSet.next()) {
+						return false;
+					}
+					try (InputStream photo = resultSet.getBinaryStream(1)) {
+						if (photo == null) {
+							return false;
+						}
+						photo.transferTo(out);
+						return true;
+					} catch (IOException e) {
+						throw new SQLException(e);
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	public boolean writeProfilePhoto(Integer code, InputStream photo, long length, byte[] thumbnail) {
+		return jdbcSession().doReturningWork(connection -> {
+			Integer photoId;
+			try (PreparedStatement statement = connection.prepareStatement(NATIVE_QUERY_PHOTO_ID)) {
+				statement.setInt(1, code);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					if (!resultSet.next()) {
+						return false;
+					}
+					photoId = getInteger(resultSet);
+				}
+			}
+			if (photoId != null) {
+				try (PreparedStatement statement = connection.prepareStatement(NATIVE_UPDATE_PHOTO)) {
+					statement.setBinaryStream(1, photo, length);
+					statement.setBytes(2, thumbnail);
+					statement.setInt(3, photoId);
+					statement.executeUpdate();
+				}
+				return true;
+			}
+			try (PreparedStatement statement = connection.prepareStatement(NATIVE_INSERT_PHOTO, Statement.RETURN_GENERATED_KEYS)) {
+				statement.setBinaryStream(1, photo, length);
+				statement.setBytes(2, thumbnail);
+				statement.executeUpdate();
+				try (ResultSet keys = statement.getGeneratedKeys()) {
+					keys.next();
+					photoId = keys.getInt(1);
+				}
+			}
+			try (PreparedStatement statement = connection.prepareStatement(NATIVE_UPDATE_PATIENT_PHOTO_ID)) {
+				statement.setInt(1, photoId);
+				statement.setInt(2, code);
+				statement.executeUpdate();
+			}
+			return true;
+		});
+	}
+
+	@Override
+	public void deleteProfilePhoto(Integer code) {
+		jdbcSession().doWork(connection -> {
+			Integer photoId = findProfilePhotoId(connection, code);
+			if (photoId == null) {
+				return;
+			}
+			try (PreparedStatement statement = connection.prepareStatement(NATIVE_UPDATE_PATIENT_PHOTO_ID)) {
+				statement.setNull(1, Types.INTEGER);
+				statement.setInt(2, code);
+				statement.executeUpdate();
+			}
+			try (PreparedStatement statement = connection.prepareStatement(NATIVE_DELETE_PHOTO)) {
+				statement.setInt(1, photoId);
+				statement.executeUpdate();
+			}
+		});
+	}
+
+	private Session jdbcSession() {
+		Session session = entityManager.unwrap(Session.class);
+		// data saved in the current transaction must be visible to the plain JDBC statements
+		if (session.isDirty()) {
+			session.flush();
+		}
+		return session;
+	}
+
+	private static Integer findProfilePhotoId(Connection connection, Integer code) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(NATIVE_QUERY_PHOTO_ID)) {
+			statement.setInt(1, code);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				return resultSet.next() ? getInteger(resultSet) : null;
+			}
+		}
+	}
+
+	private static Integer getInteger(ResultSet resultSet) throws SQLException {
+		int value = resultSet.getInt(1);
+		return resultSet.wasNull() ? null : value;
+	}
 }
@@ -21,18 +21,24 @@
  */
 package org.isf.patient.service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import jakarta.persistence.EntityManager;
 
 import org.hibernate.Hibernate;
 import org.hibernate.Session;
-import org.isf.generaldata.GeneralData;
 import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientMerge;
+import org.isf.patient.model.PatientMergeJob;
 import org.isf.patient.model.PatientMergedEvent;
 import org.isf.patient.model.PatientProfilePhoto;
+import org.isf.patient.model.PatientSummary;
 import org.isf.utils.db.TranslateOHServiceException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
@@ -42,6 +48,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.AuditorAware;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -57,6 +64,8 @@ public class PatientIoOperations {
 
 	public static final char NOT_DELETED_STATUS = 'N';
 
+	private static final int PATIENTS_BY_CODES_PAGE_SIZE = 500;
+
 	private final PatientIoOperationRepository repository;
 
 	private final ApplicationEventPublisher applicationEventPublisher;
@@ -65,11 +74,25 @@ public class PatientIoOperations {
 
 	private final EntityManager entityManager;
 
-	public PatientIoOperations(PatientIoOperationRepository repository, ApplicationEventPublisher applicationEventPublisher, FileSystemPatientPhotoRepository fileSystemPatientPhotoRepository, EntityManager entityManager) {
+	private final PatientSearchIndex searchIndex;
+
+	private final PatientPhotoMigrator photoMigrator;
+
+	private final PatientMergeIoOperationRepository mergeRepository;
+
+	private final AuditorAware<String> auditorAware;
+
+	public PatientIoOperations(PatientIoOperationRepository repository, ApplicationEventPublisher applicationEventPublisher, FileSystemPatientPhotoRepository fileSystemPatientPhotoRepository, EntityManager entityManager,
+					PatientSearchIndex patientSearchIndex, PatientPhotoMigrator patientPhotoMigrator,
+					PatientMergeIoOperationRepository patientMergeIoOperationRepository, AuditorAware<String> auditorAware) {
 		this.repository = repository;
 		this.applicationEventPublisher = applicationEventPublisher;
 		this.fileSystemPatientPhotoRepository = fileSystemPatientPhotoRepository;
 		this.entityManager = entityManager;
+		this.searchIndex = patientSearchIndex;
+		this.photoMigrator = patientPhotoMigrator;
+		this.mergeRepository = patientMergeIoOperationRepository;
+		this.auditorAware = auditorAware;
 	}
 	/**
 	 * Method that returns the full list of {@link Patient}s not logically deleted,
@@ -107,6 +130,33 @@ public class PatientIoOperations {
 		return repository.getPatientsByParams(parameters);
 	}
 
+	/**
+	 * Method that returns a page of {@link PatientSummary}s of the {@link Patient}s not logically deleted with specified parameters,
+	 * ordered by code descending.
+	 *
+	 * @param parameters - the same parameters of {@link #getPatients(Map)}
+	 * @param lastCode - the code of the last patient of the previous page, {@code null} for the first page
+	 * @param pageSize - the maximum number of summaries returned
+	 * @return the list of {@link PatientSummary}s (could be empty)
+	 * @throws OHServiceException
+	 */
+	public List<PatientSummary> getPatientSummaries(Map<String, Object> parameters, Integer lastCode, int pageSize) throws OHServiceException {
+		return repository.findPatientSummariesByParams(parameters, lastCode, pageSize);
+	}
+
+	/**
+	 * Method that streams the {@link PatientSummary}s of the {@link Patient}s not logically deleted with specified parameters,
+	 * ordered by code descending. The stream must be consumed within the caller's transaction.
+	 *
+	 * @param parameters - the same parameters of {@link #getPatients(Map)}
+	 * @param fetchSize - the number of summaries read by each query
+	 * @return the stream of {@link PatientSummary}s
+	 * @throws OHServiceException
+	 */
+	public Stream<PatientSummary> getPatientSummaryStream(Map<String, Object> parameters, int fetchSize) throws OHServiceException {
+		return repository.streamPatientSummariesByParams(parameters, fetchSize);
+	}
+
 	/**
 	 * Method that returns the full list of {@link Patient}s not logically deleted, having
 	 * the passed String in:<br>
@@ -115,13 +165,64 @@ public class PatientIoOperations {
 	 * - secondName<br>
 	 * - taxCode<br>
 	 * - note<br>
+	 * Patients with more words matching at the beginning of a word come first; until the search index is built they are
+	 * just ordered by code descending.
 	 *
 	 * @param keyword - String to search, use {@code null} for full list
 	 * @return the list of {@link Patient}s (could be empty),
 	 * @throws OHServiceException
 	 */
 	public List<Patient> getPatientsByOneOfFieldsLike(String keyword) throws OHServiceException {
-		return repository.findByFieldsContainingWordsFromLiteral(keyword);
+		List<String> words = PatientSearchIndex.getSearchWords(keyword);
+		if (words.isEmpty() || !PatientSearchIndex.isSearchable(words) || !searchIndex.isBuilt()) {
+			return repository.findByFieldsContainingWordsFromLiteral(keyword);
+		}
+		return getPatientsByCodes(searchIndex.search(keyword, 0, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Method that returns a page of the {@link Patient}s not logically deleted having all the words of the passed String
+	 * in one of their fields, as {@link #getPatientsByOneOfFieldsLike(String)} does.
+	 *
+	 * @param keyword - String to search, use {@code null} for full list
+	 * @param pageable - the page to return
+	 * @return the list of {@link Patient}s (could be empty),
+	 * @throws OHServiceException
+	 */
+	public List<Patient> getPatientsByOneOfFieldsLike(String keyword, Pageable pageable) throws OHServiceException {
+		List<String> words = PatientSearchIndex.getSearchWords(keyword);
+		if (words.isEmpty() || !PatientSearchIndex.isSearchable(words) || !searchIndex.isBuilt()) {
+			return repository.findByFieldsContainingWordsFromLiteral(keyword, (int) pageable.getOffset(), pageable.getPageSize());
+		}
+		return getPatientsByCodes(searchIndex.search(keyword, (int) pageable.getOffset(), pageable.getPageSize()));
+	}
+
+	/**
+	 * Rebuilds the index used by {@link #getPatientsByOneOfFieldsLike(String)} from the patient table, to be run whenever
+	 * patients are stored without going through this class; after the upgrade it is built at startup.
+	 *
+	 * @throws OHServiceException
+	 */
+	public void rebuildPatientSearchIndex() throws OHServiceException {
+		searchIndex.rebuild();
+	}
+
+	private List<Patient> getPatientsByCodes(List<Integer> codes) {
+		Map<Integer, Patient> patients = new HashMap<>();
+		for (int from = 0; from < codes.size(); from += PATIENTS_BY_CODES_PAGE_SIZE) {
+			List<Integer> page = codes.subList(from, Math.min(from + PATIENTS_BY_CODES_PAGE_SIZE, codes.size()));
+			for (Patient patient : repository.findAllById(page)) {
+				patients.put(patient.getCode(), patient);
+			}
+		}
+		List<Patient> orderedPatients = new ArrayList<>(codes.size());
+		for (Integer code : codes) {
+			Patient patient = patients.get(code);
+			if (patient != null && patient.getDeleted() != 'Y') {
+				orderedPatients.add(patient);
+			}
+		}
+		return orderedPatients;
 	}
 
 	/**
@@ -180,19 +281,41 @@ public class PatientIoOperations {
 	 * @return saved / updated patient
 	 */
 	public Patient savePatient(Patient patient) {
-		boolean isLoadProfilePhotoFromDB = LOAD_FROM_DB.equals(GeneralData.PATIENTPHOTOSTORAGE);
+		String storage = getProfilePhotoStorage();
+		boolean isMigrationPending = patient.getCode() != null && photoMigrator.getFallbackStorage() != null;
+		if (isMigrationPending) {
+			// the migration moves the photo without changing the version of the patient: wait for the move in progress, if any
+			repository.lockPatient(patient.getCode());
+		}
+		boolean isLoadProfilePhotoFromDB = LOAD_FROM_DB.equals(storage);
 		if (isLoadProfilePhotoFromDB) {
-			return repository.save(patient);
+			if (isMigrationPending && patient.getPatientProfilePhoto() == null) {
+				// the patient was read before its photo was moved to the database: keep the photo
+				repository.findById(patient.getCode()).map(Patient::getPatientProfilePhoto).ifPresent(patient::setPatientProfilePhoto);
+			}
+			PatientProfilePhoto photo = patient.getPatientProfilePhoto();
+			if (photo != null && photo.getPhoto() != null && photo.getThumbnail() == null) {
+				// a new photo: store its thumbnail with it
+				photo.setThumbnail(FileSystemPatientPhotoRepository.createThumbnail(photo.getPhoto()));
+			}
+			Patient patientSaved = repository.save(patient);
+			searchIndex.index(patientSaved);
+			if (patientSaved.getPatientProfilePhoto() != null && patientSaved.getPatientProfilePhoto().getPhoto() != null) {
+				// the photo just saved replaces the one not migrated yet
+				photoMigrator.deleteFallbackPhoto(patientSaved.getCode());
+			}
+			return patientSaved;
 		}
 		try {
 			PatientProfilePhoto photo = patient.getPatientProfilePhoto();
 			patient.setPatientProfilePhoto(null);
 			Patient patientSaved = repository.save(patient);
+			searchIndex.index(patientSaved);
 			((Session) this.entityManager.getDelegate()).evict(patient);
 			if (photo != null && photo.getPhoto() != null) {
-				fileSystemPatientPhotoRepository.save(GeneralData.PATIENTPHOTOSTORAGE, patient.getCode(), photo.getPhoto());
-			} else if (this.fileSystemPatientPhotoRepository.exist(GeneralData.PATIENTPHOTOSTORAGE, patient.getCode())) {
-				this.fileSystemPatientPhotoRepository.delete(GeneralData.PATIENTPHOTOSTORAGE, patient.getCode());
+				fileSystemPatientPhotoRepository.save(storage, patient.getCode(), photo.getPhoto());
+			} else if (this.fileSystemPatientPhotoRepository.exist(storage, patient.getCode())) {
+				this.fileSystemPatientPhotoRepository.delete(storage, patient.getCode());
 			}
 			return patientSaved;
 		} catch (OHServiceException e) {
@@ -209,7 +332,9 @@ public class PatientIoOperations {
 	 * @throws OHServiceException
 	 */
 	public Patient updatePatient(Patient patient) throws OHServiceException {
-		return repository.save(patient);
+		Patient patientSaved = repository.save(patient);
+		searchIndex.index(patientSaved);
+		return patientSaved;
 	}
 
 	/**
@@ -219,19 +344,27 @@ public class PatientIoOperations {
 	 * @throws OHServiceException
 	 */
 	public void deletePatient(Patient patient) throws OHServiceException {
-		boolean isLoadProfilePhotoFromDB = LOAD_FROM_DB.equals(GeneralData.PATIENTPHOTOSTORAGE);
+		String storage = getProfilePhotoStorage();
+		if (photoMigrator.getFallbackStorage() != null) {
+			// the migration moves the photo without changing the version of the patient: wait for the move in progress, if any
+			repository.lockPatient(patient.getCode());
+		}
+		boolean isLoadProfilePhotoFromDB = LOAD_FROM_DB.equals(storage);
 		if (isLoadProfilePhotoFromDB) {
 			Optional<Patient> foundPatient = repository.findById(patient.getCode());
 			if (foundPatient.isPresent()) {
 				foundPatient.get().setPatientProfilePhoto(null);
+				photoMigrator.deleteFallbackPhoto(patient.getCode());
 			} else {
 				LOGGER.error("Patient not found to delete with code {}.", patient.getCode());
 				throw new OHServiceException(new OHExceptionMessage("Patient not found to delete with code " + patient.getCode()));
 			}
 		} else {
-			fileSystemPatientPhotoRepository.delete(GeneralData.PATIENTPHOTOSTORAGE, patient.getCode());
+			fileSystemPatientPhotoRepository.delete(storage, patient.getCode());
+			photoMigrator.deleteFallbackPhoto(patient.getCode());
 		}
 		repository.updateDeleted(patient.getCode());
+		searchIndex.remove(patient.getCode());
 	}
 
 	/**
@@ -247,7 +380,7 @@ public class PatientIoOperations {
 	}
 
 	/**
-	 * Method that gets the next PAT_ID that is going to be used.
+	 * Method that gets the next PAT_ID that is going to be used; the actual PAT_ID is assigned by the database on insert.
 	 *
 	 * @return code
 	 * @throws OHServiceException
@@ -264,8 +397,52 @@ public class PatientIoOperations {
 	 * @throws OHServiceException
 	 */
 	public void mergePatientHistory(Patient mergedPatient, Patient obsoletePatient) throws OHServiceException {
+		mergePatientHistory(mergedPatient, obsoletePatient, newMergeJob(mergedPatient, obsoletePatient));
+	}
+
+	/**
+	 * Creates the {@link PatientMergeJob} tracking the merge of two {@link Patient}s, requested by the current user.
+	 *
+	 * @param mergedPatient
+	 * @param obsoletePatient
+	 * @return the {@link PatientMergeJob}
+	 */
+	public PatientMergeJob newMergeJob(Patient mergedPatient, Patient obsoletePatient) {
+		return new PatientMergeJob(mergedPatient.getCode(), obsoletePatient.getCode(), auditorAware.getCurrentAuditor().orElse(null));
+	}
+
+	/**
+	 * Method that merges all clinic details under the same PAT_ID, reporting the progress to the given {@link PatientMergeJob}.
+	 * Every {@link PatientMergedEvent} listener moves the rows of its own tables with a single bulk update;
+	 * the rows moved per table are recorded in a {@link PatientMerge} once the listeners have run.
+	 *
+	 * @param mergedPatient
+	 * @param obsoletePatient
+	 * @param job - the job tracking the merge
+	 * @throws OHServiceException
+	 */
+	public void mergePatientHistory(Patient mergedPatient, Patient obsoletePatient, PatientMergeJob job) throws OHServiceException {
+		PatientMergedEvent event = new PatientMergedEvent(obsoletePatient, mergedPatient, job.getRequestedBy());
+		job.start(event);
 		repository.updateDeleted(obsoletePatient.getCode());
-		applicationEventPublisher.publishEvent(new PatientMergedEvent(obsoletePatient, mergedPatient));
+		searchIndex.remove(obsoletePatient.getCode());
+		applicationEventPublisher.publishEvent(event);
+		String mergedRows = event.getMergedRows().entrySet().stream()
+						.map(entry -> entry.getKey() + '=' + entry.getValue())
+						.collect(Collectors.joining(", "));
+		mergeRepository.save(new PatientMerge(mergedPatient.getCode(), obsoletePatient.getCode(), event.getMergedBy(), event.getMergedDate(), mergedRows));
+		LOGGER.info("Merged patient {} into patient {}, rows moved: {}.", obsoletePatient.getCode(), mergedPatient.getCode(), mergedRows);
+	}
+
+	/**
+	 * Method that returns the merges of other {@link Patient}s into the specified one, the most recent first.
+	 *
+	 * @param mergedPatient
+	 * @return the list of {@link PatientMerge}s (could be empty)
+	 * @throws OHServiceException
+	 */
+	public List<PatientMerge> getPatientMerges(Patient mergedPatient) throws OHServiceException {
+		return mergeRepository.findByMergedPatientCodeOrderByMergedDateDesc(mergedPatient.getCode());
 	}
 
 	/**
@@ -289,17 +466,83 @@ public class PatientIoOperations {
 		return repository.findCities();
 	}
 
+	/**
+	 * Returns where the profile photos are stored, as switched by the last {@link PatientPhotoMigrator} migration.
+	 *
+	 * @return {@link #LOAD_FROM_DB} or the photos folder
+	 */
+	public String getProfilePhotoStorage() {
+		return photoMigrator.getStorage();
+	}
+
+	/**
+	 * Loads the profile photo of a {@link Patient}; while a {@link PatientPhotoMigrator} migration is pending, the photos
+	 * not found in the current storage are read from the other one.
+	 *
+	 * @param patient - the {@link Patient}
+	 * @return the {@link PatientProfilePhoto}, {@code null} or without photo if the patient has no photo
+	 * @throws OHServiceException
+	 */
 	public PatientProfilePhoto retrievePatientProfilePhoto(Patient patient) throws OHServiceException {
-		boolean isLoadProfilePhotoFromDB = LOAD_FROM_DB.equals(GeneralData.PATIENTPHOTOSTORAGE);
+		String storage = getProfilePhotoStorage();
+		boolean isLoadProfilePhotoFromDB = LOAD_FROM_DB.equals(storage);
 		if (isLoadProfilePhotoFromDB) {
 			Hibernate.initialize(patient.getPatientProfilePhoto());
+			if (patient.getPatientProfilePhoto() == null || patient.getPatientProfilePhoto().getPhoto() == null) {
+				byte[] fallbackPhoto = photoMigrator.loadFallbackPhoto(patient.getCode());
+				if (fallbackPhoto != null) {
+					// the photo is not moved to the database until the patient is saved or the migration gets to it
+					((Session) this.entityManager.getDelegate()).evict(patient);
+					PatientProfilePhoto patientProfilePhoto = new PatientProfilePhoto();
+					patientProfilePhoto.setPhoto(fallbackPhoto);
+					patient.setPatientProfilePhoto(patientProfilePhoto);
+				}
+			}
 		} else {
 			((Session) this.entityManager.getDelegate()).evict(patient);
-			fileSystemPatientPhotoRepository.loadInPatient(patient, GeneralData.PATIENTPHOTOSTORAGE);
+			fileSystemPatientPhotoRepository.loadInPatient(patient, storage);
+			if (patient.getPatientProfilePhoto().getPhoto() == null) {
+				patient.getPatientProfilePhoto().setPhoto(photoMigrator.loadFallbackPhoto(patient.getCode()));
+			}
 		}
 		return patient.getPatientProfilePhoto();
 	}
 
+	/**
+	 * Returns the thumbnail of the profile photo of a {@link Patient}, to be shown in lists and badges instead of the full photo.
+	 *
+	 * @param patient - the {@link Patient}
+	 * @return the PNG thumbnail or {@code null} if the patient has no photo
+	 * @throws OHServiceException
+	 */
+	public byte[] retrievePatientProfilePhotoThumbnail(Patient patient) throws OHServiceException {
+		byte[] thumbnail = null;
+		String storage = getProfilePhotoStorage();
+		if (LOAD_FROM_DB.equals(storage)) {
+			if (patient.getCode() != null) {
+				thumbnail = repository.findProfilePhotoThumbnail(patient.getCode());
+			}
+			if (thumbnail == null) {
+				PatientProfilePhoto photo = patient.getCode() != null
+								? repository.findById(patient.getCode()).map(Patient::getPatientProfilePhoto).orElse(null)
+								: patient.getPatientProfilePhoto();
+				if (photo != null && photo.getPhoto() != null) {
+					// photos saved before the thumbnails were stored get theirs on first use
+					thumbnail = FileSystemPatientPhotoRepository.createThumbnail(photo.getPhoto());
+					photo.setThumbnail(thumbnail);
+					return thumbnail;
+				}
+			}
+		} else {
+			thumbnail = fileSystemPatientPhotoRepository.loadThumbnail(storage, patient.getCode());
+		}
+		if (thumbnail == null) {
+			byte[] fallbackPhoto = photoMigrator.loadFallbackPhoto(patient.getCode());
+			thumbnail = fallbackPhoto != null ? FileSystemPatientPhotoRepository.createThumbnail(fallbackPhoto) : null;
+		}
+		return thumbnail;
+	}
+
 	PagedResponse<Patient> setPaginationData(Page<Patient> pages){
 		PagedResponse<Patient> data = new PagedResponse<>();
 		data.setData(pages.getContent());
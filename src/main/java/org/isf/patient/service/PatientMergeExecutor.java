@@ -0,0 +1,128 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientMergeJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the merges of the clinical history of {@link Patient}s in background and keeps track of them.
+ * <p>
+ * Merges run one at a time: two merges touching the same patient must not interleave. The executor is shut down with
+ * the application context, after the merges already queued have run.
+ */
+@Component
+public class PatientMergeExecutor implements DisposableBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientMergeExecutor.class);
+
+	/**
+	 * The jobs done kept for status queries; the ones still queued or running are always kept.
+	 */
+	private static final int MAX_DONE_JOBS = 100;
+
+	private static final int AWAIT_TERMINATION_SECONDS = 60;
+
+	private final PatientIoOperations ioOperations;
+
+	private final ThreadPoolTaskExecutor executor;
+
+	private final Map<String, PatientMergeJob> jobs = new LinkedHashMap<>();
+
+	public PatientMergeExecutor(PatientIoOperations patientIoOperations) {
+		this.ioOperations = patientIoOperations;
+		this.executor = new ThreadPoolTaskExecutor();
+		this.executor.setCorePoolSize(1);
+		this.executor.setMaxPoolSize(1);
+		this.executor.setThreadNamePrefix("patient-merge-");
+		this.executor.setWaitForTasksToCompleteOnShutdown(true);
+		this.executor.setAwaitTerminationSeconds(AWAIT_TERMINATION_SECONDS);
+		this.executor.initialize();
+	}
+
+	/**
+	 * Queues the merge of the clinical history of {@code obsoletePatient} into {@code mergedPatient}.
+	 *
+	 * @param mergedPatient
+	 * @param obsoletePatient
+	 * @return the {@link PatientMergeJob} tracking the merge
+	 */
+	public PatientMergeJob submit(Patient mergedPatient, Patient obsoletePatient) {
+		PatientMergeJob job = ioOperations.newMergeJob(mergedPatient, obsoletePatient);
+		track(job);
+		executor.execute(() -> run(job, mergedPatient, obsoletePatient));
+		return job;
+	}
+
+	/**
+	 * @param id - the id of the job
+	 * @return the {@link PatientMergeJob}, {@code null} if unknown or no longer tracked
+	 */
+	public synchronized PatientMergeJob getJob(String id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * @return the {@link PatientMergeJob}s tracked, in the order they were queued
+	 */
+	public synchronized List<PatientMergeJob> getJobs() {
+		return new ArrayList<>(jobs.values());
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdown();
+	}
+
+	private void run(PatientMergeJob job, Patient mergedPatient, Patient obsoletePatient) {
+		try {
+			ioOperations.mergePatientHistory(mergedPatient, obsoletePatient, job);
+			job.complete();
+		} catch (Exception e) {
+			LOGGER.error("Merge of patient {} into patient {} failed.", obsoletePatient.getCode(), mergedPatient.getCode(), e);
+			job.fail(e);
+		}
+	}
+
+	private synchronized void track(PatientMergeJob job) {
+		jobs.put(job.getId(), job);
+		long done = jobs.values().stream().filter(PatientMergeJob::isDone).count();
+		for (Iterator<PatientMergeJob> iterator = jobs.values().iterator(); iterator.hasNext() && done > MAX_DONE_JOBS;) {
+			if (iterator.next().isDone()) {
+				iterator.remove();
+				done--;
+			}
+		}
+	}
+
+}
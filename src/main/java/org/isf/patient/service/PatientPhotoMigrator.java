@@ -0,0 +1,385 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.isf.generaldata.GeneralData;
+import org.isf.patient.model.PatientPhotoMigration;
+import org.isf.patient.model.PatientPhotoMigration.Direction;
+import org.isf.patient.model.PatientPhotoMigration.Status;
+import org.isf.patient.model.PatientPhotoStorage;
+import org.isf.patient.model.PatientProfilePhoto;
+import org.isf.utils.exception.OHOperationNotAllowedException;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Moves the {@link PatientProfilePhoto}s from the database to a folder of the file system, or back, in background.
+ * <p>
+ * The storage in use is kept in {@link PatientPhotoStorage}, shared by all the clients and the restarts: when a migration
+ * starts it is switched to the target storage, so new photos are written there, while the photos not moved yet are still
+ * read from the source storage (see {@link #getFallbackStorage()}) until the migration completes. Until the first
+ * migration the storage is the {@code PATIENTPHOTOSTORAGE} setting.
+ * <p>
+ * Every photo is streamed in its own transaction, without loading the patient nor changing its version, and removed from
+ * the source storage once it is in the target one. The code of the last patient processed is saved with it: a migration
+ * that was cancelled, failed or interrupted by a restart resumes from there when started again.
+ */
+@Component
+public class PatientPhotoMigrator implements DisposableBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientPhotoMigrator.class);
+
+	private static final int BATCH_SIZE = 100;
+
+	private static final long THROTTLE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+	private static final Pattern PHOTO_FILE = Pattern.compile("(\\d+)\\.png");
+
+	private static final int AWAIT_TERMINATION_SECONDS = 60;
+
+	private final PatientIoOperationRepository repository;
+
+	private final PatientPhotoStorageIoOperationRepository storageRepository;
+
+	private final FileSystemPatientPhotoRepository fileSystemPatientPhotoRepository;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final ThreadPoolTaskExecutor executor;
+
+	private volatile PatientPhotoMigration migration;
+
+	public PatientPhotoMigrator(PatientIoOperationRepository patientIoOperationRepository,
+					PatientPhotoStorageIoOperationRepository patientPhotoStorageIoOperationRepository,
+					FileSystemPatientPhotoRepository fileSystemPatientPhotoRepository, PlatformTransactionManager transactionManager) {
+		this.repository = patientIoOperationRepository;
+		this.storageRepository = patientPhotoStorageIoOperationRepository;
+		this.fileSystemPatientPhotoRepository = fileSystemPatientPhotoRepository;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.executor = new ThreadPoolTaskExecutor();
+		this.executor.setCorePoolSize(1);
+		this.executor.setMaxPoolSize(1);
+		this.executor.setThreadNamePrefix("patient-photo-migration-");
+		this.executor.setWaitForTasksToCompleteOnShutdown(true);
+		this.executor.setAwaitTerminationSeconds(AWAIT_TERMINATION_SECONDS);
+		this.executor.initialize();
+	}
+
+	/**
+	 * Starts moving the photos in background.
+	 *
+	 * @param direction - {@link Direction#TO_FILE_SYSTEM} to move the photos from the database to {@code directory}, {@link Direction#TO_DATABASE}
+	 * for the reverse
+	 * @param directory - the photos folder
+	 * @param maxBytesPerSecond - the maximum average number of bytes moved per second, {@code 0} for no limit
+	 * @return the {@link PatientPhotoMigration} reporting the progress
+	 * @throws OHServiceException if another migration is running or the folder cannot be read
+	 */
+	public synchronized PatientPhotoMigration start(Direction direction, String directory, long maxBytesPerSecond) throws OHServiceException {
+		PatientPhotoMigration current = migration;
+		if (current != null && current.isRunning()) {
+			throw new OHOperationNotAllowedException(new OHExceptionMessage("A patient photo migration is already running."));
+		}
+		if (directory == null || directory.isEmpty() || PatientIoOperations.LOAD_FROM_DB.equals(directory)) {
+			throw new OHServiceException(new OHExceptionMessage("A folder is required to migrate the patient photos."));
+		}
+		String target = direction == Direction.TO_FILE_SYSTEM ? directory : PatientIoOperations.LOAD_FROM_DB;
+		String source = direction == Direction.TO_FILE_SYSTEM ? PatientIoOperations.LOAD_FROM_DB : directory;
+		List<Integer> photoFiles = direction == Direction.TO_DATABASE ? listPhotoFiles(directory) : Collections.emptyList();
+		PatientPhotoStorage storage = transactionTemplate.execute(status -> {
+			PatientPhotoStorage saved = storageRepository.findById(PatientPhotoStorage.ID).orElseGet(PatientPhotoStorage::new);
+			if (!target.equals(saved.getStorage()) || !source.equals(saved.getFallbackStorage())) {
+				// not the same migration pending: start from the first patient
+				saved.setMigrationLastPatientCode(0);
+			}
+			saved.setStorage(target);
+			saved.setFallbackStorage(source);
+			saved.setMigrationStatus(Status.RUNNING);
+			return storageRepository.save(saved);
+		});
+		int lastCode = storage.getMigrationLastPatientCode();
+		photoFiles.removeIf(code -> code <= lastCode);
+		long total = direction == Direction.TO_DATABASE ? photoFiles.size() : repository.countWithProfilePhoto();
+		PatientPhotoMigration started = new PatientPhotoMigration(direction, directory, total);
+		migration = started;
+		LOGGER.info("Moving {} patient photos {} {}, after patient {}.", total, direction == Direction.TO_FILE_SYSTEM ? "to" : "from", directory, lastCode);
+		executor.execute(() -> run(started, photoFiles, lastCode, maxBytesPerSecond));
+		return started;
+	}
+
+	/**
+	 * @return the last migration started since the application started, {@code null} if none
+	 */
+	public PatientPhotoMigration getMigration() {
+		return migration;
+	}
+
+	/**
+	 * Asks the running migration, if any, to stop after the photo being moved.
+	 */
+	public void cancel() {
+		PatientPhotoMigration current = migration;
+		if (current != null) {
+			current.cancel();
+		}
+	}
+
+	/**
+	 * Returns the storage of the photos: the target of the last migration started or, if none, the {@code PATIENTPHOTOSTORAGE}
+	 * setting.
+	 *
+	 * @return {@link PatientIoOperations#LOAD_FROM_DB} or a folder
+	 */
+	public String getStorage() {
+		return storageRepository.findById(PatientPhotoStorage.ID).map(PatientPhotoStorage::getStorage).orElse(GeneralData.PATIENTPHOTOSTORAGE);
+	}
+
+	/**
+	 * Returns the storage still holding photos not moved yet by the last migration: the photos of the patients not found in
+	 * {@link #getStorage()} should be read from here.
+	 *
+	 * @return {@link PatientIoOperations#LOAD_FROM_DB} or a folder, {@code null} if no migration is pending
+	 */
+	public String getFallbackStorage() {
+		return storageRepository.findById(PatientPhotoStorage.ID).map(PatientPhotoStorage::getFallbackStorage).orElse(null);
+	}
+
+	/**
+	 * Reads the photo of a patient from the storage returned by {@link #getFallbackStorage()}.
+	 *
+	 * @param patientCode - the patient code
+	 * @return the photo or {@code null} if there is no migration pending or the photo is not there
+	 * @throws OHServiceException if the photo file cannot be read
+	 */
+	public byte[] loadFallbackPhoto(Integer patientCode) throws OHServiceException {
+		String fallbackStorage = getFallbackStorage();
+		if (fallbackStorage == null) {
+			return null;
+		}
+		if (PatientIoOperations.LOAD_FROM_DB.equals(fallbackStorage)) {
+			return repository.findProfilePhoto(patientCode);
+		}
+		return fileSystemPatientPhotoRepository.exist(fallbackStorage, patientCode) ? fileSystemPatientPhotoRepository.load(fallbackStorage, patientCode) : null;
+	}
+
+	/**
+	 * Deletes the photo of a patient from the storage returned by {@link #getFallbackStorage()}, so that a photo saved or
+	 * deleted during a migration is not overwritten by the old one.
+	 *
+	 * @param patientCode - the patient code
+	 */
+	public void deleteFallbackPhoto(Integer patientCode) {
+		String fallbackStorage = getFallbackStorage();
+		if (fallbackStorage == null) {
+			return;
+		}
+		if (PatientIoOperations.LOAD_FROM_DB.equals(fallbackStorage)) {
+			repository.deleteProfilePhoto(patientCode);
+		} else {
+			fileSystemPatientPhotoRepository.delete(fallbackStorage, patientCode);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		cancel();
+		executor.shutdown();
+	}
+
+	private void run(PatientPhotoMigration current, List<Integer> photoFiles, int lastCode, long maxBytesPerSecond) {
+		Status endStatus;
+		Throwable error = null;
+		try {
+			if (current.getDirection() == Direction.TO_FILE_SYSTEM) {
+				int fromCode = lastCode;
+				List<Integer> codes;
+				while (!current.isCancelRequested()
+								&& !(codes = repository.findCodesWithProfilePhoto(fromCode, PageRequest.of(0, BATCH_SIZE))).isEmpty()) {
+					for (Integer code : codes) {
+						if (current.isCancelRequested()) {
+							break;
+						}
+						move(current, code, maxBytesPerSecond);
+						fromCode = code;
+					}
+				}
+			} else {
+				for (Integer code : photoFiles) {
+					if (current.isCancelRequested()) {
+						break;
+					}
+					move(current, code, maxBytesPerSecond);
+				}
+			}
+			endStatus = current.isCancelRequested() ? Status.CANCELLED : Status.COMPLETED;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			endStatus = Status.CANCELLED;
+		} catch (Exception e) {
+			LOGGER.error("Patient photo migration failed.", e);
+			endStatus = Status.FAILED;
+			error = e;
+		}
+		try {
+			saveEnd(current, endStatus);
+		} catch (RuntimeException e) {
+			LOGGER.error("Unable to save the end of the patient photo migration.", e);
+		}
+		current.end(endStatus, error);
+		LOGGER.info("Patient photo migration {}: {} photos moved ({} bytes), {} skipped, {} failed.", current.getStatus(), current.getMovedPhotos(),
+						current.getBytesMoved(), current.getSkippedPhotos(), current.getFailedPhotos());
+	}
+
+	private void saveEnd(PatientPhotoMigration current, Status endStatus) {
+		transactionTemplate.executeWithoutResult(status -> storageRepository.findById(PatientPhotoStorage.ID).ifPresent(storage -> {
+			storage.setMigrationStatus(endStatus);
+			if (endStatus != Status.COMPLETED) {
+				return;
+			}
+			// the next start goes through all the photos again, retrying the ones that could not be moved: they are still
+			// read from the source storage meanwhile
+			storage.setMigrationLastPatientCode(0);
+			if (current.getFailedPhotos() == 0) {
+				storage.setFallbackStorage(null);
+			}
+		}));
+	}
+
+	private void move(PatientPhotoMigration current, Integer code, long maxBytesPerSecond) throws InterruptedException {
+		Long bytes;
+		try {
+			bytes = transactionTemplate.execute(status -> {
+				try {
+					long moved = current.getDirection() == Direction.TO_FILE_SYSTEM
+									? moveToFileSystem(code, current.getDirectory())
+									: moveToDatabase(code, current.getDirectory());
+					storageRepository.updateMigrationLastPatientCode(code);
+					return moved;
+				} catch (OHServiceException e) {
+					status.setRollbackOnly();
+					return -1L;
+				}
+			});
+		} catch (RuntimeException e) {
+			LOGGER.warn("Unable to move the photo of patient {}.", code, e);
+			bytes = -1L;
+		}
+		if (bytes == null || bytes == 0) {
+			current.skipped(code);
+		} else if (bytes < 0) {
+			current.failed(code);
+		} else {
+			current.moved(code, bytes);
+		}
+		throttle(current, maxBytesPerSecond);
+	}
+
+	private long moveToFileSystem(Integer code, String directory) throws OHServiceException {
+		// the patient row is locked by the saves of the patient as well until they commit
+		if (!repository.lockPatient(code)) {
+			return 0;
+		}
+		long bytes = fileSystemPatientPhotoRepository.save(directory, code, out -> repository.copyProfilePhoto(code, out));
+		repository.deleteProfilePhoto(code);
+		return bytes;
+	}
+
+	private long moveToDatabase(Integer code, String directory) throws OHServiceException {
+		if (!repository.lockPatient(code) || !fileSystemPatientPhotoRepository.exist(directory, code)) {
+			return 0;
+		}
+		long bytes = fileSystemPatientPhotoRepository.size(directory, code);
+		byte[] thumbnail = fileSystemPatientPhotoRepository.loadThumbnail(directory, code);
+		try (InputStream photo = fileSystemPatientPhotoRepository.open(directory, code)) {
+			repository.writeProfilePhoto(code, photo, bytes, thumbnail);
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new OHServiceException(new OHExceptionMessage("Unable to read the photo of patient " + code + '.'));
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+			@Override
+			public void afterCommit() {
+				fileSystemPatientPhotoRepository.delete(directory, code);
+			}
+		});
+		return bytes;
+	}
+
+	private static void throttle(PatientPhotoMigration current, long maxBytesPerSecond) throws InterruptedException {
+		if (maxBytesPerSecond <= 0) {
+			return;
+		}
+		long expectedNanos = (long) (current.getBytesMoved() * 1e9 / maxBytesPerSecond);
+		long aheadNanos;
+		while ((aheadNanos = expectedNanos - current.getElapsed().toNanos()) > 0 && !current.isCancelRequested()) {
+			TimeUnit.NANOSECONDS.sleep(Math.min(aheadNanos, THROTTLE_CHECK_NANOS));
+		}
+	}
+
+	private static List<Integer> listPhotoFiles(String directory) throws OHServiceException {
+		Path folder = Paths.get(directory);
+		List<Integer> codes = new ArrayList<>();
+		if (!Files.isDirectory(folder)) {
+			return codes;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+			for (Path file : files) {
+				Matcher matcher = PHOTO_FILE.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					codes.add(Integer.valueOf(matcher.group(1)));
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new OHServiceException(new OHExceptionMessage("Unable to read the patient photos in " + directory + '.'));
+		}
+		Collections.sort(codes);
+		return codes;
+	}
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientSearchIndexStatus;
+import org.isf.patient.model.PatientSearchToken;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Inverted index used to search {@link Patient}s by words contained in their code, names, city, address, telephone, note
+ * and tax code without scanning the whole patient table.
+ * <p>
+ * The fields are split into words and every suffix of every word is stored in {@code OH_PATIENTSEARCHTOKEN}, so "word
+ * contained in a field" becomes "some suffix starts with word", which is an index range scan. Entries are cut to
+ * {@link #MAX_WORD_LENGTH} characters, which loses nothing for search words up to that length; longer search words cannot
+ * use the index (see {@link #isSearchable(List)}).
+ * <p>
+ * The index is kept up to date by {@link PatientIoOperations}. It can be used only once it has been built (see
+ * {@link #isBuilt()}): after the upgrade it is filled in background by {@link PatientSearchIndexBuilder}, and it can be
+ * rebuilt from the patient table with {@link #rebuild()} whenever patients are stored by other means.
+ */
+@Component
+@Transactional
+public class PatientSearchIndex {
+
+	/**
+	 * Index entries are cut to this length, the one of {@code PST_SUFFIX}.
+	 */
+	public static final int MAX_WORD_LENGTH = 30;
+
+	private static final int REBUILD_PAGE_SIZE = 500;
+
+	private static final Pattern WORD_SEPARATOR = Pattern.compile("\\s+");
+
+	private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+	private final PatientSearchTokenIoOperationRepository repository;
+
+	private final PatientSearchIndexStatusIoOperationRepository statusRepository;
+
+	public PatientSearchIndex(PatientSearchTokenIoOperationRepository patientSearchTokenIoOperationRepository,
+					PatientSearchIndexStatusIoOperationRepository patientSearchIndexStatusIoOperationRepository) {
+		this.repository = patientSearchTokenIoOperationRepository;
+		this.statusRepository = patientSearchIndexStatusIoOperationRepository;
+	}
+
+	/**
+	 * Tells whether the index holds all the patients, so that {@link #search(String, int, int)} can be used.
+	 * @return {@code false} until the index has been built.
+	 */
+	@Transactional(readOnly = true)
+	public boolean isBuilt() {
+		return statusRepository.findById(PatientSearchIndexStatus.ID).map(PatientSearchIndexStatus::isBuilt).orElse(false);
+	}
+
+	/**
+	 * Returns the codes of the patients containing all the words of the specified literal in one of the indexed fields,
+	 * patients with more words matching at the beginning of a word first, then by code descending.
+	 * @param literal the words to search, separated by blanks.
+	 * @param offset the number of results to skip.
+	 * @param limit the maximum number of results.
+	 * @return the codes of the patients found.
+	 */
+	public List<Integer> search(String literal, int offset, int limit) {
+		List<String> words = getSearchWords(literal);
+		if (words.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return repository.findPatientCodesByWords(words, offset, limit);
+	}
+
+	/**
+	 * Indexes the specified patient, replacing its previous entries; deleted patients are just removed from the index.
+	 * @param patient the patient to index.
+	 */
+	public void index(Patient patient) {
+		repository.deleteByPatientCode(patient.getCode());
+		if (patient.getDeleted() != 'Y') {
+			repository.insertAll(getTokens(patient.getCode(), new Object[] { patient.getFirstName(), patient.getSecondName(), patient.getTelephone(),
+							patient.getTaxCode(), patient.getCity(), patient.getAddress(), patient.getNote() }));
+		}
+	}
+
+	/**
+	 * Removes the specified patient from the index.
+	 * @param patientCode the patient code.
+	 */
+	public void remove(int patientCode) {
+		repository.deleteByPatientCode(patientCode);
+	}
+
+	/**
+	 * Rebuilds the whole index from the patients not logically deleted, in a single transaction.
+	 */
+	public void rebuild() {
+		repository.deleteAllInBatch();
+		int lastCode = Integer.MIN_VALUE;
+		List<Object[]> page;
+		do {
+			page = repository.findSearchableFieldsAfter(lastCode, PageRequest.of(0, REBUILD_PAGE_SIZE));
+			List<PatientSearchToken> tokens = new ArrayList<>();
+			for (Object[] fields : page) {
+				lastCode = (Integer) fields[0];
+				tokens.addAll(getTokens(lastCode, Arrays.copyOfRange(fields, 1, fields.length)));
+			}
+			repository.insertAll(tokens);
+		} while (page.size() == REBUILD_PAGE_SIZE);
+		PatientSearchIndexStatus status = getStatus();
+		status.setBuilt(true);
+		status.setLastPatientCode(0);
+		statusRepository.save(status);
+	}
+
+	/**
+	 * Tells whether the index has to be built by {@link PatientSearchIndexBuilder}: the upgrade created it empty and it has
+	 * not been built yet.
+	 * @return {@code true} if the build is pending.
+	 */
+	@Transactional(readOnly = true)
+	public boolean isBuildPending() {
+		return statusRepository.findById(PatientSearchIndexStatus.ID).map(status -> !status.isBuilt()).orElse(false);
+	}
+
+	/**
+	 * @return the code of the last patient indexed by the build in progress, {@code 0} if none.
+	 */
+	@Transactional(readOnly = true)
+	public int getBuildLastPatientCode() {
+		return statusRepository.findById(PatientSearchIndexStatus.ID).map(PatientSearchIndexStatus::getLastPatientCode).orElse(0);
+	}
+
+	/**
+	 * Indexes the patients following {@code lastCode}, replacing their entries, and saves the progress of the build; the
+	 * index is marked as built when there are no patients left. The patients are locked until the end of the transaction, so
+	 * that their entries are not replaced with stale ones while they are being saved.
+	 * @param lastCode the code of the last patient indexed.
+	 * @param pageSize the maximum number of patients indexed.
+	 * @return the code of the last patient indexed, {@code null} if the build is complete.
+	 */
+	public Integer buildNextPage(int lastCode, int pageSize) {
+		List<Object[]> page = repository.findSearchableFieldsAfterForUpdate(lastCode, PageRequest.of(0, pageSize));
+		PatientSearchIndexStatus status = getStatus();
+		if (page.isEmpty()) {
+			status.setBuilt(true);
+			status.setLastPatientCode(0);
+			statusRepository.save(status);
+			return null;
+		}
+		List<Integer> codes = new ArrayList<>(page.size());
+		List<PatientSearchToken> tokens = new ArrayList<>();
+		for (Object[] fields : page) {
+			Integer code = (Integer) fields[0];
+			codes.add(code);
+			tokens.addAll(getTokens(code, Arrays.copyOfRange(fields, 1, fields.length)));
+		}
+		// the patients saved since the build started are already indexed
+		repository.deleteByPatientCodes(codes);
+		repository.insertAll(tokens);
+		Integer last = codes.get(codes.size() - 1);
+		status.setLastPatientCode(last);
+		statusRepository.save(status);
+		return last;
+	}
+
+	/**
+	 * Splits the specified literal into the words to look for in the index, normalized as the indexed ones.
+	 * @param literal the words to search, separated by blanks.
+	 * @return the distinct words, possibly none.
+	 */
+	public static List<String> getSearchWords(String literal) {
+		List<String> words = new ArrayList<>();
+		if (literal != null) {
+			for (String word : WORD_SEPARATOR.split(normalize(literal.trim()))) {
+				if (!word.isEmpty() && !words.contains(word)) {
+					words.add(word);
+				}
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Tells whether the specified search words can be looked for in the index, that is none of them is longer than the
+	 * index entries.
+	 * @param words the words returned by {@link #getSearchWords(String)}.
+	 * @return {@code true} if {@link #search(String, int, int)} finds exactly the patients containing the words.
+	 */
+	public static boolean isSearchable(List<String> words) {
+		for (String word : words) {
+			if (word.length() > MAX_WORD_LENGTH) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private PatientSearchIndexStatus getStatus() {
+		return statusRepository.findById(PatientSearchIndexStatus.ID).orElseGet(PatientSearchIndexStatus::new);
+	}
+
+	private static List<PatientSearchToken> getTokens(int patientCode, Object[] fields) {
+		Map<String, Boolean> entries = new LinkedHashMap<>();
+		addSuffixes(entries, String.valueOf(patientCode));
+		for (Object field : fields) {
+			for (String word : getWords(field)) {
+				addSuffixes(entries, word);
+			}
+		}
+		List<PatientSearchToken> tokens = new ArrayList<>(entries.size());
+		entries.forEach((entry, start) -> tokens.add(new PatientSearchToken(patientCode, entry, start)));
+		return tokens;
+	}
+
+	private static String[] getWords(Object field) {
+		if (field == null) {
+			return new String[0];
+		}
+		String text = normalize(field.toString().trim());
+		return text.isEmpty() ? new String[0] : WORD_SEPARATOR.split(text);
+	}
+
+	private static void addSuffixes(Map<String, Boolean> entries, String word) {
+		for (int i = 0; i < word.length(); i++) {
+			entries.merge(truncate(word.substring(i)), i == 0, Boolean::logicalOr);
+		}
+	}
+
+	/**
+	 * Lower cases the text and strips the accents, so that the search is case and accent insensitive as database comparisons
+	 * usually are, while the index itself can use a binary collation.
+	 */
+	private static String normalize(String text) {
+		return DIACRITICS.matcher(Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD)).replaceAll("");
+	}
+
+	private static String truncate(String word) {
+		return word.length() > MAX_WORD_LENGTH ? word.substring(0, MAX_WORD_LENGTH) : word;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Builds the {@link PatientSearchIndex} in background when the application starts, if the upgrade created it empty.
+ * <p>
+ * The patients are indexed a page at a time, each page in its own transaction, so the index can be searched by scanning
+ * the patient table meanwhile and a build interrupted by a shutdown resumes from the last page at the next start.
+ */
+@Component
+public class PatientSearchIndexBuilder implements DisposableBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientSearchIndexBuilder.class);
+
+	private static final int PAGE_SIZE = 500;
+
+	private static final int AWAIT_TERMINATION_SECONDS = 60;
+
+	private final PatientSearchIndex searchIndex;
+
+	private final ThreadPoolTaskExecutor executor;
+
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	private volatile boolean stopping;
+
+	public PatientSearchIndexBuilder(PatientSearchIndex patientSearchIndex) {
+		this.searchIndex = patientSearchIndex;
+		this.executor = new ThreadPoolTaskExecutor();
+		this.executor.setCorePoolSize(1);
+		this.executor.setMaxPoolSize(1);
+		this.executor.setThreadNamePrefix("patient-search-index-");
+		this.executor.setWaitForTasksToCompleteOnShutdown(true);
+		this.executor.setAwaitTerminationSeconds(AWAIT_TERMINATION_SECONDS);
+		this.executor.initialize();
+	}
+
+	@EventListener(ContextRefreshedEvent.class)
+	public void onContextRefreshed() {
+		if (searchIndex.isBuildPending() && started.compareAndSet(false, true)) {
+			executor.execute(this::build);
+		}
+	}
+
+	/**
+	 * Indexes the patients not indexed yet by the pending build, if any.
+	 */
+	public void build() {
+		try {
+			Integer lastCode = searchIndex.getBuildLastPatientCode();
+			LOGGER.info("Building the patient search index after patient {}.", lastCode);
+			while (!stopping && (lastCode = searchIndex.buildNextPage(lastCode, PAGE_SIZE)) != null) {
+				LOGGER.debug("Patient search index built up to patient {}.", lastCode);
+			}
+			LOGGER.info(stopping ? "Patient search index build interrupted." : "Patient search index built.");
+		} catch (RuntimeException e) {
+			LOGGER.error("Unable to build the patient search index, patients are searched without it.", e);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		stopping = true;
+		executor.shutdown();
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.util.List;
+
+import jakarta.persistence.LockModeType;
+
+import org.isf.patient.model.PatientSearchToken;
+import org.isf.patient.model.PatientSearchTokenId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PatientSearchTokenIoOperationRepository extends JpaRepository<PatientSearchToken, PatientSearchTokenId>,
+				PatientSearchTokenIoOperationRepositoryCustom {
+
+	@Modifying
+	@Query("delete from PatientSearchToken t where t.id.patientCode = :code")
+	int deleteByPatientCode(@Param("code") int code);
+
+	@Modifying
+	@Query("delete from PatientSearchToken t where t.id.patientCode in :codes")
+	int deleteByPatientCodes(@Param("codes") List<Integer> codes);
+
+	@Query("select p.code, p.firstName, p.secondName, p.telephone, p.taxCode, p.city, p.address, p.note from Patient p " +
+			"where (p.deleted = 'N' or p.deleted is null) and p.code > :lastCode order by p.code")
+	List<Object[]> findSearchableFieldsAfter(@Param("lastCode") int lastCode, Pageable pageable);
+
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select p.code, p.firstName, p.secondName, p.telephone, p.taxCode, p.city, p.address, p.note from Patient p " +
+			"where (p.deleted = 'N' or p.deleted is null) and p.code > :lastCode order by p.code")
+	List<Object[]> findSearchableFieldsAfterForUpdate(@Param("lastCode") int lastCode, Pageable pageable);
+}
@@ -0,0 +1,41 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.isf.patient.model.PatientSearchToken;
+
+public interface PatientSearchTokenIoOperationRepositoryCustom {
+
+	/**
+	 * Returns the codes of the patients having, for each of the specified words, a suffix starting with it. Patients with
+	 * more words matching at the beginning of a word come first, then patients are ordered by code descending.
+	 */
+	List<Integer> findPatientCodesByWords(List<String> words, int offset, int limit);
+
+	/**
+	 * Inserts the specified tokens, which must not exist yet.
+	 */
+	void insertAll(Collection<PatientSearchToken> tokens);
+}
@@ -0,0 +1,99 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+import org.isf.patient.model.PatientSearchToken;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional
+public class PatientSearchTokenIoOperationRepositoryImpl implements PatientSearchTokenIoOperationRepositoryCustom {
+
+	private static final char ESCAPE = '\\';
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Override
+	public List<Integer> findPatientCodesByWords(List<String> words, int offset, int limit) {
+		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Integer> query = cb.createQuery(Integer.class);
+		Root<PatientSearchToken> root = query.from(PatientSearchToken.class);
+		Path<Integer> patientCode = root.get("id").get("patientCode");
+		Path<String> suffix = root.get("id").get("suffix");
+		Path<Boolean> start = root.get("start");
+
+		List<Predicate> anyWord = new ArrayList<>();
+		List<Predicate> allWords = new ArrayList<>();
+		Expression<Integer> rank = cb.literal(0);
+		for (String word : words) {
+			Predicate matches = cb.like(suffix, escape(word) + '%', ESCAPE);
+			anyWord.add(matches);
+			allWords.add(cb.equal(cb.max(cb.<Integer>selectCase().when(matches, 1).otherwise(0)), 1));
+			rank = cb.sum(rank, cb.max(cb.<Integer>selectCase().when(cb.and(matches, cb.isTrue(start)), 1).otherwise(0)));
+		}
+
+		query.select(patientCode)
+			.where(cb.or(anyWord.toArray(new Predicate[0])))
+			.groupBy(patientCode)
+			.having(allWords.toArray(new Predicate[0]))
+			.orderBy(cb.desc(rank), cb.desc(patientCode));
+		return entityManager.createQuery(query)
+			.setFirstResult(offset)
+			.setMaxResults(limit)
+			.getResultList();
+	}
+
+	@Override
+	public void insertAll(Collection<PatientSearchToken> tokens) {
+		for (PatientSearchToken token : tokens) {
+			entityManager.persist(token);
+		}
+		entityManager.flush();
+		for (PatientSearchToken token : tokens) {
+			entityManager.detach(token);
+		}
+	}
+
+	private static String escape(String word) {
+		StringBuilder escaped = new StringBuilder(word.length());
+		for (char c : word.toCharArray()) {
+			if (c == '%' || c == '_' || c == ESCAPE) {
+				escaped.append(ESCAPE);
+			}
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+}
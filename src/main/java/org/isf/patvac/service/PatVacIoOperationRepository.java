@@ -24,8 +24,10 @@ package org.isf.patvac.service;
 import java.time.LocalDateTime;
 import java.util.List;
 
+import org.isf.patient.model.Patient;
 import org.isf.patvac.model.PatientVaccine;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -39,6 +41,15 @@ public interface PatVacIoOperationRepository extends JpaRepository<PatientVaccin
 	@Query("select max(pv.progr) from PatientVaccine pv where pv.vaccineDate >= :yearStart and pv.vaccineDate < :yearEnd")
 	Integer findMaxCodeWhereVaccineDate(@Param("yearStart") LocalDateTime yearStart, @Param("yearEnd") LocalDateTime yearEnd);
 
+	@Query("select count(pv) > 0 from PatientVaccine pv where pv.progr = :progr and pv.vaccineDate >= :yearStart and pv.vaccineDate < :yearEnd")
+	boolean existsCodeWhereVaccineDate(@Param("progr") int progr, @Param("yearStart") LocalDateTime yearStart, @Param("yearEnd") LocalDateTime yearEnd);
+
 	List<PatientVaccine> findByPatient_code(int patientId);
 
+	@Modifying(clearAutomatically = true, flushAutomatically = true)
+	@Query(value = "update PatientVaccine patVac set patVac.patient = :mergedPatient, "
+			+ "patVac.lastModifiedBy = :lastModifiedBy, patVac.lastModifiedDate = :lastModifiedDate where patVac.patient = :obsoletePatient")
+	int updatePatientForMerge(@Param("mergedPatient") Patient mergedPatient, @Param("lastModifiedBy") String lastModifiedBy,
+			@Param("lastModifiedDate") LocalDateTime lastModifiedDate, @Param("obsoletePatient") Patient obsoletePatient);
+
 }
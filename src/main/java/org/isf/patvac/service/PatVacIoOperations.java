@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Optional;
 
 import org.isf.patvac.model.PatientVaccine;
+import org.isf.progressivecounter.service.ProgressiveCounterService;
 import org.isf.utils.db.TranslateOHServiceException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.time.TimeTools;
@@ -38,10 +39,15 @@ import org.springframework.transaction.annotation.Transactional;
 @TranslateOHServiceException
 public class PatVacIoOperations {
 
+	private static final String PROG_YEAR_COUNTER = "PATIENTVACCINE";
+
 	private PatVacIoOperationRepository repository;
 
-	public PatVacIoOperations(PatVacIoOperationRepository patVacIoOperationRepository) {
+	private ProgressiveCounterService progressiveCounterService;
+
+	public PatVacIoOperations(PatVacIoOperationRepository patVacIoOperationRepository, ProgressiveCounterService progressiveCounterService) {
 		this.repository = patVacIoOperationRepository;
+		this.progressiveCounterService = progressiveCounterService;
 	}
 
 	/**
@@ -93,14 +99,22 @@ public class PatVacIoOperations {
 	}
 
 	/**
-	 * Inserts a {@link PatientVaccine} object.
+	 * Inserts a {@link PatientVaccine} object; if its progressive number was already taken in the year, the next free one
+	 * is assigned.
 	 *
 	 * @param patVac - the {@link PatientVaccine} to insert
 	 * @return the newly inserted {@link PatientVaccine} object.
 	 * @throws OHServiceException
 	 */
 	public PatientVaccine newPatientVaccine(PatientVaccine patVac) throws OHServiceException {
-		return repository.save(patVac);
+		if (patVac.getProgr() > 0 && patVac.getVaccineDate() != null) {
+			int year = patVac.getVaccineDate().getYear();
+			patVac.setProgr(progressiveCounterService.reserve(PROG_YEAR_COUNTER, String.valueOf(year), patVac.getProgr(), () -> findMaxProgYear(year),
+							progr -> repository.existsCodeWhereVaccineDate(progr, getBeginningOfYear(year), getBeginningOfYear(year + 1))));
+		}
+		PatientVaccine savedPatVac = repository.save(patVac);
+		updateProgYearCounters(savedPatVac);
+		return savedPatVac;
 	}
 
 	/**
@@ -111,7 +125,9 @@ public class PatVacIoOperations {
 	 * @throws OHServiceException
 	 */
 	public PatientVaccine updatePatientVaccine(PatientVaccine patVac) throws OHServiceException {
-		return repository.save(patVac);
+		PatientVaccine savedPatVac = repository.save(patVac);
+		updateProgYearCounters(savedPatVac);
+		return savedPatVac;
 	}
 
 	/**
@@ -132,11 +148,22 @@ public class PatVacIoOperations {
 	 * @throws OHServiceException
 	 */
 	public int getProgYear(int year) throws OHServiceException {
-		Integer progYear = year != 0 ?
+		return progressiveCounterService.getLast(PROG_YEAR_COUNTER, String.valueOf(year), () -> findMaxProgYear(year));
+	}
+
+	private Integer findMaxProgYear(int year) {
+		return year != 0 ?
 				repository.findMaxCodeWhereVaccineDate(getBeginningOfYear(year), getBeginningOfYear(year + 1)) :
 				repository.findMaxCode();
+	}
 
-		return progYear == null ? 0 : progYear;
+	private void updateProgYearCounters(PatientVaccine patVac) {
+		if (patVac.getProgr() <= 0 || patVac.getVaccineDate() == null) {
+			return;
+		}
+		int year = patVac.getVaccineDate().getYear();
+		progressiveCounterService.update(PROG_YEAR_COUNTER, String.valueOf(year), patVac.getProgr(), () -> findMaxProgYear(year));
+		progressiveCounterService.update(PROG_YEAR_COUNTER, String.valueOf(0), patVac.getProgr(), () -> findMaxProgYear(0));
 	}
 
 	/**
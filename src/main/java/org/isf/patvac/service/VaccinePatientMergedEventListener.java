@@ -21,10 +21,7 @@
  */
 package org.isf.patvac.service;
 
-import java.util.List;
-
 import org.isf.patient.model.PatientMergedEvent;
-import org.isf.patvac.model.PatientVaccine;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -32,19 +29,18 @@ import org.springframework.transaction.annotation.Transactional;
 @Component
 public class VaccinePatientMergedEventListener {
 
-	private PatVacIoOperations patVacIoOperations;
+	private final PatVacIoOperationRepository patVacIoOperationRepository;
 
-	public VaccinePatientMergedEventListener(PatVacIoOperations patVacIoOperations) {
-		this.patVacIoOperations = patVacIoOperations;
+	public VaccinePatientMergedEventListener(PatVacIoOperationRepository patVacIoOperationRepository) {
+		this.patVacIoOperationRepository = patVacIoOperationRepository;
 	}
 
 	@EventListener
 	@Transactional
 	public void handle(PatientMergedEvent patientMergedEvent) {
-		List<PatientVaccine> vaccines = patVacIoOperations.findForPatient(patientMergedEvent.getObsoletePatient().getCode());
-		for (PatientVaccine vaccine : vaccines) {
-			vaccine.setPatient(patientMergedEvent.getMergedPatient());
-		}
+		int rows = patVacIoOperationRepository.updatePatientForMerge(patientMergedEvent.getMergedPatient(), patientMergedEvent.getMergedBy(),
+				patientMergedEvent.getMergedDate(), patientMergedEvent.getObsoletePatient());
+		patientMergedEvent.addMergedRows("OH_PATIENTVACCINE", rows);
 	}
 
 }
@@ -0,0 +1,68 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.progressivecounter.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Last progressive number used within a domain (admissions, OPD, vaccinations, patients) and a key inside the domain
+ * (for instance the ward and the year), see {@link org.isf.progressivecounter.service.ProgressiveCounterService}.
+ */
+@Entity
+@Table(name = "OH_PROGRESSIVECOUNTER")
+public class ProgressiveCounter {
+
+	@EmbeddedId
+	private ProgressiveCounterId id;
+
+	@NotNull
+	@Column(name = "PGC_VALUE")
+	private int value;
+
+	public ProgressiveCounter() {
+	}
+
+	public ProgressiveCounter(String domain, String key, int value) {
+		this.id = new ProgressiveCounterId(domain, key);
+		this.value = value;
+	}
+
+	public ProgressiveCounterId getId() {
+		return id;
+	}
+
+	public void setId(ProgressiveCounterId id) {
+		this.id = id;
+	}
+
+	public int getValue() {
+		return value;
+	}
+
+	public void setValue(int value) {
+		this.value = value;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.progressivecounter.model;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.validation.constraints.NotNull;
+
+@SuppressWarnings("serial")
+@Embeddable
+public class ProgressiveCounterId implements Serializable {
+
+	@NotNull
+	@Column(name = "PGC_DOMAIN")
+	private String domain;
+
+	@NotNull
+	@Column(name = "PGC_KEY")
+	private String key;
+
+	public ProgressiveCounterId() {
+	}
+
+	public ProgressiveCounterId(String domain, String key) {
+		this.domain = domain;
+		this.key = key;
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	public void setDomain(String domain) {
+		this.domain = domain;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(domain, key);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ProgressiveCounterId)) {
+			return false;
+		}
+		ProgressiveCounterId other = (ProgressiveCounterId) obj;
+		return Objects.equals(domain, other.domain) && Objects.equals(key, other.key);
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.progressivecounter.service;
+
+import org.isf.progressivecounter.model.ProgressiveCounter;
+import org.isf.progressivecounter.model.ProgressiveCounterId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ProgressiveCounterIoOperationRepository extends JpaRepository<ProgressiveCounter, ProgressiveCounterId> {
+
+	@Query(value = "select c.value from ProgressiveCounter c where c.id.domain = :domain and c.id.key = :key")
+	Integer findValue(@Param("domain") String domain, @Param("key") String key);
+
+	@Query(value = "select PGC_VALUE from OH_PROGRESSIVECOUNTER where PGC_DOMAIN = :domain and PGC_KEY = :key for update", nativeQuery = true)
+	Integer findValueForUpdate(@Param("domain") String domain, @Param("key") String key);
+
+	@Modifying
+	@Query(value = "insert ignore into OH_PROGRESSIVECOUNTER (PGC_DOMAIN, PGC_KEY, PGC_VALUE) values (:domain, :key, :value)", nativeQuery = true)
+	int insertIfAbsent(@Param("domain") String domain, @Param("key") String key, @Param("value") int value);
+
+	@Modifying
+	@Query(value = "update OH_PROGRESSIVECOUNTER set PGC_VALUE = greatest(PGC_VALUE, :value) where PGC_DOMAIN = :domain and PGC_KEY = :key", nativeQuery = true)
+	int updateIfGreater(@Param("domain") String domain, @Param("key") String key, @Param("value") int value);
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.progressivecounter.service;
+
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+import org.isf.progressivecounter.model.ProgressiveCounter;
+import org.isf.utils.db.TranslateOHServiceException;
+import org.isf.utils.exception.OHServiceException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Keeps the last progressive number used for each domain and key in the {@link ProgressiveCounter} table, so that
+ * the next number can be read in constant time instead of scanning the records of the domain.
+ * <p>
+ * A counter is created the first time it is needed, starting from the value computed by the given {@code seed}
+ * (typically the maximum number found in the records), and then raised by {@link #update(String, String, int, Supplier)}
+ * every time a record is saved. The raise locks the counter row until the end of the transaction, so concurrent saves
+ * within the same domain and key are serialized and the counter never goes back.
+ */
+@Service
+@Transactional(rollbackFor = OHServiceException.class)
+@TranslateOHServiceException
+public class ProgressiveCounterService {
+
+	private ProgressiveCounterIoOperationRepository repository;
+
+	public ProgressiveCounterService(ProgressiveCounterIoOperationRepository progressiveCounterIoOperationRepository) {
+		this.repository = progressiveCounterIoOperationRepository;
+	}
+
+	/**
+	 * Returns the last progressive number used within the specified domain and key; the counter is not created if missing.
+	 *
+	 * @param domain - the domain of the counter
+	 * @param key - the key of the counter within the domain
+	 * @param seed - the value returned if the counter does not exist yet; {@code null} means {@code 0}
+	 * @return the last used number, {@code 0} if none
+	 */
+	public int getLast(String domain, String key, Supplier<Integer> seed) {
+		Integer value = repository.findValue(domain, key);
+		if (value == null) {
+			value = seed.get();
+		}
+		return value != null ? value : 0;
+	}
+
+	/**
+	 * Reserves a progressive number within the specified domain and key: {@code requested} if it is free, even if below the
+	 * counter, the first free number following the counter if it is already taken (e.g. when another user saved the same
+	 * previewed number first). The counter row stays locked until the end of the transaction, so the saves within the same
+	 * domain and key check and take their number one at a time.
+	 *
+	 * @param domain - the domain of the counter
+	 * @param key - the key of the counter within the domain
+	 * @param requested - the number asked for
+	 * @param seed - the initial value of the counter, used only if the counter does not exist yet; {@code null} means {@code 0}
+	 * @param taken - tells whether a number is already used by a record of the domain and key
+	 * @return the reserved number
+	 */
+	public int reserve(String domain, String key, int requested, Supplier<Integer> seed, IntPredicate taken) {
+		Integer last = repository.findValueForUpdate(domain, key);
+		if (last == null) {
+			create(domain, key, seed);
+			last = repository.findValueForUpdate(domain, key);
+		}
+		int reserved = requested;
+		if (taken.test(reserved)) {
+			reserved = last + 1;
+			while (taken.test(reserved)) {
+				reserved++;
+			}
+		}
+		repository.updateIfGreater(domain, key, reserved);
+		return reserved;
+	}
+
+	/**
+	 * Raises the counter of the specified domain and key to {@code value}, if it is lower.
+	 *
+	 * @param domain - the domain of the counter
+	 * @param key - the key of the counter within the domain
+	 * @param value - the number just used
+	 * @param seed - the initial value of the counter, used only if the counter does not exist yet; {@code null} means {@code 0}
+	 */
+	public void update(String domain, String key, int value, Supplier<Integer> seed) {
+		if (repository.updateIfGreater(domain, key, value) == 0) {
+			create(domain, key, seed);
+			repository.updateIfGreater(domain, key, value);
+		}
+	}
+
+	private void create(String domain, String key, Supplier<Integer> seed) {
+		Integer initialValue = seed.get();
+		// another transaction may create the counter in the meantime
+		repository.insertIfAbsent(domain, key, initialValue != null ? initialValue : 0);
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.serviceprinting.manager;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRField;
+import net.sf.jasperreports.engine.data.JRAbstractBeanDataSource;
+
+/**
+ * A JasperReports bean data source that pulls its beans from a {@link Stream}, so that the report can be filled while the data is still
+ * being read from the database.
+ *
+ * The data source is not rewindable: it can be iterated only once.
+ */
+public class JRBeanStreamDataSource extends JRAbstractBeanDataSource {
+
+	private final Iterator<?> iterator;
+
+	private Object currentBean;
+
+	public JRBeanStreamDataSource(Stream<?> beans) {
+		super(true);
+		this.iterator = beans.iterator();
+	}
+
+	@Override
+	public boolean next() {
+		if (iterator.hasNext()) {
+			currentBean = iterator.next();
+			return true;
+		}
+		currentBean = null;
+		return false;
+	}
+
+	@Override
+	public Object getFieldValue(JRField field) throws JRException {
+		return getFieldValue(currentBean, field);
+	}
+
+	@Override
+	public void moveFirst() throws JRException {
+		throw new JRException("A stream data source cannot be rewound.");
+	}
+}
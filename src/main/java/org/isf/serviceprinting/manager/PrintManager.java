@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import javax.swing.JOptionPane;
 
@@ -38,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import net.sf.jasperreports.engine.JRDataSource;
 import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JasperExportManager;
 import net.sf.jasperreports.engine.JasperFillManager;
@@ -66,6 +68,24 @@ public class PrintManager {
 	}
 	
 	public void print(String filename, List<?> toPrint, int action) throws OHServiceException {
+		print(filename, new JRBeanCollectionDataSource(toPrint), action);
+	}
+
+	/**
+	 * Prints the beans provided by the {@link Stream}; the beans are consumed while the report is filled and the stream is closed afterward.
+	 *
+	 * @param filename the report name.
+	 * @param toPrint the beans to print.
+	 * @param action the print action.
+	 * @throws OHServiceException
+	 */
+	public void print(String filename, Stream<?> toPrint, int action) throws OHServiceException {
+		try (toPrint) {
+			print(filename, new JRBeanStreamDataSource(toPrint), action);
+		}
+	}
+
+	private void print(String filename, JRDataSource dataSource, int action) throws OHServiceException {
 		
 		Map<String, Object> parameters = new HashMap<>();
 		Hospital hospital = hospitalManager.getHospital();
@@ -76,7 +96,6 @@ public class PrintManager {
 		parameters.put("ospedaleFax", hospital.getFax());
 		parameters.put("ospedaleMail", hospital.getEmail());
 
-		JRBeanCollectionDataSource dataSource = new JRBeanCollectionDataSource(toPrint);
 		File jasperFile = new File("rpt_base/" + filename + ".jasper");
 		try {
 			if (jasperFile.isFile()) {
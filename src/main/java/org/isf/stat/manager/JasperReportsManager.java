@@ -51,7 +51,9 @@ import org.isf.hospital.manager.HospitalBrowsingManager;
 import org.isf.hospital.model.Hospital;
 import org.isf.medicals.model.Medical;
 import org.isf.patient.model.Patient;
+import org.isf.patient.service.FileSystemPatientPhotoRepository;
 import org.isf.patient.service.PatientIoOperations;
+import org.isf.patient.service.PatientPhotoMigrator;
 import org.isf.stat.dto.JasperReportResultDto;
 import org.isf.utils.db.DbQueryLogger;
 import org.isf.utils.db.UTF8Control;
@@ -95,9 +97,16 @@ public class JasperReportsManager {
 
 	private DataSource dataSource;
 
-	public JasperReportsManager(HospitalBrowsingManager hospitalBrowsingManager, DataSource dataSource) {
+	private FileSystemPatientPhotoRepository fileSystemPatientPhotoRepository;
+
+	private PatientPhotoMigrator patientPhotoMigrator;
+
+	public JasperReportsManager(HospitalBrowsingManager hospitalBrowsingManager, DataSource dataSource,
+					FileSystemPatientPhotoRepository fileSystemPatientPhotoRepository, PatientPhotoMigrator patientPhotoMigrator) {
 		this.hospitalManager = hospitalBrowsingManager;
 		this.dataSource = dataSource;
+		this.fileSystemPatientPhotoRepository = fileSystemPatientPhotoRepository;
+		this.patientPhotoMigrator = patientPhotoMigrator;
 	}
 
 	public JasperReportResultDto getExamsListPdf() throws OHServiceException {
@@ -1018,8 +1027,18 @@ public class JasperReportsManager {
 
 	private String getPatientPhotoFile(String patID) {
 		String patientPhotoFile = null;
-		if (!PatientIoOperations.LOAD_FROM_DB.equals(GeneralData.PATIENTPHOTOSTORAGE)) {
-			patientPhotoFile = GeneralData.PATIENTPHOTOSTORAGE + File.separatorChar + patID + ".png";
+		String storage = patientPhotoMigrator.getStorage();
+		if (!PatientIoOperations.LOAD_FROM_DB.equals(storage)) {
+			patientPhotoFile = storage + File.separatorChar + patID + ".png";
+			// reports print the photo small, the thumbnail is enough
+			try {
+				File thumbnail = fileSystemPatientPhotoRepository.getThumbnailFile(storage, Integer.valueOf(patID));
+				if (thumbnail != null) {
+					patientPhotoFile = thumbnail.getPath();
+				}
+			} catch (OHServiceException | NumberFormatException e) {
+				LOGGER.warn("Unable to get the thumbnail of the photo of patient {}, using the photo", patID, e);
+			}
 			LOGGER.debug("PATIENT_PHOTO = {}", patientPhotoFile);
 		}
 		return patientPhotoFile;
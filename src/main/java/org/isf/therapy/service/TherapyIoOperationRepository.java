@@ -21,6 +21,7 @@
  */
 package org.isf.therapy.service;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 import org.isf.patient.model.Patient;
@@ -41,4 +42,11 @@ public interface TherapyIoOperationRepository extends JpaRepository<TherapyRow,
 
 	@Query("select count(t) from TherapyRow t where active=1")
 	long countAllActiveTherapies();
-}
\ No newline at end of file
+
+	@Modifying(clearAutomatically = true, flushAutomatically = true)
+	@Query(value = "update TherapyRow therapy set therapy.patient = :mergedPatient, "
+			+ "therapy.lastModifiedBy = :lastModifiedBy, therapy.lastModifiedDate = :lastModifiedDate where therapy.patient = :obsoletePatient")
+	int updatePatientForMerge(@Param("mergedPatient") Patient mergedPatient, @Param("lastModifiedBy") String lastModifiedBy,
+			@Param("lastModifiedDate") LocalDateTime lastModifiedDate, @Param("obsoletePatient") Patient obsoletePatient);
+
+}
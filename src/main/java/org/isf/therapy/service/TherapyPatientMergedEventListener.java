@@ -21,11 +21,7 @@
  */
 package org.isf.therapy.service;
 
-import java.util.List;
-
 import org.isf.patient.model.PatientMergedEvent;
-import org.isf.therapy.model.TherapyRow;
-import org.isf.utils.exception.OHServiceException;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -33,19 +29,18 @@ import org.springframework.transaction.annotation.Transactional;
 @Component
 public class TherapyPatientMergedEventListener {
 
-	TherapyIoOperations therapyIoOperations;
+	private final TherapyIoOperationRepository therapyIoOperationRepository;
 
-	public TherapyPatientMergedEventListener(TherapyIoOperations therapyIoOperations) {
-		this.therapyIoOperations = therapyIoOperations;
+	public TherapyPatientMergedEventListener(TherapyIoOperationRepository therapyIoOperationRepository) {
+		this.therapyIoOperationRepository = therapyIoOperationRepository;
 	}
 
 	@EventListener
 	@Transactional
-	public void handle(PatientMergedEvent patientMergedEvent) throws OHServiceException {
-		List<TherapyRow> therapyRows = therapyIoOperations.getTherapyRows(patientMergedEvent.getObsoletePatient().getCode());
-		for (TherapyRow therapyRow : therapyRows) {
-			therapyRow.setPatient(patientMergedEvent.getMergedPatient());
-		}
+	public void handle(PatientMergedEvent patientMergedEvent) {
+		int rows = therapyIoOperationRepository.updatePatientForMerge(patientMergedEvent.getMergedPatient(), patientMergedEvent.getMergedBy(),
+				patientMergedEvent.getMergedDate(), patientMergedEvent.getObsoletePatient());
+		patientMergedEvent.addMergedRows("OH_THERAPIES", rows);
 	}
 
 }
@@ -0,0 +1,108 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.utils.db;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Streams entities read from the database a page at a time, so that reports and exports over many rows do not need to hold them all in
+ * memory.
+ */
+public final class EntityStreams {
+
+	private EntityStreams() {
+	}
+
+	/**
+	 * Reads a page of entities.
+	 *
+	 * @param <T> the type of the entities.
+	 */
+	@FunctionalInterface
+	public interface PageReader<T> {
+
+		/**
+		 * Reads the page following the specified entity.
+		 *
+		 * @param last the last entity of the previous page, {@code null} for the first page.
+		 * @param fetchSize the maximum number of entities to read.
+		 * @return the entities of the page, an empty list when there are no more.
+		 */
+		List<T> read(T last, int fetchSize);
+	}
+
+	/**
+	 * Returns the stream of the entities read by the specified {@link PageReader} until it returns an empty page.
+	 * <p>
+	 * The first page is read immediately, the next ones while the stream is consumed. Every entity that a page loads into the persistence
+	 * context, including the fetched associations, is detached once the page is read; entities that were already managed are left as they
+	 * are.
+	 *
+	 * @param entityManager the entity manager used by the reader.
+	 * @param fetchSize the maximum number of entities read at a time.
+	 * @param reader the reader of the pages.
+	 * @return the stream of the entities.
+	 */
+	public static <T> Stream<T> stream(EntityManager entityManager, int fetchSize, PageReader<T> reader) {
+		if (fetchSize <= 0) {
+			throw new IllegalArgumentException("fetchSize must be positive");
+		}
+		return Stream.iterate(readDetached(entityManager, reader, null, fetchSize),
+						page -> !page.isEmpty(),
+						page -> readDetached(entityManager, reader, page.get(page.size() - 1), fetchSize))
+			.flatMap(List::stream);
+	}
+
+	private static <T> List<T> readDetached(EntityManager entityManager, PageReader<T> reader, T last, int fetchSize) {
+		if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+			// without a transaction every query gets its own persistence context, closed once the page is read
+			return reader.read(last, fetchSize);
+		}
+		PersistenceContext persistenceContext = entityManager.unwrap(SessionImplementor.class).getPersistenceContextInternal();
+		Set<EntityKey> managed = new HashSet<>(persistenceContext.getEntitiesByKey().keySet());
+		List<T> page = reader.read(last, fetchSize);
+		List<Object> loaded = new ArrayList<>();
+		for (Map.Entry<EntityKey, Object> entity : persistenceContext.getEntitiesByKey().entrySet()) {
+			if (!managed.contains(entity.getKey())) {
+				loaded.add(entity.getValue());
+			}
+		}
+		for (Object entity : loaded) {
+			if (entityManager.contains(entity)) {
+				entityManager.detach(entity);
+			}
+		}
+		return page;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.utils.db;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps short-lived snapshots of values read from the database, one for each key.
+ * <p>
+ * A snapshot is dropped by {@link #invalidate(Object)} and, when this is called within a transaction, once more when the
+ * transaction completes. A value loaded while an invalidation happens is returned but not stored, and neither is a value
+ * loaded by a transaction that invalidated its key, so that a snapshot never holds uncommitted or outdated data. Since
+ * other clients may update the same database, snapshots also expire after the given time to live.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values, that must not be changed once loaded.
+ */
+public class TransactionalSnapshotCache<K, V> {
+
+	private final long timeToLive;
+
+	private final Map<K, Snapshot<V>> snapshots = new ConcurrentHashMap<>();
+
+	/** Incremented by every invalidation, so that a load that raced with one can tell it. */
+	private final AtomicLong version = new AtomicLong();
+
+	public TransactionalSnapshotCache(Duration timeToLive) {
+		this.timeToLive = timeToLive.toNanos();
+	}
+
+	/**
+	 * Returns the value of the specified key, loading it with the specified loader if there is no valid snapshot.
+	 * @param key the key.
+	 * @param loader the loader of the value.
+	 * @return the value.
+	 */
+	public V get(K key, Supplier<V> loader) {
+		long now = System.nanoTime();
+		Snapshot<V> snapshot = snapshots.get(key);
+		if (snapshot != null && now - snapshot.loadedAt <= timeToLive) {
+			return snapshot.value;
+		}
+		long loadVersion = version.get();
+		V value = loader.get();
+		Invalidation<K> invalidation = getInvalidation(false);
+		if (invalidation == null || !invalidation.keys.contains(key)) {
+			Snapshot<V> loaded = new Snapshot<>(value, now);
+			snapshots.compute(key, (k, current) -> version.get() == loadVersion ? loaded : current);
+		}
+		return value;
+	}
+
+	/**
+	 * Drops the snapshot of the specified key.
+	 * @param key the key.
+	 */
+	public void invalidate(K key) {
+		drop(key);
+		Invalidation<K> invalidation = getInvalidation(true);
+		if (invalidation != null) {
+			invalidation.keys.add(key);
+		}
+	}
+
+	private void drop(K key) {
+		version.incrementAndGet();
+		snapshots.remove(key);
+	}
+
+	/**
+	 * Returns the {@link Invalidation} registered by this cache in the current transaction, if any.
+	 * @param register if {@code true}, registers a new one when there is none.
+	 * @return the {@link Invalidation} or {@code null} if there is no transaction (or none was registered).
+	 */
+	@SuppressWarnings("unchecked")
+	private Invalidation<K> getInvalidation(boolean register) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			if (synchronization instanceof Invalidation && ((Invalidation<?>) synchronization).cache == this) {
+				return (Invalidation<K>) synchronization;
+			}
+		}
+		if (!register) {
+			return null;
+		}
+		Invalidation<K> invalidation = new Invalidation<>(this);
+		TransactionSynchronizationManager.registerSynchronization(invalidation);
+		return invalidation;
+	}
+
+	/**
+	 * Drops again, when the transaction completes, the snapshots of the keys invalidated within it.
+	 */
+	private static final class Invalidation<K> implements TransactionSynchronization {
+
+		private final TransactionalSnapshotCache<K, ?> cache;
+
+		private final Set<K> keys = new HashSet<>();
+
+		private Invalidation(TransactionalSnapshotCache<K, ?> cache) {
+			this.cache = cache;
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			keys.forEach(cache::drop);
+		}
+	}
+
+	private static final class Snapshot<V> {
+
+		private final V value;
+
+		private final long loadedAt;
+
+		private Snapshot(V value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+}
@@ -39,10 +39,17 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import javax.swing.JFileChooser;
 import javax.swing.JTable;
@@ -63,12 +70,15 @@ import org.apache.poi.ss.usermodel.RichTextString;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.isf.generaldata.MessageBundle;
 import org.isf.utils.exception.OHException;
 
 public class ExcelExporter {
 
+	private static final int STREAMING_ROW_WINDOW = 100;
+
 	private CharsetEncoder encoder;
 	private Locale currentLocale;
 	private Workbook workbook;
@@ -498,6 +508,76 @@ public class ExcelExporter {
 		fileStream.close();
 	}
 
+	/**
+	 * Export a {@link Stream} of {@link Map}s to Excel using the Apache POI streaming workbook
+	 *
+	 * Only a small window of rows is kept in memory while writing, so the data can be consumed lazily (e.g. from a keyset paginated query)
+	 * without materializing it.
+	 *
+	 * @param data
+	 * @param exportFile
+	 * @throws IOException
+	 */
+	public void exportDataToExcel(Stream<? extends Map<?, ?>> data, File exportFile) throws IOException {
+		exportStreamToExcel(data, Map::keySet, Map::values, exportFile);
+	}
+
+	/**
+	 * Export a {@link Stream} of objects (e.g. the entities streamed by a keyset paginated query) to Excel using the Apache POI streaming
+	 * workbook, with a column for each entry of {@code columns}: the key is the header, the value gets the cell value from the object
+	 *
+	 * @param data
+	 * @param columns
+	 * @param exportFile
+	 * @throws IOException
+	 */
+	public <T> void exportDataToExcel(Stream<T> data, Map<String, Function<? super T, ?>> columns, File exportFile) throws IOException {
+		exportStreamToExcel(data, item -> columns.keySet(), item -> {
+			List<Object> values = new ArrayList<>(columns.size());
+			for (Function<? super T, ?> column : columns.values()) {
+				values.add(column.apply(item));
+			}
+			return values;
+		}, exportFile);
+	}
+
+	private <T> void exportStreamToExcel(Stream<T> data, Function<? super T, Collection<?>> headers, Function<? super T, Collection<?>> values,
+					File exportFile) throws IOException {
+		SXSSFWorkbook streamingWorkbook = new SXSSFWorkbook(STREAMING_ROW_WINDOW);
+		workbook = streamingWorkbook;
+		createHelper = workbook.getCreationHelper();
+		Sheet worksheet = workbook.createSheet();
+		initStyles();
+
+		try (FileOutputStream fileStream = new FileOutputStream(exportFile)) {
+			Iterator<T> iterator = data.iterator();
+			int index = 0;
+			while (iterator.hasNext()) {
+				T item = iterator.next();
+				if (index == 0) {
+					Row headerRow = worksheet.createRow(index++);
+					int h = 0;
+					for (Object column : headers.apply(item)) {
+						Cell cell = headerRow.createCell(h++);
+						cell.setCellStyle(headerStyle);
+						cell.setCellValue(createHelper.createRichTextString(column.toString()));
+					}
+				}
+				Row row = worksheet.createRow(index++);
+				int j = 0;
+				for (Object value : values.apply(item)) {
+					setValueForExcel(row.createCell(j++), value);
+				}
+			}
+			workbook.write(fileStream);
+			fileStream.flush();
+		} finally {
+			data.close();
+			streamingWorkbook.dispose();
+			streamingWorkbook.close();
+		}
+	}
+
 	private void setValueForExcel(Cell cell, Object value) {
 
 		if (value != null) {
@@ -517,6 +597,12 @@ public class ExcelExporter {
 				Timestamp val = new Timestamp(((Date) value).getTime());
 				cell.setCellStyle(dateStyle);
 				cell.setCellValue(val);
+			} else if (value instanceof LocalDateTime) {
+				cell.setCellStyle(dateTimeStyle);
+				cell.setCellValue((LocalDateTime) value);
+			} else if (value instanceof LocalDate) {
+				cell.setCellStyle(dateStyle);
+				cell.setCellValue((LocalDate) value);
 			} else if (value instanceof BigDecimal) {
 				BigDecimal val = (BigDecimal) value;
 				cell.setCellType(CellType.NUMERIC);
@@ -21,8 +21,10 @@
  */
 package org.isf.visits.service;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
+import org.isf.patient.model.Patient;
 import org.isf.visits.model.Visit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
@@ -55,4 +57,10 @@ public interface VisitsIoOperationRepository extends JpaRepository<Visit, Intege
 	@Query("select count(v) from Visit v where active=1")
 	long countAllActiveAppointments();
 
-}
\ No newline at end of file
+	@Modifying(clearAutomatically = true, flushAutomatically = true)
+	@Query(value = "update Visit visit set visit.patient = :mergedPatient, "
+			+ "visit.lastModifiedBy = :lastModifiedBy, visit.lastModifiedDate = :lastModifiedDate where visit.patient = :obsoletePatient")
+	int updatePatientForMerge(@Param("mergedPatient") Patient mergedPatient, @Param("lastModifiedBy") String lastModifiedBy,
+			@Param("lastModifiedDate") LocalDateTime lastModifiedDate, @Param("obsoletePatient") Patient obsoletePatient);
+
+}
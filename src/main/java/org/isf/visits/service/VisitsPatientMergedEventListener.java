@@ -21,29 +21,26 @@
  */
 package org.isf.visits.service;
 
-import java.util.List;
-
 import org.isf.patient.model.PatientMergedEvent;
-import org.isf.utils.exception.OHServiceException;
-import org.isf.visits.model.Visit;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 @Component
 public class VisitsPatientMergedEventListener {
 
-	VisitsIoOperations visitsIoOperations;
+	private final VisitsIoOperationRepository visitsIoOperationRepository;
 
-	public VisitsPatientMergedEventListener(VisitsIoOperations visitsIoOperations) {
-		this.visitsIoOperations = visitsIoOperations;
+	public VisitsPatientMergedEventListener(VisitsIoOperationRepository visitsIoOperationRepository) {
+		this.visitsIoOperationRepository = visitsIoOperationRepository;
 	}
 
 	@EventListener
-	public void handle(PatientMergedEvent patientMergedEvent) throws OHServiceException {
-		List<Visit> visits = visitsIoOperations.getVisits(patientMergedEvent.getObsoletePatient().getCode());
-		for(Visit visit : visits) {
-			visit.setPatient(patientMergedEvent.getMergedPatient());
-		}
+	@Transactional
+	public void handle(PatientMergedEvent patientMergedEvent) {
+		int rows = visitsIoOperationRepository.updatePatientForMerge(patientMergedEvent.getMergedPatient(), patientMergedEvent.getMergedBy(),
+				patientMergedEvent.getMergedDate(), patientMergedEvent.getObsoletePatient());
+		patientMergedEvent.addMergedRows("OH_VISITS", rows);
 	}
 
 }
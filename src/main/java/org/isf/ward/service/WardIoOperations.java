@@ -24,8 +24,7 @@ package org.isf.ward.service;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.isf.admission.model.Admission;
-import org.isf.admission.service.AdmissionIoOperationRepository;
+import org.isf.admission.service.WardCensus;
 import org.isf.utils.db.TranslateOHServiceException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.ward.model.Ward;
@@ -45,23 +44,22 @@ public class WardIoOperations {
 
 	private WardIoOperationRepository repository;
 
-	private AdmissionIoOperationRepository admissionRepository;
+	private WardCensus wardCensus;
 
-	public WardIoOperations(WardIoOperationRepository wardIoOperationRepository, AdmissionIoOperationRepository admissionIoOperationRepository) {
+	public WardIoOperations(WardIoOperationRepository wardIoOperationRepository, WardCensus wardCensus) {
 		this.repository = wardIoOperationRepository;
-		this.admissionRepository = admissionIoOperationRepository;
+		this.wardCensus = wardCensus;
 	}
 
 	/**
-	 * Retrieves the number of patients currently admitted in the {@link Ward}
+	 * Retrieves the number of patients currently admitted in the {@link Ward}, as known by the {@link WardCensus}
 	 * 
 	 * @param ward - the ward
 	 * @return the number of patients currently admitted
 	 * @throws OHServiceException
 	 */
 	public int getCurrentOccupation(Ward ward) throws OHServiceException {
-		List<Admission> admissions = new ArrayList<>(admissionRepository.findAllWhereWard(ward.getCode()));
-		return admissions.size();
+		return wardCensus.getOccupiedBeds(ward.getCode());
 	}
 
 	/**
@@ -34,6 +34,7 @@ import org.isf.OHCoreTestCase;
 import org.isf.admission.manager.AdmissionBrowserManager;
 import org.isf.admission.model.Admission;
 import org.isf.admission.model.AdmittedPatient;
+import org.isf.admission.model.WardCensusEntry;
 import org.isf.admission.service.AdmissionIoOperationRepository;
 import org.isf.admission.service.AdmissionIoOperationRepositoryCustom;
 import org.isf.admission.service.AdmissionIoOperationRepositoryCustom.PatientAdmission;
@@ -66,7 +67,10 @@ import org.isf.opetype.service.OperationTypeIoOperationRepository;
 import org.isf.patient.TestPatient;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
-import org.isf.patient.service.PatientIoOperationRepository;
+import org.isf.patient.model.PatientSearchIndexStatus;
+import org.isf.patient.service.PatientIoOperations;
+import org.isf.patient.service.PatientSearchIndex;
+import org.isf.patient.service.PatientSearchIndexStatusIoOperationRepository;
 import org.isf.pregtreattype.TestPregnantTreatmentType;
 import org.isf.pregtreattype.model.PregnantTreatmentType;
 import org.isf.pregtreattype.service.PregnantTreatmentTypeIoOperationRepository;
@@ -112,7 +116,9 @@ class Tests extends OHCoreTestCase {
 	@Autowired
 	PatientBrowserManager patientBrowserManager;
 	@Autowired
-	PatientIoOperationRepository patientIoOperationRepository;
+	PatientIoOperations patientIoOperations;
+	@Autowired
+	PatientSearchIndexStatusIoOperationRepository patientSearchIndexStatusIoOperationRepository;
 	@Autowired
 	AdmissionTypeIoOperationRepository admissionTypeIoOperationRepository;
 	@Autowired
@@ -189,6 +195,42 @@ class Tests extends OHCoreTestCase {
 		assertThat(patients.get(0).getAdmission().getId()).isEqualTo(foundAdmission.getId());
 	}
 
+	@ParameterizedTest(name = "Test with MATERNITYRESTARTINJUNE={0}")
+	@MethodSource("maternityRestartInJune")
+	void testGetAdmittedPatientsBySearchTermsBeforeSearchIndexIsBuilt(boolean maternityRestartInJune) throws Exception {
+		GeneralData.MATERNITYRESTARTINJUNE = maternityRestartInJune;
+		int id = setupTestAdmission(false);
+		Patient patient = admissionIoOperation.getAdmission(id).getPatient();
+		// as after the upgrade: the index has not been built
+		patientSearchIndexStatusIoOperationRepository.save(new PatientSearchIndexStatus());
+
+		List<AdmittedPatient> searchResult = admissionIoOperation.getAdmittedPatients(patient.getSecondName().substring(1), null, null);
+		assertThat(searchResult).extracting(admittedPatient -> admittedPatient.getPatient().getCode()).containsExactly(patient.getCode());
+		assertThat(admissionIoOperation.getAdmittedPatients("nobodyhasthisname", null, null)).isEmpty();
+	}
+
+	@ParameterizedTest(name = "Test with MATERNITYRESTARTINJUNE={0}")
+	@MethodSource("maternityRestartInJune")
+	void testGetAdmittedPatientWithDateRangesIncludeWholeDays(boolean maternityRestartInJune) throws Exception {
+		GeneralData.MATERNITYRESTARTINJUNE = maternityRestartInJune;
+		int id = setupTestAdmission(false);
+		Admission foundAdmission = admissionIoOperation.getAdmission(id);
+		LocalDateTime admissionDay = foundAdmission.getAdmDate().toLocalDate().atStartOfDay();
+		LocalDateTime dischargeDay = foundAdmission.getDisDate().toLocalDate().atStartOfDay();
+
+		// the time of the bounds is ignored: the admission matches as long as its day is within the range
+		assertThat(admissionIoOperation.getAdmittedPatients(null, new LocalDateTime[] { admissionDay, admissionDay }, null))
+			.extracting(admittedPatient -> admittedPatient.getAdmission().getId())
+			.containsExactly(id);
+		assertThat(admissionIoOperation.getAdmittedPatients(null, null, new LocalDateTime[] { dischargeDay.plusHours(23), dischargeDay.plusHours(23) }))
+			.extracting(admittedPatient -> admittedPatient.getAdmission().getId())
+			.containsExactly(id);
+		assertThat(admissionIoOperation.getAdmittedPatients(null, new LocalDateTime[] { null, admissionDay.minusDays(1).plusHours(23) }, null))
+			.isEmpty();
+		assertThat(admissionIoOperation.getAdmittedPatients(null, new LocalDateTime[] { admissionDay.plusDays(1), null }, null))
+			.isEmpty();
+	}
+
 	@ParameterizedTest(name = "Test with MATERNITYRESTARTINJUNE={0}")
 	@MethodSource("maternityRestartInJune")
 	void testGetAdmittedPatientWithDateRanges(boolean maternityRestartInJune) throws Exception {
@@ -255,6 +297,44 @@ class Tests extends OHCoreTestCase {
 		assertThat(patients.get(0).getAdmission().getId()).isEqualTo(foundAdmission.getId());
 	}
 
+	@ParameterizedTest(name = "Test with MATERNITYRESTARTINJUNE={0}")
+	@MethodSource("maternityRestartInJune")
+	void testIoGetAdmittedPatientsByKeysetPages(boolean maternityRestartInJune) throws Exception {
+		GeneralData.MATERNITYRESTARTINJUNE = maternityRestartInJune;
+		int id = setupTestAdmission(false);
+		Admission foundAdmission = admissionIoOperation.getAdmission(id);
+		Patient admittedPatient = foundAdmission.getPatient();
+		patientIoOperations.rebuildPatientSearchIndex();
+		Patient patient2 = testPatient.setup(false);
+		patient2.setFirstName("Mario");
+		patient2.setSecondName("Rossi");
+		patient2.setNote("allergic to penicillin" + "x".repeat(PatientSearchIndex.MAX_WORD_LENGTH));
+		patientIoOperations.savePatient(patient2);
+		Patient patient3 = testPatient.setup(false);
+		patient3.setFirstName("Maria");
+		patient3.setSecondName("Rossi");
+		patientIoOperations.savePatient(patient3);
+
+		List<AdmittedPatient> firstPage = admissionIoOperation.getAdmittedPatients(null, null, null, null, 2);
+		assertThat(firstPage).extracting(admitted -> admitted.getPatient().getCode()).containsExactly(patient3.getCode(), patient2.getCode());
+		assertThat(firstPage.get(0).getAdmission()).isNull();
+
+		List<AdmittedPatient> secondPage = admissionIoOperation.getAdmittedPatients(null, null, null, patient2.getCode(), 2);
+		assertThat(secondPage).extracting(admitted -> admitted.getPatient().getCode()).containsExactly(admittedPatient.getCode());
+		assertThat(secondPage.get(0).getAdmission().getId()).isEqualTo(foundAdmission.getId());
+
+		// every word must be found, in any order and field
+		List<AdmittedPatient> patients = admissionIoOperation.getAdmittedPatients("rossi MARI", null, null, null, 10);
+		assertThat(patients).extracting(admitted -> admitted.getPatient().getCode()).containsExactly(patient3.getCode(), patient2.getCode());
+		patients = admissionIoOperation.getAdmittedPatients("rossi mario", null, null, null, 10);
+		assertThat(patients).extracting(admitted -> admitted.getPatient().getCode()).containsExactly(patient2.getCode());
+		patients = admissionIoOperation.getAdmittedPatients("rossi mario", null, null, patient2.getCode(), 10);
+		assertThat(patients).isEmpty();
+		// words longer than the index entries are searched without the index
+		patients = admissionIoOperation.getAdmittedPatients("rossi " + patient2.getNote().substring(12), null, null, null, 10);
+		assertThat(patients).extracting(admitted -> admitted.getPatient().getCode()).containsExactly(patient2.getCode());
+	}
+
 	@ParameterizedTest(name = "Test with MATERNITYRESTARTINJUNE={0}")
 	@MethodSource("maternityRestartInJune")
 	void testIoGetAdmittedPatientsShouldFindByOneOfFieldsLikeFirstName(boolean maternityRestartInJune) throws Exception {
@@ -588,6 +668,24 @@ class Tests extends OHCoreTestCase {
 		assertThat(result).isEqualTo(1);
 	}
 
+	@ParameterizedTest(name = "Test with MATERNITYRESTARTINJUNE={0}")
+	@MethodSource("maternityRestartInJune")
+	void testIoGetWardCensus(boolean maternityRestartInJune) throws Exception {
+		GeneralData.MATERNITYRESTARTINJUNE = maternityRestartInJune;
+		int id = setupTestAdmission(false);
+		Admission foundAdmission = admissionIoOperation.getAdmission(id);
+		String wardCode = foundAdmission.getWard().getCode();
+		List<WardCensusEntry> census = admissionIoOperation.getWardCensus(wardCode);
+		assertThat(census).hasSize(1);
+		assertThat(census.get(0).getAdmissionId()).isEqualTo(id);
+		assertThat(census.get(0).getPatientCode()).isEqualTo(foundAdmission.getPatient().getCode());
+		assertThat(census.get(0).getPatientName()).isEqualTo(foundAdmission.getPatient().getName());
+
+		admissionIoOperation.setDeleted(id);
+		assertThat(admissionIoOperation.getWardCensus(wardCode)).isEmpty();
+		assertThat(admissionIoOperation.getUsedWardBed(wardCode)).isZero();
+	}
+
 	@ParameterizedTest(name = "Test with MATERNITYRESTARTINJUNE={0}")
 	@MethodSource("maternityRestartInJune")
 	@Transactional
@@ -1596,6 +1694,12 @@ class Tests extends OHCoreTestCase {
 			LocalDateTime[] dischargeRange) throws OHServiceException {
 			return null;
 		}
+
+		@Override
+		public List<AdmittedPatient> findPatientAdmissionsBySearchAndDateRanges(String searchTerms, LocalDateTime[] admissionRange,
+			LocalDateTime[] dischargeRange, Integer lastPatientCode, int pageSize) throws OHServiceException {
+			return null;
+		}
 	}
 
 	private int setupTestAdmission(boolean usingSet) throws OHException, InterruptedException, OHServiceException {
@@ -1626,7 +1730,7 @@ class Tests extends OHCoreTestCase {
 			deliveryType, deliveryResult, usingSet);
 
 		wardIoOperationRepository.saveAndFlush(ward);
-		patientIoOperationRepository.saveAndFlush(patient);
+		patientIoOperations.savePatient(patient);
 		admissionTypeIoOperationRepository.saveAndFlush(admissionType);
 		diseaseTypeIoOperationRepository.saveAndFlush(diseaseType);
 		diseaseIoOperationRepository.saveAndFlush(diseaseIn);
@@ -1675,7 +1779,7 @@ class Tests extends OHCoreTestCase {
 		diseaseOut3.setCode("667");
 		operation.setCode("9999");
 		wardIoOperationRepository.saveAndFlush(ward);
-		patientIoOperationRepository.saveAndFlush(patient);
+		patientIoOperations.savePatient(patient);
 		admissionTypeIoOperationRepository.saveAndFlush(admissionType);
 		diseaseTypeIoOperationRepository.saveAndFlush(diseaseType);
 		diseaseIoOperationRepository.saveAndFlush(diseaseIn);
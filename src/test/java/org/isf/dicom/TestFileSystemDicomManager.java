@@ -24,17 +24,31 @@ package org.isf.dicom;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.sql.Blob;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.aspectj.util.FileUtil;
 import org.isf.OHCoreTestCase;
 import org.isf.dicom.manager.DicomManagerFactory;
 import org.isf.dicom.manager.DicomManagerInterface;
 import org.isf.dicom.manager.FileSystemDicomManager;
+import org.isf.dicom.model.DicomSeries;
+import org.isf.dicom.model.FileBlob;
 import org.isf.dicom.model.FileDicom;
 import org.isf.dicom.service.DicomIoOperationRepository;
 import org.isf.dicom.service.DicomIoOperations;
@@ -174,6 +188,63 @@ class TestFileSystemDicomManager extends OHCoreTestCase {
 		cleanupDicomFiles(dicomFile.getPatId());
 	}
 
+	@Test
+	void testSaveFileFromFileAndCopyDicomData() throws Exception {
+		File source = new File(getClass().getResource("case3c_002.dcm").getFile());
+		DicomType dicomType = testDicomType.setup(true);
+		FileDicom dicomFile = testFileDicom.setup(dicomType, true);
+		dicomFile.setDicomData(source);
+		fileSystemDicomManager.saveFile(dicomFile);
+
+		Long[] ids = fileSystemDicomManager.getSeriesDetail(0, "TestSeriesNumber");
+		assertThat(ids).hasSize(1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThat(fileSystemDicomManager.copyDicomData(ids[0], 0, "TestSeriesNumber", out)).isTrue();
+		assertThat(out.toByteArray()).isEqualTo(Files.readAllBytes(source.toPath()));
+
+		Blob data = fileSystemDicomManager.loadDetails(ids[0], 0, "TestSeriesNumber").getDicomData().getData();
+		assertThat(data).isInstanceOf(FileBlob.class);
+		assertThat(data.length()).isEqualTo(source.length());
+		assertThat(data.getBytes(1, 4)).isEqualTo(Arrays.copyOf(out.toByteArray(), 4));
+
+		assertThat(fileSystemDicomManager.copyDicomData(-1, 0, "TestSeriesNumber", out)).isFalse();
+		cleanupDicomFiles(dicomFile.getPatId());
+	}
+
+	@Test
+	void testSaveFileConcurrentlyFromTwoManagersGetsUniqueIds() throws Exception {
+		DicomType dicomType = testDicomType.setup(true);
+		List<DicomManagerInterface> managers = List.of(fileSystemDicomManager, new FileSystemDicomManager(getDicomProperties()));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> saves = new ArrayList<>();
+			for (int i = 0; i < 120; i++) {
+				DicomManagerInterface manager = managers.get(i % 2);
+				String seriesNumber = "Series" + i % 3;
+				saves.add(executor.submit(() -> {
+					FileDicom dicomFile = testFileDicom.setup(dicomType, true);
+					dicomFile.setPatId(4);
+					dicomFile.setDicomSeriesNumber(seriesNumber);
+					dicomFile.setDicomInstanceUID("");
+					manager.saveFile(dicomFile);
+					return null;
+				}));
+			}
+			for (Future<?> save : saves) {
+				save.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		Set<Long> ids = new HashSet<>();
+		for (int i = 0; i < 3; i++) {
+			ids.addAll(Arrays.asList(fileSystemDicomManager.getSeriesDetail(4, "Series" + i)));
+		}
+		assertThat(ids).hasSize(120).doesNotContain(0L);
+
+		cleanupDicomFiles(4);
+	}
+
 	@Test
 	void testLoadPatientFiles() throws Exception {
 		DicomType dicomType = testDicomType.setup(true);
@@ -185,6 +256,27 @@ class TestFileSystemDicomManager extends OHCoreTestCase {
 		cleanupDicomFiles(dicomFile.getPatId());
 	}
 
+	@Test
+	void testLoadPatientSeriesAndThumbnail() throws Exception {
+		DicomType dicomType = testDicomType.setup(true);
+		FileDicom dicomFile = testFileDicom.setup(dicomType, true);
+		dicomFile.setPatId(5);
+		dicomFile.setDicomThumbnail(new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB));
+		fileSystemDicomManager.saveFile(dicomFile);
+
+		DicomSeries[] series = fileSystemDicomManager.loadPatientSeries(5);
+		assertThat(series).hasSize(1);
+		assertThat(series[0].getIdFile()).isEqualTo(fileSystemDicomManager.getSeriesDetail(5, "TestSeriesNumber")[0]);
+		assertThat(series[0].getDicomSeriesNumber()).isEqualTo("TestSeriesNumber");
+		assertThat(series[0].getModality()).isEqualTo("TestModality");
+		assertThat(series[0].getFrameCount()).isEqualTo(1);
+
+		BufferedImage thumbnail = fileSystemDicomManager.loadThumbnail(series[0].getIdFile(), 5, "TestSeriesNumber");
+		assertThat(thumbnail.getWidth()).isEqualTo(100);
+		assertThat(fileSystemDicomManager.loadThumbnail(-1, 5, "TestSeriesNumber")).isNull();
+		cleanupDicomFiles(dicomFile.getPatId());
+	}
+
 	@Test
 	void testLoadDetails() throws Exception {
 		FileDicom fileDicom = fileSystemDicomManager.loadDetails(2, 1, "TestSeriesNumber");
@@ -270,6 +362,72 @@ class TestFileSystemDicomManager extends OHCoreTestCase {
 		cleanupDicomFiles(dicomFile.getPatId());
 	}
 
+	@Test
+	void testIndexIsMaintainedOnSaveAndDelete() throws Exception {
+		DicomType dicomType = testDicomType.setup(true);
+		FileDicom dicomFile = testFileDicom.setup(dicomType, true);
+		dicomFile.setPatId(3);
+		fileSystemDicomManager.saveFile(dicomFile);
+		assertThat(new File("rsc-test/dicom/3/dicom.index")).exists();
+
+		// a new manager reads the index instead of the series folders
+		new File("rsc-test/dicom/3/TestSeriesNumber/1.properties").delete();
+		DicomManagerInterface otherManager = new FileSystemDicomManager(getDicomProperties());
+		assertThat(otherManager.getSeriesDetail(3, "TestSeriesNumber")).containsExactly(1L);
+		assertThat(otherManager.exist(dicomFile)).isTrue();
+		FileDicom[] fileDicoms = otherManager.loadPatientFiles(3);
+		assertThat(fileDicoms).hasSize(1);
+		assertThat(fileDicoms[0].getFrameCount()).isEqualTo(1);
+		assertThat(fileDicoms[0].getDicomInstanceUID()).isEqualTo("TestInstanceUid");
+
+		otherManager.deleteSeries(3, "TestSeriesNumber");
+		assertThat(fileSystemDicomManager.exist(3, "TestSeriesNumber")).isFalse();
+		assertThat(fileSystemDicomManager.loadPatientFiles(3)).isEmpty();
+
+		cleanupDicomFiles(dicomFile.getPatId());
+	}
+
+	@Test
+	void testIndexJournalIsSharedAndFolded() throws Exception {
+		DicomType dicomType = testDicomType.setup(true);
+		DicomManagerInterface otherManager = new FileSystemDicomManager(getDicomProperties());
+		for (int i = 0; i < 3; i++) {
+			FileDicom dicomFile = testFileDicom.setup(dicomType, true);
+			dicomFile.setPatId(6);
+			dicomFile.setDicomInstanceUID("");
+			(i % 2 == 0 ? fileSystemDicomManager : otherManager).saveFile(dicomFile);
+			assertThat(otherManager.getSeriesDetail(6, "TestSeriesNumber")).hasSize(i + 1);
+		}
+		assertThat(new File("rsc-test/dicom/6/dicom.index.journal")).exists();
+		assertThat(fileSystemDicomManager.getSeriesDetail(6, "TestSeriesNumber")).hasSize(3);
+
+		for (int i = 0; i < 70; i++) {
+			FileDicom dicomFile = testFileDicom.setup(dicomType, true);
+			dicomFile.setPatId(6);
+			dicomFile.setDicomInstanceUID("");
+			fileSystemDicomManager.saveFile(dicomFile);
+		}
+		FileDicom[] fileDicoms = new FileSystemDicomManager(getDicomProperties()).loadPatientFiles(6);
+		assertThat(fileDicoms).hasSize(1);
+		assertThat(fileDicoms[0].getFrameCount()).isEqualTo(73);
+		assertThat(fileDicoms[0].getDicomSeriesInstanceUID()).isEqualTo("TestSeriesInstanceUid");
+		assertThat(otherManager.getSeriesDetail(6, "TestSeriesNumber")).hasSize(73);
+		cleanupDicomFiles(6);
+	}
+
+	@Test
+	void testRebuildIndex() throws Exception {
+		File indexFile = new File("rsc-test/dicom/1/dicom.index");
+		try {
+			assertThat(((FileSystemDicomManager) fileSystemDicomManager).rebuildIndexes()).isPositive();
+			assertThat(indexFile).exists();
+			assertThat(fileSystemDicomManager.getSeriesDetail(1, "TestSeriesNumber")).containsExactly(2L);
+			assertThat(fileSystemDicomManager.loadPatientFiles(1)).hasSize(1);
+		} finally {
+			indexFile.delete();
+		}
+	}
+
 	@Test
 	void testDeleteSeriesDetailSeriesNumberNull() throws Exception {
 		assertThatThrownBy(() ->
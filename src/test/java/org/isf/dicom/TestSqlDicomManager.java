@@ -23,10 +23,15 @@ package org.isf.dicom;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
 import java.text.ParseException;
 
 import org.isf.OHCoreTestCase;
 import org.isf.dicom.manager.DicomManagerInterface;
+import org.isf.dicom.model.DicomSeries;
 import org.isf.dicom.model.FileDicom;
 import org.isf.dicom.service.DicomIoOperationRepository;
 import org.isf.dicomtype.TestDicomType;
@@ -152,6 +157,52 @@ class TestSqlDicomManager extends OHCoreTestCase {
 		assertThat(sqlDicomManager.exist(2, "SeriesNumber")).isFalse();
 	}
 
+	@Test
+	void testSaveFileFromFileAndCopyDicomData() throws Exception {
+		File source = new File(getClass().getResource("case3c_002.dcm").getFile());
+		DicomType dicomType = testDicomType.setup(true);
+		dicomTypeIoOperationRepository.saveAndFlush(dicomType);
+		FileDicom dicomFile = testFileDicom.setup(dicomType, true);
+		dicomFile.setDicomData(source);
+		sqlDicomManager.saveFile(dicomFile);
+
+		Long[] ids = sqlDicomManager.getSeriesDetail(0, "TestSeriesNumber");
+		assertThat(ids).hasSize(1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThat(sqlDicomManager.copyDicomData(ids[0], 0, "TestSeriesNumber", out)).isTrue();
+		assertThat(out.toByteArray()).isEqualTo(Files.readAllBytes(source.toPath()));
+		assertThat(sqlDicomManager.copyDicomData(-1, 0, "TestSeriesNumber", out)).isFalse();
+	}
+
+	@Test
+	void testLoadPatientSeriesAndThumbnail() throws Exception {
+		DicomType dicomType = testDicomType.setup(true);
+		dicomTypeIoOperationRepository.saveAndFlush(dicomType);
+		FileDicom dicomFile = testFileDicom.setup(dicomType, true);
+		dicomFile.setDicomThumbnail(new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB));
+		sqlDicomManager.saveFile(dicomFile);
+		FileDicom otherFile = testFileDicom.setup(dicomType, true);
+		otherFile.setDicomInstanceUID("OtherInstanceUid");
+		sqlDicomManager.saveFile(otherFile);
+
+		DicomSeries[] series = sqlDicomManager.loadPatientSeries(0);
+		assertThat(series).hasSize(1);
+		assertThat(series[0].getIdFile()).isEqualTo(dicomFile.getIdFile());
+		assertThat(series[0].getDicomSeriesNumber()).isEqualTo("TestSeriesNumber");
+		assertThat(series[0].getDicomSeriesInstanceUID()).isEqualTo("TestSeriesInstanceUid");
+		assertThat(series[0].getModality()).isEqualTo("TestModality");
+		assertThat(series[0].getFrameCount()).isEqualTo(2);
+		assertThat(sqlDicomManager.loadPatientSeries(-99)).isEmpty();
+
+		BufferedImage thumbnail = sqlDicomManager.loadThumbnail(series[0].getIdFile(), 0, "TestSeriesNumber");
+		assertThat(thumbnail.getWidth()).isEqualTo(100);
+		assertThat(thumbnail.getHeight()).isEqualTo(80);
+		assertThat(sqlDicomManager.loadThumbnail(series[0].getIdFile(), 0, "TestSeriesNumber")).isSameAs(thumbnail);
+
+		sqlDicomManager.deleteSeries(0, "TestSeriesNumber");
+		assertThat(sqlDicomManager.loadThumbnail(series[0].getIdFile(), 0, "TestSeriesNumber")).isNull();
+	}
+
 	private long setupTestFileDicom(boolean usingSet) throws OHException {
 		DicomType dicomType = testDicomType.setup(true);
 		FileDicom dicom = testFileDicom.setup(dicomType, usingSet);
@@ -30,6 +30,11 @@ import java.text.ParseException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JFrame;
 
@@ -212,6 +217,35 @@ class Tests extends OHCoreTestCase {
 		cleanupDicomFiles(dicomFile.getPatId());
 	}
 
+	@Test
+	void testSourceFilesLoadDicomConcurrentlyInTheSameSeries() throws Exception {
+		File file = getFile("image.0007.jpg");
+		DicomType dicomType = testDicomType.setup(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<FileDicom>> loads = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				// every file is loaded twice: the second load of the same instance must be skipped
+				String instanceUID = "TestInstanceUid" + i % 4;
+				loads.add(executor.submit(() -> {
+					FileDicom dicomFile = testFileDicom.setup(dicomType, true);
+					dicomFile.setDicomInstanceUID(instanceUID);
+					SourceFiles.loadDicom(dicomFile, file, PATIENT_ID);
+					return dicomFile;
+				}));
+			}
+			for (Future<FileDicom> load : loads) {
+				assertThat(load.get().getFileName()).isEqualTo("image.0007.jpg");
+			}
+		} finally {
+			executor.shutdown();
+		}
+		Long[] seriesDetail = DicomManagerFactory.getManager().getSeriesDetail(PATIENT_ID, "TestSeriesNumber");
+		assertThat(seriesDetail).hasSize(4).doesNotHaveDuplicates();
+
+		cleanupDicomFiles(PATIENT_ID);
+	}
+
 	@Test
 	void testSourceFilesLoadDicomWhenImageFormatIsBadJpg() throws Exception {
 		File file = getFile("BadJPGFile.jpg");
@@ -275,6 +309,22 @@ class Tests extends OHCoreTestCase {
 		assertThat(count).isPositive();
 	}
 
+	@Disabled
+	// Reason ignored when running CI it generates this error (runs fine locally)
+	//    java.awt.HeadlessException:
+	// 	  No X11 DISPLAY variable was set, but this program performed an operation which requires it.
+	@Test
+	void testSourceFilesStopsWorkingWhenTheImportFails() throws Exception {
+		ThumbnailViewGui thumbnailViewGui = new ThumbnailViewGui();
+		thumbnailViewGui.initialize();
+		// not a directory: the scan fails before reaching any file
+		SourceFiles sourceFiles = new SourceFiles(new FileDicom(), new File("src/test/resources/org/isf/dicom/case3c_002.dcm"), 2, 3,
+				thumbnailViewGui, new DicomLoader(3, new JFrame()));
+		sourceFiles.join();
+		assertThat(sourceFiles.working()).isFalse();
+		assertThat(sourceFiles.getLoaded()).isEqualTo(3);
+	}
+
 	@Disabled
 	// Reason ignored when running CI it generates this error (runs fine locally)
 	//    java.awt.HeadlessException:
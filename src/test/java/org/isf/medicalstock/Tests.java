@@ -25,17 +25,28 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.assertj.core.api.Condition;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.isf.OHCoreTestCase;
 import org.isf.generaldata.GeneralData;
 import org.isf.medicals.TestMedical;
@@ -44,16 +55,23 @@ import org.isf.medicals.service.MedicalsIoOperationRepository;
 import org.isf.medicalstock.manager.MovBrowserManager;
 import org.isf.medicalstock.manager.MovStockInsertingManager;
 import org.isf.medicalstock.model.Lot;
+import org.isf.medicalstock.model.LotBalance;
+import org.isf.medicalstock.model.LotCodeCounter;
 import org.isf.medicalstock.model.MedicalStock;
 import org.isf.medicalstock.model.Movement;
+import org.isf.medicalstock.service.LotBalanceIoOperationRepository;
+import org.isf.medicalstock.service.LotCodeCounterIoOperationRepository;
+import org.isf.medicalstock.service.LotCodeGenerator;
 import org.isf.medicalstock.service.LotIoOperationRepository;
 import org.isf.medicalstock.service.MedicalStockIoOperationRepository;
 import org.isf.medicalstock.service.MedicalStockIoOperations;
 import org.isf.medicalstock.service.MedicalStockIoOperations.MovementOrder;
 import org.isf.medicalstock.service.MovementIoOperationRepository;
+import org.isf.medicalstock.service.TableLotCodeGenerator;
 import org.isf.medicalstockward.model.MedicalWard;
 import org.isf.medicalstockward.model.MovementWard;
 import org.isf.medicalstockward.service.MedicalStockWardIoOperationRepository;
+import org.isf.medicalstockward.service.MedicalWardStockCache;
 import org.isf.medicalstockward.service.MovementWardIoOperationRepository;
 import org.isf.medstockmovtype.TestMovementType;
 import org.isf.medstockmovtype.model.MovementType;
@@ -64,6 +82,7 @@ import org.isf.medtype.service.MedicalTypeIoOperationRepository;
 import org.isf.supplier.TestSupplier;
 import org.isf.supplier.model.Supplier;
 import org.isf.supplier.service.SupplierIoOperationRepository;
+import org.isf.utils.excel.ExcelExporter;
 import org.isf.utils.exception.OHDataValidationException;
 import org.isf.utils.exception.OHException;
 import org.isf.utils.exception.OHServiceException;
@@ -74,11 +93,13 @@ import org.isf.ward.service.WardIoOperationRepository;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
 
 @Transactional
@@ -104,6 +125,16 @@ class Tests extends OHCoreTestCase {
 	@Autowired
 	LotIoOperationRepository lotIoOperationRepository;
 	@Autowired
+	LotBalanceIoOperationRepository lotBalanceIoOperationRepository;
+	@Autowired
+	LotCodeCounterIoOperationRepository lotCodeCounterIoOperationRepository;
+	@Autowired
+	LotCodeGenerator lotCodeGenerator;
+	@Autowired
+	MedicalWardStockCache medicalWardStockCache;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+	@Autowired
 	MedicalStockWardIoOperationRepository medicalStockWardIoOperationRepository;
 	@Autowired
 	MovementWardIoOperationRepository movementWardIoOperationRepository;
@@ -249,6 +280,59 @@ class Tests extends OHCoreTestCase {
 		assertThat(lots).isEmpty();
 	}
 
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoLotBalanceUpdatedByMovements(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		int code = setupTestMovement(false);
+		Movement foundMovement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(foundMovement).isNotNull();
+		Medical medical = foundMovement.getMedical();
+		Lot lot = foundMovement.getLot();
+		int quantity = foundMovement.getQuantity();
+
+		// lot stored without balance: read from the movement log, without inserting the balance
+		List<Lot> lots = medicalStockIoOperation.getLotsByMedical(medical);
+		assertThat(lots).hasSize(1);
+		assertThat(lots.get(0).getMainStoreQuantity()).isEqualTo(quantity);
+		assertThat(lotBalanceIoOperationRepository.findById(lot.getCode())).isNotPresent();
+
+		MovementType dischargeMovementType = testMovementType.setup(false);
+		dischargeMovementType.setCode("discharge");
+		dischargeMovementType.setType("-");
+		medicalDsrStockMovementTypeIoOperationRepository.saveAndFlush(dischargeMovementType);
+		Movement dischargeMovement = new Movement(medical, dischargeMovementType, foundMovement.getWard(), lot, TimeTools.getNow(), 3, null,
+						"newReference");
+		// the next movement inserts the balance from the log, then applies its own quantity
+		medicalStockIoOperation.prepareDischargingMovement(dischargeMovement);
+		assertThat(medicalStockIoOperation.getLotsByMedical(medical).get(0).getMainStoreQuantity()).isEqualTo(quantity - 3);
+
+		Movement secondDischargeMovement = new Movement(medical, dischargeMovementType, foundMovement.getWard(), lot, TimeTools.getNow(), 2, null,
+						"otherReference");
+		medicalStockIoOperation.prepareDischargingMovement(secondDischargeMovement);
+		assertThat(medicalStockIoOperation.getLotsByMedical(medical).get(0).getMainStoreQuantity()).isEqualTo(quantity - 5);
+		entityManager.clear();
+		assertThat(lotBalanceIoOperationRepository.findById(lot.getCode())).get().extracting(LotBalance::getMainStoreQuantity)
+						.isEqualTo(quantity - 5);
+		assertThat(medicalStockIoOperation.rebuildLotBalances()).isZero();
+	}
+
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoRebuildLotBalances(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		int code = setupTestMovement(false);
+		Movement foundMovement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(foundMovement).isNotNull();
+		String lotCode = foundMovement.getLot().getCode();
+		lotBalanceIoOperationRepository.saveAndFlush(new LotBalance(lotCode, foundMovement.getMedical().getCode(), -1));
+
+		assertThat(medicalStockIoOperation.rebuildLotBalances()).isEqualTo(1);
+		assertThat(lotBalanceIoOperationRepository.findById(lotCode)).get().extracting(LotBalance::getMainStoreQuantity)
+						.isEqualTo(foundMovement.getQuantity());
+		assertThat(medicalStockIoOperation.rebuildLotBalances()).isZero();
+	}
+
 	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
 	@MethodSource("automaticlot")
 	void testIoNewAutomaticDischargingMovement(boolean in, boolean out, boolean toward) throws Exception {
@@ -323,6 +407,43 @@ class Tests extends OHCoreTestCase {
 		assertThat(lots).hasSize(1); // first lot should be 0 quantity and stripped by the list
 	}
 
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoNewAutomaticDischargingMovements(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		int code = setupTestMovement(false);
+		Movement foundMovement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(foundMovement).isNotNull();
+
+		Medical medical = foundMovement.getMedical();
+		Ward ward = foundMovement.getWard();
+		Lot lot2 = testLot.setup(medical, false); // we are going to create a second lot
+		lot2.setCode("second");
+		medicalStockIoOperation.newMovement(new Movement(medical, foundMovement.getType(), null, lot2, TimeTools.getNow(), 7,
+						foundMovement.getSupplier(), "newReference"));
+
+		MovementType dischargeMovementType = testMovementType.setup(false); // prepare discharge movement
+		dischargeMovementType.setCode("discharge");
+		dischargeMovementType.setType("-");
+		medicalDsrStockMovementTypeIoOperationRepository.saveAndFlush(dischargeMovementType);
+
+		double outQuantity = medicalsIoOperationRepository.findById(medical.getCode()).get().getOutqty();
+		List<Movement> movements = new ArrayList<>(2);
+		movements.add(new Movement(medical, dischargeMovementType, ward, null, TimeTools.getNow(), 6, null, "newReference2"));
+		movements.add(new Movement(medical, dischargeMovementType, ward, null, TimeTools.getNow(), 6, null, "newReference2"));
+		List<Movement> dischargingMovements = medicalStockIoOperation.newAutomaticDischargingMovements(movements);
+
+		// second movement uses what is left of the first lot (10 - 6) and 2 of the second lot
+		assertThat(dischargingMovements).extracting(Movement::getQuantity).containsExactly(6, 4, 2);
+		assertThat(dischargingMovements).extracting(movement -> movement.getLot().getCode())
+						.containsExactly(foundMovement.getLot().getCode(), foundMovement.getLot().getCode(), lot2.getCode());
+		List<Lot> lots = medicalStockIoOperation.getLotsByMedical(medical);
+		assertThat(lots).hasSize(1);
+		assertThat(lots.get(0).getMainStoreQuantity()).isEqualTo(5);
+		assertThat(medicalsIoOperationRepository.findById(medical.getCode()).get().getOutqty()).isEqualTo(outQuantity + 12);
+		assertThat(medicalStockWardIoOperationRepository.findQuantityInWardWhereMedicalAndWard(medical.getCode(), ward.getCode())).isEqualTo(12);
+	}
+
 	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
 	@MethodSource("automaticlot")
 	void testIoNewMovementOutGoingLots(boolean in, boolean out, boolean toward) throws Exception {
@@ -404,6 +525,7 @@ class Tests extends OHCoreTestCase {
 		GeneralData.AUTOMATICLOT_IN = true;
 		Movement newMovement = medicalStockIoOperation.newMovement(foundMovement);
 		checkMovementIntoDb(newMovement.getCode());
+		assertThat(newMovement.getLot().getCode()).startsWith(TableLotCodeGenerator.CODE_PREFIX);
 		GeneralData.AUTOMATICLOT_IN = automaticLotMode;
 	}
 
@@ -450,6 +572,35 @@ class Tests extends OHCoreTestCase {
 		checkMovementIntoDb(preparedMovement.getCode());
 	}
 
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoLotCodeGeneratorUniqueCodes(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		TableLotCodeGenerator generator = new TableLotCodeGenerator(lotCodeCounterIoOperationRepository, lotIoOperationRepository, transactionManager);
+		Set<String> codes = new HashSet<>();
+		for (int i = 0; i < 120; i++) {
+			codes.add(generator.nextLotCode());
+		}
+		assertThat(codes).hasSize(120);
+	}
+
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoLotCodeGeneratorSkipsUsedCodes(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		TableLotCodeGenerator generator = new TableLotCodeGenerator(lotCodeCounterIoOperationRepository, lotIoOperationRepository, transactionManager);
+		long next = lotCodeCounterIoOperationRepository.findById(1).map(LotCodeCounter::getNext).orElse(1L);
+		MedicalType medicalType = testMedicalType.setup(false);
+		Medical medical = testMedical.setup(medicalType, false);
+		Lot lot = testLot.setup(medical, false);
+		lot.setCode(TableLotCodeGenerator.CODE_PREFIX + next); // manually coded lot
+		medicalTypeIoOperationRepository.saveAndFlush(medicalType);
+		medicalsIoOperationRepository.saveAndFlush(medical);
+		lotIoOperationRepository.saveAndFlush(lot);
+
+		assertThat(generator.nextLotCode()).isEqualTo(TableLotCodeGenerator.CODE_PREFIX + (next + 1));
+	}
+
 	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
 	@MethodSource("automaticlot")
 	void testIoLotExists(boolean in, boolean out, boolean toward) throws Exception {
@@ -510,6 +661,160 @@ class Tests extends OHCoreTestCase {
 		assertThat(movements.get(0).getCode()).isEqualTo(foundMovement.getCode());
 	}
 
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoGetMovementsKeysetPaging(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		int code = setupTestMovement(false);
+		Movement foundMovement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(foundMovement).isNotNull();
+		Medical medical = foundMovement.getMedical();
+		Lot lot2 = testLot.setup(medical, false);
+		lot2.setCode("second");
+		Movement newMovement = new Movement(
+						medical,
+						foundMovement.getType(),
+						null,
+						lot2,
+						TimeTools.getNow(),
+						7,
+						foundMovement.getSupplier(),
+						"newReference");
+		Movement storedMovement = medicalStockIoOperation.newMovement(newMovement);
+
+		List<Movement> firstPage = medicalStockIoOperation.getMovements(medical.getCode(), null, null, null, null, null, null, null, null, null,
+						null, 1);
+		assertThat(firstPage).hasSize(1);
+		assertThat(firstPage.get(0).getCode()).isEqualTo(storedMovement.getCode());
+		assertThat(firstPage.get(0).getLot().getCode()).isEqualTo(lot2.getCode());
+
+		List<Movement> secondPage = medicalStockIoOperation.getMovements(medical.getCode(), null, null, null, null, null, null, null, null, null,
+						firstPage.get(0).getCode(), 1);
+		assertThat(secondPage).hasSize(1);
+		assertThat(secondPage.get(0).getCode()).isEqualTo(code);
+
+		List<Movement> lastPage = medicalStockIoOperation.getMovements(medical.getCode(), null, null, null, null, null, null, null, null, null,
+						secondPage.get(0).getCode(), 1);
+		assertThat(lastPage).isEmpty();
+	}
+
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoGetMovementStream(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		int code = setupTestMovement(false);
+		Movement foundMovement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(foundMovement).isNotNull();
+		Medical medical = foundMovement.getMedical();
+		List<Integer> expectedCodes = new ArrayList<>();
+		expectedCodes.add(code);
+		for (int i = 0; i < 2; i++) {
+			Lot lot = testLot.setup(medical, false);
+			lot.setCode("stream" + i);
+			Movement newMovement = new Movement(
+							medical,
+							foundMovement.getType(),
+							null,
+							lot,
+							TimeTools.getNow(),
+							7,
+							foundMovement.getSupplier(),
+							"newReference" + i);
+			expectedCodes.add(medicalStockIoOperation.newMovement(newMovement).getCode());
+		}
+
+		try (Stream<Movement> movements = medicalStockIoOperation.getMovementStream(medical.getCode(), null, null, null, null, null, null, null,
+						null, null, 2)) {
+			assertThat(movements.map(Movement::getCode)).containsExactlyElementsOf(expectedCodes);
+		}
+		for (MovementOrder order : MovementOrder.values()) {
+			List<Integer> orderedCodes = medicalStockIoOperation.getMovementForPrint(medical.getDescription(), null, null, null, null, null, null,
+							order).stream().map(Movement::getCode).toList();
+			try (Stream<Movement> movements = medicalStockIoOperation.getMovementForPrintStream(medical.getDescription(), null, null, null, null,
+							null, null, order, 1)) {
+				assertThat(movements.map(Movement::getCode)).containsExactlyElementsOf(orderedCodes);
+			}
+		}
+	}
+
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoGetMovementForPrintStreamPagesPastEqualKeys(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		int code = setupTestMovement(false);
+		Movement foundMovement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(foundMovement).isNotNull();
+		Medical medical = foundMovement.getMedical();
+		LocalDateTime date = TimeTools.truncateToSeconds(TimeTools.getNow());
+		List<Integer> codes = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			Lot lot = testLot.setup(medical, false);
+			lot.setCode("equalKeys" + i);
+			Movement newMovement = new Movement(medical, foundMovement.getType(), null, lot, date, 7, foundMovement.getSupplier(), "sameReference");
+			codes.add(medicalStockIoOperation.newMovement(newMovement).getCode());
+		}
+
+		for (MovementOrder order : MovementOrder.values()) {
+			try (Stream<Movement> movements = medicalStockIoOperation.getMovementForPrintStream(medical.getDescription(), null, null, null, null,
+							null, null, order, 1)) {
+				// the movements with the same date and reference are ordered by code
+				assertThat(movements.map(Movement::getCode).filter(codes::contains)).containsExactly(codes.get(2), codes.get(1), codes.get(0));
+			}
+		}
+	}
+
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoGetMovementStreamDetachesLoadedEntities(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		int code = setupTestMovement(false);
+		Movement foundMovement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(foundMovement).isNotNull();
+		int medicalCode = foundMovement.getMedical().getCode();
+		entityManager.flush();
+		entityManager.clear();
+		Medical medical = medicalsIoOperationRepository.findById(medicalCode).orElse(null);
+		assertThat(medical).isNotNull();
+
+		try (Stream<Movement> movements = medicalStockIoOperation.getMovementStream(medicalCode, null, null, null, null, null, null, null,
+						null, null, 1)) {
+			Movement movement = movements.findFirst().orElse(null);
+			assertThat(movement).isNotNull();
+			assertThat(movement.getMedical()).isSameAs(medical);
+		}
+		// the movement, its lot, type, supplier... are detached, while the medical loaded before stays managed
+		assertThat(entityManager.contains(medical)).isTrue();
+		assertThat(entityManager.unwrap(SessionImplementor.class).getPersistenceContextInternal().getNumberOfManagedEntities()).isEqualTo(
+						1 + (medical.getType() != null ? 1 : 0));
+	}
+
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoExportMovementStreamToExcel(boolean in, boolean out, boolean toward, @TempDir Path folder) throws Exception {
+		setGeneralData(in, out, toward);
+		int code = setupTestMovement(false);
+		Movement foundMovement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(foundMovement).isNotNull();
+		Map<String, Function<? super Movement, ?>> columns = new LinkedHashMap<>();
+		columns.put("Code", Movement::getCode);
+		columns.put("Date", Movement::getDate);
+		columns.put("Medical", movement -> movement.getMedical().getDescription());
+		columns.put("Quantity", Movement::getQuantity);
+		File exportFile = folder.resolve("movements.xlsx").toFile();
+
+		new ExcelExporter().exportDataToExcel(medicalStockIoOperation.getMovementStream(foundMovement.getMedical().getCode(), null, null, null,
+						null, null, null, null, null, null, 1), columns, exportFile);
+
+		try (Workbook workbook = new XSSFWorkbook(exportFile)) {
+			Sheet sheet = workbook.getSheetAt(0);
+			assertThat(sheet.getLastRowNum()).isEqualTo(1);
+			assertThat(sheet.getRow(0).getCell(2).getStringCellValue()).isEqualTo("Medical");
+			assertThat(sheet.getRow(1).getCell(0).getNumericCellValue()).isEqualTo(code);
+			assertThat(sheet.getRow(1).getCell(1).getLocalDateTimeCellValue()).isEqualTo(foundMovement.getDate());
+			assertThat(sheet.getRow(1).getCell(2).getStringCellValue()).isEqualTo(foundMovement.getMedical().getDescription());
+		}
+	}
+
 	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
 	@MethodSource("automaticlot")
 	void testIoGetMovementForPrintDateOrder(boolean in, boolean out, boolean toward) throws Exception {
@@ -1403,7 +1708,8 @@ class Tests extends OHCoreTestCase {
 		int remainQuantity = quantity - quantity / 2; // to overcome tests with not even quantities
 
 		MedicalStockIoOperations medicalStockIoOperation = new MedicalStockIoOperations(movementIoOperationRepository, lotIoOperationRepository,
-						medicalsIoOperationRepository, medicalStockIoOperationRepository, medicalStockWardIoOperationRepository);
+						medicalsIoOperationRepository, medicalStockIoOperationRepository, medicalStockWardIoOperationRepository, lotBalanceIoOperationRepository,
+						lotCodeGenerator, medicalWardStockCache);
 
 		Method method = medicalStockIoOperation.getClass().getDeclaredMethod("updateMedicalStockTable", Medical.class, LocalDate.class, int.class);
 		method.setAccessible(true);
@@ -1423,7 +1729,8 @@ class Tests extends OHCoreTestCase {
 		int quantity = movement.getQuantity();
 
 		MedicalStockIoOperations medicalStockIoOperation = new MedicalStockIoOperations(movementIoOperationRepository, lotIoOperationRepository,
-						medicalsIoOperationRepository, medicalStockIoOperationRepository, medicalStockWardIoOperationRepository);
+						medicalsIoOperationRepository, medicalStockIoOperationRepository, medicalStockWardIoOperationRepository, lotBalanceIoOperationRepository,
+						lotCodeGenerator, medicalWardStockCache);
 
 		Method method = medicalStockIoOperation.getClass().getDeclaredMethod("updateMedicalStockTable", Medical.class, LocalDate.class, int.class);
 		method.setAccessible(true);
@@ -1441,6 +1748,67 @@ class Tests extends OHCoreTestCase {
 		assertThat(medicalStockList.get(0).getDays()).isNull();
 	}
 
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoUpdateMedicalQuantities(boolean in, boolean out, boolean toward) throws Exception {
+		setGeneralData(in, out, toward);
+		int code = setupTestMovement(false);
+		Movement movement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(movement).isNotNull();
+		Medical medical = movement.getMedical();
+		double inQuantity = medical.getInqty();
+		double outQuantity = medical.getOutqty();
+		int lock = medical.getLock();
+
+		medicalStockIoOperation.updateMedicalIncomingQuantity(medical.getCode(), 10);
+		medicalStockIoOperation.updateMedicalIncomingQuantity(medical.getCode(), 5);
+		medicalStockIoOperation.updateMedicalOutcomingQuantity(medical.getCode(), 3);
+
+		Medical updatedMedical = medicalsIoOperationRepository.findById(medical.getCode()).orElse(null);
+		assertThat(updatedMedical).isNotNull();
+		assertThat(updatedMedical.getInqty()).isEqualTo(inQuantity + 15);
+		assertThat(updatedMedical.getOutqty()).isEqualTo(outQuantity + 3);
+		assertThat(updatedMedical.getLock()).isEqualTo(lock + 3);
+
+		// the loaded medical can still be saved in the same transaction without losing the quantities
+		updatedMedical.setDescription("UpdatedDescription");
+		medicalsIoOperationRepository.saveAndFlush(updatedMedical);
+		medicalStockIoOperation.updateMedicalIncomingQuantity(medical.getCode(), 1);
+		assertThat(medical.getInqty()).isEqualTo(inQuantity + 16);
+		medicalsIoOperationRepository.saveAndFlush(medical);
+		assertThat(medicalsIoOperationRepository.findById(medical.getCode()).get().getInqty()).isEqualTo(inQuantity + 16);
+
+		assertThatThrownBy(() -> medicalStockIoOperation.updateMedicalIncomingQuantity(-1, 10))
+						.isInstanceOf(OHServiceException.class);
+	}
+
+	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
+	@MethodSource("automaticlot")
+	void testIoUpdateMedicalStockTableLatestBalance() throws Exception {
+		int code = setupTestMovement(false);
+		Movement movement = movementIoOperationRepository.findById(code).orElse(null);
+		assertThat(movement).isNotNull();
+		Medical medical = movement.getMedical();
+		LocalDate balanceDate = medicalStockIoOperationRepository.findFirstByMedicalCodeOrderByBalanceDateDesc(medical.getCode()).get().getBalanceDate();
+		for (int i = 1; i <= 5; i++) {
+			// older history
+			medicalStockIoOperationRepository.saveAndFlush(new MedicalStock(medical, balanceDate.minusDays(i), 100 + i, null, null));
+		}
+
+		MedicalStockIoOperations medicalStockIoOperation = new MedicalStockIoOperations(movementIoOperationRepository, lotIoOperationRepository,
+						medicalsIoOperationRepository, medicalStockIoOperationRepository, medicalStockWardIoOperationRepository, lotBalanceIoOperationRepository,
+						lotCodeGenerator, medicalWardStockCache);
+
+		Method method = medicalStockIoOperation.getClass().getDeclaredMethod("updateMedicalStockTable", Medical.class, LocalDate.class, int.class);
+		method.setAccessible(true);
+		assertThat((MedicalStock) method.invoke(medicalStockIoOperation, medical, balanceDate, 1)).extracting("balance")
+						.isEqualTo(movement.getQuantity() + 1);
+		assertThat(medicalStockIoOperationRepository.findByMedicalCodeOrderByBalanceDateDesc(medical.getCode())).hasSize(6);
+		assertThat(medicalStockIoOperationRepository.findTop2ByMedicalCodeOrderByBalanceDateDesc(medical.getCode()))
+						.extracting(MedicalStock::getBalanceDate)
+						.containsExactly(balanceDate, balanceDate.minusDays(1));
+	}
+
 	@ParameterizedTest(name = "Test with AUTOMATICLOT_IN={0}, AUTOMATICLOT_OUT={1}, AUTOMATICLOTWARD_TOWARD={2}")
 	@MethodSource("automaticlot")
 	void testIoUpdateMedicalStockTableEmptyTable() throws Exception {
@@ -1453,7 +1821,8 @@ class Tests extends OHCoreTestCase {
 		int quantity = 10;
 
 		MedicalStockIoOperations medicalStockIoOperation = new MedicalStockIoOperations(movementIoOperationRepository, lotIoOperationRepository,
-						medicalsIoOperationRepository, medicalStockIoOperationRepository, medicalStockWardIoOperationRepository);
+						medicalsIoOperationRepository, medicalStockIoOperationRepository, medicalStockWardIoOperationRepository, lotBalanceIoOperationRepository,
+						lotCodeGenerator, medicalWardStockCache);
 
 		Method method = medicalStockIoOperation.getClass().getDeclaredMethod("updateMedicalStockTable", Medical.class, LocalDate.class, int.class);
 		method.setAccessible(true);
@@ -1473,7 +1842,8 @@ class Tests extends OHCoreTestCase {
 			int quantity = -10;
 
 			MedicalStockIoOperations medicalStockIoOperation = new MedicalStockIoOperations(movementIoOperationRepository, lotIoOperationRepository,
-							medicalsIoOperationRepository, medicalStockIoOperationRepository, medicalStockWardIoOperationRepository);
+							medicalsIoOperationRepository, medicalStockIoOperationRepository, medicalStockWardIoOperationRepository, lotBalanceIoOperationRepository,
+						lotCodeGenerator, medicalWardStockCache);
 
 			Method method = medicalStockIoOperation.getClass().getDeclaredMethod("updateMedicalStockTable", Medical.class, LocalDate.class, int.class);
 			method.setAccessible(true);
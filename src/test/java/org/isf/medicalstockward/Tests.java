@@ -29,6 +29,7 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import org.isf.OHCoreTestCase;
 import org.isf.medicals.TestMedical;
@@ -189,6 +190,36 @@ class Tests extends OHCoreTestCase {
 		assertThat(movements.get(0).getCode()).isEqualTo(foundMovement.getCode());
 	}
 
+	@Test
+	void testIoGetWardMovementStream() throws Exception {
+		LocalDateTime now = TimeTools.getNow();
+		LocalDateTime fromDate = now.withMonth(1).withDayOfMonth(1);
+		LocalDateTime toDate = now.withMonth(3).withDayOfMonth(3);
+		int code = setupTestMovementWard(false);
+		MovementWard foundMovement = movementWardIoOperationRepository.findById(code).orElse(null);
+		assertThat(foundMovement).isNotNull();
+		for (int i = 0; i < 4; i++) {
+			MovementWard movementWard = testMovementWard.setup(foundMovement.getWard(), foundMovement.getPatient(), foundMovement.getMedical(),
+							foundMovement.getWardTo(), foundMovement.getWardFrom(), foundMovement.getLot(), false);
+			movementWard.setDate(foundMovement.getDate().plusMinutes(i % 2));
+			movementWardIoOperationRepository.saveAndFlush(movementWard);
+		}
+
+		List<MovementWard> movements = medicalStockWardIoOperations.getWardMovements(foundMovement.getWard().getCode(), fromDate, toDate);
+		List<MovementWard> streamedMovements;
+		try (Stream<MovementWard> stream = medicalStockWardIoOperations.getWardMovementStream(foundMovement.getWard().getCode(), fromDate, toDate,
+						2)) {
+			streamedMovements = stream.toList();
+		}
+
+		assertThat(movements).hasSize(5);
+		assertThat(streamedMovements).extracting(MovementWard::getCode)
+						.containsExactlyInAnyOrderElementsOf(movements.stream().map(MovementWard::getCode).toList())
+						.doesNotHaveDuplicates();
+		assertThat(streamedMovements).extracting(MovementWard::getDate).isSorted();
+		assertThat(streamedMovements.get(0).getMedical().getDescription()).isEqualTo(foundMovement.getMedical().getDescription());
+	}
+
 	@Test
 	void testIoGetCurrentQuantityInWard() throws Exception {
 		MedicalType medicalType = testMedicalType.setup(false);
@@ -350,6 +381,8 @@ class Tests extends OHCoreTestCase {
 		Double quantity = (double) medicalStockWardIoOperations.getCurrentQuantityInWard(wardTo, medical);
 		checkMovementWardIntoDb(movementWard.getCode());
 		assertThat(movementWard.getQuantity()).isEqualTo(quantity);
+		// the transfer out of a ward without the lot does not leave a negative quantity there
+		assertThat(medicalStockWardIoOperationRepository.findOneWhereCodeAndMedicalAndLot(ward.getCode(), medical.getCode(), lot.getCode())).isNull();
 	}
 
 	@Test
@@ -378,6 +411,41 @@ class Tests extends OHCoreTestCase {
 		medicalStockWardIoOperations.newMovementWard(movementWards);
 	}
 
+	@Test
+	void testIoNewMovementWardArrayListSumsQuantities() throws Exception {
+		MedicalType medicalType = testMedicalType.setup(false);
+		Medical medical = testMedical.setup(medicalType, false);
+		Ward ward = testWard.setup(false);
+		Patient patient = testPatient.setup(false);
+		Lot lot = testLot.setup(medical, false);
+
+		Ward wardTo = testWard.setup(false);
+		wardTo.setCode("X");
+
+		medicalTypeIoOperationRepository.saveAndFlush(medicalType);
+		medicalsIoOperationRepository.saveAndFlush(medical);
+		wardIoOperationRepository.saveAndFlush(ward);
+		wardIoOperationRepository.saveAndFlush(wardTo);
+		patientIoOperationRepository.saveAndFlush(patient);
+		lotIoOperationRepository.saveAndFlush(lot);
+		medicalStockWardIoOperationRepository.saveAndFlush(new MedicalWard(ward, medical, 200.0f, 0.0f, lot));
+
+		List<MovementWard> movementWards = new ArrayList<>();
+		// two consumptions of 46 and a transfer of 46 to the ward X
+		movementWards.add(testMovementWard.setup(ward, patient, medical, null, null, lot, false));
+		movementWards.add(testMovementWard.setup(ward, patient, medical, null, null, lot, false));
+		movementWards.add(testMovementWard.setup(ward, patient, medical, wardTo, null, lot, false));
+
+		medicalStockWardIoOperations.newMovementWard(movementWards);
+
+		// the transfer also stores the income movement of the ward X
+		assertThat(movementWardIoOperationRepository.count()).isEqualTo(4);
+		MedicalWard medicalWard = medicalStockWardIoOperationRepository.findOneWhereCodeAndMedicalAndLot(ward.getCode(), medical.getCode(), lot.getCode());
+		assertThat(medicalWard.getIn_quantity()).isCloseTo(200.0f, offset(0.1f));
+		assertThat(medicalWard.getOut_quantity()).isCloseTo(138.0f, offset(0.1f));
+		assertThat(medicalStockWardIoOperations.getCurrentQuantityInWard(wardTo, medical)).isEqualTo(46);
+	}
+
 	@Test
 	void testIoUpdateMovementWard() throws Exception {
 		int code = setupTestMovementWard(false);
@@ -470,6 +538,78 @@ class Tests extends OHCoreTestCase {
 		assertThat(medicalWards.get(0).getWard().getCode()).isEqualTo("X");
 	}
 
+	@Test
+	void testIoGetMedicalsWardTotalQuantitySummarizesLots() throws Exception {
+		MedicalType medicalType = testMedicalType.setup(false);
+		Medical medical = testMedical.setup(medicalType, false);
+		Medical emptyMedical = testMedical.setup(medicalType, false);
+		emptyMedical.setProdCode("TP2");
+		emptyMedical.setDescription("TestDescription2");
+		Ward ward = testWard.setup(false);
+		Patient patient = testPatient.setup(false);
+		Lot lot = testLot.setup(medical, false);
+		Lot lot2 = testLot.setup(medical, false);
+		lot2.setCode("654321");
+		Lot emptyLot = testLot.setup(emptyMedical, false);
+		emptyLot.setCode("000001");
+
+		medicalTypeIoOperationRepository.saveAndFlush(medicalType);
+		medicalsIoOperationRepository.saveAndFlush(medical);
+		medicalsIoOperationRepository.saveAndFlush(emptyMedical);
+		wardIoOperationRepository.saveAndFlush(ward);
+		patientIoOperationRepository.saveAndFlush(patient);
+		lotIoOperationRepository.saveAndFlush(lot);
+		lotIoOperationRepository.saveAndFlush(lot2);
+		lotIoOperationRepository.saveAndFlush(emptyLot);
+		medicalStockWardIoOperationRepository.saveAndFlush(new MedicalWard(ward, medical, 100.0f, 4.0f, lot));
+		medicalStockWardIoOperationRepository.saveAndFlush(new MedicalWard(ward, medical, 5.0f, 0.0f, lot2));
+		medicalStockWardIoOperationRepository.saveAndFlush(new MedicalWard(ward, emptyMedical, 3.0f, 3.0f, emptyLot));
+
+		List<MedicalWard> medicalWards = medicalStockWardIoOperations.getMedicalsWardTotalQuantity(ward.getCode().charAt(0));
+		assertThat(medicalWards).hasSize(1);
+		assertThat(medicalWards.get(0).getMedical().getCode()).isEqualTo(medical.getCode());
+		assertThat(medicalWards.get(0).getWard().getCode()).isEqualTo(ward.getCode());
+		assertThat(medicalWards.get(0).getQty()).isCloseTo(101.0, offset(0.1));
+
+		// the snapshot is refreshed once the stock of the ward changes
+		MovementWard movementWard = testMovementWard.setup(ward, patient, medical, null, null, lot, false);
+		medicalStockWardIoOperations.newMovementWard(movementWard);
+
+		medicalWards = medicalStockWardIoOperations.getMedicalsWardTotalQuantity(ward.getCode().charAt(0));
+		assertThat(medicalWards).hasSize(1);
+		assertThat(medicalWards.get(0).getQty()).isCloseTo(55.0, offset(0.1));
+	}
+
+	@Test
+	void testIoGetMedicalsWardTotalQuantityAfterMedicalWardSaved() throws Exception {
+		MedicalType medicalType = testMedicalType.setup(false);
+		Medical medical = testMedical.setup(medicalType, false);
+		Ward ward = testWard.setup(false);
+		Lot lot = testLot.setup(medical, false);
+		Lot lot2 = testLot.setup(medical, false);
+		lot2.setCode("654321");
+
+		medicalTypeIoOperationRepository.saveAndFlush(medicalType);
+		medicalsIoOperationRepository.saveAndFlush(medical);
+		wardIoOperationRepository.saveAndFlush(ward);
+		lotIoOperationRepository.saveAndFlush(lot);
+		lotIoOperationRepository.saveAndFlush(lot2);
+		medicalStockWardIoOperationRepository.saveAndFlush(new MedicalWard(ward, medical, 100.0f, 0.0f, lot));
+
+		List<MedicalWard> medicalWards = medicalStockWardIoOperations.getMedicalsWardTotalQuantity(ward.getCode().charAt(0));
+		assertThat(medicalWards).hasSize(1);
+		assertThat(medicalWards.get(0).getQty()).isCloseTo(100.0, offset(0.1));
+		medicalWards.get(0).setQty(1.0);
+
+		// the MedicalWards saved through the repository drop the snapshot too
+		medicalStockWardIoOperationRepository.saveAndFlush(new MedicalWard(ward, medical, 5.0f, 0.0f, lot2));
+
+		List<MedicalWard> updatedMedicalWards = medicalStockWardIoOperations.getMedicalsWardTotalQuantity(ward.getCode().charAt(0));
+		assertThat(updatedMedicalWards).hasSize(1);
+		assertThat(updatedMedicalWards.get(0)).isNotSameAs(medicalWards.get(0));
+		assertThat(updatedMedicalWards.get(0).getQty()).isCloseTo(105.0, offset(0.1));
+	}
+
 	@Test
 	void testIoListenerShouldUpdatePatientToMergedWhenPatientMergedEventArrive() throws Exception {
 		// given:
@@ -49,6 +49,7 @@ import org.isf.patient.service.PatientIoOperationRepository;
 import org.isf.utils.exception.OHDataValidationException;
 import org.isf.utils.exception.OHException;
 import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.pagination.PagedResponse;
 import org.isf.utils.time.TimeTools;
 import org.isf.visits.TestVisit;
 import org.isf.visits.model.Visit;
@@ -303,6 +304,43 @@ class Tests extends OHCoreTestCase {
 		assertThat(opds.get(opds.size() - 1).getCode()).isEqualTo(opd.getCode());
 	}
 
+	@ParameterizedTest(name = "Test with OPDEXTENDED={0}")
+	@MethodSource("opdExtended")
+	void testIoGetOpdListPageable(boolean opdExtended) throws Exception {
+		GeneralData.OPDEXTENDED = opdExtended;
+		Patient patient = testPatient.setup(false);
+		DiseaseType diseaseType = testDiseaseType.setup(false);
+		Disease disease = testDisease.setup(diseaseType, false);
+		disease.setCode("199");
+		Ward ward = testWard.setup(false);
+		patient = patientIoOperationRepository.saveAndFlush(patient);
+		diseaseTypeIoOperationRepository.saveAndFlush(diseaseType);
+		disease = diseaseIoOperationRepository.saveAndFlush(disease);
+		ward = wardIoOperationRepository.saveAndFlush(ward);
+		Visit nextVisit = visitsIoOperationRepository.saveAndFlush(testVisit.setup(patient, false, ward));
+
+		LocalDate today = LocalDate.now();
+		int[] codes = new int[3];
+		for (int i = 0; i < codes.length; i++) {
+			Opd opd = testOpd.setup(patient, disease, ward, nextVisit, false);
+			opd.setDate(today.minusDays(i).atStartOfDay());
+			codes[i] = opdIoOperationRepository.saveAndFlush(opd).getCode();
+		}
+
+		PagedResponse<Opd> firstPage = opdIoOperation.getOpdListPageable(ward, diseaseType.getCode(), disease.getCode(), today.minusDays(2), today, 0, 0, 'A',
+						'A', null, 0, 2);
+		assertThat(firstPage.getData()).extracting(Opd::getCode).containsExactly(codes[0], codes[1]);
+		assertThat(firstPage.getPageInfo().getTotalNbOfElements()).isEqualTo(3);
+		assertThat(firstPage.getPageInfo().getTotalPages()).isEqualTo(2);
+		assertThat(firstPage.getPageInfo().isHasNextPage()).isTrue();
+
+		PagedResponse<Opd> secondPage = opdIoOperation.getOpdListPageable(ward, diseaseType.getCode(), disease.getCode(), today.minusDays(2), today, 0, 0,
+						'A', 'A', null, 1, 2);
+		assertThat(secondPage.getData()).extracting(Opd::getCode).containsExactly(codes[2]);
+		assertThat(secondPage.getPageInfo().getTotalNbOfElements()).isEqualTo(3);
+		assertThat(secondPage.getPageInfo().isHasNextPage()).isFalse();
+	}
+
 	@ParameterizedTest(name = "Test with OPDEXTENDED={0}")
 	@MethodSource("opdExtended")
 	void testIoNewOpd(boolean opdExtended) throws Exception {
@@ -377,6 +415,49 @@ class Tests extends OHCoreTestCase {
 		assertThat(progYear).isEqualTo(opd.getProgYear());
 	}
 
+	@ParameterizedTest(name = "Test with OPDEXTENDED={0}")
+	@MethodSource("opdExtended")
+	void testIoGetProgYearFollowsSavedOpds(boolean opdExtended) throws Exception {
+		GeneralData.OPDEXTENDED = opdExtended;
+		int code = setupTestOpd(false);
+		Opd opd = opdIoOperationRepository.findById(code).orElse(null);
+		assertThat(opd).isNotNull();
+		int year = opd.getDate().getYear();
+		int progYear = opdIoOperation.getProgYear(year);
+		assertThat(progYear).isEqualTo(opd.getProgYear());
+
+		Opd nextOpd = testOpd.setup(opd.getPatient(), opd.getDisease(), opd.getWard(), opd.getNextVisit(), false);
+		nextOpd.setProgYear(progYear + 1);
+		opdIoOperation.newOpd(nextOpd);
+		assertThat(opdIoOperation.getProgYear(year)).isEqualTo(progYear + 1);
+		assertThat(opdIoOperation.getProgYear(0)).isEqualTo(progYear + 1);
+
+		// a lower number entered by hand does not move the counter back
+		opd.setProgYear(1);
+		opdIoOperation.updateOpd(opd);
+		assertThat(opdIoOperation.getProgYear(year)).isEqualTo(progYear + 1);
+	}
+
+	@ParameterizedTest(name = "Test with OPDEXTENDED={0}")
+	@MethodSource("opdExtended")
+	void testIoNewOpdAssignsNextProgYearWhenTaken(boolean opdExtended) throws Exception {
+		GeneralData.OPDEXTENDED = opdExtended;
+		int code = setupTestOpd(false);
+		Opd opd = opdIoOperationRepository.findById(code).orElse(null);
+		assertThat(opd).isNotNull();
+		int year = opd.getDate().getYear();
+		int nextProgYear = opdIoOperation.getProgYear(year) + 1;
+
+		Opd firstOpd = testOpd.setup(opd.getPatient(), opd.getDisease(), opd.getWard(), opd.getNextVisit(), false);
+		firstOpd.setProgYear(nextProgYear);
+		Opd secondOpd = testOpd.setup(opd.getPatient(), opd.getDisease(), opd.getWard(), opd.getNextVisit(), false);
+		secondOpd.setProgYear(nextProgYear);
+
+		assertThat(opdIoOperation.newOpd(firstOpd).getProgYear()).isEqualTo(nextProgYear);
+		assertThat(opdIoOperation.newOpd(secondOpd).getProgYear()).isEqualTo(nextProgYear + 1);
+		assertThat(opdIoOperation.getProgYear(year)).isEqualTo(nextProgYear + 1);
+	}
+
 	@ParameterizedTest(name = "Test with OPDEXTENDED={0}")
 	@MethodSource("opdExtended")
 	void testIoIsExistsOpdNumShouldReturnTrueWhenOpdWithGivenOPDProgressiveYearAndVisitYearExists(boolean opdExtended) throws Exception {
@@ -23,8 +23,11 @@ package org.isf.patient;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
-import java.lang.reflect.Method;
-import java.sql.Blob;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import javax.imageio.ImageIO;
 
 import org.isf.OHCoreTestCase;
 import org.isf.patient.model.Patient;
@@ -73,18 +76,32 @@ class TestFileSystemPatientPhotoRepository extends OHCoreTestCase {
 
 	@Test
 	void testSaveAndDelete() throws Exception {
-		Blob blob = getBlob();
-		fileSystemPatientPhotoRepository.save("rsc-test/patient", 2, blob.getBytes(1, (int)blob.length()));
+		byte[] photo = fileSystemPatientPhotoRepository.load("rsc-test/patient", 1);
+		fileSystemPatientPhotoRepository.save("rsc-test/patient", 2, photo);
+		assertThat(fileSystemPatientPhotoRepository.load("rsc-test/patient", 2)).isEqualTo(photo);
 		fileSystemPatientPhotoRepository.delete("rsc-test/patient", 2);
+		assertThat(fileSystemPatientPhotoRepository.exist("rsc-test/patient", 2)).isFalse();
+		assertThat(fileSystemPatientPhotoRepository.getThumbnailFile("rsc-test/patient", 2)).isNull();
 	}
 
-	private Blob getBlob() throws Exception {
-		Method method = fileSystemPatientPhotoRepository.getClass().getDeclaredMethod("load", Integer.class, String.class);
-		method.setAccessible(true);
-		Blob blob = (Blob)method.invoke(fileSystemPatientPhotoRepository, 1, "rsc-test/patient");
-		return blob;
-	}
+	@Test
+	void testSaveWritesThumbnail() throws Exception {
+		byte[] photo = fileSystemPatientPhotoRepository.load("rsc-test/patient", 1);
+		fileSystemPatientPhotoRepository.save("rsc-test/patient", 2, photo);
+		try {
+			File thumbnailFile = fileSystemPatientPhotoRepository.getThumbnailFile("rsc-test/patient", 2);
+			assertThat(thumbnailFile).exists();
+			BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(fileSystemPatientPhotoRepository.loadThumbnail("rsc-test/patient", 2)));
+			assertThat(Math.max(thumbnail.getWidth(), thumbnail.getHeight())).isLessThanOrEqualTo(FileSystemPatientPhotoRepository.THUMBNAIL_SIZE);
 
+			// a new photo replaces the cached one and its thumbnail
+			fileSystemPatientPhotoRepository.save("rsc-test/patient", 2, new byte[] { 1, 2, 3 });
+			assertThat(fileSystemPatientPhotoRepository.load("rsc-test/patient", 2)).containsExactly(1, 2, 3);
+			assertThat(fileSystemPatientPhotoRepository.loadThumbnail("rsc-test/patient", 2)).isNull();
+		} finally {
+			fileSystemPatientPhotoRepository.delete("rsc-test/patient", 2);
+		}
+	}
 
 	private Integer setupTestPatient(boolean usingSet) throws OHException {
 		Patient patient = testPatient.setup(usingSet);
@@ -25,6 +25,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.assertj.core.api.Condition;
 import org.isf.OHCoreTestCase;
@@ -49,6 +51,9 @@ import org.isf.examination.model.PatientExamination;
 import org.isf.examination.service.ExaminationIoOperationRepository;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientMerge;
+import org.isf.patient.model.PatientMergeJob;
+import org.isf.patient.model.PatientMergedEvent;
 import org.isf.patient.service.PatientIoOperationRepository;
 import org.isf.patient.service.PatientIoOperations;
 import org.isf.priceslist.TestPriceList;
@@ -62,10 +67,15 @@ import org.isf.visits.service.VisitsIoOperationRepository;
 import org.isf.ward.TestWard;
 import org.isf.ward.model.Ward;
 import org.isf.ward.service.WardIoOperationRepository;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 class TestMergePatient extends OHCoreTestCase {
 
@@ -106,6 +116,8 @@ class TestMergePatient extends OHCoreTestCase {
 	AdmissionIoOperationRepository admissionIoOperationRepository;
 	@Autowired
 	WardIoOperationRepository wardIoOperationRepository;
+	@Autowired
+	PlatformTransactionManager transactionManager;
 
 	@BeforeAll
 	static void setUpClass() {
@@ -124,10 +136,16 @@ class TestMergePatient extends OHCoreTestCase {
 
 	@BeforeEach
 	void setUp() {
-		cleanH2InMemoryDb();
+		// joins the test transaction, if any: some tests run without one to commit their data
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> cleanH2InMemoryDb());
 		testPatientMergedEventListener.setShouldFail(false);
 	}
 
+	@AfterEach
+	void tearDown() {
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> cleanH2InMemoryDb());
+	}
+
 	@Test
 	void testMergePatientHistory() throws Exception {
 		// given:
@@ -147,6 +165,90 @@ class TestMergePatient extends OHCoreTestCase {
 	}
 
 	@Test
+	void testMergePatientHistoryReportsMergedRows() throws Exception {
+		// given:
+		Patient mergedPatient = patientIoOperationRepository.saveAndFlush(testPatient.setup(false));
+		Patient obsoletePatient = patientIoOperationRepository.saveAndFlush(testPatient.setup(false));
+		Visit visit = setupVisitAndAssignPatient(obsoletePatient);
+		PatientExamination patientExamination = setupPatientExaminationAndAssignPatient(obsoletePatient);
+		PatientMergeJob job = new PatientMergeJob(mergedPatient.getCode(), obsoletePatient.getCode());
+
+		// when:
+		patientIoOperation.mergePatientHistory(mergedPatient, obsoletePatient, job);
+
+		// then:
+		assertThat(job.getStatus()).isEqualTo(PatientMergeJob.Status.RUNNING);
+		assertThat(job.getMergedRows())
+			.containsEntry("OH_VISITS", 1)
+			.containsEntry("OH_PATIENTEXAMINATION", 1)
+			.containsEntry("OH_ADMISSION", 0)
+			.containsEntry("OH_LABORATORY", 0);
+		assertThatVisitWasMovedFromObsoleteToMergedPatient(visit, mergedPatient);
+		assertThatExaminationWasMovedFromObsoleteToMergedPatient(patientExamination, mergedPatient);
+	}
+
+	@Test
+	void testMergePatientHistoryIsAudited() throws Exception {
+		// given:
+		Patient mergedPatient = patientIoOperationRepository.saveAndFlush(testPatient.setup(false));
+		Patient obsoletePatient = patientIoOperationRepository.saveAndFlush(testPatient.setup(false));
+		Visit visit = setupVisitAndAssignPatient(obsoletePatient);
+
+		// when:
+		patientIoOperation.mergePatientHistory(mergedPatient, obsoletePatient);
+
+		// then:
+		PatientMergedEvent event = testPatientMergedEventListener.getPatientMergedEvent();
+		Visit visitResult = visitsIoOperationRepository.findById(visit.getVisitID()).orElse(null);
+		assertThat(visitResult).isNotNull();
+		assertThat(visitResult.getLastModifiedDate()).isEqualTo(event.getMergedDate());
+		assertThat(visitResult.getLastModifiedBy()).isEqualTo(event.getMergedBy());
+		List<PatientMerge> merges = patientIoOperation.getPatientMerges(mergedPatient);
+		assertThat(merges).hasSize(1);
+		assertThat(merges.get(0).getObsoletePatientCode()).isEqualTo(obsoletePatient.getCode());
+		assertThat(merges.get(0).getMergedDate()).isEqualTo(event.getMergedDate());
+		assertThat(merges.get(0).getMergedRows()).contains("OH_VISITS=1").contains("OH_PATIENTEXAMINATION=0");
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testMgrMergePatientInBackground() throws Exception {
+		// given:
+		Patient mergedPatient = patientIoOperationRepository.saveAndFlush(testPatient.setup(false));
+		Patient obsoletePatient = patientIoOperationRepository.saveAndFlush(testPatient.setup(false));
+		Visit visit = setupVisitAndAssignPatient(obsoletePatient);
+		PatientExamination patientExamination = setupPatientExaminationAndAssignPatient(obsoletePatient);
+
+		// when:
+		PatientMergeJob job = patientBrowserManager.mergePatientInBackground(mergedPatient, obsoletePatient);
+
+		// then:
+		assertThat(job.await(30, TimeUnit.SECONDS)).isTrue();
+		assertThat(job.getStatus()).isEqualTo(PatientMergeJob.Status.COMPLETED);
+		assertThat(job.getMergedRows()).containsEntry("OH_VISITS", 1).containsEntry("OH_PATIENTEXAMINATION", 1);
+		assertThat(patientBrowserManager.getMergeJob(job.getId())).isSameAs(job);
+		assertThatObsoletePatientWasDeletedAndMergedIsTheActiveOne(mergedPatient, obsoletePatient);
+		assertThatVisitWasMovedFromObsoleteToMergedPatient(visit, mergedPatient);
+		assertThatExaminationWasMovedFromObsoleteToMergedPatient(patientExamination, mergedPatient);
+		assertThat(patientBrowserManager.getPatientMerges(mergedPatient)).hasSize(1);
+	}
+
+	@Test
+	void testMgrMergePatientInBackgroundValidatesBeforeQueueing() throws Exception {
+		Patient patient1 = testPatient.setup(false);
+		patient1.setSex('F');
+		Patient mergedPatient = patientIoOperationRepository.saveAndFlush(patient1);
+		Patient patient2 = testPatient.setup(false);
+		patient2.setSex('M');
+		Patient obsoletePatient = patientIoOperationRepository.saveAndFlush(patient2);
+
+		assertThatThrownBy(() -> patientBrowserManager.mergePatientInBackground(mergedPatient, obsoletePatient))
+			.isInstanceOf(OHServiceException.class);
+		assertThatObsoletePatientWasNotDeletedAndIsTheActiveOne(obsoletePatient);
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
 	void testWholeMergeOperationShouldBeRolledBackWhenOneOfUpdateOperationsFails() throws OHException {
 		// given:
 		Patient mergedPatient = patientIoOperationRepository.saveAndFlush(testPatient.setup(false));
@@ -277,6 +379,7 @@ class TestMergePatient extends OHCoreTestCase {
 	}
 
 	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
 	void testMgrWholeMergeOperationShouldBeRolledBackWhenOneOfUpdateOperationsFails() throws OHException {
 		// given:
 		Patient mergedPatient = patientIoOperationRepository.saveAndFlush(testPatient.setup(false));
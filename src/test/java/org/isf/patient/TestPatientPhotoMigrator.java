@@ -0,0 +1,188 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.isf.OHCoreTestCase;
+import org.isf.generaldata.GeneralData;
+import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientPhotoMigration;
+import org.isf.patient.model.PatientPhotoMigration.Direction;
+import org.isf.patient.model.PatientPhotoMigration.Status;
+import org.isf.patient.model.PatientProfilePhoto;
+import org.isf.patient.service.FileSystemPatientPhotoRepository;
+import org.isf.patient.service.PatientIoOperationRepository;
+import org.isf.patient.service.PatientIoOperations;
+import org.isf.patient.service.PatientPhotoMigrator;
+import org.isf.patient.service.PatientPhotoStorageIoOperationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The migration runs in its own thread and transactions, so the test data is committed and removed after each test.
+ */
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class TestPatientPhotoMigrator extends OHCoreTestCase {
+
+	private static final byte[] PHOTO = "not really a photo".getBytes();
+
+	private static TestPatient testPatient;
+
+	@Autowired
+	PatientPhotoMigrator patientPhotoMigrator;
+	@Autowired
+	PatientIoOperationRepository patientIoOperationRepository;
+	@Autowired
+	PatientIoOperations patientIoOperation;
+	@Autowired
+	PatientPhotoStorageIoOperationRepository patientPhotoStorageIoOperationRepository;
+	@Autowired
+	FileSystemPatientPhotoRepository fileSystemPatientPhotoRepository;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@TempDir
+	Path photoFolder;
+
+	private String photoStorage;
+
+	@BeforeAll
+	static void setUpClass() {
+		testPatient = new TestPatient();
+	}
+
+	@BeforeEach
+	void setUp() {
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> cleanH2InMemoryDb());
+		photoStorage = GeneralData.PATIENTPHOTOSTORAGE;
+		GeneralData.PATIENTPHOTOSTORAGE = PatientIoOperations.LOAD_FROM_DB;
+	}
+
+	@AfterEach
+	void tearDown() {
+		GeneralData.PATIENTPHOTOSTORAGE = photoStorage;
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> cleanH2InMemoryDb());
+	}
+
+	@Test
+	void testMoveToFileSystemAndBack() throws Exception {
+		Patient patient = testPatient.setup(false);
+		PatientProfilePhoto profilePhoto = new PatientProfilePhoto();
+		profilePhoto.setPhoto(PHOTO);
+		patient.setPatientProfilePhoto(profilePhoto);
+		Patient saved = patientIoOperationRepository.save(patient);
+		Integer code = saved.getCode();
+		String folder = photoFolder.toString();
+
+		PatientPhotoMigration toFileSystem = awaitEnd(patientPhotoMigrator.start(Direction.TO_FILE_SYSTEM, folder, 0));
+		assertThat(toFileSystem.getStatus()).isEqualTo(Status.COMPLETED);
+		assertThat(toFileSystem.getTotalPhotos()).isEqualTo(1);
+		assertThat(toFileSystem.getMovedPhotos()).isEqualTo(1);
+		assertThat(toFileSystem.getBytesMoved()).isEqualTo(PHOTO.length);
+		assertThat(toFileSystem.getProgress()).isEqualTo(100);
+		assertThat(patientPhotoMigrator.getStorage()).isEqualTo(folder);
+		assertThat(patientPhotoMigrator.getFallbackStorage()).isNull();
+		assertThat(patientIoOperationRepository.findProfilePhoto(code)).isNull();
+		assertThat(fileSystemPatientPhotoRepository.load(folder, code)).isEqualTo(PHOTO);
+		// the patient is not changed by the move
+		assertThat(patientIoOperationRepository.findById(code).orElseThrow().getLock()).isEqualTo(saved.getLock());
+
+		PatientPhotoMigration toDatabase = awaitEnd(patientPhotoMigrator.start(Direction.TO_DATABASE, folder, 0));
+		assertThat(toDatabase.getStatus()).isEqualTo(Status.COMPLETED);
+		assertThat(toDatabase.getMovedPhotos()).isEqualTo(1);
+		assertThat(patientPhotoMigrator.getStorage()).isEqualTo(PatientIoOperations.LOAD_FROM_DB);
+		assertThat(patientIoOperationRepository.findProfilePhoto(code)).isEqualTo(PHOTO);
+		assertThat(patientIoOperationRepository.findById(code).orElseThrow().getLock()).isEqualTo(saved.getLock());
+		assertThat(fileSystemPatientPhotoRepository.exist(folder, code)).isFalse();
+	}
+
+	@Test
+	void testPhotosNotMovedYetAreReadFromTheOtherStorage() throws Exception {
+		Integer firstCode = patientIoOperationRepository.save(testPatient.setup(false)).getCode();
+		Integer secondCode = patientIoOperationRepository.save(testPatient.setup(false)).getCode();
+		String folder = photoFolder.toString();
+		fileSystemPatientPhotoRepository.save(folder, firstCode, PHOTO);
+		fileSystemPatientPhotoRepository.save(folder, secondCode, PHOTO);
+
+		// the throttling holds the second photo in the folder for a long time
+		PatientPhotoMigration migration = patientPhotoMigrator.start(Direction.TO_DATABASE, folder, 1);
+		patientPhotoMigrator.cancel();
+		awaitEnd(migration);
+
+		assertThat(migration.getStatus()).isEqualTo(Status.CANCELLED);
+		assertThat(migration.getMovedPhotos()).isLessThan(2);
+		assertThat(fileSystemPatientPhotoRepository.exist(folder, secondCode)).isTrue();
+		assertThat(patientPhotoMigrator.getFallbackStorage()).isEqualTo(folder);
+		Patient patient = patientIoOperation.getPatient(secondCode);
+		assertThat(patientIoOperation.retrievePatientProfilePhoto(patient).getPhoto()).isEqualTo(PHOTO);
+		assertThat(patientIoOperation.retrievePatientProfilePhotoThumbnail(patient)).isNull();
+	}
+
+	@Test
+	void testPendingMigrationSurvivesRestart() throws Exception {
+		Integer firstCode = patientIoOperationRepository.save(testPatient.setup(false)).getCode();
+		Integer secondCode = patientIoOperationRepository.save(testPatient.setup(false)).getCode();
+		String folder = photoFolder.toString();
+		fileSystemPatientPhotoRepository.save(folder, firstCode, PHOTO);
+		fileSystemPatientPhotoRepository.save(folder, secondCode, PHOTO);
+		PatientPhotoMigration migration = patientPhotoMigrator.start(Direction.TO_DATABASE, folder, 1);
+		patientPhotoMigrator.cancel();
+		awaitEnd(migration);
+
+		// a new instance knows nothing of the migration run by the previous one
+		PatientPhotoMigrator restarted = new PatientPhotoMigrator(patientIoOperationRepository, patientPhotoStorageIoOperationRepository,
+						fileSystemPatientPhotoRepository, transactionManager);
+		try {
+			assertThat(restarted.getMigration()).isNull();
+			assertThat(restarted.getStorage()).isEqualTo(PatientIoOperations.LOAD_FROM_DB);
+			assertThat(restarted.getFallbackStorage()).isEqualTo(folder);
+			assertThat(restarted.loadFallbackPhoto(secondCode)).isEqualTo(PHOTO);
+
+			PatientPhotoMigration resumed = awaitEnd(restarted.start(Direction.TO_DATABASE, folder, 0));
+			assertThat(resumed.getStatus()).isEqualTo(Status.COMPLETED);
+			assertThat(resumed.getTotalPhotos()).isEqualTo(2 - migration.getMovedPhotos());
+			assertThat(restarted.getFallbackStorage()).isNull();
+			assertThat(patientIoOperationRepository.findProfilePhoto(firstCode)).isEqualTo(PHOTO);
+			assertThat(patientIoOperationRepository.findProfilePhoto(secondCode)).isEqualTo(PHOTO);
+		} finally {
+			restarted.destroy();
+		}
+	}
+
+	private static PatientPhotoMigration awaitEnd(PatientPhotoMigration migration) throws InterruptedException {
+		assertThat(migration.await(30, TimeUnit.SECONDS)).isTrue();
+		return migration;
+	}
+
+}
@@ -33,6 +33,7 @@ import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import org.assertj.core.api.Condition;
 import org.isf.OHCoreTestCase;
@@ -42,8 +43,13 @@ import org.isf.opd.model.Opd;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
 import org.isf.patient.model.PatientProfilePhoto;
+import org.isf.patient.model.PatientSearchIndexStatus;
+import org.isf.patient.model.PatientSummary;
 import org.isf.patient.service.PatientIoOperationRepository;
 import org.isf.patient.service.PatientIoOperations;
+import org.isf.patient.service.PatientSearchIndex;
+import org.isf.patient.service.PatientSearchIndexBuilder;
+import org.isf.patient.service.PatientSearchIndexStatusIoOperationRepository;
 import org.isf.utils.exception.OHException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.pagination.PagedResponse;
@@ -66,6 +72,12 @@ class Tests extends OHCoreTestCase {
 	PatientIoOperationRepository patientIoOperationRepository;
 	@Autowired
 	PatientBrowserManager patientBrowserManager;
+	@Autowired
+	PatientSearchIndex patientSearchIndex;
+	@Autowired
+	PatientSearchIndexBuilder patientSearchIndexBuilder;
+	@Autowired
+	PatientSearchIndexStatusIoOperationRepository patientSearchIndexStatusIoOperationRepository;
 
 	@BeforeAll
 	static void setUpClass() {
@@ -75,8 +87,10 @@ class Tests extends OHCoreTestCase {
 	}
 
 	@BeforeEach
-	void setUp() {
+	void setUp() throws Exception {
 		cleanH2InMemoryDb();
+		// the empty index is built: the patients saved by PatientIoOperations are searched through it
+		patientIoOperation.rebuildPatientSearchIndex();
 	}
 
 	@Test
@@ -111,7 +125,7 @@ class Tests extends OHCoreTestCase {
 
 	@Test
 	void testIoGetPatientsByOneOfFieldsLike() throws Exception {
-		setupTestPatient(false);
+		setupIndexedTestPatient();
 		// Pay attention that query return with PAT_ID descendant
 		List<Patient> patients = patientIoOperation.getPatientsByOneOfFieldsLike(null);
 		testPatient.check(patients.get(0));
@@ -120,7 +134,7 @@ class Tests extends OHCoreTestCase {
 	@Test
 	void testIoGetPatientsByOneOfFieldsLikeFirstName() throws Exception {
 		// given:
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 
 		// when:
@@ -133,7 +147,7 @@ class Tests extends OHCoreTestCase {
 	@Test
 	void testIoGetPatientsByOneOfFieldsLikeMiddleOfFirstName() throws Exception {
 		// given:
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 
 		// when:
@@ -147,7 +161,7 @@ class Tests extends OHCoreTestCase {
 	@Test
 	void testIoGetPatientsByOneOfFieldsLikeSecondName() throws Exception {
 		// given:
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 
 		// when:
@@ -160,7 +174,7 @@ class Tests extends OHCoreTestCase {
 	@Test
 	void testIoGetPatientsByOneOfFieldsLikeNote() throws Exception {
 		// given:
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 
 		// when:
@@ -173,7 +187,7 @@ class Tests extends OHCoreTestCase {
 	@Test
 	void testIoGetPatientsByOneOfFieldsLikeTaxCode() throws Exception {
 		// given:
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 
 		// when:
@@ -185,11 +199,99 @@ class Tests extends OHCoreTestCase {
 
 	@Test
 	void testIoGetPatientsByOneOfFieldsLikeNotExistingStringShouldNotFindAnything() throws Exception {
-		setupTestPatient(false);
+		setupIndexedTestPatient();
 		List<Patient> patients = patientIoOperation.getPatientsByOneOfFieldsLike("dupa");
 		assertThat(patients).isEmpty();
 	}
 
+	@Test
+	void testIoGetPatientsByOneOfFieldsLikeRanksAndPagesResults() throws Exception {
+		Patient rose = setupTestPatient("Mario", "Rossi", "Roma");
+		Patient mario = setupTestPatient("Mario", "Bianchi", "Milano");
+		Patient mariella = setupTestPatient("Mariella", "Verdi", "Torino");
+		Patient luca = setupTestPatient("Luca", "Neri", "Napoli");
+		Patient amari = setupTestPatient("Luigi", "Amari", "Bari");
+
+		// all the words must be found, in any field
+		List<Patient> patients = patientIoOperation.getPatientsByOneOfFieldsLike("MARIO ross");
+		assertThat(patients).extracting(Patient::getCode).containsExactly(rose.getCode());
+
+		// words starting with the searched one first, then words containing it, each group by code descending
+		patients = patientIoOperation.getPatientsByOneOfFieldsLike("mari");
+		assertThat(patients).extracting(Patient::getCode).containsExactly(mariella.getCode(), mario.getCode(), rose.getCode(), amari.getCode());
+
+		patients = patientIoOperation.getPatientsByOneOfFieldsLike("mari", PageRequest.of(1, 2));
+		assertThat(patients).extracting(Patient::getCode).containsExactly(rose.getCode(), amari.getCode());
+
+		// without words, by code descending
+		patients = patientIoOperation.getPatientsByOneOfFieldsLike(null, PageRequest.of(0, 2));
+		assertThat(patients).extracting(Patient::getCode).containsExactly(amari.getCode(), luca.getCode());
+
+		// accents are ignored
+		patients = patientIoOperation.getPatientsByOneOfFieldsLike("tórino");
+		assertThat(patients).extracting(Patient::getCode).containsExactly(mariella.getCode());
+	}
+
+	@Test
+	void testIoGetPatientsByOneOfFieldsLikeFollowsUpdatesAndDeletes() throws Exception {
+		Patient patient = setupTestPatient("Mario", "Rossi", "Roma");
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("rossi")).hasSize(1);
+
+		patient.setSecondName("Verdi");
+		patientIoOperation.updatePatient(patient);
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("rossi")).isEmpty();
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("verdi")).hasSize(1);
+
+		patientIoOperation.deletePatient(patient);
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("verdi")).isEmpty();
+
+		// patients stored without going through PatientIoOperations are found once the index is rebuilt
+		Patient indexed = setupTestPatient("Luca", "Neri", "Napoli");
+		Integer code = setupTestPatient(false);
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("testfirstname")).isEmpty();
+		patientIoOperation.rebuildPatientSearchIndex();
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("testfirstname")).extracting(Patient::getCode).containsExactly(code);
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("neri")).extracting(Patient::getCode).containsExactly(indexed.getCode());
+	}
+
+	@Test
+	void testIoGetPatientsByOneOfFieldsLikeMatchesInsideTextFields() throws Exception {
+		Patient patient = setupTestPatient("Mario", "Rossi", "Roma");
+		patient.setAddress("Via Garibaldi 12");
+		String longWord = "penicillin" + "x".repeat(PatientSearchIndex.MAX_WORD_LENGTH);
+		patient.setNote("allergic to " + longWord);
+		patientIoOperation.updatePatient(patient);
+
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("ossi garib")).extracting(Patient::getCode).containsExactly(patient.getCode());
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("penic")).extracting(Patient::getCode).containsExactly(patient.getCode());
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("aribaldi")).extracting(Patient::getCode).containsExactly(patient.getCode());
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("ergic")).extracting(Patient::getCode).containsExactly(patient.getCode());
+		// words longer than the index entries are searched without the index
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike(longWord)).extracting(Patient::getCode).containsExactly(patient.getCode());
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike(longWord + 'x', PageRequest.of(0, 10))).isEmpty();
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike(longWord, PageRequest.of(0, 10))).extracting(Patient::getCode)
+						.containsExactly(patient.getCode());
+	}
+
+	@Test
+	void testIoGetPatientsByOneOfFieldsLikeScansUntilIndexIsBuilt() throws Exception {
+		// as after the upgrade: the patients were stored before the index existed
+		patientSearchIndexStatusIoOperationRepository.save(new PatientSearchIndexStatus());
+		Integer code = setupTestPatient(false);
+		assertThat(patientSearchIndex.isBuilt()).isFalse();
+		assertThat(patientSearchIndex.isBuildPending()).isTrue();
+
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("testfirstname")).extracting(Patient::getCode).containsExactly(code);
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("testfirstname", PageRequest.of(0, 10))).extracting(Patient::getCode)
+						.containsExactly(code);
+
+		patientSearchIndexBuilder.build();
+		assertThat(patientSearchIndex.isBuilt()).isTrue();
+		assertThat(patientSearchIndex.isBuildPending()).isFalse();
+		assertThat(patientSearchIndex.search("testfirstname", 0, 10)).containsExactly(code);
+		assertThat(patientIoOperation.getPatientsByOneOfFieldsLike("testfirstname")).extracting(Patient::getCode).containsExactly(code);
+	}
+
 	@Test
 	void testIoGetPatientFromName() throws Exception {
 		Integer code = setupTestPatient(false);
@@ -224,6 +326,43 @@ class Tests extends OHCoreTestCase {
 		assertThat(patient.getName()).isEqualTo(foundPatient.getName());
 	}
 
+	@Test
+	void testIoGetPatientSummariesByKeysetPages() throws Exception {
+		Patient first = setupTestPatient("Mario", "Rossi", "Roma");
+		Patient second = setupTestPatient("Luca", "Neri", "Roma");
+		Patient third = setupTestPatient("Anna", "Bianchi", "Roma");
+		setupTestPatient("Paolo", "Verdi", "Milano");
+		Map<String, Object> params = new HashMap<>();
+		params.put("city", "ROMA");
+		params.put("sex", String.valueOf(first.getSex()));
+
+		List<PatientSummary> firstPage = patientIoOperation.getPatientSummaries(params, null, 2);
+		assertThat(firstPage).extracting(PatientSummary::getCode).containsExactly(third.getCode(), second.getCode());
+		assertThat(firstPage.get(0).getName()).isEqualTo(third.getName());
+		assertThat(firstPage.get(0).getAge()).isEqualTo(third.getAge());
+		List<PatientSummary> secondPage = patientIoOperation.getPatientSummaries(params, firstPage.get(1).getCode(), 2);
+		assertThat(secondPage).extracting(PatientSummary::getCode).containsExactly(first.getCode());
+
+		try (Stream<PatientSummary> summaries = patientIoOperation.getPatientSummaryStream(params, 2)) {
+			assertThat(summaries.map(PatientSummary::getCode)).containsExactly(third.getCode(), second.getCode(), first.getCode());
+		}
+	}
+
+	@Test
+	void testIoGetPatientSummariesByNotStringParams() throws Exception {
+		Patient first = setupTestPatient("Mario", "Rossi", "Roma");
+		setupTestPatient("Luca", "Neri", "Roma");
+		Map<String, Object> params = new HashMap<>();
+		params.put("code", first.getCode());
+		params.put("sex", first.getSex());
+		params.put("taxCode", null);
+		assertThat(patientIoOperation.getPatientSummaries(params, null, 10)).extracting(PatientSummary::getCode).containsExactly(first.getCode());
+
+		params.put("firstName", 1);
+		assertThatThrownBy(() -> patientIoOperation.getPatientSummaries(params, null, 10))
+			.hasMessageContaining("Cannot filter patients by firstName");
+	}
+
 	@Test
 	void testIoGetPatientsByParams() throws Exception {
 		setupTestPatient(false);
@@ -250,6 +389,31 @@ class Tests extends OHCoreTestCase {
 		assertThat(updatedPatient.getFirstName()).isEqualTo(patient.getFirstName());
 	}
 
+	@Test
+	void testIoSavePatientStoresProfilePhotoThumbnail() throws Exception {
+		byte[] photo = Files.readAllBytes(new File("rsc-test/patient/1.png").toPath());
+		Patient patient = testPatient.setup(false);
+		PatientProfilePhoto patientProfilePhoto = new PatientProfilePhoto();
+		patientProfilePhoto.setPhoto(photo);
+		patient.setPatientProfilePhoto(patientProfilePhoto);
+		Integer code = patientIoOperation.savePatient(patient).getCode();
+
+		byte[] thumbnail = patientIoOperationRepository.findProfilePhotoThumbnail(code);
+		assertThat(thumbnail).isNotNull().hasSizeLessThan(photo.length);
+		assertThat(patientIoOperation.retrievePatientProfilePhotoThumbnail(patientIoOperation.getPatient(code))).isEqualTo(thumbnail);
+
+		// a photo stored without thumbnail gets one on first use
+		Patient oldPatient = testPatient.setup(false);
+		PatientProfilePhoto oldProfilePhoto = new PatientProfilePhoto();
+		oldProfilePhoto.setPhoto(photo);
+		oldPatient.setPatientProfilePhoto(oldProfilePhoto);
+		Integer oldCode = patientIoOperationRepository.saveAndFlush(oldPatient).getCode();
+		assertThat(patientIoOperationRepository.findProfilePhotoThumbnail(oldCode)).isNull();
+		assertThat(patientIoOperation.retrievePatientProfilePhotoThumbnail(patientIoOperation.getPatient(oldCode))).isEqualTo(thumbnail);
+		patientIoOperationRepository.flush();
+		assertThat(patientIoOperationRepository.findProfilePhotoThumbnail(oldCode)).isEqualTo(thumbnail);
+	}
+
 	@Test
 	void testIoDeletePatient() throws Exception {
 		Integer code = setupTestPatient(false);
@@ -339,7 +503,7 @@ class Tests extends OHCoreTestCase {
 
 	@Test
 	void testMgrGetPatientsByOneOfFieldsLike() throws Exception {
-		setupTestPatient(false);
+		setupIndexedTestPatient();
 		// Pay attention that query return with PAT_ID descendant
 		List<Patient> patients = patientBrowserManager.getPatientsByOneOfFieldsLike(null);
 		testPatient.check(patients.get(0));
@@ -347,7 +511,7 @@ class Tests extends OHCoreTestCase {
 
 	@Test
 	void testMgrGetPatientsByOneOfFieldsLikeFirstName() throws Exception {
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 		List<Patient> patients = patientBrowserManager.getPatientsByOneOfFieldsLike(foundPatient.getFirstName());
 		testPatient.check(patients.get(0));
@@ -355,7 +519,7 @@ class Tests extends OHCoreTestCase {
 
 	@Test
 	void testMgrGetPatientsByOneOfFieldsLikeMiddleOfFirstName() throws Exception {
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 
 		List<Patient> patients = patientBrowserManager.getPatientsByOneOfFieldsLike(
@@ -365,7 +529,7 @@ class Tests extends OHCoreTestCase {
 
 	@Test
 	void testMgrGetPatientsByOneOfFieldsLikeSecondName() throws Exception {
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 		List<Patient> patients = patientBrowserManager.getPatientsByOneOfFieldsLike(foundPatient.getSecondName());
 		testPatient.check(patients.get(0));
@@ -373,7 +537,7 @@ class Tests extends OHCoreTestCase {
 
 	@Test
 	void testMgrGetPatientsByOneOfFieldsLikeNote() throws Exception {
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 		List<Patient> patients = patientBrowserManager.getPatientsByOneOfFieldsLike(foundPatient.getSecondName());
 		testPatient.check(patients.get(0));
@@ -381,7 +545,7 @@ class Tests extends OHCoreTestCase {
 
 	@Test
 	void testMgrGetPatientsByOneOfFieldsLikeTaxCode() throws Exception {
-		Integer code = setupTestPatient(false);
+		Integer code = setupIndexedTestPatient();
 		Patient foundPatient = patientIoOperation.getPatient(code);
 		List<Patient> patients = patientBrowserManager.getPatientsByOneOfFieldsLike(foundPatient.getTaxCode());
 		testPatient.check(patients.get(0));
@@ -389,7 +553,7 @@ class Tests extends OHCoreTestCase {
 
 	@Test
 	void testMgrGetPatientsByOneOfFieldsLikeNotExistingStringShouldNotFindAnything() throws Exception {
-		setupTestPatient(false);
+		setupIndexedTestPatient();
 		List<Patient> patients = patientBrowserManager.getPatientsByOneOfFieldsLike("dupa");
 		assertThat(patients).isEmpty();
 	}
@@ -769,6 +933,20 @@ class Tests extends OHCoreTestCase {
 		return patient.getCode();
 	}
 
+	private Integer setupIndexedTestPatient() throws OHException {
+		return patientIoOperation.savePatient(testPatient.setup(false)).getCode();
+	}
+
+	private Patient setupTestPatient(String firstName, String secondName, String city) throws OHException {
+		Patient patient = testPatient.setup(false);
+		patient.setFirstName(firstName);
+		patient.setSecondName(secondName);
+		patient.setCity(city);
+		patient.setAddress(null);
+		patient.setNote(null);
+		return patientIoOperation.savePatient(patient);
+	}
+
 	private void checkPatientIntoDb(Integer code) throws OHServiceException {
 		Patient foundPatient = patientIoOperation.getPatient(code);
 		testPatient.check(foundPatient);
@@ -0,0 +1,107 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.progressivecounter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.isf.OHCoreTestCase;
+import org.isf.progressivecounter.service.ProgressiveCounterIoOperationRepository;
+import org.isf.progressivecounter.service.ProgressiveCounterService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+class Tests extends OHCoreTestCase {
+
+	private static final String DOMAIN = "TEST";
+
+	@Autowired
+	ProgressiveCounterService progressiveCounterService;
+
+	@Autowired
+	ProgressiveCounterIoOperationRepository progressiveCounterIoOperationRepository;
+
+	@BeforeEach
+	void setUp() {
+		cleanH2InMemoryDb();
+	}
+
+	@Test
+	void testGetLastDoesNotCreateCounter() throws Exception {
+		assertThat(progressiveCounterService.getLast(DOMAIN, "A", () -> 5)).isEqualTo(5);
+		assertThat(progressiveCounterService.getLast(DOMAIN, "A", () -> 100)).isEqualTo(100);
+		assertThat(progressiveCounterService.getLast(DOMAIN, "B", () -> null)).isZero();
+		assertThat(progressiveCounterIoOperationRepository.count()).isZero();
+	}
+
+	@Test
+	void testUpdateNeverLowersCounter() throws Exception {
+		progressiveCounterService.update(DOMAIN, "A", 5, () -> null);
+
+		progressiveCounterService.update(DOMAIN, "A", 3, () -> 100);
+		assertThat(progressiveCounterService.getLast(DOMAIN, "A", () -> 100)).isEqualTo(5);
+
+		progressiveCounterService.update(DOMAIN, "A", 8, () -> 100);
+		assertThat(progressiveCounterService.getLast(DOMAIN, "A", () -> 100)).isEqualTo(8);
+	}
+
+	@Test
+	void testUpdateSeedsMissingCounter() throws Exception {
+		progressiveCounterService.update(DOMAIN, "A", 2, () -> 7);
+		assertThat(progressiveCounterService.getLast(DOMAIN, "A", () -> 100)).isEqualTo(7);
+
+		progressiveCounterService.update(DOMAIN, "B", 9, () -> null);
+		assertThat(progressiveCounterService.getLast(DOMAIN, "B", () -> 100)).isEqualTo(9);
+		assertThat(progressiveCounterService.getLast(DOMAIN, "A", () -> 100)).isEqualTo(7);
+	}
+
+	@Test
+	void testReserveAssignsNextNumberWhenTaken() throws Exception {
+		Set<Integer> used = new HashSet<>();
+		int preview = progressiveCounterService.getLast(DOMAIN, "A", () -> 5) + 1;
+
+		int first = progressiveCounterService.reserve(DOMAIN, "A", preview, () -> 5, used::contains);
+		assertThat(first).isEqualTo(6);
+		used.add(first);
+		// a second user saving the same preview gets the following number
+		assertThat(progressiveCounterService.reserve(DOMAIN, "A", preview, () -> 5, used::contains)).isEqualTo(7);
+		// a number beyond the counter is kept
+		assertThat(progressiveCounterService.reserve(DOMAIN, "A", 10, () -> 5, used::contains)).isEqualTo(10);
+		assertThat(progressiveCounterService.getLast(DOMAIN, "A", () -> 100)).isEqualTo(10);
+	}
+
+	@Test
+	void testReserveKeepsFreeNumberBelowCounter() throws Exception {
+		Set<Integer> used = new HashSet<>(List.of(1, 2, 4, 5));
+
+		assertThat(progressiveCounterService.reserve(DOMAIN, "A", 3, () -> 5, used::contains)).isEqualTo(3);
+		assertThat(progressiveCounterService.getLast(DOMAIN, "A", () -> 100)).isEqualTo(5);
+		used.add(6);
+		// the counter lags behind the records: the first free number after it is taken
+		assertThat(progressiveCounterService.reserve(DOMAIN, "A", 2, () -> 5, used::contains)).isEqualTo(7);
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.utils.db;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+class TestTransactionalSnapshotCache {
+
+	private final TransactionalSnapshotCache<String, Integer> cache = new TransactionalSnapshotCache<>(Duration.ofMinutes(1));
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@AfterEach
+	void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	private Integer load() {
+		return loads.incrementAndGet();
+	}
+
+	@Test
+	void testGetKeepsTheLoadedValue() {
+		assertThat(cache.get("A", this::load)).isEqualTo(1);
+		assertThat(cache.get("A", this::load)).isEqualTo(1);
+		assertThat(cache.get("B", this::load)).isEqualTo(2);
+	}
+
+	@Test
+	void testInvalidateDropsTheValue() {
+		cache.get("A", this::load);
+		cache.get("B", this::load);
+		cache.invalidate("A");
+		assertThat(cache.get("A", this::load)).isEqualTo(3);
+		assertThat(cache.get("B", this::load)).isEqualTo(2);
+	}
+
+	@Test
+	void testValueLoadedDuringAnInvalidationIsNotKept() {
+		assertThat(cache.get("A", () -> {
+			cache.invalidate("A");
+			return load();
+		})).isEqualTo(1);
+		assertThat(cache.get("A", this::load)).isEqualTo(2);
+		assertThat(cache.get("A", this::load)).isEqualTo(2);
+	}
+
+	@Test
+	void testTransactionDoesNotKeepTheValuesItInvalidated() {
+		cache.get("B", this::load);
+		TransactionSynchronizationManager.initSynchronization();
+		cache.invalidate("A");
+		cache.invalidate("A");
+		assertThat(TransactionSynchronizationManager.getSynchronizations()).hasSize(1);
+		assertThat(cache.get("A", this::load)).isEqualTo(2);
+		assertThat(cache.get("A", this::load)).isEqualTo(3);
+		assertThat(cache.get("B", this::load)).isEqualTo(1);
+
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+		}
+		TransactionSynchronizationManager.clearSynchronization();
+		assertThat(cache.get("A", this::load)).isEqualTo(4);
+		assertThat(cache.get("A", this::load)).isEqualTo(4);
+	}
+
+	@Test
+	void testCompletionDropsTheValuesLoadedByOtherTransactions() {
+		TransactionSynchronizationManager.initSynchronization();
+		cache.invalidate("A");
+		TransactionSynchronization invalidation = TransactionSynchronizationManager.getSynchronizations().get(0);
+		TransactionSynchronizationManager.clearSynchronization();
+
+		// another transaction loads the value before the invalidating one completes
+		assertThat(cache.get("A", this::load)).isEqualTo(1);
+		invalidation.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+		assertThat(cache.get("A", this::load)).isEqualTo(2);
+	}
+}
@@ -106,6 +106,7 @@ class Tests extends OHCoreTestCase {
 		Patient patient = new Patient();
 		patient.setBirthDate(LocalDate.now().minusYears(45));
 		patientIoOperationRepository.save(patient);
+		assertThat(wardIoOperation.getCurrentOccupation(ward)).isZero();
 		LocalDateTime admDate = TimeTools.getNow();
 		AdmissionType admissionType = new AdmissionType("ZZ", "TestDescription");
 		Admission admission1 = new Admission(0, 1, "N", ward, 0, patient, admDate, admissionType,